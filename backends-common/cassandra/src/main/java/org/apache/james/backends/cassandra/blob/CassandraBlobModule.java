@@ -0,0 +1,83 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.backends.cassandra.blob;
+
+import static com.datastax.driver.core.DataType.bigint;
+import static com.datastax.driver.core.DataType.blob;
+import static com.datastax.driver.core.DataType.cint;
+import static com.datastax.driver.core.DataType.text;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.james.backends.cassandra.components.CassandraIndex;
+import org.apache.james.backends.cassandra.components.CassandraModule;
+import org.apache.james.backends.cassandra.components.CassandraTable;
+import org.apache.james.backends.cassandra.components.CassandraType;
+
+import com.datastax.driver.core.schemabuilder.SchemaBuilder;
+
+public class CassandraBlobModule implements CassandraModule {
+
+    private final List<CassandraTable> tables;
+    private final List<CassandraIndex> index;
+    private final List<CassandraType> types;
+
+    public CassandraBlobModule() {
+        tables = Arrays.asList(
+            new CassandraTable(CassandraBlobTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraBlobTable.TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(CassandraBlobTable.ID, text())
+                    .addColumn(CassandraBlobTable.CHUNK_COUNT, cint())
+                    .addColumn(CassandraBlobTable.SIZE, bigint())
+                    .addColumn(CassandraBlobTable.CONTENT_HASH, text())),
+            new CassandraTable(CassandraBlobPartsTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraBlobPartsTable.TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(CassandraBlobPartsTable.ID, text())
+                    .addPartitionKey(CassandraBlobPartsTable.CHUNK_NUMBER, cint())
+                    .addColumn(CassandraBlobPartsTable.DATA, blob())),
+            new CassandraTable(CassandraBlobReferencesTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraBlobReferencesTable.TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(CassandraBlobReferencesTable.CONTENT_HASH, text())
+                    .addColumn(CassandraBlobReferencesTable.BLOB_ID, text())
+                    .addColumn(CassandraBlobReferencesTable.REFERENCE_COUNT, cint())));
+        index = Collections.emptyList();
+        types = Collections.emptyList();
+    }
+
+    @Override
+    public List<CassandraTable> moduleTables() {
+        return tables;
+    }
+
+    @Override
+    public List<CassandraIndex> moduleIndex() {
+        return index;
+    }
+
+    @Override
+    public List<CassandraType> moduleTypes() {
+        return types;
+    }
+}
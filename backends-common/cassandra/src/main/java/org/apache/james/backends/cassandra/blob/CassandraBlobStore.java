@@ -0,0 +1,360 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.backends.cassandra.blob;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
+import org.apache.james.backends.cassandra.utils.CompletableFutureUtil;
+import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Stores binary content as fixed-size chunks, each chunk living in its own partition.
+ *
+ * Content is written chunk by chunk from an {@link InputStream}, the next chunk being read only once there is room among
+ * the {@link #MAX_CHUNKS_IN_FLIGHT} chunks being written. It is read back through an {@link InputStream} fetching chunks
+ * on demand. Neither writing nor reading a blob hence requires to hold it entirely in memory.
+ *
+ * The blob row, holding the chunk count, is written once all chunks are: a blob is never visible partially written.
+ *
+ * Blobs saved through {@link #saveDeduplicated(ContentSupplier)} are content addressed: content already stored under
+ * the same SHA-256 hash is not written again, a reference count being incremented instead. Such blobs are shared with
+ * {@link #retain(String)} and given back with {@link #release(String)}, which deletes them once no reference is left.
+ * Reference counts are updated with lightweight transactions, and the reference row is only created once the content
+ * is fully written: a blob found through its hash can always be read.
+ */
+public class CassandraBlobStore {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_RETRIES = 1000;
+    public static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
+    @FunctionalInterface
+    public interface ContentSupplier {
+        InputStream open() throws IOException;
+    }
+
+    private final CassandraAsyncExecutor executor;
+    private final int chunkSize;
+    private final int maxRetries;
+    private final PreparedStatement insertBlob;
+    private final PreparedStatement insertContentAddressedBlob;
+    private final PreparedStatement insertPart;
+    private final PreparedStatement selectChunkCount;
+    private final PreparedStatement selectPart;
+    private final PreparedStatement deleteBlob;
+    private final PreparedStatement deletePart;
+    private final PreparedStatement selectContentHash;
+    private final PreparedStatement insertReference;
+    private final PreparedStatement selectReference;
+    private final PreparedStatement updateReferenceCount;
+    private final PreparedStatement deleteReference;
+
+    public CassandraBlobStore(Session session, CassandraAsyncExecutor executor, int chunkSize, int maxRetries) {
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize should be positive");
+        Preconditions.checkArgument(maxRetries > 0, "maxRetries should be positive");
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.maxRetries = maxRetries;
+        this.insertBlob = session.prepare(insertInto(CassandraBlobTable.TABLE_NAME)
+            .value(CassandraBlobTable.ID, bindMarker())
+            .value(CassandraBlobTable.CHUNK_COUNT, bindMarker())
+            .value(CassandraBlobTable.SIZE, bindMarker()));
+        this.insertContentAddressedBlob = session.prepare(insertInto(CassandraBlobTable.TABLE_NAME)
+            .value(CassandraBlobTable.ID, bindMarker())
+            .value(CassandraBlobTable.CHUNK_COUNT, bindMarker())
+            .value(CassandraBlobTable.SIZE, bindMarker())
+            .value(CassandraBlobTable.CONTENT_HASH, bindMarker()));
+        this.insertPart = session.prepare(insertInto(CassandraBlobPartsTable.TABLE_NAME)
+            .value(CassandraBlobPartsTable.ID, bindMarker())
+            .value(CassandraBlobPartsTable.CHUNK_NUMBER, bindMarker())
+            .value(CassandraBlobPartsTable.DATA, bindMarker()));
+        this.selectChunkCount = session.prepare(select(CassandraBlobTable.CHUNK_COUNT)
+            .from(CassandraBlobTable.TABLE_NAME)
+            .where(eq(CassandraBlobTable.ID, bindMarker())));
+        this.selectPart = session.prepare(select(CassandraBlobPartsTable.DATA)
+            .from(CassandraBlobPartsTable.TABLE_NAME)
+            .where(eq(CassandraBlobPartsTable.ID, bindMarker()))
+            .and(eq(CassandraBlobPartsTable.CHUNK_NUMBER, bindMarker())));
+        this.deleteBlob = session.prepare(QueryBuilder.delete()
+            .from(CassandraBlobTable.TABLE_NAME)
+            .where(eq(CassandraBlobTable.ID, bindMarker())));
+        this.deletePart = session.prepare(QueryBuilder.delete()
+            .from(CassandraBlobPartsTable.TABLE_NAME)
+            .where(eq(CassandraBlobPartsTable.ID, bindMarker()))
+            .and(eq(CassandraBlobPartsTable.CHUNK_NUMBER, bindMarker())));
+        this.selectContentHash = session.prepare(select(CassandraBlobTable.CONTENT_HASH)
+            .from(CassandraBlobTable.TABLE_NAME)
+            .where(eq(CassandraBlobTable.ID, bindMarker())));
+        this.insertReference = session.prepare(insertInto(CassandraBlobReferencesTable.TABLE_NAME)
+            .value(CassandraBlobReferencesTable.CONTENT_HASH, bindMarker())
+            .value(CassandraBlobReferencesTable.BLOB_ID, bindMarker())
+            .value(CassandraBlobReferencesTable.REFERENCE_COUNT, 1)
+            .ifNotExists());
+        this.selectReference = session.prepare(select(CassandraBlobReferencesTable.BLOB_ID, CassandraBlobReferencesTable.REFERENCE_COUNT)
+            .from(CassandraBlobReferencesTable.TABLE_NAME)
+            .where(eq(CassandraBlobReferencesTable.CONTENT_HASH, bindMarker())));
+        this.updateReferenceCount = session.prepare(update(CassandraBlobReferencesTable.TABLE_NAME)
+            .with(set(CassandraBlobReferencesTable.REFERENCE_COUNT, bindMarker()))
+            .where(eq(CassandraBlobReferencesTable.CONTENT_HASH, bindMarker()))
+            .onlyIf(eq(CassandraBlobReferencesTable.REFERENCE_COUNT, bindMarker())));
+        this.deleteReference = session.prepare(QueryBuilder.delete()
+            .from(CassandraBlobReferencesTable.TABLE_NAME)
+            .where(eq(CassandraBlobReferencesTable.CONTENT_HASH, bindMarker()))
+            .onlyIf(eq(CassandraBlobReferencesTable.REFERENCE_COUNT, bindMarker())));
+    }
+
+    public CassandraBlobStore(Session session, CassandraAsyncExecutor executor, int chunkSize) {
+        this(session, executor, chunkSize, DEFAULT_MAX_RETRIES);
+    }
+
+    public CassandraBlobStore(Session session, CassandraAsyncExecutor executor) {
+        this(session, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    public CompletableFuture<String> save(InputStream data) {
+        return save(data, Optional.empty());
+    }
+
+    /**
+     * Saves the content only if no blob with the same content is already stored, and takes a reference on the blob.
+     *
+     * The content is read twice when it needs to be written: once for computing its hash, once for writing it.
+     */
+    public CompletableFuture<String> saveDeduplicated(ContentSupplier content) {
+        String contentHash;
+        try (InputStream data = content.open()) {
+            contentHash = hash(data);
+        } catch (IOException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e);
+        }
+        return saveDeduplicated(content, contentHash, maxRetries);
+    }
+
+    /**
+     * Takes an additional reference on a blob saved by {@link #saveDeduplicated(ContentSupplier)}.
+     *
+     * @return the id of the referenced blob, or nothing if the blob is not content addressed or is no longer stored.
+     */
+    public CompletableFuture<Optional<String>> retain(String blobId) {
+        return executor.execute(selectContentHash.bind(blobId))
+            .thenCompose(resultSet -> Optional.ofNullable(resultSet.one())
+                .flatMap(row -> Optional.ofNullable(row.getString(CassandraBlobTable.CONTENT_HASH)))
+                .map(contentHash -> retainReference(contentHash, maxRetries))
+                .orElse(CompletableFuture.completedFuture(Optional.empty())));
+    }
+
+    /**
+     * Gives back a reference on a blob, deleting it when it was the last one. Blobs that are not content addressed are
+     * deleted right away.
+     */
+    public CompletableFuture<Void> release(String blobId) {
+        return executor.execute(selectContentHash.bind(blobId))
+            .thenCompose(resultSet -> {
+                Row row = resultSet.one();
+                if (row == null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return Optional.ofNullable(row.getString(CassandraBlobTable.CONTENT_HASH))
+                    .map(contentHash -> releaseReference(contentHash, blobId, maxRetries))
+                    .orElseGet(() -> delete(blobId));
+            });
+    }
+
+    private CompletableFuture<String> save(InputStream data, Optional<String> contentHash) {
+        String blobId = UUID.randomUUID().toString();
+        Deque<CompletableFuture<Void>> chunksInFlight = new ArrayDeque<>();
+        int chunkNumber = 0;
+        long size = 0;
+        try {
+            Optional<byte[]> chunk = readChunk(data);
+            while (chunk.isPresent()) {
+                chunksInFlight.add(executor.executeVoid(insertPart.bind(blobId, chunkNumber, ByteBuffer.wrap(chunk.get()))));
+                chunkNumber++;
+                size += chunk.get().length;
+                if (chunksInFlight.size() >= MAX_CHUNKS_IN_FLIGHT) {
+                    chunksInFlight.poll().join();
+                }
+                chunk = readChunk(data);
+            }
+        } catch (IOException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e);
+        } catch (CompletionException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e.getCause());
+        }
+        int chunkCount = chunkNumber;
+        long blobSize = size;
+        return CompletableFuture.allOf(chunksInFlight.toArray(new CompletableFuture[chunksInFlight.size()]))
+            .thenCompose(any -> executor.executeVoid(contentHash
+                .map(hash -> insertContentAddressedBlob.bind(blobId, chunkCount, blobSize, hash))
+                .orElseGet(() -> insertBlob.bind(blobId, chunkCount, blobSize))))
+            .thenApply(any -> blobId);
+    }
+
+    private CompletableFuture<String> saveDeduplicated(ContentSupplier content, String contentHash, int remainingRetries) {
+        if (remainingRetries <= 0) {
+            return CompletableFutureUtil.exceptionallyFuture(new LightweightTransactionException(maxRetries));
+        }
+        return retainReference(contentHash, maxRetries)
+            .thenComposeAsync(blobId -> blobId
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> saveReferenced(content, contentHash, remainingRetries)),
+                executor.getBlockingExecutor());
+    }
+
+    private CompletableFuture<String> saveReferenced(ContentSupplier content, String contentHash, int remainingRetries) {
+        CompletableFuture<String> savedBlob;
+        try (InputStream data = content.open()) {
+            savedBlob = save(data, Optional.of(contentHash));
+        } catch (IOException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e);
+        }
+        return savedBlob.thenCompose(blobId -> executor.executeReturnApplied(insertReference.bind(contentHash, blobId))
+            .thenCompose(applied -> {
+                if (applied) {
+                    return CompletableFuture.completedFuture(blobId);
+                }
+                return delete(blobId)
+                    .thenCompose(any -> saveDeduplicated(content, contentHash, remainingRetries - 1));
+            }));
+    }
+
+    private CompletableFuture<Optional<String>> retainReference(String contentHash, int remainingRetries) {
+        if (remainingRetries <= 0) {
+            return CompletableFutureUtil.exceptionallyFuture(new LightweightTransactionException(maxRetries));
+        }
+        return executor.execute(selectReference.bind(contentHash))
+            .thenCompose(resultSet -> {
+                Row row = resultSet.one();
+                if (row == null) {
+                    return CompletableFuture.completedFuture(Optional.empty());
+                }
+                int referenceCount = row.getInt(CassandraBlobReferencesTable.REFERENCE_COUNT);
+                String blobId = row.getString(CassandraBlobReferencesTable.BLOB_ID);
+                return executor.executeReturnApplied(updateReferenceCount.bind(referenceCount + 1, contentHash, referenceCount))
+                    .thenCompose(applied -> applied ?
+                        CompletableFuture.completedFuture(Optional.of(blobId)) :
+                        retainReference(contentHash, remainingRetries - 1));
+            });
+    }
+
+    private CompletableFuture<Void> releaseReference(String contentHash, String blobId, int remainingRetries) {
+        if (remainingRetries <= 0) {
+            return CompletableFutureUtil.exceptionallyFuture(new LightweightTransactionException(maxRetries));
+        }
+        return executor.execute(selectReference.bind(contentHash))
+            .thenCompose(resultSet -> {
+                Row row = resultSet.one();
+                if (row == null || !blobId.equals(row.getString(CassandraBlobReferencesTable.BLOB_ID))) {
+                    return delete(blobId);
+                }
+                int referenceCount = row.getInt(CassandraBlobReferencesTable.REFERENCE_COUNT);
+                if (referenceCount > 1) {
+                    return executor.executeReturnApplied(updateReferenceCount.bind(referenceCount - 1, contentHash, referenceCount))
+                        .thenCompose(applied -> applied ?
+                            CompletableFuture.completedFuture(null) :
+                            releaseReference(contentHash, blobId, remainingRetries - 1));
+                }
+                return executor.executeReturnApplied(deleteReference.bind(contentHash, referenceCount))
+                    .thenCompose(applied -> applied ?
+                        delete(blobId) :
+                        releaseReference(contentHash, blobId, remainingRetries - 1));
+            });
+    }
+
+    public InputStream read(String blobId) {
+        return new ChunkedBlobInputStream(this, blobId);
+    }
+
+    public CompletableFuture<Void> delete(String blobId) {
+        return retrieveChunkCount(blobId)
+            .thenCompose(chunkCount -> executor.executeVoid(deleteBlob.bind(blobId))
+                .thenCompose(any -> CompletableFutureUtil.allOf(
+                    IntStream.range(0, chunkCount.orElse(0))
+                        .mapToObj(chunkNumber -> executor.executeVoid(deletePart.bind(blobId, chunkNumber)))
+                        .collect(Collectors.toList()))))
+            .thenApply(any -> null);
+    }
+
+    CompletableFuture<Optional<Integer>> retrieveChunkCount(String blobId) {
+        return executor.execute(selectChunkCount.bind(blobId))
+            .thenApply(resultSet -> Optional.ofNullable(resultSet.one())
+                .map(row -> row.getInt(CassandraBlobTable.CHUNK_COUNT)));
+    }
+
+    CompletableFuture<Optional<byte[]>> retrieveChunk(String blobId, int chunkNumber) {
+        return executor.execute(selectPart.bind(blobId, chunkNumber))
+            .thenApply(resultSet -> Optional.ofNullable(resultSet.one())
+                .map(row -> toByteArray(row.getBytes(CassandraBlobPartsTable.DATA))));
+    }
+
+    private Optional<byte[]> readChunk(InputStream data) throws IOException {
+        byte[] buffer = new byte[chunkSize];
+        int length = ByteStreams.read(data, buffer, 0, chunkSize);
+        if (length == 0) {
+            return Optional.empty();
+        }
+        if (length < chunkSize) {
+            byte[] chunk = new byte[length];
+            System.arraycopy(buffer, 0, chunk, 0, length);
+            return Optional.of(chunk);
+        }
+        return Optional.of(buffer);
+    }
+
+    private String hash(InputStream data) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        ByteStreams.copy(data, Funnels.asOutputStream(hasher));
+        return hasher.hash().toString();
+    }
+
+    private byte[] toByteArray(ByteBuffer byteBuffer) {
+        byte[] content = new byte[byteBuffer.remaining()];
+        byteBuffer.get(content);
+        return content;
+    }
+}
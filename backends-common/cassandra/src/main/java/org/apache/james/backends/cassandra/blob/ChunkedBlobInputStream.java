@@ -0,0 +1,129 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.backends.cassandra.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * {@link InputStream} over a blob of a {@link CassandraBlobStore}.
+ *
+ * Only one chunk is held at a time. The next chunk is requested as soon as the current one is available, so that
+ * reading a chunk overlaps with fetching the next one.
+ *
+ * This implementation is not thread-safe.
+ */
+class ChunkedBlobInputStream extends InputStream {
+
+    private final CassandraBlobStore blobStore;
+    private final String blobId;
+    private Integer chunkCount;
+    private int nextChunkNumber;
+    private CompletableFuture<Optional<byte[]>> nextChunk;
+    private byte[] chunk;
+    private int position;
+
+    ChunkedBlobInputStream(CassandraBlobStore blobStore, String blobId) {
+        this.blobStore = blobStore;
+        this.blobId = blobId;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureChunkAvailable()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureChunkAvailable()) {
+            return -1;
+        }
+        int readLength = Math.min(length, chunk.length - position);
+        System.arraycopy(chunk, position, buffer, offset, readLength);
+        position += readLength;
+        return readLength;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (chunk == null) {
+            return 0;
+        }
+        return chunk.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        nextChunk = null;
+        chunkCount = 0;
+    }
+
+    private boolean ensureChunkAvailable() throws IOException {
+        while (chunk == null || position >= chunk.length) {
+            if (!fetchNextChunk()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fetchNextChunk() throws IOException {
+        if (chunkCount == null) {
+            chunkCount = join(blobStore.retrieveChunkCount(blobId))
+                .orElseThrow(() -> new IOException("Blob " + blobId + " can not be found"));
+            nextChunk = requestChunk(0);
+        }
+        if (nextChunkNumber >= chunkCount) {
+            return false;
+        }
+        int chunkNumber = nextChunkNumber;
+        chunk = join(nextChunk)
+            .orElseThrow(() -> new IOException("Chunk " + chunkNumber + " of blob " + blobId + " can not be found"));
+        position = 0;
+        nextChunkNumber++;
+        nextChunk = requestChunk(nextChunkNumber);
+        return true;
+    }
+
+    private CompletableFuture<Optional<byte[]>> requestChunk(int chunkNumber) {
+        if (chunkNumber >= chunkCount) {
+            return null;
+        }
+        return blobStore.retrieveChunk(blobId, chunkNumber);
+    }
+
+    private <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IOException("Unable to read blob " + blobId, e.getCause());
+        }
+    }
+}
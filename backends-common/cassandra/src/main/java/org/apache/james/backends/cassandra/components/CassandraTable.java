@@ -19,16 +19,30 @@
 
 package org.apache.james.backends.cassandra.components;
 
+import java.util.Map;
+
+import com.datastax.driver.core.DataType;
 import com.datastax.driver.core.schemabuilder.Create;
+import com.google.common.collect.ImmutableMap;
 
 public class CassandraTable {
 
     private final Create createStatement;
     private final String name;
+    private final Map<String, DataType> addedColumns;
 
     public CassandraTable(String name, Create createStatement) {
+        this(name, createStatement, ImmutableMap.of());
+    }
+
+    /**
+     * @param addedColumns columns added to the table since its first release. Tables created before miss them, they
+     *                     are altered to add them.
+     */
+    public CassandraTable(String name, Create createStatement, Map<String, DataType> addedColumns) {
         this.createStatement = createStatement;
         this.name = name;
+        this.addedColumns = ImmutableMap.copyOf(addedColumns);
     }
 
     public Create getCreateStatement() {
@@ -38,4 +52,8 @@ public class CassandraTable {
     public String getName() {
         return name;
     }
+
+    public Map<String, DataType> getAddedColumns() {
+        return addedColumns;
+    }
 }
@@ -20,8 +20,11 @@
 package org.apache.james.backends.cassandra.init;
 
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.schemabuilder.SchemaBuilder;
 import org.apache.james.backends.cassandra.components.CassandraModule;
+import org.apache.james.backends.cassandra.components.CassandraTable;
 
 public class CassandraTableManager {
 
@@ -35,12 +38,30 @@ public class CassandraTableManager {
 
     public CassandraTableManager ensureAllTables() {
         module.moduleTables().stream()
-            .forEach(table -> session.execute(table.getCreateStatement()));
+            .forEach(table -> {
+                session.execute(table.getCreateStatement());
+                addMissingColumns(table);
+            });
         module.moduleIndex().stream()
             .forEach(index -> session.execute(index.getCreateIndexStatement()));
         return this;
     }
 
+    private void addMissingColumns(CassandraTable table) {
+        TableMetadata tableMetadata = session.getCluster()
+            .getMetadata()
+            .getKeyspace(session.getLoggedKeyspace())
+            .getTable(table.getName());
+        if (tableMetadata == null) {
+            return;
+        }
+        table.getAddedColumns().entrySet().stream()
+            .filter(column -> tableMetadata.getColumn(column.getKey()) == null)
+            .forEach(column -> session.execute(SchemaBuilder.alterTable(table.getName())
+                .addColumn(column.getKey())
+                .type(column.getValue())));
+    }
+
     public void clearAllTables() {
         module.moduleTables().stream()
             .forEach(table -> clearTable(table.getName()));
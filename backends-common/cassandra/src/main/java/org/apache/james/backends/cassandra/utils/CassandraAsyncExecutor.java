@@ -0,0 +1,249 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.backends.cassandra.utils;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Executes statements through {@link Session#executeAsync(Statement)} and exposes the results as {@link CompletableFuture}.
+ *
+ * The number of requests sent to Cassandra at the same time is bounded : statements submitted while all slots are used are
+ * queued, and sent as soon as a running request completes. The queue is bounded as well : once it is full, submitting
+ * blocks the caller until a queued statement is sent.
+ *
+ * Returned futures are completed on driver I/O threads. Statements submitted from their continuations are queued without
+ * waiting, as blocking there would prevent the completion of the very requests freeing the slots. Callers must not block
+ * in these continuations either, and should run blocking work on {@link #getBlockingExecutor()}.
+ *
+ * Both limits can be changed while statements are executed. {@link #close()} stops the blocking executor.
+ */
+public class CassandraAsyncExecutor implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 128;
+    public static final int DEFAULT_MAX_PENDING_STATEMENTS = 1024;
+    public static final int MAX_BLOCKING_THREADS = 32;
+    private static final long BLOCKING_THREAD_KEEP_ALIVE_IN_SECONDS = 60;
+
+    private static final ThreadLocal<Boolean> COMPLETING_REQUEST = ThreadLocal.withInitial(() -> false);
+
+    private final Session session;
+    private final ResizableSemaphore inFlightRequests;
+    private final ResizableSemaphore pendingSlots;
+    private final Queue<PendingStatement> pendingStatements;
+    private final ExecutorService blockingExecutor;
+
+    public CassandraAsyncExecutor(Session session, int maxInFlightRequests, int maxPendingStatements) {
+        Preconditions.checkArgument(maxInFlightRequests > 0, "maxInFlightRequests should be positive");
+        Preconditions.checkArgument(maxPendingStatements > 0, "maxPendingStatements should be positive");
+        this.session = session;
+        this.inFlightRequests = new ResizableSemaphore(maxInFlightRequests);
+        this.pendingSlots = new ResizableSemaphore(maxPendingStatements);
+        this.pendingStatements = new ConcurrentLinkedQueue<>();
+        ThreadPoolExecutor blockingThreadPool = new ThreadPoolExecutor(MAX_BLOCKING_THREADS, MAX_BLOCKING_THREADS,
+            BLOCKING_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cassandra-blocking-continuation-%d")
+                .build());
+        blockingThreadPool.allowCoreThreadTimeOut(true);
+        this.blockingExecutor = blockingThreadPool;
+    }
+
+    public CassandraAsyncExecutor(Session session, int maxInFlightRequests) {
+        this(session, maxInFlightRequests, DEFAULT_MAX_PENDING_STATEMENTS);
+    }
+
+    public CassandraAsyncExecutor(Session session) {
+        this(session, DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+    }
+
+    public CompletableFuture<ResultSet> execute(Statement statement) {
+        boolean holdsPendingSlot;
+        try {
+            holdsPendingSlot = acquirePendingSlot();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFutureUtil.exceptionallyFuture(e);
+        }
+        PendingStatement pendingStatement = new PendingStatement(statement, holdsPendingSlot);
+        pendingStatements.add(pendingStatement);
+        submitPendingStatements();
+        return pendingStatement.result;
+    }
+
+    /**
+     * Changes the number of requests sent to Cassandra at the same time. Requests already sent are not affected : when
+     * the limit is lowered, new requests wait until enough of them complete.
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        Preconditions.checkArgument(maxInFlightRequests > 0, "maxInFlightRequests should be positive");
+        inFlightRequests.resize(maxInFlightRequests);
+        submitPendingStatements();
+    }
+
+    /**
+     * Changes the number of statements queued while all in flight slots are used.
+     */
+    public void setMaxPendingStatements(int maxPendingStatements) {
+        Preconditions.checkArgument(maxPendingStatements > 0, "maxPendingStatements should be positive");
+        pendingSlots.resize(maxPendingStatements);
+    }
+
+    private boolean acquirePendingSlot() throws InterruptedException {
+        if (COMPLETING_REQUEST.get()) {
+            return pendingSlots.tryAcquire();
+        }
+        pendingSlots.acquire();
+        return true;
+    }
+
+    public CompletableFuture<Boolean> executeReturnApplied(Statement statement) {
+        return execute(statement)
+            .thenApply(resultSet -> resultSet.one().getBool(CassandraConstants.LIGHTWEIGHT_TRANSACTION_APPLIED));
+    }
+
+    public CompletableFuture<Void> executeVoid(Statement statement) {
+        return execute(statement)
+            .thenAccept(resultSet -> {});
+    }
+
+    /**
+     * Executor for continuations blocking on synchronous requests or on content streams, which must not run on driver
+     * I/O threads. It runs at most {@link #MAX_BLOCKING_THREADS} continuations at the same time, and its idle threads are
+     * reclaimed.
+     */
+    public Executor getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    /**
+     * Stops the blocking executor. Continuations already submitted to it still run.
+     */
+    @Override
+    public void close() {
+        blockingExecutor.shutdown();
+    }
+
+    public int getPendingStatementCount() {
+        return pendingStatements.size();
+    }
+
+    private void submitPendingStatements() {
+        while (!pendingStatements.isEmpty() && inFlightRequests.tryAcquire()) {
+            PendingStatement next = pendingStatements.poll();
+            if (next == null) {
+                inFlightRequests.release();
+                return;
+            }
+            if (next.holdsPendingSlot) {
+                pendingSlots.release();
+            }
+            submit(next);
+        }
+    }
+
+    private void submit(PendingStatement pendingStatement) {
+        ResultSetFuture future;
+        try {
+            future = session.executeAsync(pendingStatement.statement);
+        } catch (RuntimeException e) {
+            onRequestCompletion();
+            pendingStatement.result.completeExceptionally(e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                onRequestCompletion();
+                complete(() -> pendingStatement.result.complete(resultSet));
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                onRequestCompletion();
+                complete(() -> pendingStatement.result.completeExceptionally(throwable));
+            }
+        });
+    }
+
+    private void complete(Runnable completion) {
+        boolean nested = COMPLETING_REQUEST.get();
+        COMPLETING_REQUEST.set(true);
+        try {
+            completion.run();
+        } finally {
+            COMPLETING_REQUEST.set(nested);
+        }
+    }
+
+    private void onRequestCompletion() {
+        inFlightRequests.release();
+        submitPendingStatements();
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+        private int permits;
+
+        private ResizableSemaphore(int permits) {
+            super(permits);
+            this.permits = permits;
+        }
+
+        private synchronized void resize(int newPermits) {
+            int delta = newPermits - permits;
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
+            }
+            permits = newPermits;
+        }
+    }
+
+    private static class PendingStatement {
+        private final Statement statement;
+        private final boolean holdsPendingSlot;
+        private final CompletableFuture<ResultSet> result;
+
+        private PendingStatement(Statement statement, boolean holdsPendingSlot) {
+            this.statement = statement;
+            this.holdsPendingSlot = holdsPendingSlot;
+            this.result = new CompletableFuture<>();
+        }
+    }
+}
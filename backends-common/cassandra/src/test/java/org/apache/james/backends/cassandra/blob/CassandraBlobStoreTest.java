@@ -0,0 +1,206 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.backends.cassandra.blob;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+public class CassandraBlobStoreTest {
+
+    private static final int CHUNK_SIZE = 10;
+
+    private CassandraCluster cassandra;
+    private CassandraBlobStore testee;
+
+    @Before
+    public void setUp() {
+        cassandra = CassandraCluster.create(new CassandraBlobModule());
+        cassandra.ensureAllTables();
+        testee = new CassandraBlobStore(cassandra.getConf(), new CassandraAsyncExecutor(cassandra.getConf()), CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        cassandra.clearAllTables();
+    }
+
+    @Test
+    public void readShouldReturnSavedEmptyContent() throws IOException {
+        String blobId = testee.save(new ByteArrayInputStream(new byte[0])).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEmpty();
+    }
+
+    @Test
+    public void readShouldReturnSavedContentSmallerThanAChunk() throws IOException {
+        byte[] content = "small".getBytes(Charsets.UTF_8);
+        String blobId = testee.save(new ByteArrayInputStream(content)).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEqualTo(content);
+    }
+
+    @Test
+    public void readShouldReturnSavedContentSpanningSeveralChunks() throws IOException {
+        byte[] content = Strings.repeat("0123456789abcdef", 10).getBytes(Charsets.UTF_8);
+        String blobId = testee.save(new ByteArrayInputStream(content)).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEqualTo(content);
+    }
+
+    @Test
+    public void readShouldReturnSavedContentWhenSizeIsAMultipleOfChunkSize() throws IOException {
+        byte[] content = Strings.repeat("0123456789", 3).getBytes(Charsets.UTF_8);
+        String blobId = testee.save(new ByteArrayInputStream(content)).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEqualTo(content);
+    }
+
+    @Test
+    public void readShouldReturnUnsignedBytes() throws IOException {
+        String blobId = testee.save(new ByteArrayInputStream(new byte[] {(byte) 0xFF})).join();
+
+        assertThat(testee.read(blobId).read()).isEqualTo(0xFF);
+    }
+
+    @Test(expected = IOException.class)
+    public void readShouldThrowWhenBlobDoesNotExist() throws IOException {
+        testee.read("unknown").read();
+    }
+
+    @Test(expected = IOException.class)
+    public void readShouldThrowWhenBlobWasDeleted() throws IOException {
+        String blobId = testee.save(new ByteArrayInputStream(Strings.repeat("0123456789", 3).getBytes(Charsets.UTF_8))).join();
+
+        testee.delete(blobId).join();
+
+        testee.read(blobId).read();
+    }
+
+    @Test
+    public void saveDeduplicatedShouldReturnSameBlobIdForSameContent() {
+        byte[] content = Strings.repeat("0123456789", 3).getBytes(Charsets.UTF_8);
+
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+
+        assertThat(testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join()).isEqualTo(blobId);
+    }
+
+    @Test
+    public void saveDeduplicatedShouldReturnDistinctBlobIdsForDistinctContents() {
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream("first".getBytes(Charsets.UTF_8))).join();
+
+        assertThat(testee.saveDeduplicated(() -> new ByteArrayInputStream("second".getBytes(Charsets.UTF_8))).join()).isNotEqualTo(blobId);
+    }
+
+    @Test
+    public void readShouldReturnDeduplicatedContent() throws IOException {
+        byte[] content = Strings.repeat("0123456789abcdef", 10).getBytes(Charsets.UTF_8);
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEqualTo(content);
+    }
+
+    @Test
+    public void releaseShouldKeepContentWhileReferenced() throws IOException {
+        byte[] content = Strings.repeat("0123456789", 3).getBytes(Charsets.UTF_8);
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+        testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+
+        testee.release(blobId).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEqualTo(content);
+    }
+
+    @Test(expected = IOException.class)
+    public void releaseShouldDeleteContentWhenLastReferenceIsReleased() throws IOException {
+        byte[] content = Strings.repeat("0123456789", 3).getBytes(Charsets.UTF_8);
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+        testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+
+        testee.release(blobId).join();
+        testee.release(blobId).join();
+
+        testee.read(blobId).read();
+    }
+
+    @Test(expected = IOException.class)
+    public void releaseShouldDeleteBlobsThatAreNotContentAddressed() throws IOException {
+        String blobId = testee.save(new ByteArrayInputStream("content".getBytes(Charsets.UTF_8))).join();
+
+        testee.release(blobId).join();
+
+        testee.read(blobId).read();
+    }
+
+    @Test
+    public void saveDeduplicatedShouldWriteContentAgainOnceReleased() throws IOException {
+        byte[] content = "content".getBytes(Charsets.UTF_8);
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+        testee.release(blobId).join();
+
+        String newBlobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(newBlobId))).isEqualTo(content);
+    }
+
+    @Test
+    public void retainShouldReturnTheReferencedBlob() {
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream("content".getBytes(Charsets.UTF_8))).join();
+
+        assertThat(testee.retain(blobId).join()).contains(blobId);
+    }
+
+    @Test
+    public void retainShouldKeepContentWhenOriginalReferenceIsReleased() throws IOException {
+        byte[] content = "content".getBytes(Charsets.UTF_8);
+        String blobId = testee.saveDeduplicated(() -> new ByteArrayInputStream(content)).join();
+        testee.retain(blobId).join();
+
+        testee.release(blobId).join();
+
+        assertThat(ByteStreams.toByteArray(testee.read(blobId))).isEqualTo(content);
+    }
+
+    @Test
+    public void retainShouldReturnEmptyWhenBlobIsNotContentAddressed() {
+        String blobId = testee.save(new ByteArrayInputStream("content".getBytes(Charsets.UTF_8))).join();
+
+        assertThat(testee.retain(blobId).join()).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void retainShouldReturnEmptyWhenBlobDoesNotExist() {
+        assertThat(testee.retain("unknown").join()).isEqualTo(Optional.empty());
+    }
+
+}
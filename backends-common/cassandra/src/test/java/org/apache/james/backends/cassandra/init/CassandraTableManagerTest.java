@@ -0,0 +1,114 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.backends.cassandra.init;
+
+import static com.datastax.driver.core.DataType.text;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.backends.cassandra.components.CassandraIndex;
+import org.apache.james.backends.cassandra.components.CassandraModule;
+import org.apache.james.backends.cassandra.components.CassandraTable;
+import org.apache.james.backends.cassandra.components.CassandraType;
+import org.junit.After;
+import org.junit.Test;
+
+import com.datastax.driver.core.schemabuilder.SchemaBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class CassandraTableManagerTest {
+
+    private static final String TABLE_NAME = "tablename";
+    private static final String ID = "id";
+    private static final String VALUE = "value";
+    private static final String ADDED_VALUE = "addedValue";
+
+    private CassandraCluster cassandra;
+
+    @After
+    public void tearDown() {
+        cassandra.getConf().execute(SchemaBuilder.dropTable(TABLE_NAME).ifExists());
+    }
+
+    @Test
+    public void ensureAllTablesShouldAddTheMissingColumnsOfExistingTables() {
+        cassandra = CassandraCluster.create(module(new CassandraTable(TABLE_NAME,
+            SchemaBuilder.createTable(TABLE_NAME)
+                .ifNotExists()
+                .addPartitionKey(ID, text())
+                .addColumn(VALUE, text()))));
+        cassandra.ensureAllTables();
+        cassandra.getConf().execute(insertInto(TABLE_NAME).value(ID, "1").value(VALUE, "value"));
+
+        new CassandraTableManager(module(new CassandraTable(TABLE_NAME,
+                SchemaBuilder.createTable(TABLE_NAME)
+                    .ifNotExists()
+                    .addPartitionKey(ID, text())
+                    .addColumn(VALUE, text())
+                    .addColumn(ADDED_VALUE, text()),
+                ImmutableMap.of(ADDED_VALUE, text()))),
+            cassandra.getConf())
+            .ensureAllTables();
+        cassandra.getConf().execute(insertInto(TABLE_NAME).value(ID, "2").value(ADDED_VALUE, "added"));
+
+        assertThat(cassandra.getConf().execute(select(VALUE, ADDED_VALUE).from(TABLE_NAME).where(eq(ID, "1"))).one().getString(VALUE))
+            .isEqualTo("value");
+        assertThat(cassandra.getConf().execute(select(ADDED_VALUE).from(TABLE_NAME).where(eq(ID, "2"))).one().getString(ADDED_VALUE))
+            .isEqualTo("added");
+    }
+
+    @Test
+    public void ensureAllTablesShouldBeIdempotentWhenTablesHaveAddedColumns() {
+        CassandraModule module = module(new CassandraTable(TABLE_NAME,
+            SchemaBuilder.createTable(TABLE_NAME)
+                .ifNotExists()
+                .addPartitionKey(ID, text())
+                .addColumn(ADDED_VALUE, text()),
+            ImmutableMap.of(ADDED_VALUE, text())));
+        cassandra = CassandraCluster.create(module);
+
+        new CassandraTableManager(module, cassandra.getConf()).ensureAllTables();
+        cassandra.getConf().execute(insertInto(TABLE_NAME).value(ID, "1").value(ADDED_VALUE, "added"));
+
+        assertThat(cassandra.getConf().execute(select(ADDED_VALUE).from(TABLE_NAME).where(eq(ID, "1"))).one().getString(ADDED_VALUE))
+            .isEqualTo("added");
+    }
+
+    private CassandraModule module(CassandraTable table) {
+        return new CassandraModule() {
+            @Override public List<CassandraTable> moduleTables() {
+                return ImmutableList.of(table);
+            }
+
+            @Override public List<CassandraIndex> moduleIndex() {
+                return ImmutableList.of();
+            }
+
+            @Override public List<CassandraType> moduleTypes() {
+                return ImmutableList.of();
+            }
+        };
+    }
+}
@@ -0,0 +1,199 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.backends.cassandra.utils;
+
+import static com.datastax.driver.core.DataType.cint;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.backends.cassandra.components.CassandraIndex;
+import org.apache.james.backends.cassandra.components.CassandraModule;
+import org.apache.james.backends.cassandra.components.CassandraTable;
+import org.apache.james.backends.cassandra.components.CassandraType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.schemabuilder.SchemaBuilder;
+import com.google.common.collect.ImmutableList;
+
+public class CassandraAsyncExecutorTest {
+
+    private static final String TABLE_NAME = "asyncexecutortest";
+    private static final String ID = "id";
+    private static final int STATEMENT_COUNT = 100;
+
+    private CassandraCluster cassandra;
+
+    @Before
+    public void setUp() {
+        cassandra = CassandraCluster.create(new CassandraModule() {
+            @Override public List<CassandraTable> moduleTables() {
+                return ImmutableList.of(new CassandraTable(TABLE_NAME,
+                    SchemaBuilder.createTable(TABLE_NAME)
+                        .ifNotExists()
+                        .addPartitionKey(ID, cint())));
+            }
+
+            @Override public List<CassandraIndex> moduleIndex() {
+                return ImmutableList.of();
+            }
+
+            @Override public List<CassandraType> moduleTypes() {
+                return ImmutableList.of();
+            }
+        });
+        cassandra.ensureAllTables();
+    }
+
+    @After
+    public void tearDown() {
+        cassandra.clearAllTables();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowOnNonPositiveMaxInFlightRequests() {
+        new CassandraAsyncExecutor(cassandra.getConf(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowOnNonPositiveMaxPendingStatements() {
+        new CassandraAsyncExecutor(cassandra.getConf(), 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxInFlightRequestsShouldThrowOnNonPositiveValue() {
+        new CassandraAsyncExecutor(cassandra.getConf()).setMaxInFlightRequests(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxPendingStatementsShouldThrowOnNonPositiveValue() {
+        new CassandraAsyncExecutor(cassandra.getConf()).setMaxPendingStatements(0);
+    }
+
+    @Test
+    public void executeShouldRunAllStatementsWhenLimitsAreLowered() {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf(), 8, 8);
+        executor.setMaxInFlightRequests(1);
+        executor.setMaxPendingStatements(1);
+        AtomicInteger maxPendingStatements = new AtomicInteger();
+
+        List<CompletableFuture<Void>> futures = IntStream.range(0, STATEMENT_COUNT)
+            .mapToObj(i -> {
+                CompletableFuture<Void> future = executor.executeVoid(insertInto(TABLE_NAME).value(ID, i));
+                maxPendingStatements.accumulateAndGet(executor.getPendingStatementCount(), Math::max);
+                return future;
+            })
+            .collect(Collectors.toList());
+        CompletableFutureUtil.allOf(futures).join();
+
+        assertThat(maxPendingStatements.get()).isLessThanOrEqualTo(1);
+        assertThat(cassandra.getConf().execute(select(ID).from(TABLE_NAME)).all()).hasSize(STATEMENT_COUNT);
+    }
+
+    @Test
+    public void executeShouldSendQueuedStatementsWhenMaxInFlightRequestsIsRaised() {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf(), 1);
+        executor.setMaxInFlightRequests(16);
+
+        List<CompletableFuture<Void>> futures = IntStream.range(0, STATEMENT_COUNT)
+            .mapToObj(i -> executor.executeVoid(insertInto(TABLE_NAME).value(ID, i)))
+            .collect(Collectors.toList());
+        CompletableFutureUtil.allOf(futures).join();
+
+        assertThat(cassandra.getConf().execute(select(ID).from(TABLE_NAME)).all()).hasSize(STATEMENT_COUNT);
+        assertThat(executor.getPendingStatementCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void closeShouldStopTheBlockingExecutor() {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf());
+
+        executor.close();
+
+        assertThatThrownBy(() -> executor.getBlockingExecutor().execute(() -> {}))
+            .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    public void executeShouldBlockCallersWhenPendingStatementsAreBounded() {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf(), 1, 1);
+        AtomicInteger maxPendingStatements = new AtomicInteger();
+
+        List<CompletableFuture<Void>> futures = IntStream.range(0, STATEMENT_COUNT)
+            .mapToObj(i -> {
+                CompletableFuture<Void> future = executor.executeVoid(insertInto(TABLE_NAME).value(ID, i));
+                maxPendingStatements.accumulateAndGet(executor.getPendingStatementCount(), Math::max);
+                return future;
+            })
+            .collect(Collectors.toList());
+        CompletableFutureUtil.allOf(futures).join();
+
+        assertThat(maxPendingStatements.get()).isLessThanOrEqualTo(1);
+        assertThat(cassandra.getConf().execute(select(ID).from(TABLE_NAME)).all()).hasSize(STATEMENT_COUNT);
+    }
+
+    @Test
+    public void executeShouldNotBlockContinuationsWhenPendingStatementsAreBounded() throws Exception {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf(), 1, 1);
+
+        executor.executeVoid(insertInto(TABLE_NAME).value(ID, -1))
+            .thenCompose(any -> CompletableFutureUtil.allOf(IntStream.range(0, STATEMENT_COUNT)
+                .mapToObj(i -> executor.executeVoid(insertInto(TABLE_NAME).value(ID, i)))
+                .collect(Collectors.toList())))
+            .get(1, TimeUnit.MINUTES);
+
+        assertThat(cassandra.getConf().execute(select(ID).from(TABLE_NAME)).all()).hasSize(STATEMENT_COUNT + 1);
+        assertThat(executor.getPendingStatementCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void executeShouldRunAllQueuedStatementsWhenConcurrencyIsBounded() {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf(), 1);
+
+        List<CompletableFuture<Void>> futures = IntStream.range(0, STATEMENT_COUNT)
+            .mapToObj(i -> executor.executeVoid(insertInto(TABLE_NAME).value(ID, i)))
+            .collect(Collectors.toList());
+        CompletableFutureUtil.allOf(futures).join();
+
+        assertThat(cassandra.getConf().execute(select(ID).from(TABLE_NAME)).all()).hasSize(STATEMENT_COUNT);
+        assertThat(executor.getPendingStatementCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void executeReturnAppliedShouldReflectLightweightTransactionResult() {
+        CassandraAsyncExecutor executor = new CassandraAsyncExecutor(cassandra.getConf());
+
+        assertThat(executor.executeReturnApplied(insertInto(TABLE_NAME).value(ID, 1).ifNotExists()).join()).isTrue();
+        assertThat(executor.executeReturnApplied(insertInto(TABLE_NAME).value(ID, 1).ifNotExists()).join()).isFalse();
+    }
+
+}
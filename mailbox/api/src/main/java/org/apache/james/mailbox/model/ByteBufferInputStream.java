@@ -0,0 +1,196 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.model;
+
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * {@link InputStream} over one or more {@link ByteBuffer}s.
+ * 
+ * Writers which know about this class can get the remaining content with {@link #getByteBuffers()} and hand it
+ * to the network layer as is, instead of copying it chunk by chunk through a byte[]. The buffers may be heap,
+ * direct or memory-mapped ones. They are never modified.
+ */
+public class ByteBufferInputStream extends InputStream implements SharedInputStream {
+
+    private final ByteBuffer[] buffers;
+    private final long length;
+    private int index = 0;
+    private long position = 0;
+    private long mark = 0;
+
+    public ByteBufferInputStream(byte[] content) {
+        this(ByteBuffer.wrap(content));
+    }
+
+    public ByteBufferInputStream(ByteBuffer... buffers) {
+        this.buffers = new ByteBuffer[buffers.length];
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            // work on our own views so the positions of the given buffers are left untouched
+            this.buffers[i] = buffers[i].slice();
+            length += this.buffers[i].remaining();
+        }
+        this.length = length;
+    }
+
+    /**
+     * Concatenate the given streams, keeping the result a {@link ByteBufferInputStream} when both of them are
+     */
+    public static InputStream concat(InputStream first, InputStream second) {
+        if (first instanceof ByteBufferInputStream && second instanceof ByteBufferInputStream) {
+            List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+            for (ByteBuffer buffer : ((ByteBufferInputStream) first).getByteBuffers()) {
+                buffers.add(buffer);
+            }
+            for (ByteBuffer buffer : ((ByteBufferInputStream) second).getByteBuffers()) {
+                buffers.add(buffer);
+            }
+            return new ByteBufferInputStream(buffers.toArray(new ByteBuffer[buffers.size()]));
+        }
+        return new SequenceInputStream(first, second);
+    }
+
+    /**
+     * Return read-only views of the content which was not read yet. Reading them does not consume this stream.
+     */
+    public ByteBuffer[] getByteBuffers() {
+        List<ByteBuffer> remaining = new ArrayList<ByteBuffer>(buffers.length - index);
+        for (int i = index; i < buffers.length; i++) {
+            if (buffers[i].hasRemaining()) {
+                remaining.add(buffers[i].asReadOnlyBuffer());
+            }
+        }
+        return remaining.toArray(new ByteBuffer[remaining.size()]);
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buffer = current();
+        if (buffer == null) {
+            return -1;
+        }
+        position++;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = current();
+        if (buffer == null) {
+            return -1;
+        }
+        int amount = Math.min(len, buffer.remaining());
+        buffer.get(b, off, amount);
+        position += amount;
+        return amount;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer buffer;
+        while (skipped < n && (buffer = current()) != null) {
+            int amount = (int) Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + amount);
+            skipped += amount;
+        }
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (ByteBuffer buffer : buffers) {
+            buffer.rewind();
+        }
+        index = 0;
+        position = 0;
+        skip(mark);
+    }
+
+    /**
+     * @see javax.mail.internet.SharedInputStream#getPosition()
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @see javax.mail.internet.SharedInputStream#newStream(long, long)
+     */
+    public InputStream newStream(long start, long end) {
+        if (start < 0) {
+            throw new IllegalArgumentException("start must be positive");
+        }
+        if (end == -1 || end > length) {
+            end = length;
+        }
+        List<ByteBuffer> slices = new ArrayList<ByteBuffer>();
+        long offset = 0;
+        for (ByteBuffer buffer : buffers) {
+            long bufferStart = offset;
+            long bufferEnd = offset + buffer.limit();
+            offset = bufferEnd;
+            if (bufferEnd <= start || bufferStart >= end) {
+                continue;
+            }
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) (Math.min(end, bufferEnd) - bufferStart));
+            slice.position((int) (Math.max(start, bufferStart) - bufferStart));
+            slices.add(slice);
+        }
+        return new ByteBufferInputStream(slices.toArray(new ByteBuffer[slices.size()]));
+    }
+
+    private ByteBuffer current() {
+        while (index < buffers.length) {
+            if (buffers[index].hasRemaining()) {
+                return buffers[index];
+            }
+            index++;
+        }
+        return null;
+    }
+
+}
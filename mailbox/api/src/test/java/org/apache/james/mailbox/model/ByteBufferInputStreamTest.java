@@ -0,0 +1,103 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.model;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class ByteBufferInputStreamTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private String read(InputStream in) throws IOException {
+        return new String(ByteStreams.toByteArray(in), US_ASCII);
+    }
+
+    private ByteBufferInputStream twoBuffers() {
+        return new ByteBufferInputStream(ByteBuffer.wrap("header\r\n".getBytes(US_ASCII)), ByteBuffer.wrap("body".getBytes(US_ASCII)));
+    }
+
+    @Test
+    public void readShouldReturnTheContentOfAllBuffers() throws Exception {
+        assertThat(read(twoBuffers())).isEqualTo("header\r\nbody");
+    }
+
+    @Test
+    public void readShouldNotModifyTheGivenBuffers() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("content".getBytes(US_ASCII));
+        read(new ByteBufferInputStream(buffer));
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void getByteBuffersShouldReturnTheRemainingContent() throws Exception {
+        ByteBufferInputStream in = twoBuffers();
+        in.skip(10);
+        ByteBuffer[] buffers = in.getByteBuffers();
+        assertThat(buffers).hasSize(1);
+        assertThat(US_ASCII.decode(buffers[0]).toString()).isEqualTo("dy");
+        assertThat(in.getPosition()).isEqualTo(10);
+    }
+
+    @Test
+    public void newStreamShouldSliceAcrossBuffers() throws Exception {
+        InputStream slice = twoBuffers().newStream(4, 10);
+        assertThat(read(slice)).isEqualTo("er\r\nbo");
+    }
+
+    @Test
+    public void newStreamShouldGoToTheEndWhenNoEndIsGiven() throws Exception {
+        InputStream slice = twoBuffers().newStream(8, -1);
+        assertThat(read(slice)).isEqualTo("body");
+    }
+
+    @Test
+    public void resetShouldGoBackToTheMark() throws Exception {
+        ByteBufferInputStream in = twoBuffers();
+        in.skip(6);
+        in.mark(0);
+        in.skip(3);
+        in.reset();
+        assertThat(read(in)).isEqualTo("\r\nbody");
+    }
+
+    @Test
+    public void concatShouldKeepBuffersWhenBothStreamsHaveSome() throws Exception {
+        InputStream in = ByteBufferInputStream.concat(new ByteBufferInputStream("a".getBytes(US_ASCII)), new ByteBufferInputStream("b".getBytes(US_ASCII)));
+        assertThat(in).isInstanceOf(ByteBufferInputStream.class);
+        assertThat(read(in)).isEqualTo("ab");
+    }
+
+    @Test
+    public void concatShouldFallBackToSequenceWhenAStreamHasNoBuffer() throws Exception {
+        InputStream in = ByteBufferInputStream.concat(new ByteBufferInputStream("a".getBytes(US_ASCII)), new ByteArrayInputStream("b".getBytes(US_ASCII)));
+        assertThat(in).isInstanceOf(SequenceInputStream.class);
+        assertThat(read(in)).isEqualTo("ab");
+    }
+}
@@ -3,9 +3,13 @@ package org.apache.james.mailbox.caching;
 import org.apache.james.mailbox.MailboxListener;
 import org.apache.james.mailbox.MailboxListenerSupport;
 import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.MailboxId;
 /**
- * A MailboxListener that invalidates the configured caches in response to Events
+ * A MailboxListener that invalidates the configured caches in response to Events.
+ * The MessageMetadataCache, when configured, is updated in place rather than invalidated
  *
  * @param <Id>
  */
@@ -13,10 +17,17 @@ public class CacheInvalidatingMailboxListener<Id extends MailboxId> implements M
 
     private final MailboxByPathCache<Id> mailboxCacheByPath;
     private final MailboxMetadataCache<Id> mailboxMetadataCache;
+    private final MessageMetadataCache<Id> messageMetadataCache;
 
     public CacheInvalidatingMailboxListener(MailboxByPathCache<Id> mailboxCacheByPath, MailboxMetadataCache<Id> mailboxMetadataCache) {
+        this(mailboxCacheByPath, mailboxMetadataCache, null);
+    }
+
+    public CacheInvalidatingMailboxListener(MailboxByPathCache<Id> mailboxCacheByPath, MailboxMetadataCache<Id> mailboxMetadataCache,
+                                            MessageMetadataCache<Id> messageMetadataCache) {
         this.mailboxCacheByPath = mailboxCacheByPath;
         this.mailboxMetadataCache = mailboxMetadataCache;
+        this.messageMetadataCache = messageMetadataCache;
     }
 
     /**
@@ -48,6 +59,9 @@ public class CacheInvalidatingMailboxListener<Id extends MailboxId> implements M
                 // invalidate the metadata caches
                 invalidateMetadata(event);
             }
+            if (messageMetadataCache != null) {
+                updateMessageMetadata(event);
+            }
             invalidateMailbox(event);
         } catch (MailboxException e) {
             // TODO Auto-generated catch block
@@ -62,6 +76,33 @@ public class CacheInvalidatingMailboxListener<Id extends MailboxId> implements M
 
     }
 
+    @SuppressWarnings("unchecked")
+    private void updateMessageMetadata(Event event) throws MailboxException {
+        if (!(event instanceof EventFactory.MailboxAware)) {
+            if (event instanceof MessageEvent) {
+                messageMetadataCache.invalidate(mailboxCacheByPath.findMailboxByPath(event.getMailboxPath(), null));
+            }
+            return;
+        }
+        Mailbox<Id> mailbox = ((EventFactory.MailboxAware<Id>) event).getMailbox();
+        if (event instanceof Added) {
+            Added added = (Added) event;
+            for (Long uid : added.getUids()) {
+                messageMetadataCache.added(mailbox, added.getMetaData(uid));
+            }
+        } else if (event instanceof Expunged) {
+            for (Long uid : ((Expunged) event).getUids()) {
+                messageMetadataCache.expunged(mailbox, uid);
+            }
+        } else if (event instanceof FlagsUpdated) {
+            for (UpdatedFlags updatedFlags : ((FlagsUpdated) event).getUpdatedFlags()) {
+                messageMetadataCache.flagsUpdated(mailbox, updatedFlags);
+            }
+        } else if (event instanceof MailboxDeletion) {
+            messageMetadataCache.invalidate(mailbox);
+        }
+    }
+
     private void invalidateMailbox(Event event) {
         mailboxCacheByPath.invalidate(event.getMailboxPath());
     }
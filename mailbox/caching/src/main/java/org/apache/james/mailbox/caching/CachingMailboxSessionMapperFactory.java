@@ -22,17 +22,24 @@ public class CachingMailboxSessionMapperFactory<Id extends MailboxId> extends
 	private final MailboxSessionMapperFactory<Id> underlying;
 	private final MailboxByPathCache<Id> mailboxByPathCache;
 	private final MailboxMetadataCache<Id> mailboxMetadataCache;
+	private final MessageMetadataCache<Id> messageMetadataCache;
 
 	public CachingMailboxSessionMapperFactory(MailboxSessionMapperFactory<Id> underlying, MailboxByPathCache<Id> mailboxByPathCache, MailboxMetadataCache<Id> mailboxMetadataCache) {
+		this(underlying, mailboxByPathCache, mailboxMetadataCache, null);
+	}
+
+	public CachingMailboxSessionMapperFactory(MailboxSessionMapperFactory<Id> underlying, MailboxByPathCache<Id> mailboxByPathCache, MailboxMetadataCache<Id> mailboxMetadataCache,
+			MessageMetadataCache<Id> messageMetadataCache) {
 		this.underlying = underlying;
 		this.mailboxByPathCache = mailboxByPathCache;
 		this.mailboxMetadataCache = mailboxMetadataCache;
+		this.messageMetadataCache = messageMetadataCache;
 	}
 	
 	@Override
 	public MessageMapper<Id> createMessageMapper(MailboxSession session)
 			throws MailboxException {
-		return new CachingMessageMapper<Id>(underlying.createMessageMapper(session), mailboxMetadataCache);
+		return new CachingMessageMapper<Id>(underlying.createMessageMapper(session), mailboxMetadataCache, messageMetadataCache);
 	}
 
 	@Override
@@ -1,4 +1,6 @@
 package org.apache.james.mailbox.caching;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -15,7 +17,7 @@ import org.apache.james.mailbox.store.mail.model.MailboxMessage;
 
 /**
  * A MessageMapper implementation that uses a MailboxMetadataCache to cache the information
- * from the underlying MessageMapper
+ * from the underlying MessageMapper, and optionally a MessageMetadataCache to serve metadata only fetches
  * 
  * @param <Id>
  */
@@ -23,10 +25,16 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
 
     private final MessageMapper<Id> underlying;
     private final MailboxMetadataCache<Id> cache;
+    private final MessageMetadataCache<Id> messageMetadataCache;
 
     public CachingMessageMapper(MessageMapper<Id> underlying, MailboxMetadataCache<Id> cache) {
+        this(underlying, cache, null);
+    }
+
+    public CachingMessageMapper(MessageMapper<Id> underlying, MailboxMetadataCache<Id> cache, MessageMetadataCache<Id> messageMetadataCache) {
         this.underlying = underlying;
         this.cache = cache;
+        this.messageMetadataCache = messageMetadataCache;
     }
 
     @Override
@@ -44,25 +52,54 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
                                                       MessageRange set,
                                                       org.apache.james.mailbox.store.mail.MessageMapper.FetchType type,
                                                       int limit) throws MailboxException {
+        if (type == FetchType.Metadata && messageMetadataCache != null) {
+            Iterator<MailboxMessage<Id>> cached = messageMetadataCache.findInMailbox(mailbox, set, limit, underlying);
+            if (cached != null) {
+                return cached;
+            }
+        }
         return underlying.findInMailbox(mailbox, set, type, limit);
     }
 
+    @Override
+    public Iterator<MailboxMessage<Id>> findInMailbox(Mailbox<Id> mailbox, Collection<Long> uids, FetchType type) throws MailboxException {
+        return underlying.findInMailbox(mailbox, uids, type);
+    }
+
     @Override
     public Map<Long, MessageMetaData> expungeMarkedForDeletionInMailbox(
             Mailbox<Id> mailbox, MessageRange set) throws MailboxException {
         invalidateMetadata(mailbox);
-        return underlying.expungeMarkedForDeletionInMailbox(mailbox, set);
+        Map<Long, MessageMetaData> expunged = underlying.expungeMarkedForDeletionInMailbox(mailbox, set);
+        if (messageMetadataCache != null) {
+            for (Long uid : expunged.keySet()) {
+                messageMetadataCache.expunged(mailbox, uid);
+            }
+        }
+        return expunged;
     }
 
     @Override
     public long countMessagesInMailbox(Mailbox<Id> mailbox)
             throws MailboxException {
+        if (messageMetadataCache != null) {
+            Long count = messageMetadataCache.countMessagesInMailbox(mailbox);
+            if (count != null) {
+                return count;
+            }
+        }
         return cache.countMessagesInMailbox(mailbox, underlying);
     }
 
     @Override
     public long countUnseenMessagesInMailbox(Mailbox<Id> mailbox)
             throws MailboxException {
+        if (messageMetadataCache != null) {
+            Long count = messageMetadataCache.countUnseenMessagesInMailbox(mailbox);
+            if (count != null) {
+                return count;
+            }
+        }
         return cache.countUnseenMessagesInMailbox(mailbox, underlying);
     }
 
@@ -71,7 +108,9 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
             throws MailboxException {
         invalidateMetadata(mailbox);
         underlying.delete(mailbox, message);
-
+        if (messageMetadataCache != null) {
+            messageMetadataCache.expunged(mailbox, message.getUid());
+        }
     }
 
     @Override
@@ -91,7 +130,7 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
     public MessageMetaData add(Mailbox<Id> mailbox, MailboxMessage<Id> message)
             throws MailboxException {
         invalidateMetadata(mailbox);
-        return underlying.add(mailbox, message);
+        return added(mailbox, underlying.add(mailbox, message));
     }
 
     @Override
@@ -100,7 +139,17 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
         //check if there are in fact any updates
         if (set.iterator().hasNext())
             invalidateMetadata(mailbox);
-        return underlying.updateFlags(mailbox, calculator, set);
+        Iterator<UpdatedFlags> updatedFlags = underlying.updateFlags(mailbox, calculator, set);
+        if (messageMetadataCache == null) {
+            return updatedFlags;
+        }
+        List<UpdatedFlags> updates = new ArrayList<UpdatedFlags>();
+        while (updatedFlags.hasNext()) {
+            UpdatedFlags update = updatedFlags.next();
+            messageMetadataCache.flagsUpdated(mailbox, update);
+            updates.add(update);
+        }
+        return updates.iterator();
     }
 
 
@@ -108,7 +157,7 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
     public MessageMetaData copy(Mailbox<Id> mailbox, MailboxMessage<Id> original)
             throws MailboxException {
         invalidateMetadata(mailbox);
-        return underlying.copy(mailbox, original);
+        return added(mailbox, underlying.copy(mailbox, original));
     }
 
     @Override
@@ -126,6 +175,13 @@ public class CachingMessageMapper<Id extends MailboxId> implements MessageMapper
 
     }
 
+    private MessageMetaData added(Mailbox<Id> mailbox, MessageMetaData metaData) {
+        if (messageMetadataCache != null) {
+            messageMetadataCache.added(mailbox, metaData);
+        }
+        return metaData;
+    }
+
     @Override
     public MessageMetaData move(Mailbox<Id> mailbox, MailboxMessage<Id> original) throws MailboxException {
         throw new UnsupportedOperationException("Move is not yet supported");
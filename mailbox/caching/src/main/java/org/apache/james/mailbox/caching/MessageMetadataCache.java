@@ -0,0 +1,53 @@
+package org.apache.james.mailbox.caching;
+
+import java.util.Iterator;
+
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxId;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+
+/**
+ * Caches the per message metadata (uid, flags, modseq, size and internal date) of a Mailbox
+ * so that metadata only fetches (FLAGS, UID FETCH, STATUS) can be served without hitting
+ * the underlying MessageMapper.
+ *
+ * Unlike {@link MailboxMetadataCache} the cached entries are updated in place on message
+ * additions, expunges and flags updates instead of being dropped.
+ *
+ * @param <Id>
+ */
+public interface MessageMetadataCache<Id extends MailboxId> {
+
+	/**
+	 * Return the metadata of the messages of the given range, loading the metadata of
+	 * the whole Mailbox from the underlying MessageMapper when it is not cached yet.
+	 *
+	 * @return the messages, or null if the range can not be served by the cache
+	 */
+	Iterator<MailboxMessage<Id>> findInMailbox(Mailbox<Id> mailbox, MessageRange set, int limit,
+											   MessageMapper<Id> underlying) throws MailboxException;
+
+	/**
+	 * Return the count of messages of the Mailbox if it is cached, null otherwise
+	 */
+	Long countMessagesInMailbox(Mailbox<Id> mailbox);
+
+	/**
+	 * Return the count of unseen messages of the Mailbox if it is cached, null otherwise
+	 */
+	Long countUnseenMessagesInMailbox(Mailbox<Id> mailbox);
+
+	void added(Mailbox<Id> mailbox, MessageMetaData metaData);
+
+	void expunged(Mailbox<Id> mailbox, long uid);
+
+	void flagsUpdated(Mailbox<Id> mailbox, UpdatedFlags updatedFlags);
+
+	void invalidate(Mailbox<Id> mailbox);
+
+}
@@ -59,9 +59,9 @@ public class GuavaMailboxMetadataCache<Id extends MailboxId> extends AbstractGua
 	
 	@Override
 	public void invalidate(Mailbox<Id> mailbox) {
-		cacheCountMessagesInMailbox.invalidate(mailbox);
-		cacheCountUnseenMessagesInMailbox.invalidate(mailbox);
-		cacheFindFirstUnseenMessageUid.invalidate(mailbox);
+		countMessagesInMailboxWrapper.invalidate(mailbox);
+		countUnseenMessagesInMailboxWrapper.invalidate(mailbox);
+		findFirstUnseenMessageUid.invalidate(mailbox);
 		lastUidWrapper.invalidate(mailbox);
 		highestModSeqWrapper.invalidate(mailbox);
 	}
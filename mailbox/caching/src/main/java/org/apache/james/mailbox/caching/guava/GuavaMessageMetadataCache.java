@@ -0,0 +1,266 @@
+package org.apache.james.mailbox.caching.guava;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.mail.Flags;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.james.mailbox.caching.MessageMetadataCache;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxId;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailboxMessage;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Iterators;
+
+/**
+ * Guava-based implementation of MessageMetadataCache.
+ * The cache is bounded by the total count of cached messages rather than by the count of Mailboxes,
+ * the key being Mailbox.getMailboxId().
+ *
+ * The metadata of a Mailbox is loaded as a whole, and only when a metadata fetch covers the end of
+ * the Mailbox (ALL and FROM ranges, as issued by FETCH 1:* FLAGS). Other ranges are served only
+ * if the Mailbox is already cached.
+ *
+ * The weight of an entry is its count of messages when it was last put. An entry is put again once its
+ * count of messages doubled, so the cached messages never exceed twice the maximum.
+ *
+ * The count of unseen messages of each Mailbox is maintained along with its messages.
+ *
+ * @param <Id>
+ */
+public class GuavaMessageMetadataCache<Id extends MailboxId> implements MessageMetadataCache<Id> {
+
+	public static final long DEFAULT_MAXIMUM_CACHED_MESSAGES = 1000000;
+	private static final int MODIFICATION_STRIPES = 1024;
+	private static final SharedByteArrayInputStream NO_CONTENT = new SharedByteArrayInputStream(new byte[0]);
+
+	private final Cache<Id, CachedMailbox> cache;
+	// Modification counters, used to detect updates missed while a Mailbox was being loaded
+	private final AtomicLongArray modifications = new AtomicLongArray(MODIFICATION_STRIPES);
+
+	public GuavaMessageMetadataCache() {
+		this(DEFAULT_MAXIMUM_CACHED_MESSAGES);
+	}
+
+	public GuavaMessageMetadataCache(long maximumCachedMessages) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maximumCachedMessages)
+				.weigher(new Weigher<Id, CachedMailbox>() {
+					@Override
+					public int weigh(Id key, CachedMailbox mailbox) {
+						return mailbox.weight;
+					}
+				})
+				.recordStats()
+				.expireAfterWrite(15, TimeUnit.MINUTES)
+				.build();
+	}
+
+	@Override
+	public Iterator<MailboxMessage<Id>> findInMailbox(Mailbox<Id> mailbox, MessageRange set, int limit,
+													  MessageMapper<Id> underlying) throws MailboxException {
+		CachedMailbox cached;
+		if (set.getType() == MessageRange.Type.ALL || set.getType() == MessageRange.Type.FROM) {
+			cached = getOrLoad(mailbox, underlying);
+		} else {
+			cached = cache.getIfPresent(mailbox.getMailboxId());
+			if (cached == null) {
+				return null;
+			}
+		}
+		Iterator<MailboxMessage<Id>> results = Iterators.transform(select(cached.messages, set).iterator(), toMessage(mailbox.getMailboxId()));
+		if (limit > 0) {
+			return Iterators.limit(results, limit);
+		}
+		return results;
+	}
+
+	@Override
+	public Long countMessagesInMailbox(Mailbox<Id> mailbox) {
+		CachedMailbox cached = cache.getIfPresent(mailbox.getMailboxId());
+		if (cached == null) {
+			return null;
+		}
+		return Long.valueOf(cached.messages.size());
+	}
+
+	@Override
+	public Long countUnseenMessagesInMailbox(Mailbox<Id> mailbox) {
+		CachedMailbox cached = cache.getIfPresent(mailbox.getMailboxId());
+		if (cached == null) {
+			return null;
+		}
+		return cached.unseen.get();
+	}
+
+	@Override
+	public void added(Mailbox<Id> mailbox, MessageMetaData metaData) {
+		CachedMailbox cached = modify(mailbox);
+		if (cached != null) {
+			cached.put(new SimpleMessageMetaData(metaData.getUid(), metaData.getModSeq(),
+					new Flags(metaData.getFlags()), metaData.getSize(), metaData.getInternalDate()));
+			reweighIfGrown(mailbox.getMailboxId(), cached);
+		}
+	}
+
+	@Override
+	public void expunged(Mailbox<Id> mailbox, long uid) {
+		CachedMailbox cached = modify(mailbox);
+		if (cached != null) {
+			cached.remove(uid);
+		}
+	}
+
+	@Override
+	public void flagsUpdated(Mailbox<Id> mailbox, UpdatedFlags updatedFlags) {
+		CachedMailbox cached = modify(mailbox);
+		if (cached == null) {
+			return;
+		}
+		MessageMetaData current = cached.messages.get(updatedFlags.getUid());
+		// Updates may be notified out of order, the mod-sequence tells which one is the latest
+		while (current != null && current.getModSeq() <= updatedFlags.getModSeq()) {
+			MessageMetaData updated = new SimpleMessageMetaData(current.getUid(), updatedFlags.getModSeq(),
+					new Flags(updatedFlags.getNewFlags()), current.getSize(), current.getInternalDate());
+			if (cached.replace(current, updated)) {
+				return;
+			}
+			current = cached.messages.get(updatedFlags.getUid());
+		}
+	}
+
+	@Override
+	public void invalidate(Mailbox<Id> mailbox) {
+		if (mailbox != null) {
+			modifications.incrementAndGet(stripe(mailbox.getMailboxId()));
+			cache.invalidate(mailbox.getMailboxId());
+		}
+	}
+
+	private CachedMailbox modify(Mailbox<Id> mailbox) {
+		modifications.incrementAndGet(stripe(mailbox.getMailboxId()));
+		return cache.getIfPresent(mailbox.getMailboxId());
+	}
+
+	private CachedMailbox getOrLoad(Mailbox<Id> mailbox, MessageMapper<Id> underlying)
+			throws MailboxException {
+		Id id = mailbox.getMailboxId();
+		CachedMailbox cached = cache.getIfPresent(id);
+		if (cached != null) {
+			return cached;
+		}
+		long modification = modifications.get(stripe(id));
+		cached = new CachedMailbox();
+		Iterator<MailboxMessage<Id>> loaded = underlying.findInMailbox(mailbox, MessageRange.all(), FetchType.Metadata, -1);
+		while (loaded.hasNext()) {
+			cached.put(new SimpleMessageMetaData(loaded.next()));
+		}
+		cached.weight = Math.max(1, cached.messages.size());
+		cache.put(id, cached);
+		// A concurrent modification might have been applied neither to the loaded messages nor to the cache
+		if (modifications.get(stripe(id)) != modification) {
+			cache.invalidate(id);
+		}
+		return cached;
+	}
+
+	/**
+	 * Puts the entry again, so that the cache weighs its current count of messages, unless it was
+	 * invalidated or replaced meanwhile.
+	 */
+	private void reweighIfGrown(Id id, CachedMailbox cached) {
+		int size = cached.messages.size();
+		if (size > 2L * cached.weight) {
+			cached.weight = size;
+			cache.asMap().replace(id, cached, cached);
+		}
+	}
+
+	private Collection<MessageMetaData> select(ConcurrentSkipListMap<Long, MessageMetaData> messages, MessageRange set) {
+		switch (set.getType()) {
+		case ONE:
+			MessageMetaData metaData = messages.get(set.getUidFrom());
+			if (metaData == null) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(metaData);
+		case FROM:
+			return messages.tailMap(set.getUidFrom(), true).values();
+		case RANGE:
+			return messages.subMap(set.getUidFrom(), true, set.getUidTo(), true).values();
+		default:
+			return messages.values();
+		}
+	}
+
+	private int stripe(Id id) {
+		return (id.hashCode() & Integer.MAX_VALUE) % MODIFICATION_STRIPES;
+	}
+
+	/**
+	 * Metadata of the messages of a Mailbox, with its count of unseen messages
+	 */
+	private static class CachedMailbox {
+		private final ConcurrentSkipListMap<Long, MessageMetaData> messages = new ConcurrentSkipListMap<Long, MessageMetaData>();
+		private final AtomicLong unseen = new AtomicLong();
+		private volatile int weight = 1;
+
+		private void put(MessageMetaData metaData) {
+			MessageMetaData previous = messages.put(metaData.getUid(), metaData);
+			unseen.addAndGet(unseenCount(metaData) - unseenCount(previous));
+		}
+
+		private void remove(long uid) {
+			MessageMetaData previous = messages.remove(uid);
+			unseen.addAndGet(-unseenCount(previous));
+		}
+
+		private boolean replace(MessageMetaData current, MessageMetaData updated) {
+			if (messages.replace(current.getUid(), current, updated)) {
+				unseen.addAndGet(unseenCount(updated) - unseenCount(current));
+				return true;
+			}
+			return false;
+		}
+
+		private static int unseenCount(MessageMetaData metaData) {
+			if (metaData == null || metaData.getFlags().contains(Flags.Flag.SEEN)) {
+				return 0;
+			}
+			return 1;
+		}
+	}
+
+	private Function<MessageMetaData, MailboxMessage<Id>> toMessage(final Id mailboxId) {
+		return new Function<MessageMetaData, MailboxMessage<Id>>() {
+			@Override
+			public MailboxMessage<Id> apply(MessageMetaData metaData) {
+				SimpleMailboxMessage<Id> message = new SimpleMailboxMessage<Id>(metaData.getInternalDate(), metaData.getSize(), 0,
+						NO_CONTENT, metaData.getFlags(), new PropertyBuilder(), mailboxId);
+				message.setUid(metaData.getUid());
+				message.setModSeq(metaData.getModSeq());
+				return message;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.apache.james.mailbox.caching.guava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.mail.Flags;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
+import org.apache.james.mailbox.store.mail.model.MailboxId;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailboxMessage;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GuavaMessageMetadataCacheTest {
+
+    private Mockery mockery = new JUnit4Mockery();
+    private MessageMapper<TestId> underlying;
+    private SimpleMailbox<TestId> mailbox;
+    private List<MailboxMessage<TestId>> storedMessages;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        underlying = mockery.mock(MessageMapper.class);
+        mailbox = new SimpleMailbox<TestId>(new MailboxPath("#private", "user", "INBOX"), 42);
+        mailbox.setMailboxId(new TestId(1));
+        storedMessages = new ArrayList<MailboxMessage<TestId>>();
+        mockery.checking(new Expectations() {{
+            allowing(underlying).findInMailbox(with(same(mailbox)), with(any(MessageRange.class)), with(same(FetchType.Metadata)), with(equal(-1)));
+            will(returnIterator(storedMessages));
+        }});
+    }
+
+    @Test
+    public void countsShouldBeNullWhenTheMailboxIsNotCached() {
+        GuavaMessageMetadataCache<TestId> cache = new GuavaMessageMetadataCache<TestId>();
+
+        assertNull(cache.countMessagesInMailbox(mailbox));
+        assertNull(cache.countUnseenMessagesInMailbox(mailbox));
+    }
+
+    @Test
+    public void countUnseenMessagesInMailboxShouldCountTheLoadedMessages() throws Exception {
+        storedMessages.add(message(1, new Flags(Flags.Flag.SEEN)));
+        storedMessages.add(message(2, new Flags()));
+        storedMessages.add(message(3, new Flags()));
+        GuavaMessageMetadataCache<TestId> cache = new GuavaMessageMetadataCache<TestId>();
+
+        cache.findInMailbox(mailbox, MessageRange.all(), -1, underlying);
+
+        assertEquals(Long.valueOf(3), cache.countMessagesInMailbox(mailbox));
+        assertEquals(Long.valueOf(2), cache.countUnseenMessagesInMailbox(mailbox));
+    }
+
+    @Test
+    public void countUnseenMessagesInMailboxShouldFollowTheModifications() throws Exception {
+        storedMessages.add(message(1, new Flags()));
+        storedMessages.add(message(2, new Flags()));
+        GuavaMessageMetadataCache<TestId> cache = new GuavaMessageMetadataCache<TestId>();
+        cache.findInMailbox(mailbox, MessageRange.all(), -1, underlying);
+
+        cache.flagsUpdated(mailbox, new UpdatedFlags(1, 2, new Flags(), new Flags(Flags.Flag.SEEN)));
+        cache.added(mailbox, new SimpleMessageMetaData(3, 3, new Flags(), 10, new Date()));
+        cache.added(mailbox, new SimpleMessageMetaData(3, 3, new Flags(), 10, new Date()));
+        cache.expunged(mailbox, 2);
+        cache.expunged(mailbox, 2);
+
+        assertEquals(Long.valueOf(2), cache.countMessagesInMailbox(mailbox));
+        assertEquals(Long.valueOf(1), cache.countUnseenMessagesInMailbox(mailbox));
+    }
+
+    @Test
+    public void outdatedFlagsUpdatesShouldNotChangeTheUnseenCount() throws Exception {
+        storedMessages.add(message(1, new Flags()));
+        GuavaMessageMetadataCache<TestId> cache = new GuavaMessageMetadataCache<TestId>();
+        cache.findInMailbox(mailbox, MessageRange.all(), -1, underlying);
+
+        cache.flagsUpdated(mailbox, new UpdatedFlags(1, 3, new Flags(), new Flags(Flags.Flag.SEEN)));
+        cache.flagsUpdated(mailbox, new UpdatedFlags(1, 2, new Flags(Flags.Flag.SEEN), new Flags()));
+
+        assertEquals(Long.valueOf(0), cache.countUnseenMessagesInMailbox(mailbox));
+    }
+
+    @Test
+    public void mailboxesGrowingBeyondTheMaximumShouldBeEvicted() throws Exception {
+        GuavaMessageMetadataCache<TestId> cache = new GuavaMessageMetadataCache<TestId>(10);
+        cache.findInMailbox(mailbox, MessageRange.all(), -1, underlying);
+
+        for (long uid = 1; uid <= 100; uid++) {
+            cache.added(mailbox, new SimpleMessageMetaData(uid, uid, new Flags(), 10, new Date()));
+        }
+
+        assertNull(cache.countMessagesInMailbox(mailbox));
+    }
+
+    private MailboxMessage<TestId> message(long uid, Flags flags) {
+        SimpleMailboxMessage<TestId> message = new SimpleMailboxMessage<TestId>(new Date(), 10, 0,
+            new SharedByteArrayInputStream(new byte[0]), flags, new PropertyBuilder(), mailbox.getMailboxId());
+        message.setUid(uid);
+        message.setModSeq(1);
+        return message;
+    }
+
+    private static class TestId implements MailboxId {
+        private final long id;
+
+        private TestId(long id) {
+            this.id = id;
+        }
+
+        public String serialize() {
+            return String.valueOf(id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TestId && ((TestId) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) id;
+        }
+    }
+}
@@ -19,11 +19,16 @@
 
 package org.apache.james.mailbox.cassandra;
 
-import org.apache.james.backends.cassandra.init.CassandraTypesProvider;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+
+import org.apache.james.backends.cassandra.blob.CassandraBlobStore;
+import org.apache.james.backends.cassandra.init.CassandraTypesProvider;
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.cassandra.mail.CassandraMailboxMapper;
 import org.apache.james.mailbox.cassandra.mail.CassandraMessageMapper;
+import org.apache.james.mailbox.cassandra.mail.CassandraMessageStatements;
 import org.apache.james.mailbox.cassandra.user.CassandraSubscriptionMapper;
 import org.apache.james.mailbox.store.MailboxSessionMapperFactory;
 import org.apache.james.mailbox.store.mail.MailboxMapper;
@@ -32,6 +37,8 @@ import org.apache.james.mailbox.store.mail.UidProvider;
 import org.apache.james.mailbox.store.user.SubscriptionMapper;
 
 import com.datastax.driver.core.Session;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
 /**
  * Cassandra implementation of {@link MailboxSessionMapperFactory}
@@ -44,7 +51,11 @@ public class CassandraMailboxSessionMapperFactory extends MailboxSessionMapperFa
     private final UidProvider<CassandraId> uidProvider;
     private final ModSeqProvider<CassandraId> modSeqProvider;
     private final CassandraTypesProvider typesProvider;
+    private final Supplier<CassandraMessageStatements> messageStatements;
+    private final CassandraAsyncExecutor asyncExecutor;
+    private final Supplier<CassandraBlobStore> blobStore;
     private int maxRetry;
+    private boolean contentDeduplication;
 
     @Inject
     public CassandraMailboxSessionMapperFactory(UidProvider<CassandraId> uidProvider, ModSeqProvider<CassandraId> modSeqProvider, Session session, CassandraTypesProvider typesProvider) {
@@ -53,15 +64,43 @@ public class CassandraMailboxSessionMapperFactory extends MailboxSessionMapperFa
         this.session = session;
         this.maxRetry = DEFAULT_MAX_RETRY;
         this.typesProvider = typesProvider;
+        this.messageStatements = Suppliers.memoize(() -> new CassandraMessageStatements(session));
+        this.asyncExecutor = new CassandraAsyncExecutor(session);
+        this.blobStore = Suppliers.memoize(() -> new CassandraBlobStore(session, asyncExecutor));
     }
 
     public void setMaxRetry(int maxRetry) {
         this.maxRetry = maxRetry;
     }
 
+    /**
+     * Enables content addressed storage of message bodies: identical bodies are stored once and shared by reference
+     * between the messages using them. Disabled by default.
+     */
+    public void setContentDeduplication(boolean contentDeduplication) {
+        this.contentDeduplication = contentDeduplication;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        asyncExecutor.setMaxInFlightRequests(maxInFlightRequests);
+    }
+
+    /**
+     * Bounds the statements queued while all in flight slots are used. Once reached, callers wait for queued statements to
+     * be sent.
+     */
+    public void setMaxPendingStatements(int maxPendingStatements) {
+        asyncExecutor.setMaxPendingStatements(maxPendingStatements);
+    }
+
     @Override
     public CassandraMessageMapper createMessageMapper(MailboxSession mailboxSession) {
-        return new CassandraMessageMapper(session, uidProvider, modSeqProvider, null, maxRetry, typesProvider);
+        return new CassandraMessageMapper(asyncExecutor, messageStatements.get(), blobStore.get(), uidProvider, modSeqProvider, null, maxRetry, contentDeduplication, typesProvider);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        asyncExecutor.close();
     }
 
     @Override
@@ -0,0 +1,122 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.james.mailbox.model.ByteBufferInputStream;
+import org.apache.james.mailbox.store.mail.model.Message;
+import org.apache.james.mailbox.store.mail.model.MessageId;
+import org.apache.james.mailbox.store.mail.model.Property;
+import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
+
+/**
+ * {@link Message} whose header and body are stored apart from its metadata.
+ *
+ * Content is obtained through {@link ContentLoader}s, so that a message read for its metadata only does not carry its
+ * content, but can still retrieve it when needed.
+ */
+public class CassandraMessage implements Message {
+
+    @FunctionalInterface
+    public interface ContentLoader {
+        InputStream load() throws IOException;
+    }
+
+    private final Date internalDate;
+    private final long size;
+    private final int bodyStartOctet;
+    private final String mediaType;
+    private final String subType;
+    private final Long textualLineCount;
+    private final List<Property> properties;
+    private final ContentLoader headerLoader;
+    private final ContentLoader bodyLoader;
+
+    public CassandraMessage(Date internalDate, long size, int bodyStartOctet, PropertyBuilder propertyBuilder, ContentLoader headerLoader, ContentLoader bodyLoader) {
+        this.internalDate = internalDate;
+        this.size = size;
+        this.bodyStartOctet = bodyStartOctet;
+        this.mediaType = propertyBuilder.getMediaType();
+        this.subType = propertyBuilder.getSubType();
+        this.textualLineCount = propertyBuilder.getTextualLineCount();
+        this.properties = propertyBuilder.toProperties();
+        this.headerLoader = headerLoader;
+        this.bodyLoader = bodyLoader;
+    }
+
+    @Override
+    public MessageId getMessageId() {
+        return null;
+    }
+
+    @Override
+    public Date getInternalDate() {
+        return internalDate;
+    }
+
+    @Override
+    public InputStream getBodyContent() throws IOException {
+        return bodyLoader.load();
+    }
+
+    @Override
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    @Override
+    public String getSubType() {
+        return subType;
+    }
+
+    @Override
+    public long getBodyOctets() {
+        return getFullContentOctets() - bodyStartOctet;
+    }
+
+    @Override
+    public long getFullContentOctets() {
+        return size;
+    }
+
+    @Override
+    public Long getTextualLineCount() {
+        return textualLineCount;
+    }
+
+    @Override
+    public InputStream getHeaderContent() throws IOException {
+        return headerLoader.load();
+    }
+
+    @Override
+    public InputStream getFullContent() throws IOException {
+        return ByteBufferInputStream.concat(getHeaderContent(), getBodyContent());
+    }
+
+    @Override
+    public List<Property> getProperties() {
+        return properties;
+    }
+}
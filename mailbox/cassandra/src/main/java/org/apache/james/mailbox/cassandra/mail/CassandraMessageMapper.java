@@ -19,67 +19,56 @@
 
 package org.apache.james.mailbox.cassandra.mail;
 
-import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.decr;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.incr;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
-import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_CONTENT;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_OCTECTS;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_BLOB_ID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_START_OCTET;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.FIELDS;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.FULL_CONTENT_OCTETS;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.HEADER_CONTENT;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.IMAP_UID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.INTERNAL_DATE;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.MAILBOX_ID;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.MOD_SEQ;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.PROPERTIES;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.TABLE_NAME;
 import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.TEXTUAL_LINE_COUNT;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.ANSWERED;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.DELETED;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.DRAFT;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.FLAGGED;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.USER_FLAGS;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.RECENT;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.SEEN;
-import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.USER;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import javax.mail.Flags;
 import javax.mail.Flags.Flag;
-import javax.mail.util.SharedByteArrayInputStream;
 
-import com.google.common.base.Throwables;
+import org.apache.james.backends.cassandra.blob.CassandraBlobStore;
 import org.apache.james.backends.cassandra.init.CassandraTypesProvider;
-import org.apache.james.backends.cassandra.utils.CassandraConstants;
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
 import org.apache.james.backends.cassandra.utils.CassandraUtils;
+import org.apache.james.backends.cassandra.utils.CompletableFutureUtil;
+import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
 import org.apache.james.mailbox.FlagsBuilder;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.cassandra.CassandraId;
-import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
+import org.apache.james.mailbox.cassandra.mail.CassandraMessage.ContentLoader;
 import org.apache.james.mailbox.cassandra.mail.utils.MessageDeletedDuringFlagsUpdateException;
 import org.apache.james.mailbox.cassandra.table.CassandraMailboxCountersTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexTable.IndexedFlag;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageHeaderTable;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageTable;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Properties;
 import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.model.MessageMetaData;
 import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.UpdatedFlags;
@@ -93,53 +82,92 @@ import org.apache.james.mailbox.store.mail.model.MailboxMessage;
 import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
 import org.apache.james.mailbox.store.mail.model.impl.SimpleMailboxMessage;
 import org.apache.james.mailbox.store.mail.model.impl.SimpleProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
-import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
-import com.datastax.driver.core.Session;
 import com.datastax.driver.core.UDTValue;
-import com.datastax.driver.core.querybuilder.Assignment;
-import com.datastax.driver.core.querybuilder.Insert;
-import com.datastax.driver.core.querybuilder.QueryBuilder;
-import com.datastax.driver.core.querybuilder.Select.Where;
-import com.google.common.io.ByteStreams;
-import com.google.common.primitives.Bytes;
-
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * {@link MessageMapper} relying on statements prepared once per session ({@link CassandraMessageStatements}) and
+ * executed asynchronously through a {@link CassandraAsyncExecutor}.
+ *
+ * Metadata, headers and bodies are stored in distinct tables. Only the parts required by the {@link FetchType} are read,
+ * the other ones being loaded on demand. Bodies are kept in a {@link CassandraBlobStore} and are always streamed chunk
+ * by chunk when read, so that large messages are never fully held in memory. Messages stored before keep their header
+ * and body in the message row, which are read instead.
+ *
+ * When content deduplication is enabled, bodies are content addressed: appending the same body to several mailboxes,
+ * for instance when delivering a message to many local recipients, stores it once, and copies share the body of the
+ * original message. Bodies are reference counted and deleted along with the last message using them.
+ *
+ * Uids of unseen, recent and deleted messages are maintained in a per mailbox index on each addition, flags update and
+ * deletion, so that looking them up only reads the matching messages. The index entries of a message are written in a
+ * logged batch, derived from the flags it had before and after the applied update, and timestamped with its
+ * mod-sequence: racing updates hence leave the entries of their latest flags. Entries are still checked against the
+ * message rows when read, stale ones being removed, as an update can apply right before the message is expunged.
+ * Mailboxes holding messages stored before the index existed are indexed the first time they are looked up.
+ *
+ * Flags updates reserve the mod-sequences of all the matched messages at once
+ * ({@link ModSeqProvider#nextModSeqs(MailboxSession, Mailbox, int)}).
+ *
+ * Synchronous {@link MessageMapper} methods wait for their asynchronous counterpart. Callers able to pipeline requests
+ * can directly use {@link #findInMailboxAsync(Mailbox, MessageRange, FetchType, int)},
+ * {@link #updateFlagsAsync(Mailbox, FlagsUpdateCalculator, MessageRange)} and {@link #addAsync(Mailbox, MailboxMessage)}.
+ * Continuations reserving mod-sequences, reading contents or iterating result sets, whose next pages are fetched
+ * synchronously, block, and run on {@link CassandraAsyncExecutor#getBlockingExecutor()} rather than on driver I/O
+ * threads.
+ */
 public class CassandraMessageMapper implements MessageMapper<CassandraId> {
 
-    private final Session session;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CassandraMessageMapper.class);
+    private static final int FLAG_INDEX_CHECK_BATCH_SIZE = 100;
+    private static final ImmutableMap<String, Predicate<Flags>> INDEXED_FLAGS = ImmutableMap.of(
+        IndexedFlag.UNSEEN, flags -> !flags.contains(Flag.SEEN),
+        IndexedFlag.RECENT, flags -> flags.contains(Flag.RECENT),
+        IndexedFlag.DELETED, flags -> flags.contains(Flag.DELETED));
+
+    private final CassandraAsyncExecutor executor;
+    private final CassandraMessageStatements statements;
+    private final CassandraBlobStore blobStore;
     private final ModSeqProvider<CassandraId> modSeqProvider;
     private final MailboxSession mailboxSession;
     private final UidProvider<CassandraId> uidProvider;
     private final CassandraTypesProvider typesProvider;
     private final int maxRetries;
+    private final boolean deduplicateContent;
+    private final Set<CassandraId> indexedMailboxes;
 
-    public CassandraMessageMapper(Session session, UidProvider<CassandraId> uidProvider, ModSeqProvider<CassandraId> modSeqProvider, MailboxSession mailboxSession, int maxRetries, CassandraTypesProvider typesProvider) {
-        this.session = session;
+    public CassandraMessageMapper(CassandraAsyncExecutor executor, CassandraMessageStatements statements, CassandraBlobStore blobStore, UidProvider<CassandraId> uidProvider, ModSeqProvider<CassandraId> modSeqProvider, MailboxSession mailboxSession, int maxRetries, boolean deduplicateContent, CassandraTypesProvider typesProvider) {
+        this.executor = executor;
+        this.statements = statements;
+        this.blobStore = blobStore;
         this.uidProvider = uidProvider;
         this.modSeqProvider = modSeqProvider;
         this.mailboxSession = mailboxSession;
         this.maxRetries = maxRetries;
+        this.deduplicateContent = deduplicateContent;
         this.typesProvider = typesProvider;
+        this.indexedMailboxes = ConcurrentHashMap.newKeySet();
     }
 
     @Override
     public long countMessagesInMailbox(Mailbox<CassandraId> mailbox) throws MailboxException {
-        ResultSet results = session.execute(
-            select(CassandraMailboxCountersTable.COUNT)
-                .from(CassandraMailboxCountersTable.TABLE_NAME)
-                .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, mailbox.getMailboxId().asUuid())));
+        ResultSet results = join(executor.execute(statements.selectCount(mailbox.getMailboxId())));
         return results.isExhausted() ? 0 : results.one().getLong(CassandraMailboxCountersTable.COUNT);
     }
 
     @Override
     public long countUnseenMessagesInMailbox(Mailbox<CassandraId> mailbox) throws MailboxException {
-        ResultSet results = session.execute(
-            select(CassandraMailboxCountersTable.UNSEEN)
-                .from(CassandraMailboxCountersTable.TABLE_NAME)
-                .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, mailbox.getMailboxId().asUuid())));
+        ResultSet results = join(executor.execute(statements.selectUnseenCount(mailbox.getMailboxId())));
         if (!results.isExhausted()) {
             Row row = results.one();
             if (row.getColumnDefinitions().contains(CassandraMailboxCountersTable.UNSEEN)) {
@@ -151,48 +179,250 @@ public class CassandraMessageMapper implements MessageMapper<CassandraId> {
 
     @Override
     public void delete(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
-        session.execute(
-            QueryBuilder.delete()
-                .from(TABLE_NAME)
-                .where(eq(MAILBOX_ID, mailbox.getMailboxId().asUuid()))
-                .and(eq(IMAP_UID, message.getUid())));
-        decrementCount(mailbox);
-        if (!message.isSeen()) {
-            decrementUnseen(mailbox);
-        }
+        deleteAsync(mailbox, message).join();
+    }
+
+    public CompletableFuture<Void> deleteAsync(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
+        return executor.execute(statements.selectOne(mailbox.getMailboxId(), message.getUid()))
+            .thenApply(resultSet -> Optional.ofNullable(resultSet.one()))
+            .thenCompose(row -> executor.executeVoid(statements.delete(mailbox.getMailboxId(), message.getUid()))
+                .thenCompose(any -> CompletableFuture.allOf(
+                    executor.executeVoid(statements.deleteHeader(mailbox.getMailboxId(), message.getUid())),
+                    row.map(value -> value.getString(BODY_BLOB_ID))
+                        .map(blobStore::release)
+                        .orElse(CompletableFuture.completedFuture(null)),
+                    removeFromFlagIndexes(mailbox.getMailboxId(), message.getUid(),
+                        row.map(value -> value.getLong(MOD_SEQ)).orElse(message.getModSeq()) + 1),
+                    decrementCounters(mailbox, message))));
     }
 
     @Override
     public Iterator<MailboxMessage<CassandraId>> findInMailbox(Mailbox<CassandraId> mailbox, MessageRange set, FetchType ftype, int max) throws MailboxException {
-        return CassandraUtils.convertToStream(session.execute(buildQuery(mailbox, set)))
-            .map(this::message)
-            .sorted(Comparator.comparingLong(MailboxMessage::getUid))
+        return join(findInMailboxAsync(mailbox, set, ftype, max)).iterator();
+    }
+
+    public CompletableFuture<List<MailboxMessage<CassandraId>>> findInMailboxAsync(Mailbox<CassandraId> mailbox, MessageRange set, FetchType ftype, int max) {
+        return retrieveMessages(buildQuery(mailbox, set), buildHeaderQuery(mailbox, set), ftype);
+    }
+
+    /**
+     * Scattered uids are read with a single request, instead of one per range of contiguous uids.
+     */
+    @Override
+    public Iterator<MailboxMessage<CassandraId>> findInMailbox(Mailbox<CassandraId> mailbox, Collection<Long> uids, FetchType ftype) throws MailboxException {
+        if (uids.isEmpty()) {
+            return ImmutableList.<MailboxMessage<CassandraId>>of().iterator();
+        }
+        Set<Long> distinctUids = ImmutableSet.copyOf(uids);
+        CassandraId mailboxId = mailbox.getMailboxId();
+        return join(retrieveMessages(statements.selectIn(mailboxId, distinctUids), statements.selectHeadersIn(mailboxId, distinctUids), ftype))
             .iterator();
     }
 
+    private CompletableFuture<List<MailboxMessage<CassandraId>>> retrieveMessages(BoundStatement messageQuery, BoundStatement headerQuery, FetchType ftype) {
+        CompletableFuture<Map<Long, byte[]>> headers = retrieveHeaders(headerQuery, ftype);
+        return executor.execute(messageQuery)
+            .thenCombineAsync(headers, (resultSet, headerContents) -> CassandraUtils.convertToStream(resultSet)
+                .map(row -> retrieveMessage(row, headerContents))
+                .sorted(Comparator.comparingLong(MailboxMessage::getUid))
+                .collect(Collectors.toList()),
+                executor.getBlockingExecutor());
+    }
+
+    private CompletableFuture<Map<Long, byte[]>> retrieveHeaders(BoundStatement headerQuery, FetchType ftype) {
+        if (ftype != FetchType.Headers && ftype != FetchType.Full) {
+            return CompletableFuture.completedFuture(ImmutableMap.of());
+        }
+        return executor.execute(headerQuery)
+            .thenApplyAsync(resultSet -> CassandraUtils.convertToStream(resultSet)
+                .collect(Collectors.toMap(
+                    row -> row.getLong(CassandraMessageHeaderTable.IMAP_UID),
+                    row -> toByteArray(row.getBytes(CassandraMessageHeaderTable.HEADER_CONTENT)))),
+                executor.getBlockingExecutor());
+    }
+
+    private MailboxMessage<CassandraId> retrieveMessage(Row row, Map<Long, byte[]> headerContents) {
+        CassandraId mailboxId = CassandraId.of(row.getUUID(MAILBOX_ID));
+        long uid = row.getLong(IMAP_UID);
+        ContentLoader headerLoader = Optional.ofNullable(headerContents.get(uid))
+            .map(this::preloadedContent)
+            .orElseGet(() -> contentLoader(() -> retrieveHeader(mailboxId, uid)));
+        return message(row, headerLoader, bodyLoader(row));
+    }
+
+    private CompletableFuture<Optional<byte[]>> retrieveHeader(CassandraId mailboxId, long uid) {
+        return executor.execute(statements.selectOneHeader(mailboxId, uid))
+            .thenCompose(resultSet -> Optional.ofNullable(resultSet.one())
+                .map(row -> CompletableFuture.completedFuture(Optional.of(toByteArray(row.getBytes(CassandraMessageHeaderTable.HEADER_CONTENT)))))
+                .orElseGet(() -> retrieveLegacyContent(statements.selectLegacyHeader(mailboxId, uid), CassandraMessageTable.HEADER_CONTENT)));
+    }
+
+    /**
+     * Messages stored before headers and bodies had their own tables keep them in the message row
+     */
+    private CompletableFuture<Optional<byte[]>> retrieveLegacyContent(BoundStatement query, String column) {
+        return executor.execute(query)
+            .thenApply(resultSet -> Optional.ofNullable(resultSet.one())
+                .flatMap(row -> Optional.ofNullable(row.getBytes(column)))
+                .map(this::toByteArray));
+    }
+
+    private ContentLoader preloadedContent(byte[] content) {
+        return () -> new ByteBufferInputStream(content);
+    }
+
+    private ContentLoader contentLoader(Supplier<CompletableFuture<Optional<byte[]>>> contentRetriever) {
+        return () -> {
+            try {
+                return new ByteBufferInputStream(contentRetriever.get()
+                    .join()
+                    .orElseThrow(() -> new IOException("Message content can not be found")));
+            } catch (CompletionException e) {
+                throw new IOException("Unable to retrieve message content", e.getCause());
+            }
+        };
+    }
+
+    private byte[] toByteArray(ByteBuffer byteBuffer) {
+        byte[] content = new byte[byteBuffer.remaining()];
+        byteBuffer.get(content);
+        return content;
+    }
+
     @Override
     public List<Long> findRecentMessageUidsInMailbox(Mailbox<CassandraId> mailbox) throws MailboxException {
-        return CassandraUtils.convertToStream(session.execute(selectAll(mailbox).and((eq(RECENT, true)))))
-            .map((row) -> row.getLong(IMAP_UID))
-            .sorted()
-            .collect(Collectors.toList());
+        ensureFlagIndex(mailbox);
+        List<Long> candidates = join(executor.execute(statements.selectAllFlagIndex(mailbox.getMailboxId(), IndexedFlag.RECENT))
+            .thenApplyAsync(resultSet -> CassandraUtils.convertToStream(resultSet)
+                .map((row) -> row.getLong(CassandraMessageFlagIndexTable.IMAP_UID))
+                .collect(Collectors.toList()),
+                executor.getBlockingExecutor()));
+        return join(CompletableFutureUtil.allOf(Lists.partition(candidates, FLAG_INDEX_CHECK_BATCH_SIZE)
+                .stream()
+                .map(uids -> checkFlagIndex(mailbox, IndexedFlag.RECENT, uids))
+                .collect(Collectors.toList()))
+            .thenApply(checkedUids -> checkedUids.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList())));
     }
 
     @Override
     public Long findFirstUnseenMessageUid(Mailbox<CassandraId> mailbox) throws MailboxException {
-        return CassandraUtils.convertToStream(session.execute(selectAll(mailbox).and((eq(SEEN, false)))))
-            .map((row) -> row.getLong(IMAP_UID))
-            .sorted()
-            .findFirst()
-            .orElse(null);
+        ensureFlagIndex(mailbox);
+        return join(findFirstUnseenMessageUid(mailbox, 0)).orElse(null);
+    }
+
+    /**
+     * Reads the first uids of the unseen index from the given one with one request, and checks them with another one.
+     * The next uids are only read when all of them were stale.
+     */
+    private CompletableFuture<Optional<Long>> findFirstUnseenMessageUid(Mailbox<CassandraId> mailbox, long fromUid) {
+        return executor.execute(statements.selectFirstFlagIndexFrom(mailbox.getMailboxId(), IndexedFlag.UNSEEN, fromUid, FLAG_INDEX_CHECK_BATCH_SIZE))
+            .thenComposeAsync(resultSet -> {
+                List<Long> candidates = CassandraUtils.convertToStream(resultSet)
+                    .map(row -> row.getLong(CassandraMessageFlagIndexTable.IMAP_UID))
+                    .collect(Collectors.toList());
+                if (candidates.isEmpty()) {
+                    return CompletableFuture.completedFuture(Optional.<Long>empty());
+                }
+                return checkFlagIndex(mailbox, IndexedFlag.UNSEEN, candidates)
+                    .thenCompose(unseenUids -> unseenUids.stream()
+                        .findFirst()
+                        .map(uid -> CompletableFuture.completedFuture(Optional.of(uid)))
+                        .orElseGet(() -> nextUnseenCandidates(mailbox, candidates)));
+            }, executor.getBlockingExecutor());
+    }
+
+    private CompletableFuture<Optional<Long>> nextUnseenCandidates(Mailbox<CassandraId> mailbox, List<Long> staleCandidates) {
+        if (staleCandidates.size() < FLAG_INDEX_CHECK_BATCH_SIZE) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return findFirstUnseenMessageUid(mailbox, Iterables.getLast(staleCandidates) + 1);
+    }
+
+    /**
+     * Returns the given uids whose message still has the indexed flag state, removing the index entries of the other
+     * ones.
+     */
+    private CompletableFuture<List<Long>> checkFlagIndex(Mailbox<CassandraId> mailbox, String indexedFlag, List<Long> uids) {
+        return executor.execute(statements.selectIn(mailbox.getMailboxId(), uids))
+            .thenComposeAsync(resultSet -> {
+                Map<Long, Row> rows = CassandraUtils.convertToStream(resultSet)
+                    .collect(Collectors.toMap(row -> row.getLong(IMAP_UID), row -> row));
+                Set<Long> staleUids = uids.stream()
+                    .filter(uid -> !rows.containsKey(uid) || !INDEXED_FLAGS.get(indexedFlag).test(getFlags(rows.get(uid))))
+                    .collect(Collectors.toSet());
+                return CompletableFuture.allOf(staleUids.stream()
+                        .map(uid -> removeStaleFlagIndexEntry(mailbox, indexedFlag, uid, Optional.ofNullable(rows.get(uid))))
+                        .toArray(CompletableFuture[]::new))
+                    .thenApply(any -> uids.stream()
+                        .filter(uid -> !staleUids.contains(uid))
+                        .collect(Collectors.toList()));
+            }, executor.getBlockingExecutor());
+    }
+
+    /**
+     * Stale entries were written for older flags than the current ones of their message, hence with a lower
+     * mod-sequence. When the message is gone, the highest mod-sequence of the mailbox is above all of them.
+     */
+    private CompletableFuture<Void> removeStaleFlagIndexEntry(Mailbox<CassandraId> mailbox, String indexedFlag, long uid, Optional<Row> row) {
+        long modSeq;
+        try {
+            modSeq = row.isPresent() ? row.get().getLong(MOD_SEQ) : modSeqProvider.highestModSeq(mailboxSession, mailbox);
+        } catch (MailboxException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e);
+        }
+        LOGGER.debug("Removing stale {} index entry of message {} in mailbox {}", indexedFlag, uid, mailbox.getMailboxId());
+        return executor.executeVoid(statements.deleteFlagIndex(mailbox.getMailboxId(), indexedFlag, uid, modSeq));
+    }
+
+    /**
+     * Indexes the messages of mailboxes created before the flag index. Entries are timestamped with the mod-sequence of
+     * the indexed message, so that updates running meanwhile are not overridden.
+     */
+    private void ensureFlagIndex(Mailbox<CassandraId> mailbox) throws MailboxException {
+        CassandraId mailboxId = mailbox.getMailboxId();
+        if (indexedMailboxes.contains(mailboxId)) {
+            return;
+        }
+        if (join(executor.execute(statements.selectFlagIndexState(mailboxId))).isExhausted()) {
+            LOGGER.info("Building the flag index of mailbox {}", mailboxId);
+            join(CompletableFuture.allOf(CassandraUtils.convertToStream(join(executor.execute(statements.selectAll(mailboxId))))
+                .map(row -> addToFlagIndexes(mailboxId, row.getLong(IMAP_UID), getFlags(row), row.getLong(MOD_SEQ)))
+                .toArray(CompletableFuture[]::new)));
+            join(executor.executeVoid(statements.insertFlagIndexState(mailboxId)));
+        }
+        indexedMailboxes.add(mailboxId);
     }
 
     @Override
     public Map<Long, MessageMetaData> expungeMarkedForDeletionInMailbox(final Mailbox<CassandraId> mailbox, MessageRange set) throws MailboxException {
-        return CassandraUtils.convertToStream(session.execute(buildQuery(mailbox, set).and(eq(DELETED, true))))
-            .map(this::message)
-            .peek((message) -> delete(mailbox, message))
-            .collect(Collectors.toMap(MailboxMessage::getUid, SimpleMessageMetaData::new));
+        ensureFlagIndex(mailbox);
+        return join(executor.execute(buildFlagIndexQuery(mailbox, IndexedFlag.DELETED, set))
+            .thenComposeAsync(resultSet -> CompletableFutureUtil.allOf(
+                CassandraUtils.convertToStream(resultSet)
+                    .map(row -> row.getLong(CassandraMessageFlagIndexTable.IMAP_UID))
+                    .map(uid -> expungeMarkedForDeletion(mailbox, uid))
+                    .collect(Collectors.toList())),
+                executor.getBlockingExecutor())
+            .thenApply(messages -> messages.stream()
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toMap(MailboxMessage::getUid, SimpleMessageMetaData::new))));
+    }
+
+    private CompletableFuture<Optional<MailboxMessage<CassandraId>>> expungeMarkedForDeletion(Mailbox<CassandraId> mailbox, long uid) {
+        return executor.execute(statements.selectOne(mailbox.getMailboxId(), uid))
+            .thenComposeAsync(resultSet -> {
+                Optional<Row> row = Optional.ofNullable(resultSet.one());
+                if (!row.isPresent() || !INDEXED_FLAGS.get(IndexedFlag.DELETED).test(getFlags(row.get()))) {
+                    return removeStaleFlagIndexEntry(mailbox, IndexedFlag.DELETED, uid, row)
+                        .thenApply(any -> Optional.empty());
+                }
+                MailboxMessage<CassandraId> message = message(row.get());
+                return deleteAsync(mailbox, message)
+                    .thenApply(any -> Optional.of(message));
+            }, executor.getBlockingExecutor());
     }
 
     @Override
@@ -212,25 +442,35 @@ public class CassandraMessageMapper implements MessageMapper<CassandraId> {
 
     @Override
     public MessageMetaData add(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) throws MailboxException {
-        message.setUid(uidProvider.nextUid(mailboxSession, mailbox));
-        message.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
-        MessageMetaData messageMetaData = save(mailbox, message);
-        if (!message.isSeen()) {
-            incrementUnseen(mailbox);
+        return join(addAsync(mailbox, message));
+    }
+
+    public CompletableFuture<MessageMetaData> addAsync(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
+        try {
+            message.setUid(uidProvider.nextUid(mailboxSession, mailbox));
+            message.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
+        } catch (MailboxException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e);
         }
-        incrementCount(mailbox);
-        return messageMetaData;
+        return save(mailbox, message);
     }
 
     @Override
     public Iterator<UpdatedFlags> updateFlags(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, MessageRange set) throws MailboxException {
-        return CassandraUtils.convertToStream(session.execute(buildQuery(mailbox, set)))
-            .map((row) -> updateFlagsOnMessage(mailbox, flagUpdateCalculator, row))
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .peek((updatedFlags) -> manageUnseenMessageCounts(mailbox, updatedFlags.getOldFlags(), updatedFlags.getNewFlags()))
-            .collect(Collectors.toList()) // This collect is here as we need to consume all the stream before returning result
-            .iterator();
+        return join(updateFlagsAsync(mailbox, flagUpdateCalculator, set)).iterator();
+    }
+
+    public CompletableFuture<List<UpdatedFlags>> updateFlagsAsync(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, MessageRange set) {
+        return executor.execute(buildQuery(mailbox, set))
+            .thenComposeAsync(resultSet -> updateFlagsOnMessages(mailbox, flagUpdateCalculator,
+                CassandraUtils.convertToStream(resultSet)
+                    .map(this::message)
+                    .collect(Collectors.toList())),
+                executor.getBlockingExecutor())
+            .thenApply(updatedFlags -> updatedFlags.stream()
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList()));
     }
 
     @Override
@@ -240,15 +480,13 @@ public class CassandraMessageMapper implements MessageMapper<CassandraId> {
 
     @Override
     public MessageMetaData copy(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> original) throws MailboxException {
-
-        original.setUid(uidProvider.nextUid(mailboxSession, mailbox));
-        original.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
-        incrementCount(mailbox);
-        if(!original.isSeen()) {
-            incrementUnseen(mailbox);
-        }
-        original.setFlags(new FlagsBuilder().add(original.createFlags()).add(Flag.RECENT).build());
-        return save(mailbox, original);
+        CompletableFuture<String> bodyBlobId = copyBody(original);
+        SimpleMailboxMessage<CassandraId> copy = new SimpleMailboxMessage<>(original,
+            new FlagsBuilder().add(original.createFlags()).add(Flag.RECENT).build(),
+            mailbox.getMailboxId());
+        copy.setUid(uidProvider.nextUid(mailboxSession, mailbox));
+        copy.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
+        return join(save(mailbox, copy, bodyBlobId));
     }
 
     @Override
@@ -256,49 +494,57 @@ public class CassandraMessageMapper implements MessageMapper<CassandraId> {
         return uidProvider.lastUid(mailboxSession, mailbox);
     }
 
-    private void decrementCount(Mailbox<CassandraId> mailbox) {
-        updateMailbox(mailbox, decr(CassandraMailboxCountersTable.COUNT));
-    }
-
-    private void incrementCount(Mailbox<CassandraId> mailbox) {
-        updateMailbox(mailbox, incr(CassandraMailboxCountersTable.COUNT));
-    }
-
-    private void decrementUnseen(Mailbox<CassandraId> mailbox) {
-        updateMailbox(mailbox, decr(CassandraMailboxCountersTable.UNSEEN));
+    private CompletableFuture<Void> incrementCounters(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
+        CompletableFuture<Void> countIncrement = executor.executeVoid(statements.incrementCount(mailbox.getMailboxId()));
+        if (message.isSeen()) {
+            return countIncrement;
+        }
+        return CompletableFuture.allOf(countIncrement, executor.executeVoid(statements.incrementUnseen(mailbox.getMailboxId())));
     }
 
-    private void incrementUnseen(Mailbox<CassandraId> mailbox) {
-        updateMailbox(mailbox, incr(CassandraMailboxCountersTable.UNSEEN));
+    private CompletableFuture<Void> decrementCounters(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
+        CompletableFuture<Void> countDecrement = executor.executeVoid(statements.decrementCount(mailbox.getMailboxId()));
+        if (message.isSeen()) {
+            return countDecrement;
+        }
+        return CompletableFuture.allOf(countDecrement, executor.executeVoid(statements.decrementUnseen(mailbox.getMailboxId())));
     }
 
-    private void updateMailbox(Mailbox<CassandraId> mailbox, Assignment operation) {
-        session.execute(update(CassandraMailboxCountersTable.TABLE_NAME).with(operation).where(eq(CassandraMailboxCountersTable.MAILBOX_ID, mailbox.getMailboxId().asUuid())));
+    private MailboxMessage<CassandraId> message(Row row) {
+        CassandraId mailboxId = CassandraId.of(row.getUUID(MAILBOX_ID));
+        long uid = row.getLong(IMAP_UID);
+        return message(row,
+            contentLoader(() -> retrieveHeader(mailboxId, uid)),
+            bodyLoader(row));
+    }
+
+    private ContentLoader bodyLoader(Row row) {
+        String bodyBlobId = row.getString(BODY_BLOB_ID);
+        if (bodyBlobId == null) {
+            CassandraId mailboxId = CassandraId.of(row.getUUID(MAILBOX_ID));
+            long uid = row.getLong(IMAP_UID);
+            return contentLoader(() -> retrieveLegacyContent(statements.selectLegacyBody(mailboxId, uid), CassandraMessageTable.BODY_CONTENT));
+        }
+        return () -> blobStore.read(bodyBlobId);
     }
 
-    private MailboxMessage<CassandraId> message(Row row) {
+    private MailboxMessage<CassandraId> message(Row row, ContentLoader headerLoader, ContentLoader bodyLoader) {
         SimpleMailboxMessage<CassandraId> message =
             new SimpleMailboxMessage<>(
-                row.getDate(INTERNAL_DATE),
-                row.getInt(FULL_CONTENT_OCTETS),
-                row.getInt(BODY_START_OCTET),
-                new SharedByteArrayInputStream(getFullContent(row)),
+                new CassandraMessage(
+                    row.getDate(INTERNAL_DATE),
+                    row.getInt(FULL_CONTENT_OCTETS),
+                    row.getInt(BODY_START_OCTET),
+                    getPropertyBuilder(row),
+                    headerLoader,
+                    bodyLoader),
                 getFlags(row),
-                getPropertyBuilder(row),
                 CassandraId.of(row.getUUID(MAILBOX_ID)));
         message.setUid(row.getLong(IMAP_UID));
         message.setModSeq(row.getLong(MOD_SEQ));
         return message;
     }
 
-    private byte[] getFullContent(Row row) {
-        byte[] headerContent = new byte[row.getBytes(HEADER_CONTENT).remaining()];
-        byte[] bodyContent = new byte[row.getBytes(BODY_CONTENT).remaining()];
-        row.getBytes(HEADER_CONTENT).get(headerContent);
-        row.getBytes(BODY_CONTENT).get(bodyContent);
-        return Bytes.concat(headerContent, bodyContent);
-    }
-
     private Flags getFlags(Row row) {
         Flags flags = new Flags();
         for (String flag : CassandraMessageTable.Flag.ALL) {
@@ -321,161 +567,208 @@ public class CassandraMessageMapper implements MessageMapper<CassandraId> {
         return property;
     }
 
-    private MessageMetaData save(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) throws MailboxException {
+    private CompletableFuture<MessageMetaData> save(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
+        return save(mailbox, message, saveBody(message));
+    }
+
+    private CompletableFuture<String> saveBody(MailboxMessage<CassandraId> message) {
+        if (deduplicateContent) {
+            return blobStore.saveDeduplicated(message::getBodyContent);
+        }
         try {
-            Insert query = insertInto(TABLE_NAME)
-                .value(MAILBOX_ID, mailbox.getMailboxId().asUuid())
-                .value(IMAP_UID, message.getUid())
-                .value(MOD_SEQ, message.getModSeq())
-                .value(INTERNAL_DATE, message.getInternalDate())
-                .value(BODY_START_OCTET, message.getFullContentOctets() - message.getBodyOctets())
-                .value(FULL_CONTENT_OCTETS, message.getFullContentOctets())
-                .value(BODY_OCTECTS, message.getBodyOctets())
-                .value(ANSWERED, message.isAnswered())
-                .value(DELETED, message.isDeleted())
-                .value(DRAFT, message.isDraft())
-                .value(FLAGGED, message.isFlagged())
-                .value(RECENT, message.isRecent())
-                .value(SEEN, message.isSeen())
-                .value(USER, message.createFlags().contains(Flag.USER))
-                .value(USER_FLAGS, userFlagsSet(message))
-                .value(BODY_CONTENT, bindMarker())
-                .value(HEADER_CONTENT, bindMarker())
-                .value(PROPERTIES, message.getProperties().stream()
-                    .map(x -> typesProvider.getDefinedUserType(PROPERTIES)
-                        .newValue()
-                        .setString(Properties.NAMESPACE, x.getNamespace())
-                        .setString(Properties.NAME, x.getLocalName())
-                        .setString(Properties.VALUE, x.getValue()))
-                    .collect(Collectors.toList()))
-                .value(TEXTUAL_LINE_COUNT, message.getTextualLineCount());
-            PreparedStatement preparedStatement = session.prepare(query.toString());
-
-
-            BoundStatement boundStatement = preparedStatement.bind(toByteBuffer(message.getBodyContent()), toByteBuffer(message.getHeaderContent()));
-            session.execute(boundStatement);
-            return new SimpleMessageMetaData(message);
+            return blobStore.save(message.getBodyContent());
         } catch (IOException e) {
-            throw new MailboxException("Error saving mail", e);
+            return CompletableFutureUtil.exceptionallyFuture(new MailboxException("Error saving mail", e));
         }
     }
 
-    private Set<String> userFlagsSet(MailboxMessage<CassandraId> message) {
-        return Arrays.stream(message.createFlags().getUserFlags()).collect(Collectors.toSet());
+    private CompletableFuture<String> copyBody(MailboxMessage<CassandraId> original) {
+        if (!deduplicateContent) {
+            return saveBody(original);
+        }
+        return executor.execute(statements.selectOne(original.getMailboxId(), original.getUid()))
+            .thenCompose(resultSet -> Optional.ofNullable(resultSet.one())
+                .map(row -> row.getString(BODY_BLOB_ID))
+                .map(blobStore::retain)
+                .orElse(CompletableFuture.completedFuture(Optional.empty())))
+            .thenComposeAsync(retainedBlobId -> retainedBlobId
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> saveBody(original)),
+                executor.getBlockingExecutor());
+    }
+
+    private CompletableFuture<MessageMetaData> save(Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message, CompletableFuture<String> bodyBlobId) {
+        BoundStatement insertHeader;
+        try {
+            insertHeader = statements.insertHeader(message);
+        } catch (IOException e) {
+            return CompletableFutureUtil.exceptionallyFuture(new MailboxException("Error saving mail", e));
+        }
+        List<UDTValue> properties = message.getProperties().stream()
+            .map(x -> typesProvider.getDefinedUserType(PROPERTIES)
+                .newValue()
+                .setString(Properties.NAMESPACE, x.getNamespace())
+                .setString(Properties.NAME, x.getLocalName())
+                .setString(Properties.VALUE, x.getValue()))
+            .collect(Collectors.toList());
+        return executor.executeVoid(insertHeader)
+            .thenCombine(bodyBlobId, (any, blobId) -> blobId)
+            .thenCompose(blobId -> executor.executeVoid(statements.insert(message, properties, blobId)))
+            .thenCompose(any -> CompletableFuture.allOf(
+                addToFlagIndexes(mailbox.getMailboxId(), message.getUid(), message.createFlags(), message.getModSeq()),
+                incrementCounters(mailbox, message)))
+            .thenApply(any -> new SimpleMessageMetaData(message));
+    }
+
+    private CompletableFuture<Void> addToFlagIndexes(CassandraId mailboxId, long uid, Flags flags, long modSeq) {
+        return executeFlagIndexBatch(INDEXED_FLAGS.entrySet().stream()
+            .filter(indexedFlag -> indexedFlag.getValue().test(flags))
+            .map(indexedFlag -> statements.insertFlagIndex(mailboxId, indexedFlag.getKey(), uid, modSeq)));
+    }
+
+    private CompletableFuture<Void> updateFlagIndexes(CassandraId mailboxId, long uid, Flags oldFlags, Flags newFlags, long modSeq) {
+        return executeFlagIndexBatch(INDEXED_FLAGS.entrySet().stream()
+            .filter(indexedFlag -> indexedFlag.getValue().test(oldFlags) != indexedFlag.getValue().test(newFlags))
+            .map(indexedFlag -> {
+                if (indexedFlag.getValue().test(newFlags)) {
+                    return statements.insertFlagIndex(mailboxId, indexedFlag.getKey(), uid, modSeq);
+                }
+                return statements.deleteFlagIndex(mailboxId, indexedFlag.getKey(), uid, modSeq);
+            }));
+    }
+
+    private CompletableFuture<Void> removeFromFlagIndexes(CassandraId mailboxId, long uid, long modSeq) {
+        return executeFlagIndexBatch(INDEXED_FLAGS.keySet().stream()
+            .map(indexedFlag -> statements.deleteFlagIndex(mailboxId, indexedFlag, uid, modSeq)));
+    }
+
+    private CompletableFuture<Void> executeFlagIndexBatch(Stream<BoundStatement> mutations) {
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+        mutations.forEach(batch::add);
+        if (batch.size() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return executor.executeVoid(batch);
     }
 
-    private void manageUnseenMessageCounts(Mailbox<CassandraId> mailbox, Flags oldFlags, Flags newFlags) {
+    private CompletableFuture<Void> manageUnseenMessageCounts(Mailbox<CassandraId> mailbox, Flags oldFlags, Flags newFlags) {
         if (oldFlags.contains(Flag.SEEN) && !newFlags.contains(Flag.SEEN)) {
-            incrementUnseen(mailbox);
+            return executor.executeVoid(statements.incrementUnseen(mailbox.getMailboxId()));
         }
         if (!oldFlags.contains(Flag.SEEN) && newFlags.contains(Flag.SEEN)) {
-            decrementUnseen(mailbox);
+            return executor.executeVoid(statements.decrementUnseen(mailbox.getMailboxId()));
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    private Optional<UpdatedFlags> updateFlagsOnMessage(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, Row row) {
-        return tryMessageFlagsUpdate(flagUpdateCalculator, mailbox, message(row))
-            .map(Optional::of)
-            .orElse(handleRetries(mailbox, flagUpdateCalculator, row.getLong(IMAP_UID)));
-    }
-
-    private Optional<UpdatedFlags> tryMessageFlagsUpdate(FlagsUpdateCalculator flagUpdateCalculator, Mailbox<CassandraId> mailbox, MailboxMessage<CassandraId> message) {
+    private CompletableFuture<List<Optional<UpdatedFlags>>> updateFlagsOnMessages(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, List<MailboxMessage<CassandraId>> messages) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(ImmutableList.of());
+        }
+        long firstModSeq;
         try {
-            long oldModSeq = message.getModSeq();
-            Flags oldFlags = message.createFlags();
-            Flags newFlags = flagUpdateCalculator.buildNewFlags(oldFlags);
-            message.setFlags(newFlags);
-            message.setModSeq(modSeqProvider.nextModSeq(mailboxSession, mailbox));
-            if (conditionalSave(message, oldModSeq)) {
-                return Optional.of(new UpdatedFlags(message.getUid(), message.getModSeq(), oldFlags, newFlags));
-            } else {
-                return Optional.empty();
-            }
+            firstModSeq = modSeqProvider.nextModSeqs(mailboxSession, mailbox, messages.size());
         } catch (MailboxException e) {
-            throw Throwables.propagate(e);
+            return CompletableFutureUtil.exceptionallyFuture(e);
         }
+        return CompletableFutureUtil.allOf(IntStream.range(0, messages.size())
+            .mapToObj(i -> updateFlagsOnMessage(mailbox, flagUpdateCalculator, messages.get(i), firstModSeq + i, maxRetries))
+            .collect(Collectors.toList()));
     }
 
-    private Optional<UpdatedFlags> handleRetries(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, long uid) {
+    private CompletableFuture<Optional<UpdatedFlags>> updateFlagsOnMessage(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, MailboxMessage<CassandraId> message, int remainingRetries) {
         try {
-            return Optional.of(
-                new FunctionRunnerWithRetry(maxRetries)
-                    .executeAndRetrieveObject(() -> retryMessageFlagsUpdate(mailbox, uid, flagUpdateCalculator)));
-        } catch (MessageDeletedDuringFlagsUpdateException e) {
-            mailboxSession.getLog().warn(e.getMessage());
-            return Optional.empty();
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+            return updateFlagsOnMessage(mailbox, flagUpdateCalculator, message, modSeqProvider.nextModSeq(mailboxSession, mailbox), remainingRetries);
+        } catch (MailboxException e) {
+            return CompletableFutureUtil.exceptionallyFuture(e);
         }
     }
 
-    private Optional<UpdatedFlags> retryMessageFlagsUpdate(Mailbox<CassandraId> mailbox, long uid, FlagsUpdateCalculator flagUpdateCalculator) {
-        return tryMessageFlagsUpdate(flagUpdateCalculator, mailbox, message(Optional.ofNullable(session.execute(selectMessage(mailbox, uid)).one()).orElseThrow(() -> new MessageDeletedDuringFlagsUpdateException(mailbox.getMailboxId(), uid))));
-    }
-
-    private boolean conditionalSave(MailboxMessage<CassandraId> message, long oldModSeq) {
-        ResultSet resultSet = session.execute(
-            update(TABLE_NAME)
-                .with(set(ANSWERED, message.isAnswered()))
-                .and(set(DELETED, message.isDeleted()))
-                .and(set(DRAFT, message.isDraft()))
-                .and(set(FLAGGED, message.isFlagged()))
-                .and(set(RECENT, message.isRecent()))
-                .and(set(SEEN, message.isSeen()))
-                .and(set(USER, message.createFlags().contains(Flag.USER)))
-                .and(set(USER_FLAGS, userFlagsSet(message)))
-                .and(set(MOD_SEQ, message.getModSeq()))
-                .where(eq(IMAP_UID, message.getUid()))
-                .and(eq(MAILBOX_ID, message.getMailboxId().asUuid()))
-                .onlyIf(eq(MOD_SEQ, oldModSeq)));
-        return resultSet.one().getBool(CassandraConstants.LIGHTWEIGHT_TRANSACTION_APPLIED);
-    }
-
-    private ByteBuffer toByteBuffer(InputStream stream) throws IOException {
-        return ByteBuffer.wrap(ByteStreams.toByteArray(stream));
+    private CompletableFuture<Optional<UpdatedFlags>> updateFlagsOnMessage(Mailbox<CassandraId> mailbox, FlagsUpdateCalculator flagUpdateCalculator, MailboxMessage<CassandraId> message, long newModSeq, int remainingRetries) {
+        long oldModSeq = message.getModSeq();
+        Flags oldFlags = message.createFlags();
+        Flags newFlags = flagUpdateCalculator.buildNewFlags(oldFlags);
+        message.setFlags(newFlags);
+        message.setModSeq(newModSeq);
+        return executor.executeReturnApplied(statements.updateFlags(message, oldModSeq))
+            .thenComposeAsync(applied -> {
+                if (applied) {
+                    return CompletableFuture.allOf(
+                            manageUnseenMessageCounts(mailbox, oldFlags, newFlags),
+                            updateFlagIndexes(mailbox.getMailboxId(), message.getUid(), oldFlags, newFlags, newModSeq))
+                        .thenApply(any -> Optional.of(new UpdatedFlags(message.getUid(), message.getModSeq(), oldFlags, newFlags)));
+                }
+                if (remainingRetries <= 0) {
+                    return CompletableFutureUtil.exceptionallyFuture(new LightweightTransactionException(maxRetries));
+                }
+                return retryMessageFlagsUpdate(mailbox, message.getUid(), flagUpdateCalculator, remainingRetries - 1);
+            }, executor.getBlockingExecutor());
+    }
+
+    private CompletableFuture<Optional<UpdatedFlags>> retryMessageFlagsUpdate(Mailbox<CassandraId> mailbox, long uid, FlagsUpdateCalculator flagUpdateCalculator, int remainingRetries) {
+        return executor.execute(statements.selectOne(mailbox.getMailboxId(), uid))
+            .thenComposeAsync(resultSet -> Optional.ofNullable(resultSet.one())
+                .map(row -> updateFlagsOnMessage(mailbox, flagUpdateCalculator, message(row), remainingRetries))
+                .orElseGet(() -> {
+                    LOGGER.warn(new MessageDeletedDuringFlagsUpdateException(mailbox.getMailboxId(), uid).getMessage());
+                    return CompletableFuture.completedFuture(Optional.empty());
+                }), executor.getBlockingExecutor());
+    }
+
+    private <T> T join(CompletableFuture<T> future) throws MailboxException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof MailboxException) {
+                throw (MailboxException) e.getCause();
+            }
+            throw new MailboxException("Error while executing Cassandra request", e);
+        }
     }
 
-    private Where buildQuery(Mailbox<CassandraId> mailbox, MessageRange set) {
+    private BoundStatement buildQuery(Mailbox<CassandraId> mailbox, MessageRange set) {
         final MessageRange.Type type = set.getType();
         switch (type) {
         case ALL:
-            return selectAll(mailbox);
+            return statements.selectAll(mailbox.getMailboxId());
         case FROM:
-            return selectFrom(mailbox, set.getUidFrom());
+            return statements.selectFrom(mailbox.getMailboxId(), set.getUidFrom());
         case RANGE:
-            return selectRange(mailbox, set.getUidFrom(), set.getUidTo());
+            return statements.selectRange(mailbox.getMailboxId(), set.getUidFrom(), set.getUidTo());
         case ONE:
-            return selectMessage(mailbox, set.getUidFrom());
+            return statements.selectOne(mailbox.getMailboxId(), set.getUidFrom());
         }
         throw new UnsupportedOperationException();
     }
 
-    private Where selectAll(Mailbox<CassandraId> mailbox) {
-        return select(FIELDS)
-            .from(TABLE_NAME)
-            .where(eq(MAILBOX_ID, mailbox.getMailboxId().asUuid()));
-    }
-
-    private Where selectFrom(Mailbox<CassandraId> mailbox, long uid) {
-        return select(FIELDS)
-            .from(TABLE_NAME)
-            .where(eq(MAILBOX_ID, mailbox.getMailboxId().asUuid()))
-            .and(gte(IMAP_UID, uid));
-    }
-
-    private Where selectRange(Mailbox<CassandraId> mailbox, long from, long to) {
-        return select(FIELDS)
-            .from(TABLE_NAME)
-            .where(eq(MAILBOX_ID, mailbox.getMailboxId().asUuid()))
-            .and(gte(IMAP_UID, from))
-            .and(lte(IMAP_UID, to));
+    private BoundStatement buildFlagIndexQuery(Mailbox<CassandraId> mailbox, String indexedFlag, MessageRange set) {
+        final MessageRange.Type type = set.getType();
+        switch (type) {
+        case ALL:
+            return statements.selectAllFlagIndex(mailbox.getMailboxId(), indexedFlag);
+        case FROM:
+            return statements.selectFlagIndexFrom(mailbox.getMailboxId(), indexedFlag, set.getUidFrom());
+        case RANGE:
+            return statements.selectFlagIndexRange(mailbox.getMailboxId(), indexedFlag, set.getUidFrom(), set.getUidTo());
+        case ONE:
+            return statements.selectOneFlagIndex(mailbox.getMailboxId(), indexedFlag, set.getUidFrom());
+        }
+        throw new UnsupportedOperationException();
     }
 
-    private Where selectMessage(Mailbox<CassandraId> mailbox, long uid) {
-        return select(FIELDS)
-            .from(TABLE_NAME)
-            .where(eq(MAILBOX_ID, mailbox.getMailboxId().asUuid()))
-            .and(eq(IMAP_UID, uid));
+    private BoundStatement buildHeaderQuery(Mailbox<CassandraId> mailbox, MessageRange set) {
+        final MessageRange.Type type = set.getType();
+        switch (type) {
+        case ALL:
+            return statements.selectAllHeaders(mailbox.getMailboxId());
+        case FROM:
+            return statements.selectHeadersFrom(mailbox.getMailboxId(), set.getUidFrom());
+        case RANGE:
+            return statements.selectHeadersRange(mailbox.getMailboxId(), set.getUidFrom(), set.getUidTo());
+        case ONE:
+            return statements.selectOneHeader(mailbox.getMailboxId(), set.getUidFrom());
+        }
+        throw new UnsupportedOperationException();
     }
 
 }
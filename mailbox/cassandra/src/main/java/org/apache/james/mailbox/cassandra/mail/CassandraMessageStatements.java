@@ -0,0 +1,454 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.bindMarker;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.decr;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.eq;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.gte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.in;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.incr;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.lte;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.select;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.set;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.timestamp;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.update;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_BLOB_ID;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_CONTENT;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_OCTECTS;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.BODY_START_OCTET;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.FIELDS;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.FULL_CONTENT_OCTETS;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.HEADER_CONTENT;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.IMAP_UID;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.INTERNAL_DATE;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.MAILBOX_ID;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.MOD_SEQ;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.PROPERTIES;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.TABLE_NAME;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.TEXTUAL_LINE_COUNT;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.ANSWERED;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.DELETED;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.DRAFT;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.FLAGGED;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.RECENT;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.SEEN;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.USER;
+import static org.apache.james.mailbox.cassandra.table.CassandraMessageTable.Flag.USER_FLAGS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.table.CassandraMailboxCountersTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexStateTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageHeaderTable;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.UDTValue;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Statements used by {@link CassandraMessageMapper}.
+ *
+ * Message metadata and headers are stored in distinct tables, so that a request only reads the parts it needs. Bodies
+ * are stored in a {@link org.apache.james.backends.cassandra.blob.CassandraBlobStore}, referenced by the message row.
+ * Messages stored before that still have their content in the message row, which is read instead.
+ * Uids of unseen, recent and deleted messages are also kept in {@link CassandraMessageFlagIndexTable}, so that they can
+ * be looked up without reading every message of the mailbox. Index entries are written with the mod-sequence of the
+ * flags they reflect as timestamp, so that concurrent updates of the same message converge on its latest flags,
+ * whatever the order in which they reach Cassandra.
+ *
+ * They are prepared once per {@link Session}, so that each request only sends bound values to Cassandra instead of
+ * having the CQL parsed again.
+ */
+public class CassandraMessageStatements {
+
+    private final PreparedStatement insert;
+    private final PreparedStatement insertHeader;
+    private final PreparedStatement delete;
+    private final PreparedStatement deleteHeader;
+    private final PreparedStatement selectAll;
+    private final PreparedStatement selectFrom;
+    private final PreparedStatement selectRange;
+    private final PreparedStatement selectOne;
+    private final PreparedStatement selectIn;
+    private final PreparedStatement selectLegacyHeader;
+    private final PreparedStatement selectLegacyBody;
+    private final PreparedStatement selectAllHeaders;
+    private final PreparedStatement selectHeadersFrom;
+    private final PreparedStatement selectHeadersRange;
+    private final PreparedStatement selectOneHeader;
+    private final PreparedStatement selectHeadersIn;
+    private final PreparedStatement insertFlagIndex;
+    private final PreparedStatement deleteFlagIndex;
+    private final PreparedStatement selectAllFlagIndex;
+    private final PreparedStatement selectFlagIndexFrom;
+    private final PreparedStatement selectFirstFlagIndexFrom;
+    private final PreparedStatement selectFlagIndexRange;
+    private final PreparedStatement selectOneFlagIndex;
+    private final PreparedStatement insertFlagIndexState;
+    private final PreparedStatement selectFlagIndexState;
+    private final PreparedStatement updateFlags;
+    private final PreparedStatement incrementCount;
+    private final PreparedStatement decrementCount;
+    private final PreparedStatement incrementUnseen;
+    private final PreparedStatement decrementUnseen;
+    private final PreparedStatement selectCount;
+    private final PreparedStatement selectUnseenCount;
+
+    public CassandraMessageStatements(Session session) {
+        this.insert = session.prepare(insertInto(TABLE_NAME)
+            .value(MAILBOX_ID, bindMarker())
+            .value(IMAP_UID, bindMarker())
+            .value(MOD_SEQ, bindMarker())
+            .value(INTERNAL_DATE, bindMarker())
+            .value(BODY_START_OCTET, bindMarker())
+            .value(FULL_CONTENT_OCTETS, bindMarker())
+            .value(BODY_OCTECTS, bindMarker())
+            .value(ANSWERED, bindMarker())
+            .value(DELETED, bindMarker())
+            .value(DRAFT, bindMarker())
+            .value(FLAGGED, bindMarker())
+            .value(RECENT, bindMarker())
+            .value(SEEN, bindMarker())
+            .value(USER, bindMarker())
+            .value(USER_FLAGS, bindMarker())
+            .value(PROPERTIES, bindMarker())
+            .value(BODY_BLOB_ID, bindMarker())
+            .value(TEXTUAL_LINE_COUNT, bindMarker()));
+        this.insertHeader = session.prepare(insertInto(CassandraMessageHeaderTable.TABLE_NAME)
+            .value(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker())
+            .value(CassandraMessageHeaderTable.IMAP_UID, bindMarker())
+            .value(CassandraMessageHeaderTable.HEADER_CONTENT, bindMarker()));
+        this.delete = session.prepare(QueryBuilder.delete()
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(eq(IMAP_UID, bindMarker())));
+        this.deleteHeader = session.prepare(QueryBuilder.delete()
+            .from(CassandraMessageHeaderTable.TABLE_NAME)
+            .where(eq(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageHeaderTable.IMAP_UID, bindMarker())));
+        this.selectAll = session.prepare(select(FIELDS)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker())));
+        this.selectFrom = session.prepare(select(FIELDS)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(gte(IMAP_UID, bindMarker())));
+        this.selectRange = session.prepare(select(FIELDS)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(gte(IMAP_UID, bindMarker()))
+            .and(lte(IMAP_UID, bindMarker())));
+        this.selectOne = session.prepare(select(FIELDS)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(eq(IMAP_UID, bindMarker())));
+        this.selectIn = session.prepare(select(FIELDS)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(in(IMAP_UID, bindMarker())));
+        this.selectLegacyHeader = session.prepare(select(HEADER_CONTENT)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(eq(IMAP_UID, bindMarker())));
+        this.selectLegacyBody = session.prepare(select(BODY_CONTENT)
+            .from(TABLE_NAME)
+            .where(eq(MAILBOX_ID, bindMarker()))
+            .and(eq(IMAP_UID, bindMarker())));
+        this.selectAllHeaders = session.prepare(select(CassandraMessageHeaderTable.FIELDS)
+            .from(CassandraMessageHeaderTable.TABLE_NAME)
+            .where(eq(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker())));
+        this.selectHeadersFrom = session.prepare(select(CassandraMessageHeaderTable.FIELDS)
+            .from(CassandraMessageHeaderTable.TABLE_NAME)
+            .where(eq(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker()))
+            .and(gte(CassandraMessageHeaderTable.IMAP_UID, bindMarker())));
+        this.selectHeadersRange = session.prepare(select(CassandraMessageHeaderTable.FIELDS)
+            .from(CassandraMessageHeaderTable.TABLE_NAME)
+            .where(eq(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker()))
+            .and(gte(CassandraMessageHeaderTable.IMAP_UID, bindMarker()))
+            .and(lte(CassandraMessageHeaderTable.IMAP_UID, bindMarker())));
+        this.selectOneHeader = session.prepare(select(CassandraMessageHeaderTable.FIELDS)
+            .from(CassandraMessageHeaderTable.TABLE_NAME)
+            .where(eq(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageHeaderTable.IMAP_UID, bindMarker())));
+        this.selectHeadersIn = session.prepare(select(CassandraMessageHeaderTable.FIELDS)
+            .from(CassandraMessageHeaderTable.TABLE_NAME)
+            .where(eq(CassandraMessageHeaderTable.MAILBOX_ID, bindMarker()))
+            .and(in(CassandraMessageHeaderTable.IMAP_UID, bindMarker())));
+        this.insertFlagIndex = session.prepare(insertInto(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .value(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker())
+            .value(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker())
+            .value(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker())
+            .using(timestamp(bindMarker())));
+        this.deleteFlagIndex = session.prepare(QueryBuilder.delete()
+            .from(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .using(timestamp(bindMarker()))
+            .where(eq(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker())));
+        this.selectAllFlagIndex = session.prepare(select(CassandraMessageFlagIndexTable.IMAP_UID)
+            .from(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .where(eq(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker())));
+        this.selectFlagIndexFrom = session.prepare(select(CassandraMessageFlagIndexTable.IMAP_UID)
+            .from(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .where(eq(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker()))
+            .and(gte(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker())));
+        this.selectFirstFlagIndexFrom = session.prepare(select(CassandraMessageFlagIndexTable.IMAP_UID)
+            .from(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .where(eq(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker()))
+            .and(gte(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker()))
+            .limit(bindMarker()));
+        this.selectFlagIndexRange = session.prepare(select(CassandraMessageFlagIndexTable.IMAP_UID)
+            .from(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .where(eq(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker()))
+            .and(gte(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker()))
+            .and(lte(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker())));
+        this.selectOneFlagIndex = session.prepare(select(CassandraMessageFlagIndexTable.IMAP_UID)
+            .from(CassandraMessageFlagIndexTable.TABLE_NAME)
+            .where(eq(CassandraMessageFlagIndexTable.MAILBOX_ID, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.INDEXED_FLAG, bindMarker()))
+            .and(eq(CassandraMessageFlagIndexTable.IMAP_UID, bindMarker())));
+        this.insertFlagIndexState = session.prepare(insertInto(CassandraMessageFlagIndexStateTable.TABLE_NAME)
+            .value(CassandraMessageFlagIndexStateTable.MAILBOX_ID, bindMarker()));
+        this.selectFlagIndexState = session.prepare(select(CassandraMessageFlagIndexStateTable.MAILBOX_ID)
+            .from(CassandraMessageFlagIndexStateTable.TABLE_NAME)
+            .where(eq(CassandraMessageFlagIndexStateTable.MAILBOX_ID, bindMarker())));
+        this.updateFlags = session.prepare(update(TABLE_NAME)
+            .with(set(ANSWERED, bindMarker()))
+            .and(set(DELETED, bindMarker()))
+            .and(set(DRAFT, bindMarker()))
+            .and(set(FLAGGED, bindMarker()))
+            .and(set(RECENT, bindMarker()))
+            .and(set(SEEN, bindMarker()))
+            .and(set(USER, bindMarker()))
+            .and(set(USER_FLAGS, bindMarker()))
+            .and(set(MOD_SEQ, bindMarker()))
+            .where(eq(IMAP_UID, bindMarker()))
+            .and(eq(MAILBOX_ID, bindMarker()))
+            .onlyIf(eq(MOD_SEQ, bindMarker())));
+        this.incrementCount = session.prepare(update(CassandraMailboxCountersTable.TABLE_NAME)
+            .with(incr(CassandraMailboxCountersTable.COUNT))
+            .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, bindMarker())));
+        this.decrementCount = session.prepare(update(CassandraMailboxCountersTable.TABLE_NAME)
+            .with(decr(CassandraMailboxCountersTable.COUNT))
+            .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, bindMarker())));
+        this.incrementUnseen = session.prepare(update(CassandraMailboxCountersTable.TABLE_NAME)
+            .with(incr(CassandraMailboxCountersTable.UNSEEN))
+            .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, bindMarker())));
+        this.decrementUnseen = session.prepare(update(CassandraMailboxCountersTable.TABLE_NAME)
+            .with(decr(CassandraMailboxCountersTable.UNSEEN))
+            .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, bindMarker())));
+        this.selectCount = session.prepare(select(CassandraMailboxCountersTable.COUNT)
+            .from(CassandraMailboxCountersTable.TABLE_NAME)
+            .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, bindMarker())));
+        this.selectUnseenCount = session.prepare(select(CassandraMailboxCountersTable.UNSEEN)
+            .from(CassandraMailboxCountersTable.TABLE_NAME)
+            .where(eq(CassandraMailboxCountersTable.MAILBOX_ID, bindMarker())));
+    }
+
+    public BoundStatement insert(MailboxMessage<CassandraId> message, List<UDTValue> properties, String bodyBlobId) {
+        Flags flags = message.createFlags();
+        return insert.bind(
+            message.getMailboxId().asUuid(),
+            message.getUid(),
+            message.getModSeq(),
+            message.getInternalDate(),
+            (int) (message.getFullContentOctets() - message.getBodyOctets()),
+            (int) message.getFullContentOctets(),
+            (int) message.getBodyOctets(),
+            message.isAnswered(),
+            message.isDeleted(),
+            message.isDraft(),
+            message.isFlagged(),
+            message.isRecent(),
+            message.isSeen(),
+            flags.contains(Flags.Flag.USER),
+            userFlags(flags),
+            properties,
+            bodyBlobId,
+            message.getTextualLineCount());
+    }
+
+    public BoundStatement insertHeader(MailboxMessage<CassandraId> message) throws IOException {
+        return insertHeader.bind(message.getMailboxId().asUuid(), message.getUid(), toByteBuffer(message.getHeaderContent()));
+    }
+
+    public BoundStatement delete(CassandraId mailboxId, long uid) {
+        return delete.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement deleteHeader(CassandraId mailboxId, long uid) {
+        return deleteHeader.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectAll(CassandraId mailboxId) {
+        return selectAll.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement selectFrom(CassandraId mailboxId, long uid) {
+        return selectFrom.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectRange(CassandraId mailboxId, long from, long to) {
+        return selectRange.bind(mailboxId.asUuid(), from, to);
+    }
+
+    public BoundStatement selectOne(CassandraId mailboxId, long uid) {
+        return selectOne.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectIn(CassandraId mailboxId, Collection<Long> uids) {
+        return selectIn.bind(mailboxId.asUuid(), new ArrayList<Long>(uids));
+    }
+
+    public BoundStatement selectLegacyHeader(CassandraId mailboxId, long uid) {
+        return selectLegacyHeader.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectLegacyBody(CassandraId mailboxId, long uid) {
+        return selectLegacyBody.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectAllHeaders(CassandraId mailboxId) {
+        return selectAllHeaders.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement selectHeadersFrom(CassandraId mailboxId, long uid) {
+        return selectHeadersFrom.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectHeadersRange(CassandraId mailboxId, long from, long to) {
+        return selectHeadersRange.bind(mailboxId.asUuid(), from, to);
+    }
+
+    public BoundStatement selectOneHeader(CassandraId mailboxId, long uid) {
+        return selectOneHeader.bind(mailboxId.asUuid(), uid);
+    }
+
+    public BoundStatement selectHeadersIn(CassandraId mailboxId, Collection<Long> uids) {
+        return selectHeadersIn.bind(mailboxId.asUuid(), new ArrayList<Long>(uids));
+    }
+
+    public BoundStatement insertFlagIndex(CassandraId mailboxId, String indexedFlag, long uid, long modSeq) {
+        return insertFlagIndex.bind(mailboxId.asUuid(), indexedFlag, uid, modSeq);
+    }
+
+    public BoundStatement deleteFlagIndex(CassandraId mailboxId, String indexedFlag, long uid, long modSeq) {
+        return deleteFlagIndex.bind(modSeq, mailboxId.asUuid(), indexedFlag, uid);
+    }
+
+    public BoundStatement selectAllFlagIndex(CassandraId mailboxId, String indexedFlag) {
+        return selectAllFlagIndex.bind(mailboxId.asUuid(), indexedFlag);
+    }
+
+    public BoundStatement selectFlagIndexFrom(CassandraId mailboxId, String indexedFlag, long uid) {
+        return selectFlagIndexFrom.bind(mailboxId.asUuid(), indexedFlag, uid);
+    }
+
+    public BoundStatement selectFirstFlagIndexFrom(CassandraId mailboxId, String indexedFlag, long uid, int limit) {
+        return selectFirstFlagIndexFrom.bind(mailboxId.asUuid(), indexedFlag, uid, limit);
+    }
+
+    public BoundStatement selectFlagIndexRange(CassandraId mailboxId, String indexedFlag, long from, long to) {
+        return selectFlagIndexRange.bind(mailboxId.asUuid(), indexedFlag, from, to);
+    }
+
+    public BoundStatement selectOneFlagIndex(CassandraId mailboxId, String indexedFlag, long uid) {
+        return selectOneFlagIndex.bind(mailboxId.asUuid(), indexedFlag, uid);
+    }
+
+    public BoundStatement insertFlagIndexState(CassandraId mailboxId) {
+        return insertFlagIndexState.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement selectFlagIndexState(CassandraId mailboxId) {
+        return selectFlagIndexState.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement updateFlags(MailboxMessage<CassandraId> message, long oldModSeq) {
+        Flags flags = message.createFlags();
+        return updateFlags.bind(
+            message.isAnswered(),
+            message.isDeleted(),
+            message.isDraft(),
+            message.isFlagged(),
+            message.isRecent(),
+            message.isSeen(),
+            flags.contains(Flags.Flag.USER),
+            userFlags(flags),
+            message.getModSeq(),
+            message.getUid(),
+            message.getMailboxId().asUuid(),
+            oldModSeq);
+    }
+
+    public BoundStatement incrementCount(CassandraId mailboxId) {
+        return incrementCount.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement decrementCount(CassandraId mailboxId) {
+        return decrementCount.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement incrementUnseen(CassandraId mailboxId) {
+        return incrementUnseen.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement decrementUnseen(CassandraId mailboxId) {
+        return decrementUnseen.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement selectCount(CassandraId mailboxId) {
+        return selectCount.bind(mailboxId.asUuid());
+    }
+
+    public BoundStatement selectUnseenCount(CassandraId mailboxId) {
+        return selectUnseenCount.bind(mailboxId.asUuid());
+    }
+
+    private Set<String> userFlags(Flags flags) {
+        return Arrays.stream(flags.getUserFlags()).collect(Collectors.toSet());
+    }
+
+    private ByteBuffer toByteBuffer(InputStream stream) throws IOException {
+        return ByteBuffer.wrap(ByteStreams.toByteArray(stream));
+    }
+}
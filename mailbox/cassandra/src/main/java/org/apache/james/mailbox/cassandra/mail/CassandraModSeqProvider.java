@@ -35,6 +35,7 @@ import org.apache.james.backends.cassandra.utils.CassandraConstants;
 import org.apache.james.backends.cassandra.utils.LightweightTransactionException;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.ReservedRangeAllocator;
 import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.store.mail.ModSeqProvider;
@@ -47,18 +48,31 @@ import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.BuiltStatement;
 import com.google.common.base.Throwables;
 
+/**
+ * Allocates mod-sequences with lightweight transactions. A range of mod-sequences is reserved with a single transaction,
+ * either for {@link #nextModSeqs(MailboxSession, Mailbox, int)} callers or, when a reservation size larger than one is
+ * configured, to hand out the following {@link #nextModSeq(MailboxSession, Mailbox)} calls locally
+ * (see {@link ReservedRangeAllocator}).
+ */
 public class CassandraModSeqProvider implements ModSeqProvider<CassandraId> {
 
     private static final int DEFAULT_MAX_RETRY = 100000;
+    public static final int DEFAULT_RESERVATION_SIZE = 1;
     private static final Logger LOG = LoggerFactory.getLogger(CassandraModSeqProvider.class);
     private static final ModSeq FIRST_MODSEQ = new ModSeq(0);
     
     private final Session session;
     private final FunctionRunnerWithRetry runner;
+    private final ReservedRangeAllocator allocator;
 
-    public CassandraModSeqProvider(Session session, int maxRetry) {
+    public CassandraModSeqProvider(Session session, int maxRetry, int reservationSize) {
         this.session = session;
         this.runner = new FunctionRunnerWithRetry(maxRetry);
+        this.allocator = new ReservedRangeAllocator(reservationSize, this::reserveModSeqs);
+    }
+
+    public CassandraModSeqProvider(Session session, int maxRetry) {
+        this(session, maxRetry, DEFAULT_RESERVATION_SIZE);
     }
 
     @Inject
@@ -68,8 +82,17 @@ public class CassandraModSeqProvider implements ModSeqProvider<CassandraId> {
 
     @Override
     public long nextModSeq(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox) throws MailboxException {
-        if (findHighestModSeq(mailboxSession, mailbox).isFirst()) {
-            Optional<ModSeq> optional = tryInsertModSeq(mailbox, FIRST_MODSEQ);
+        return allocator.next(mailbox);
+    }
+
+    @Override
+    public long nextModSeqs(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox, int count) throws MailboxException {
+        return allocator.next(mailbox, count);
+    }
+
+    private long reserveModSeqs(Mailbox<CassandraId> mailbox, int count) throws MailboxException {
+        if (findHighestModSeq(mailbox).isFirst()) {
+            Optional<ModSeq> optional = tryInsertModSeq(mailbox, count);
             if (optional.isPresent()) {
                 return optional.get().getValue();
             }
@@ -79,7 +102,7 @@ public class CassandraModSeqProvider implements ModSeqProvider<CassandraId> {
             return runner.executeAndRetrieveObject(
                         () -> {
                             try {
-                                return tryUpdateModSeq(mailbox, findHighestModSeq(mailboxSession, mailbox))
+                                return tryUpdateModSeq(mailbox, findHighestModSeq(mailbox), count)
                                         .map(ModSeq::getValue);
                             } catch (Exception exception) {
                                 LOG.error("Can not retrieve next ModSeq", exception);
@@ -93,10 +116,14 @@ public class CassandraModSeqProvider implements ModSeqProvider<CassandraId> {
 
     @Override
     public long highestModSeq(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox) throws MailboxException {
-        return findHighestModSeq(mailboxSession, mailbox).getValue();
+        Optional<Long> lastAllocated = allocator.lastAllocated(mailbox);
+        if (lastAllocated.isPresent()) {
+            return lastAllocated.get();
+        }
+        return findHighestModSeq(mailbox).getValue();
     }
     
-    private ModSeq findHighestModSeq(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox) throws MailboxException {
+    private ModSeq findHighestModSeq(Mailbox<CassandraId> mailbox) throws MailboxException {
         ResultSet result = session.execute(
                 select(NEXT_MODSEQ)
                     .from(TABLE_NAME)
@@ -108,21 +135,19 @@ public class CassandraModSeqProvider implements ModSeqProvider<CassandraId> {
         }
     }
 
-    private Optional<ModSeq> tryInsertModSeq(Mailbox<CassandraId> mailbox, ModSeq modSeq) {
-        ModSeq nextModSeq = modSeq.next();
-        return transactionalStatementToOptionalModSeq(nextModSeq,
+    private Optional<ModSeq> tryInsertModSeq(Mailbox<CassandraId> mailbox, int count) {
+        return transactionalStatementToOptionalModSeq(FIRST_MODSEQ.next(),
                 insertInto(TABLE_NAME)
-                    .value(NEXT_MODSEQ, nextModSeq.getValue())
+                    .value(NEXT_MODSEQ, FIRST_MODSEQ.add(count).getValue())
                     .value(MAILBOX_ID, mailbox.getMailboxId().asUuid())
                     .ifNotExists());
     }
     
-    private Optional<ModSeq> tryUpdateModSeq(Mailbox<CassandraId> mailbox, ModSeq modSeq) {
-        ModSeq nextModSeq = modSeq.next();
-        return transactionalStatementToOptionalModSeq(nextModSeq,
+    private Optional<ModSeq> tryUpdateModSeq(Mailbox<CassandraId> mailbox, ModSeq modSeq, int count) {
+        return transactionalStatementToOptionalModSeq(modSeq.next(),
                 update(TABLE_NAME)
                     .onlyIf(eq(NEXT_MODSEQ, modSeq.getValue()))
-                    .with(set(NEXT_MODSEQ, nextModSeq.getValue()))
+                    .with(set(NEXT_MODSEQ, modSeq.add(count).getValue()))
                     .where(eq(MAILBOX_ID, mailbox.getMailboxId().asUuid())));
     }
 
@@ -142,7 +167,11 @@ public class CassandraModSeqProvider implements ModSeqProvider<CassandraId> {
         }
         
         public ModSeq next() {
-            return new ModSeq(value + 1);
+            return add(1);
+        }
+
+        public ModSeq add(int count) {
+            return new ModSeq(value + count);
         }
         
         public long getValue() {
@@ -36,6 +36,7 @@ import javax.inject.Inject;
 
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.mail.utils.ReservedRangeAllocator;
 import org.apache.james.backends.cassandra.utils.FunctionRunnerWithRetry;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageUidTable;
 import org.apache.james.mailbox.exception.MailboxException;
@@ -47,17 +48,29 @@ import org.slf4j.LoggerFactory;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Session;
 
+/**
+ * Allocates uids with lightweight transactions. A range of uids is reserved with a single transaction, either for
+ * {@link #nextUids(MailboxSession, Mailbox, int)} callers or, when a reservation size larger than one is configured,
+ * to hand out the following {@link #nextUid(MailboxSession, Mailbox)} calls locally (see {@link ReservedRangeAllocator}).
+ */
 public class CassandraUidProvider implements UidProvider<CassandraId> {
     public final static int DEFAULT_MAX_RETRY = 100000;
+    public final static int DEFAULT_RESERVATION_SIZE = 1;
     private static final Logger LOG = LoggerFactory.getLogger(CassandraUidProvider.class);
     private static final Uid FIRST_UID = new Uid(0);
 
     private final Session session;
     private final FunctionRunnerWithRetry runner;
+    private final ReservedRangeAllocator allocator;
 
-    public CassandraUidProvider(Session session, int maxRetry) {
+    public CassandraUidProvider(Session session, int maxRetry, int reservationSize) {
         this.session = session;
         this.runner = new FunctionRunnerWithRetry(maxRetry);
+        this.allocator = new ReservedRangeAllocator(reservationSize, this::reserveUids);
+    }
+
+    public CassandraUidProvider(Session session, int maxRetry) {
+        this(session, maxRetry, DEFAULT_RESERVATION_SIZE);
     }
 
     @Inject
@@ -67,8 +80,17 @@ public class CassandraUidProvider implements UidProvider<CassandraId> {
 
     @Override
     public long nextUid(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox) throws MailboxException {
+        return allocator.next(mailbox);
+    }
+
+    @Override
+    public long nextUids(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox, int count) throws MailboxException {
+        return allocator.next(mailbox, count);
+    }
+
+    private long reserveUids(Mailbox<CassandraId> mailbox, int count) throws MailboxException {
         if (findHighestUid(mailbox).isFirst()) {
-            Optional<Uid> optional = tryInsertUid(mailbox, FIRST_UID);
+            Optional<Uid> optional = tryInsertUid(mailbox, count);
             if (optional.isPresent()) {
                 return optional.get().getValue();
             }
@@ -78,7 +100,7 @@ public class CassandraUidProvider implements UidProvider<CassandraId> {
             return runner.executeAndRetrieveObject(
                 () -> {
                     try {
-                        return tryUpdateUid(mailbox, findHighestUid(mailbox))
+                        return tryUpdateUid(mailbox, findHighestUid(mailbox), count)
                             .map(Uid::getValue);
                     } catch (Exception exception) {
                         LOG.error("Can not retrieve next Uid", exception);
@@ -92,6 +114,10 @@ public class CassandraUidProvider implements UidProvider<CassandraId> {
 
     @Override
     public long lastUid(MailboxSession mailboxSession, Mailbox<CassandraId> mailbox) throws MailboxException {
+        Optional<Long> lastAllocated = allocator.lastAllocated(mailbox);
+        if (lastAllocated.isPresent()) {
+            return lastAllocated.get();
+        }
         return findHighestUid(mailbox).getValue();
     }
 
@@ -107,21 +133,19 @@ public class CassandraUidProvider implements UidProvider<CassandraId> {
         }
     }
 
-    private Optional<Uid> tryInsertUid(Mailbox<CassandraId> mailbox, Uid uid) {
-        Uid nextUid = uid.next();
-        return transactionalStatementToOptionalUid(nextUid,
+    private Optional<Uid> tryInsertUid(Mailbox<CassandraId> mailbox, int count) {
+        return transactionalStatementToOptionalUid(FIRST_UID.next(),
             insertInto(CassandraMessageUidTable.TABLE_NAME)
-                .value(NEXT_UID, nextUid.getValue())
+                .value(NEXT_UID, FIRST_UID.add(count).getValue())
                 .value(CassandraMessageUidTable.MAILBOX_ID, mailbox.getMailboxId().asUuid())
                 .ifNotExists());
     }
 
-    private Optional<Uid> tryUpdateUid(Mailbox<CassandraId> mailbox, Uid uid) {
-        Uid nextUid = uid.next();
-        return transactionalStatementToOptionalUid(nextUid,
+    private Optional<Uid> tryUpdateUid(Mailbox<CassandraId> mailbox, Uid uid, int count) {
+        return transactionalStatementToOptionalUid(uid.next(),
             update(CassandraMessageUidTable.TABLE_NAME)
                 .onlyIf(eq(NEXT_UID, uid.getValue()))
-                .with(set(NEXT_UID, nextUid.getValue()))
+                .with(set(NEXT_UID, uid.add(count).getValue()))
                 .where(eq(CassandraMessageUidTable.MAILBOX_ID, mailbox.getMailboxId().asUuid())));
     }
 
@@ -141,7 +165,11 @@ public class CassandraUidProvider implements UidProvider<CassandraId> {
         }
 
         public Uid next() {
-            return new Uid(value + 1);
+            return add(1);
+        }
+
+        public Uid add(int count) {
+            return new Uid(value + count);
         }
 
         public long getValue() {
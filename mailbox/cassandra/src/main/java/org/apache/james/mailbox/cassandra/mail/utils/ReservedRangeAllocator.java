@@ -0,0 +1,123 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.mailbox.cassandra.mail.utils;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hands out consecutive values (uids, mod-sequences) per mailbox out of ranges reserved by blocks of blockSize values,
+ * so that a single reservation, hence a single lightweight transaction, is needed every blockSize values.
+ *
+ * Values are handed out in increasing order by a given allocator. Different nodes reserving ranges for the same mailbox
+ * would however interleave their values: blocks larger than one value should only be used when each mailbox is written
+ * by a single node. Values reserved but not handed out before a new reservation are lost, leaving gaps.
+ *
+ * With a block size of one, every value is directly reserved and no state is kept.
+ */
+public class ReservedRangeAllocator {
+
+    @FunctionalInterface
+    public interface RangeReserver {
+        /**
+         * @return the first value of the count consecutive values reserved
+         */
+        long reserve(Mailbox<CassandraId> mailbox, int count) throws MailboxException;
+    }
+
+    private final int blockSize;
+    private final RangeReserver reserver;
+    private final ConcurrentMap<CassandraId, ReservedRange> ranges;
+
+    public ReservedRangeAllocator(int blockSize, RangeReserver reserver) {
+        Preconditions.checkArgument(blockSize > 0, "blockSize should be positive");
+        this.blockSize = blockSize;
+        this.reserver = reserver;
+        this.ranges = new ConcurrentHashMap<>();
+    }
+
+    public long next(Mailbox<CassandraId> mailbox) throws MailboxException {
+        return next(mailbox, 1);
+    }
+
+    /**
+     * @return the first of count consecutive values
+     */
+    public long next(Mailbox<CassandraId> mailbox, int count) throws MailboxException {
+        Preconditions.checkArgument(count > 0, "count should be positive");
+        if (blockSize == 1) {
+            return reserver.reserve(mailbox, count);
+        }
+        ReservedRange range = ranges.computeIfAbsent(mailbox.getMailboxId(), any -> new ReservedRange());
+        synchronized (range) {
+            if (range.remaining() < count) {
+                int reservedCount = Math.max(count, blockSize);
+                range.reset(reserver.reserve(mailbox, reservedCount), reservedCount);
+            }
+            return range.take(count);
+        }
+    }
+
+    /**
+     * @return the last value handed out by this allocator for this mailbox, if any. Values reserved but not handed out
+     * yet are not taken into account.
+     */
+    public Optional<Long> lastAllocated(Mailbox<CassandraId> mailbox) {
+        return Optional.ofNullable(ranges.get(mailbox.getMailboxId()))
+            .flatMap(ReservedRange::lastAllocated);
+    }
+
+    private static class ReservedRange {
+        private long next;
+        private long end;
+        private boolean allocated;
+
+        synchronized long remaining() {
+            return end - next;
+        }
+
+        synchronized void reset(long first, int count) {
+            next = first;
+            end = first + count;
+        }
+
+        synchronized long take(int count) {
+            long first = next;
+            next += count;
+            allocated = true;
+            return first;
+        }
+
+        synchronized Optional<Long> lastAllocated() {
+            if (allocated) {
+                return Optional.of(next - 1);
+            }
+            return Optional.empty();
+        }
+    }
+}
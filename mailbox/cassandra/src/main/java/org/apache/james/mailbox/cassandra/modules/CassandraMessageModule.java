@@ -20,13 +20,18 @@
 package org.apache.james.mailbox.cassandra.modules;
 
 import com.datastax.driver.core.schemabuilder.SchemaBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.james.backends.cassandra.blob.CassandraBlobModule;
 import org.apache.james.backends.cassandra.components.CassandraIndex;
 import org.apache.james.backends.cassandra.components.CassandraModule;
 import org.apache.james.backends.cassandra.components.CassandraTable;
 import org.apache.james.backends.cassandra.components.CassandraType;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexStateTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageHeaderTable;
 import org.apache.james.mailbox.cassandra.table.CassandraMessageTable;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -46,8 +51,8 @@ public class CassandraMessageModule implements CassandraModule {
     private final List<CassandraType> types;
 
     public CassandraMessageModule() {
-        tables = Collections.singletonList(
-            new CassandraTable(CassandraMessageTable.TABLE_NAME,
+        tables = ImmutableList.<CassandraTable>builder()
+            .add(new CassandraTable(CassandraMessageTable.TABLE_NAME,
                 SchemaBuilder.createTable(CassandraMessageTable.TABLE_NAME)
                     .ifNotExists()
                     .addPartitionKey(CassandraMessageTable.MAILBOX_ID, timeuuid())
@@ -58,8 +63,6 @@ public class CassandraMessageModule implements CassandraModule {
                     .addColumn(CassandraMessageTable.TEXTUAL_LINE_COUNT, bigint())
                     .addColumn(CassandraMessageTable.MOD_SEQ, bigint())
                     .addColumn(CassandraMessageTable.FULL_CONTENT_OCTETS, cint())
-                    .addColumn(CassandraMessageTable.BODY_CONTENT, blob())
-                    .addColumn(CassandraMessageTable.HEADER_CONTENT, blob())
                     .addColumn(CassandraMessageTable.Flag.ANSWERED, cboolean())
                     .addColumn(CassandraMessageTable.Flag.DELETED, cboolean())
                     .addColumn(CassandraMessageTable.Flag.DRAFT, cboolean())
@@ -68,23 +71,30 @@ public class CassandraMessageModule implements CassandraModule {
                     .addColumn(CassandraMessageTable.Flag.SEEN, cboolean())
                     .addColumn(CassandraMessageTable.Flag.USER, cboolean())
                     .addColumn(CassandraMessageTable.Flag.USER_FLAGS, set(text()))
-                    .addUDTListColumn(CassandraMessageTable.PROPERTIES, SchemaBuilder.frozen(CassandraMessageTable.PROPERTIES))));
-        index = Arrays.asList(
-            new CassandraIndex(
-                SchemaBuilder.createIndex(CassandraIndex.INDEX_PREFIX + CassandraMessageTable.Flag.RECENT)
+                    .addColumn(CassandraMessageTable.BODY_BLOB_ID, text())
+                    .addColumn(CassandraMessageTable.HEADER_CONTENT, blob())
+                    .addColumn(CassandraMessageTable.BODY_CONTENT, blob())
+                    .addUDTListColumn(CassandraMessageTable.PROPERTIES, SchemaBuilder.frozen(CassandraMessageTable.PROPERTIES)),
+                ImmutableMap.of(CassandraMessageTable.BODY_BLOB_ID, text())))
+            .add(new CassandraTable(CassandraMessageHeaderTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraMessageHeaderTable.TABLE_NAME)
                     .ifNotExists()
-                    .onTable(CassandraMessageTable.TABLE_NAME)
-                    .andColumn(CassandraMessageTable.Flag.RECENT)),
-            new CassandraIndex(
-                SchemaBuilder.createIndex(CassandraIndex.INDEX_PREFIX + CassandraMessageTable.Flag.SEEN)
+                    .addPartitionKey(CassandraMessageHeaderTable.MAILBOX_ID, timeuuid())
+                    .addClusteringColumn(CassandraMessageHeaderTable.IMAP_UID, bigint())
+                    .addColumn(CassandraMessageHeaderTable.HEADER_CONTENT, blob())))
+            .add(new CassandraTable(CassandraMessageFlagIndexTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraMessageFlagIndexTable.TABLE_NAME)
                     .ifNotExists()
-                    .onTable(CassandraMessageTable.TABLE_NAME)
-                    .andColumn(CassandraMessageTable.Flag.SEEN)),
-            new CassandraIndex(
-                SchemaBuilder.createIndex(CassandraIndex.INDEX_PREFIX + CassandraMessageTable.Flag.DELETED)
+                    .addPartitionKey(CassandraMessageFlagIndexTable.MAILBOX_ID, timeuuid())
+                    .addPartitionKey(CassandraMessageFlagIndexTable.INDEXED_FLAG, text())
+                    .addClusteringColumn(CassandraMessageFlagIndexTable.IMAP_UID, bigint())))
+            .add(new CassandraTable(CassandraMessageFlagIndexStateTable.TABLE_NAME,
+                SchemaBuilder.createTable(CassandraMessageFlagIndexStateTable.TABLE_NAME)
                     .ifNotExists()
-                    .onTable(CassandraMessageTable.TABLE_NAME)
-                    .andColumn(CassandraMessageTable.Flag.DELETED)));
+                    .addPartitionKey(CassandraMessageFlagIndexStateTable.MAILBOX_ID, timeuuid())))
+            .addAll(new CassandraBlobModule().moduleTables())
+            .build();
+        index = Collections.emptyList();
         types = Collections.singletonList(
             new CassandraType(CassandraMessageTable.PROPERTIES,
                 SchemaBuilder.createType(CassandraMessageTable.PROPERTIES)
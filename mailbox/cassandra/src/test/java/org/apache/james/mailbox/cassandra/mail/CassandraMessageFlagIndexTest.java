@@ -0,0 +1,199 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.cassandra.mail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.mail.Flags;
+import javax.mail.Flags.Flag;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.backends.cassandra.init.CassandraModuleComposite;
+import org.apache.james.mailbox.FlagsBuilder;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.CassandraMailboxSessionMapperFactory;
+import org.apache.james.mailbox.cassandra.modules.CassandraMailboxCounterModule;
+import org.apache.james.mailbox.cassandra.modules.CassandraMessageModule;
+import org.apache.james.mailbox.cassandra.modules.CassandraUidAndModSeqModule;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexStateTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexTable;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageFlagIndexTable.IndexedFlag;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.store.FlagsUpdateCalculator;
+import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailboxMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+
+public class CassandraMessageFlagIndexTest {
+
+    private static final CassandraCluster CASSANDRA = CassandraCluster.create(new CassandraModuleComposite(
+        new CassandraMessageModule(),
+        new CassandraMailboxCounterModule(),
+        new CassandraUidAndModSeqModule()));
+    private static final String CONTENT = "Subject: Test\n\nBody\n.\n";
+    private static final int BODY_START = 15;
+    private static final int STALE_ENTRY_COUNT = 250;
+
+    private CassandraMessageMapper messageMapper;
+    private CassandraMessageStatements statements;
+    private SimpleMailbox<CassandraId> mailbox;
+
+    @Before
+    public void setUp() throws Exception {
+        CASSANDRA.ensureAllTables();
+        messageMapper = createMessageMapper();
+        statements = new CassandraMessageStatements(CASSANDRA.getConf());
+        mailbox = new SimpleMailbox<>(new MailboxPath("#private", "benwa", "INBOX"), 1234);
+        mailbox.setMailboxId(CassandraId.timeBased());
+    }
+
+    @After
+    public void tearDown() {
+        CASSANDRA.clearAllTables();
+    }
+
+    private CassandraMessageMapper createMessageMapper() throws Exception {
+        return (CassandraMessageMapper) new CassandraMailboxSessionMapperFactory(
+            new CassandraUidProvider(CASSANDRA.getConf()),
+            new CassandraModSeqProvider(CASSANDRA.getConf()),
+            CASSANDRA.getConf(),
+            CASSANDRA.getTypesProvider()
+        ).getMessageMapper(new MockMailboxSession("benwa"));
+    }
+
+    @Test
+    public void findFirstUnseenMessageUidShouldSkipStaleIndexEntries() throws Exception {
+        MessageMetaData seen = messageMapper.add(mailbox, createMessage(new Flags(Flag.SEEN)));
+        MessageMetaData unseen = messageMapper.add(mailbox, createMessage(new Flags()));
+        CASSANDRA.getConf().execute(statements.insertFlagIndex(mailbox.getMailboxId(), IndexedFlag.UNSEEN, seen.getUid(), 0));
+
+        assertThat(messageMapper.findFirstUnseenMessageUid(mailbox)).isEqualTo(unseen.getUid());
+        assertThat(isIndexed(IndexedFlag.UNSEEN, seen.getUid())).isFalse();
+    }
+
+    @Test
+    public void findFirstUnseenMessageUidShouldReadPastBatchesOfStaleIndexEntries() throws Exception {
+        new CassandraUidProvider(CASSANDRA.getConf()).nextUids(new MockMailboxSession("benwa"), mailbox, STALE_ENTRY_COUNT);
+        MessageMetaData unseen = messageMapper.add(mailbox, createMessage(new Flags()));
+        for (long uid = 1; uid <= STALE_ENTRY_COUNT; uid++) {
+            CASSANDRA.getConf().execute(statements.insertFlagIndex(mailbox.getMailboxId(), IndexedFlag.UNSEEN, uid, 0));
+        }
+
+        assertThat(messageMapper.findFirstUnseenMessageUid(mailbox)).isEqualTo(unseen.getUid());
+        assertThat(isIndexed(IndexedFlag.UNSEEN, 1)).isFalse();
+        assertThat(isIndexed(IndexedFlag.UNSEEN, STALE_ENTRY_COUNT)).isFalse();
+    }
+
+    @Test
+    public void findFirstUnseenMessageUidShouldReturnNullWhenAllIndexEntriesAreStale() throws Exception {
+        MessageMetaData seen = messageMapper.add(mailbox, createMessage(new Flags(Flag.SEEN)));
+        CASSANDRA.getConf().execute(statements.insertFlagIndex(mailbox.getMailboxId(), IndexedFlag.UNSEEN, seen.getUid(), 0));
+
+        assertThat(messageMapper.findFirstUnseenMessageUid(mailbox)).isNull();
+    }
+
+    @Test
+    public void findRecentMessageUidsInMailboxShouldIgnoreEntriesOfExpungedMessages() throws Exception {
+        MessageMetaData recent = messageMapper.add(mailbox, createMessage(new Flags(Flag.RECENT)));
+        long expungedUid = recent.getUid() + 1;
+        CASSANDRA.getConf().execute(statements.insertFlagIndex(mailbox.getMailboxId(), IndexedFlag.RECENT, expungedUid, 0));
+
+        assertThat(messageMapper.findRecentMessageUidsInMailbox(mailbox)).containsOnly(recent.getUid());
+        assertThat(isIndexed(IndexedFlag.RECENT, expungedUid)).isFalse();
+    }
+
+    @Test
+    public void expungeMarkedForDeletionInMailboxShouldIgnoreStaleIndexEntries() throws Exception {
+        MessageMetaData kept = messageMapper.add(mailbox, createMessage(new Flags()));
+        MessageMetaData deleted = messageMapper.add(mailbox, createMessage(new Flags(Flag.DELETED)));
+        CASSANDRA.getConf().execute(statements.insertFlagIndex(mailbox.getMailboxId(), IndexedFlag.DELETED, kept.getUid(), 0));
+
+        Map<Long, MessageMetaData> expunged = messageMapper.expungeMarkedForDeletionInMailbox(mailbox, MessageRange.all());
+
+        assertThat(expunged.keySet()).containsOnly(deleted.getUid());
+        assertThat(messageMapper.countMessagesInMailbox(mailbox)).isEqualTo(1);
+        assertThat(isIndexed(IndexedFlag.DELETED, kept.getUid())).isFalse();
+    }
+
+    @Test
+    public void outdatedIndexUpdatesShouldNotOverrideLaterOnes() throws Exception {
+        MessageMetaData message = messageMapper.add(mailbox, createMessage(new Flags()));
+        messageMapper.updateFlags(mailbox, new FlagsUpdateCalculator(new Flags(Flag.SEEN), MessageManager.FlagsUpdateMode.ADD), MessageRange.one(message.getUid()));
+
+        CASSANDRA.getConf().execute(statements.insertFlagIndex(mailbox.getMailboxId(), IndexedFlag.UNSEEN, message.getUid(), message.getModSeq()));
+
+        assertThat(isIndexed(IndexedFlag.UNSEEN, message.getUid())).isFalse();
+    }
+
+    @Test
+    public void flagsUpdatesShouldMaintainTheIndex() throws Exception {
+        MessageMetaData message = messageMapper.add(mailbox, createMessage(new Flags(Flag.RECENT)));
+
+        messageMapper.updateFlags(mailbox, new FlagsUpdateCalculator(new FlagsBuilder().add(Flag.SEEN, Flag.DELETED).build(), MessageManager.FlagsUpdateMode.ADD), MessageRange.one(message.getUid()));
+
+        assertThat(isIndexed(IndexedFlag.UNSEEN, message.getUid())).isFalse();
+        assertThat(isIndexed(IndexedFlag.RECENT, message.getUid())).isTrue();
+        assertThat(isIndexed(IndexedFlag.DELETED, message.getUid())).isTrue();
+    }
+
+    @Test
+    public void mailboxesStoredBeforeTheIndexShouldBeIndexedWhenLookedUp() throws Exception {
+        MessageMetaData recent = messageMapper.add(mailbox, createMessage(new Flags(Flag.RECENT)));
+        MessageMetaData deleted = messageMapper.add(mailbox, createMessage(new Flags(Flag.DELETED)));
+        CASSANDRA.getConf().execute(QueryBuilder.truncate(CassandraMessageFlagIndexTable.TABLE_NAME));
+        CASSANDRA.getConf().execute(QueryBuilder.truncate(CassandraMessageFlagIndexStateTable.TABLE_NAME));
+        messageMapper = createMessageMapper();
+
+        assertThat(messageMapper.findRecentMessageUidsInMailbox(mailbox)).containsOnly(recent.getUid());
+        assertThat(messageMapper.findFirstUnseenMessageUid(mailbox)).isEqualTo(recent.getUid());
+        assertThat(messageMapper.expungeMarkedForDeletionInMailbox(mailbox, MessageRange.all()).keySet()).containsOnly(deleted.getUid());
+    }
+
+    @Test
+    public void indexedMailboxesShouldNotBeIndexedAgain() throws Exception {
+        MessageMetaData message = messageMapper.add(mailbox, createMessage(new Flags(Flag.RECENT)));
+        assertThat(messageMapper.findRecentMessageUidsInMailbox(mailbox)).containsOnly(message.getUid());
+        CASSANDRA.getConf().execute(QueryBuilder.truncate(CassandraMessageFlagIndexTable.TABLE_NAME));
+
+        assertThat(createMessageMapper().findRecentMessageUidsInMailbox(mailbox)).isEmpty();
+    }
+
+    private boolean isIndexed(String indexedFlag, long uid) {
+        return !CASSANDRA.getConf().execute(statements.selectOneFlagIndex(mailbox.getMailboxId(), indexedFlag, uid)).isExhausted();
+    }
+
+    private SimpleMailboxMessage<CassandraId> createMessage(Flags flags) {
+        return new SimpleMailboxMessage<>(new Date(), CONTENT.length(), BODY_START, new SharedByteArrayInputStream(CONTENT.getBytes()),
+            flags, new PropertyBuilder(), mailbox.getMailboxId());
+    }
+}
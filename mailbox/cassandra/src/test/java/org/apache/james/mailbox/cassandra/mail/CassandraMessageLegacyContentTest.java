@@ -0,0 +1,162 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.cassandra.mail;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.insertInto;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+
+import javax.mail.Flags;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.backends.cassandra.CassandraCluster;
+import org.apache.james.backends.cassandra.init.CassandraModuleComposite;
+import org.apache.james.mailbox.cassandra.CassandraId;
+import org.apache.james.mailbox.cassandra.CassandraMailboxSessionMapperFactory;
+import org.apache.james.mailbox.cassandra.modules.CassandraMailboxCounterModule;
+import org.apache.james.mailbox.cassandra.modules.CassandraMessageModule;
+import org.apache.james.mailbox.cassandra.modules.CassandraUidAndModSeqModule;
+import org.apache.james.mailbox.cassandra.table.CassandraMessageTable;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailboxMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class CassandraMessageLegacyContentTest {
+
+    private static final CassandraCluster CASSANDRA = CassandraCluster.create(new CassandraModuleComposite(
+        new CassandraMessageModule(),
+        new CassandraMailboxCounterModule(),
+        new CassandraUidAndModSeqModule()));
+    private static final String HEADER = "Subject: Legacy\n\n";
+    private static final String BODY = "Body stored in the message row\n";
+    private static final long LEGACY_UID = 1;
+
+    private CassandraMailboxSessionMapperFactory mapperFactory;
+    private CassandraMessageMapper messageMapper;
+    private SimpleMailbox<CassandraId> mailbox;
+
+    @Before
+    public void setUp() throws Exception {
+        CASSANDRA.ensureAllTables();
+        mapperFactory = new CassandraMailboxSessionMapperFactory(
+            new CassandraUidProvider(CASSANDRA.getConf()),
+            new CassandraModSeqProvider(CASSANDRA.getConf()),
+            CASSANDRA.getConf(),
+            CASSANDRA.getTypesProvider());
+        messageMapper = (CassandraMessageMapper) mapperFactory.getMessageMapper(new MockMailboxSession("benwa"));
+        mailbox = new SimpleMailbox<>(new MailboxPath("#private", "benwa", "INBOX"), 1234);
+        mailbox.setMailboxId(CassandraId.timeBased());
+    }
+
+    @After
+    public void tearDown() {
+        CASSANDRA.clearAllTables();
+    }
+
+    @Test
+    public void messagesStoredBeforeTheContentSplitShouldBeReadFromTheMessageRow() throws Exception {
+        insertLegacyMessage();
+
+        MailboxMessage<CassandraId> message = messageMapper.findInMailbox(mailbox, MessageRange.one(LEGACY_UID), FetchType.Full, 1).next();
+
+        assertThat(IOUtils.toString(message.getHeaderContent(), "UTF-8")).isEqualTo(HEADER);
+        assertThat(IOUtils.toString(message.getBodyContent(), "UTF-8")).isEqualTo(BODY);
+    }
+
+    @Test
+    public void copyShouldMoveTheContentOfMessagesStoredBeforeTheContentSplit() throws Exception {
+        insertLegacyMessage();
+        MailboxMessage<CassandraId> original = messageMapper.findInMailbox(mailbox, MessageRange.one(LEGACY_UID), FetchType.Full, 1).next();
+
+        MessageMetaData copy = messageMapper.copy(mailbox, original);
+        MailboxMessage<CassandraId> copied = messageMapper.findInMailbox(mailbox, MessageRange.one(copy.getUid()), FetchType.Full, 1).next();
+
+        assertThat(IOUtils.toString(copied.getHeaderContent(), "UTF-8")).isEqualTo(HEADER);
+        assertThat(IOUtils.toString(copied.getBodyContent(), "UTF-8")).isEqualTo(BODY);
+    }
+
+    @Test
+    public void deleteShouldRemoveMessagesStoredBeforeTheContentSplit() throws Exception {
+        insertLegacyMessage();
+        MailboxMessage<CassandraId> original = messageMapper.findInMailbox(mailbox, MessageRange.one(LEGACY_UID), FetchType.Metadata, 1).next();
+
+        messageMapper.delete(mailbox, original);
+
+        assertThat(messageMapper.findInMailbox(mailbox, MessageRange.all(), FetchType.Metadata, -1).hasNext()).isFalse();
+    }
+
+    @Test
+    public void bodiesSpanningSeveralBlobChunksShouldBeReadBack() throws Exception {
+        String body = Strings.repeat("0123456789", 300000);
+        MessageMetaData added = messageMapper.add(mailbox, createMessage(HEADER + body));
+
+        MailboxMessage<CassandraId> message = messageMapper.findInMailbox(mailbox, MessageRange.one(added.getUid()), FetchType.Full, 1).next();
+
+        assertThat(IOUtils.toString(message.getBodyContent(), "UTF-8")).isEqualTo(body);
+    }
+
+    @Test
+    public void deduplicatedCopiesShouldOutliveTheirOriginal() throws Exception {
+        mapperFactory.setContentDeduplication(true);
+        CassandraMessageMapper deduplicatingMapper = (CassandraMessageMapper) mapperFactory.getMessageMapper(new MockMailboxSession("benwa"));
+        MessageMetaData added = deduplicatingMapper.add(mailbox, createMessage(HEADER + BODY));
+        MailboxMessage<CassandraId> original = deduplicatingMapper.findInMailbox(mailbox, MessageRange.one(added.getUid()), FetchType.Full, 1).next();
+        MessageMetaData copy = deduplicatingMapper.copy(mailbox, original);
+
+        deduplicatingMapper.delete(mailbox, original);
+
+        Iterator<MailboxMessage<CassandraId>> copied = deduplicatingMapper.findInMailbox(mailbox, MessageRange.one(copy.getUid()), FetchType.Full, 1);
+        assertThat(IOUtils.toString(copied.next().getBodyContent(), "UTF-8")).isEqualTo(BODY);
+    }
+
+    private void insertLegacyMessage() {
+        CASSANDRA.getConf().execute(insertInto(CassandraMessageTable.TABLE_NAME)
+            .value(CassandraMessageTable.MAILBOX_ID, mailbox.getMailboxId().asUuid())
+            .value(CassandraMessageTable.IMAP_UID, LEGACY_UID)
+            .value(CassandraMessageTable.MOD_SEQ, 1L)
+            .value(CassandraMessageTable.INTERNAL_DATE, new Date())
+            .value(CassandraMessageTable.BODY_START_OCTET, HEADER.length())
+            .value(CassandraMessageTable.FULL_CONTENT_OCTETS, HEADER.length() + BODY.length())
+            .value(CassandraMessageTable.BODY_OCTECTS, BODY.length())
+            .value(CassandraMessageTable.TEXTUAL_LINE_COUNT, 1L)
+            .value(CassandraMessageTable.HEADER_CONTENT, ByteBuffer.wrap(HEADER.getBytes(StandardCharsets.UTF_8)))
+            .value(CassandraMessageTable.BODY_CONTENT, ByteBuffer.wrap(BODY.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private SimpleMailboxMessage<CassandraId> createMessage(String content) {
+        return new SimpleMailboxMessage<>(new Date(), content.length(), HEADER.length(),
+            new SharedByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), new Flags(), new PropertyBuilder(), mailbox.getMailboxId());
+    }
+}
@@ -177,6 +177,73 @@ public class CassandraUidAndModSeqProviderTest {
             );
     }
     
+    @Test
+    public void nextUidsShouldReserveConsecutiveUids() throws Exception {
+        SimpleMailbox<CassandraId> mailbox = mailboxList.get(mailboxList.size() / 2);
+        long lastUid = uidProvider.lastUid(null, mailbox);
+
+        assertThat(uidProvider.nextUids(null, mailbox, 5)).isEqualTo(lastUid + 1);
+        assertThat(uidProvider.lastUid(null, mailbox)).isEqualTo(lastUid + 5);
+        assertThat(uidProvider.nextUid(null, mailbox)).isEqualTo(lastUid + 6);
+    }
+
+    @Test
+    public void nextModSeqsShouldReserveConsecutiveModSeqs() throws Exception {
+        SimpleMailbox<CassandraId> mailbox = mailboxList.get(mailboxList.size() / 2);
+        long highestModSeq = modSeqProvider.highestModSeq(null, mailbox);
+
+        assertThat(modSeqProvider.nextModSeqs(null, mailbox, 5)).isEqualTo(highestModSeq + 1);
+        assertThat(modSeqProvider.highestModSeq(null, mailbox)).isEqualTo(highestModSeq + 5);
+        assertThat(modSeqProvider.nextModSeq(null, mailbox)).isEqualTo(highestModSeq + 6);
+    }
+
+    @Test
+    public void nextUidShouldIncrementValueByOneWhenReservingBlocks() throws Exception {
+        CassandraUidProvider blockUidProvider = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, 3);
+        SimpleMailbox<CassandraId> mailbox = mailboxList.get(mailboxList.size() / 2);
+        long lastUid = blockUidProvider.lastUid(null, mailbox);
+        LongStream.range(lastUid + 1, lastUid + 10)
+            .forEach(propagateException(value -> {
+                        assertThat(blockUidProvider.nextUid(null, mailbox)).isEqualTo(value);
+                        assertThat(blockUidProvider.lastUid(null, mailbox)).isEqualTo(value);
+                })
+            );
+    }
+
+    @Test
+    public void nextModSeqShouldIncrementValueByOneWhenReservingBlocks() throws Exception {
+        CassandraModSeqProvider blockModSeqProvider = new CassandraModSeqProvider(CASSANDRA.getConf(), MAX_RETRY, 3);
+        SimpleMailbox<CassandraId> mailbox = mailboxList.get(mailboxList.size() / 2);
+        long highestModSeq = blockModSeqProvider.highestModSeq(null, mailbox);
+        LongStream.range(highestModSeq + 1, highestModSeq + 10)
+            .forEach(propagateException(value -> {
+                        assertThat(blockModSeqProvider.nextModSeq(null, mailbox)).isEqualTo(value);
+                        assertThat(blockModSeqProvider.highestModSeq(null, mailbox)).isEqualTo(value);
+                })
+            );
+    }
+
+    @Test
+    public void nextUidsShouldFollowLocallyAllocatedUidsWhenReservingBlocks() throws Exception {
+        CassandraUidProvider blockUidProvider = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, 10);
+        SimpleMailbox<CassandraId> mailbox = mailboxList.get(mailboxList.size() / 2);
+        long lastUid = blockUidProvider.nextUid(null, mailbox);
+
+        long firstUid = blockUidProvider.nextUids(null, mailbox, 20);
+
+        assertThat(firstUid).isGreaterThan(lastUid);
+        assertThat(blockUidProvider.nextUid(null, mailbox)).isEqualTo(firstUid + 20);
+    }
+
+    @Test
+    public void nextUidShouldNotReturnUidsReservedByAnotherProvider() throws Exception {
+        CassandraUidProvider blockUidProvider = new CassandraUidProvider(CASSANDRA.getConf(), MAX_RETRY, 10);
+        SimpleMailbox<CassandraId> mailbox = mailboxList.get(mailboxList.size() / 2);
+        long blockUid = blockUidProvider.nextUid(null, mailbox);
+
+        assertThat(uidProvider.nextUid(null, mailbox)).isEqualTo(blockUid + 10);
+    }
+
     @FunctionalInterface
     private interface ConsumerThatThrowsMailboxException<T> {
         void apply(T arg) throws MailboxException;
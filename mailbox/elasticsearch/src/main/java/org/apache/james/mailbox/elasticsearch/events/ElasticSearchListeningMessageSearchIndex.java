@@ -68,6 +68,11 @@ public class ElasticSearchListeningMessageSearchIndex<Id extends MailboxId> exte
         return searcher.search(mailbox, searchQuery);
     }
 
+    @Override
+    public Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery, int position, int limit) throws MailboxException {
+        return searcher.search(mailbox, searchQuery, position, limit);
+    }
+
     @Override
     public void add(MailboxSession session, Mailbox<Id> mailbox, MailboxMessage<Id> message) throws MailboxException {
         try {
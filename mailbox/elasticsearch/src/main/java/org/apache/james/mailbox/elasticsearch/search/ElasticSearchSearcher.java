@@ -58,6 +58,18 @@ public class ElasticSearchSearcher<Id extends MailboxId> {
     public Iterator<Long> search(Mailbox<Id> mailbox, SearchQuery searchQuery) throws MailboxException {
         try (Client client = clientProvider.get()) {
             return transformResponseToUidIterator(getSearchRequestBuilder(client, mailbox, searchQuery)
+                .setScroll(new TimeValue(60000))
+                .setSize(100)
+                .get()
+            );
+        }
+    }
+
+    public Iterator<Long> search(Mailbox<Id> mailbox, SearchQuery searchQuery, int position, int limit) throws MailboxException {
+        try (Client client = clientProvider.get()) {
+            return transformResponseToUidIterator(getSearchRequestBuilder(client, mailbox, searchQuery)
+                .setFrom(position)
+                .setSize(limit)
                 .get()
             );
         }
@@ -69,9 +81,7 @@ public class ElasticSearchSearcher<Id extends MailboxId> {
             .reduce(
                 client.prepareSearch(ElasticSearchIndexer.MAILBOX_INDEX)
                     .setTypes(ElasticSearchIndexer.MESSAGE_TYPE)
-                    .setScroll(new TimeValue(60000))
-                    .setQuery(queryConverter.from(searchQuery, mailbox.getMailboxId().serialize()))
-                    .setSize(100),
+                    .setQuery(queryConverter.from(searchQuery, mailbox.getMailboxId().serialize())),
                 (searchBuilder, sort) -> searchBuilder.addSort(SortConverter.convertSort(sort)),
                 (partialResult1, partialResult2) -> partialResult1);
     }
@@ -42,6 +42,7 @@ import static org.apache.james.mailbox.hbase.HBaseUtils.metadataToPut;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -73,6 +74,7 @@ import org.apache.james.mailbox.model.MessageRange.Type;
 import org.apache.james.mailbox.model.UpdatedFlags;
 import org.apache.james.mailbox.store.FlagsUpdateCalculator;
 import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.mail.AbstractMessageMapper;
 import org.apache.james.mailbox.store.mail.MessageMapper;
 import org.apache.james.mailbox.store.mail.ModSeqProvider;
 import org.apache.james.mailbox.store.mail.UidProvider;
@@ -105,6 +107,11 @@ public class HBaseMessageMapper extends NonTransactionalMapper implements Messag
     public void endRequest() {
     }
 
+    @Override
+    public Iterator<MailboxMessage<HBaseId>> findInMailbox(Mailbox<HBaseId> mailbox, Collection<Long> uids, FetchType fType) throws MailboxException {
+        return AbstractMessageMapper.findInMailboxByRanges(this, mailbox, uids, fType);
+    }
+
     @Override
     public Iterator<MailboxMessage<HBaseId>> findInMailbox(Mailbox<HBaseId> mailbox, MessageRange set, FetchType fType, int max) throws MailboxException {
         try {
@@ -94,4 +94,27 @@ public class HBaseModSeqProvider implements ModSeqProvider<HBaseId> {
             }
         }
     }
+
+    /**
+     * Reserves count consecutive mod-sequences with a single HTable.incrementColumnValue(row, family, qualifier, amount).
+     */
+    @Override
+    public long nextModSeqs(MailboxSession session, Mailbox<HBaseId> mailbox, int count) throws MailboxException {
+        HTable mailboxes = null;
+        try {
+            mailboxes = new HTable(conf, MAILBOXES_TABLE);
+            long newValue = mailboxes.incrementColumnValue(mailbox.getMailboxId().toBytes(), MAILBOX_CF, MAILBOX_HIGHEST_MODSEQ, count);
+            return newValue - count + 1;
+        } catch (IOException e) {
+            throw new MailboxException("nextModSeqs", e);
+        } finally {
+            if (mailboxes != null) {
+                try {
+                    mailboxes.close();
+                } catch (IOException ex) {
+                    throw new MailboxException("Error closing table " + mailboxes, ex);
+                }
+            }
+        }
+    }
 }
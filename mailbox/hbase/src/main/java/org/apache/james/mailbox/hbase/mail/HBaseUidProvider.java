@@ -110,4 +110,27 @@ public class HBaseUidProvider implements UidProvider<HBaseId> {
             }
         }
     }
+
+    /**
+     * Reserves count consecutive uids with a single HTable.incrementColumnValue(row, family, qualifier, amount).
+     */
+    @Override
+    public long nextUids(MailboxSession session, Mailbox<HBaseId> mailbox, int count) throws MailboxException {
+        HTable mailboxes = null;
+        try {
+            mailboxes = new HTable(conf, MAILBOXES_TABLE);
+            long newValue = mailboxes.incrementColumnValue(mailbox.getMailboxId().toBytes(), MAILBOX_CF, MAILBOX_LASTUID, count);
+            return newValue - count + 1;
+        } catch (IOException e) {
+            throw new MailboxException("nextUids", e);
+        } finally {
+            if (mailboxes != null) {
+                try {
+                    mailboxes.close();
+                } catch (IOException ex) {
+                    throw new MailboxException("Error closing table " + mailboxes, ex);
+                }
+            }
+        }
+    }
 }
@@ -20,7 +20,6 @@ package org.apache.james.mailbox.jpa.mail.model.openjpa;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
@@ -45,6 +44,7 @@ import org.apache.james.mailbox.jpa.JPAId;
 import org.apache.james.mailbox.jpa.mail.model.JPAMailbox;
 import org.apache.james.mailbox.jpa.mail.model.JPAProperty;
 import org.apache.james.mailbox.jpa.mail.model.JPAUserFlag;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.store.mail.model.DelegatingMailboxMessage;
 import org.apache.james.mailbox.store.mail.model.DefaultMessageId;
 import org.apache.james.mailbox.store.mail.model.FlagsBuilder;
@@ -541,7 +541,7 @@ public abstract class AbstractJPAMailboxMessage implements MailboxMessage<JPAId>
 
     @Override
     public InputStream getFullContent() throws IOException {
-        return new SequenceInputStream(getHeaderContent(), getBodyContent());
+        return ByteBufferInputStream.concat(getHeaderContent(), getBodyContent());
     }
 
     @Override
@@ -18,7 +18,6 @@
  ****************************************************************/
 package org.apache.james.mailbox.jpa.mail.model.openjpa;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
@@ -35,6 +34,7 @@ import javax.persistence.Table;
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.jpa.mail.model.JPAMailbox;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
 import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
 
@@ -85,12 +85,12 @@ public class JPAMailboxMessage extends AbstractJPAMailboxMessage {
 
     @Override
     public InputStream getBodyContent() throws IOException {
-        return new ByteArrayInputStream(body);
+        return new ByteBufferInputStream(body);
     }
 
     @Override
     public InputStream getHeaderContent() throws IOException {
-        return new ByteArrayInputStream(header);
+        return new ByteBufferInputStream(header);
     }
 
 }
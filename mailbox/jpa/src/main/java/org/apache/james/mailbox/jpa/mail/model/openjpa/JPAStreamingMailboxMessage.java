@@ -24,7 +24,6 @@ import java.util.Date;
 
 import javax.mail.Flags;
 import javax.mail.internet.SharedInputStream;
-import javax.mail.util.SharedByteArrayInputStream;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -33,6 +32,7 @@ import javax.persistence.Table;
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.jpa.mail.model.JPAMailbox;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
 import org.apache.james.mailbox.store.mail.model.impl.PropertyBuilder;
 import org.apache.openjpa.persistence.Persistent;
@@ -80,7 +80,7 @@ public class JPAStreamingMailboxMessage extends AbstractJPAMailboxMessage {
     public JPAStreamingMailboxMessage(JPAMailbox mailbox, long uid, long modSeq, MailboxMessage<?> message) throws MailboxException {
         super(mailbox, uid, modSeq, message);
         try {
-            this.content = new SharedByteArrayInputStream(IOUtils.toByteArray(message.getFullContent()));
+            this.content = new ByteBufferInputStream(IOUtils.toByteArray(message.getFullContent()));
             this.header = getHeaderContent();
             this.body = getBodyContent();
         } catch (IOException e) {
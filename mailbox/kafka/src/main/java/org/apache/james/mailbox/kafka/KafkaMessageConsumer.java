@@ -20,9 +20,10 @@
 package org.apache.james.mailbox.kafka;
 
 import kafka.consumer.ConsumerConfig;
+import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
 import kafka.consumer.KafkaStream;
 import kafka.javaapi.consumer.ConsumerConnector;
-import kafka.message.MessageAndMetadata;
 import org.apache.james.mailbox.store.publisher.MessageConsumer;
 import org.apache.james.mailbox.store.publisher.MessageReceiver;
 import org.apache.james.mailbox.store.publisher.Topic;
@@ -31,47 +32,118 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-
+import java.util.function.Supplier;
+
+/**
+ * Consumes the events of a topic by batches: each consumer thread drains up to batchSize events from its stream, or
+ * what arrived before batchTimeoutInMillis elapsed, hands them to the MessageReceiver in order, then commits the
+ * offsets. Offsets are thus committed once per batch instead of on a timer, after the events were dispatched.
+ *
+ * A connector commits the offsets of all its streams at once, so each consumer thread gets its own connector: a thread
+ * never commits events that another thread has not dispatched yet.
+ */
 public class KafkaMessageConsumer implements MessageConsumer {
 
     private class Consumer implements Runnable {
 
+        private final ConsumerConnector m_connector;
         private final KafkaStream<byte[], byte[]> m_stream;
 
-        public Consumer(KafkaStream<byte[], byte[]> a_stream) {
+        public Consumer(ConsumerConnector a_connector, KafkaStream<byte[], byte[]> a_stream) {
+            m_connector = a_connector;
             m_stream = a_stream;
         }
 
         public void run() {
-            for (MessageAndMetadata<byte[], byte[]> aM_stream : m_stream) {
-                messageReceiver.receiveSerializedEvent(aM_stream.message());
+            ConsumerIterator<byte[], byte[]> iterator = m_stream.iterator();
+            List<byte[]> batch = new ArrayList<>(batchSize);
+            while (isInitialized) {
+                if (fillBatch(iterator, batch)) {
+                    dispatch(batch);
+                    return;
+                }
+                dispatch(batch);
             }
         }
+
+        /**
+         * @return true when the stream is over
+         */
+        private boolean fillBatch(ConsumerIterator<byte[], byte[]> iterator, List<byte[]> batch) {
+            try {
+                while (batch.size() < batchSize) {
+                    if (!iterator.hasNext()) {
+                        return true;
+                    }
+                    batch.add(iterator.next().message());
+                }
+            } catch (ConsumerTimeoutException e) {
+                // Nothing more for now: dispatch what we have
+            }
+            return false;
+        }
+
+        private void dispatch(List<byte[]> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            for (byte[] serializedEvent : batch) {
+                try {
+                    messageReceiver.receiveSerializedEvent(serializedEvent);
+                } catch (RuntimeException e) {
+                    LOG.error("Error while dispatching event", e);
+                }
+            }
+            batch.clear();
+            m_connector.commitOffsets();
+        }
     }
 
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_BATCH_TIMEOUT_IN_MILLIS = 10;
+
     private static final String ZK_SESSION_TIMEOUT = "400";
     private static final String ZK_SYNC_TIME = "200";
-    private static final String AUTO_COMMIT8INTERVAL_MS ="1000";
     private static final Logger LOG = LoggerFactory.getLogger(KafkaMessageConsumer.class);
 
-    private final ConsumerConnector consumer;
+    private final Supplier<ConsumerConnector> connectorFactory;
+    private final List<ConsumerConnector> connectors;
     private final int numberOfTread;
+    private final int batchSize;
     private MessageReceiver messageReceiver;
     private ExecutorService executor;
-    private boolean isInitialized;
+    private volatile boolean isInitialized;
 
 
     public KafkaMessageConsumer(String zookeeperConnectionString,
                                 String groupId,
                                 int numberOfThread) {
-        this.consumer = kafka.consumer.Consumer.createJavaConsumerConnector(createConsumerConfig(zookeeperConnectionString, groupId));
+        this(zookeeperConnectionString, groupId, numberOfThread, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_TIMEOUT_IN_MILLIS);
+    }
+
+    public KafkaMessageConsumer(String zookeeperConnectionString,
+                                String groupId,
+                                int numberOfThread,
+                                int batchSize,
+                                int batchTimeoutInMillis) {
+        this(() -> kafka.consumer.Consumer.createJavaConsumerConnector(createConsumerConfig(zookeeperConnectionString, groupId, batchTimeoutInMillis)),
+            numberOfThread,
+            batchSize);
+    }
+
+    KafkaMessageConsumer(Supplier<ConsumerConnector> connectorFactory, int numberOfThread, int batchSize) {
+        this.connectorFactory = connectorFactory;
+        this.connectors = new CopyOnWriteArrayList<>();
         this.numberOfTread = numberOfThread;
+        this.batchSize = batchSize;
         this.isInitialized = false;
     }
 
@@ -86,7 +158,8 @@ public class KafkaMessageConsumer implements MessageConsumer {
 
     @PreDestroy
     public void destroy() {
-        if (consumer != null) consumer.shutdown();
+        connectors.forEach(ConsumerConnector::shutdown);
+        connectors.clear();
         if (executor != null) executor.shutdown();
         this.isInitialized = false;
     }
@@ -95,32 +168,32 @@ public class KafkaMessageConsumer implements MessageConsumer {
     public void init(Topic topic) {
         if(!isInitialized) {
             this.isInitialized = true;
-            List<KafkaStream<byte[], byte[]>> streams = getKafkaStreams(topic.getValue());
             executor = Executors.newFixedThreadPool(numberOfTread);
-            startConsuming(streams);
+            for (int i = 0; i < numberOfTread; i++) {
+                startConsuming(topic.getValue());
+            }
         } else {
             LOG.warn("This Kafka MailboxMessage Receiver was already launched.");
         }
     }
 
-    private List<KafkaStream<byte[], byte[]>> getKafkaStreams(String topic) {
+    private void startConsuming(String topic) {
+        ConsumerConnector connector = connectorFactory.get();
+        connectors.add(connector);
         Map<String, Integer> topicCountMap = new HashMap<>();
-        topicCountMap.put(topic, numberOfTread);
-        Map<String, List<KafkaStream<byte[], byte[]>>> consumerMap = consumer.createMessageStreams(topicCountMap);
-        return consumerMap.get(topic);
-    }
-
-    private void startConsuming(List<KafkaStream<byte[], byte[]>> streams) {
-        streams.forEach(stream -> executor.submit(new Consumer(stream)));
+        topicCountMap.put(topic, 1);
+        Map<String, List<KafkaStream<byte[], byte[]>>> consumerMap = connector.createMessageStreams(topicCountMap);
+        executor.submit(new Consumer(connector, consumerMap.get(topic).get(0)));
     }
 
-    private ConsumerConfig createConsumerConfig(String zookeeperConnectionString, String groupId) {
+    private static ConsumerConfig createConsumerConfig(String zookeeperConnectionString, String groupId, int batchTimeoutInMillis) {
         Properties props = new Properties();
         props.put("zookeeper.connect", zookeeperConnectionString);
         props.put("group.id", groupId);
         props.put("zookeeper.session.timeout.ms", ZK_SESSION_TIMEOUT);
         props.put("zookeeper.sync.time.ms", ZK_SYNC_TIME);
-        props.put("auto.commit.interval.ms", AUTO_COMMIT8INTERVAL_MS);
+        props.put("auto.commit.enable", "false");
+        props.put("consumer.timeout.ms", String.valueOf(batchTimeoutInMillis));
         return new ConsumerConfig(props);
     }
 
@@ -19,59 +19,122 @@
 
 package org.apache.james.mailbox.kafka;
 
-import kafka.javaapi.producer.Producer;
-import kafka.producer.KeyedMessage;
-import kafka.producer.ProducerConfig;
 import org.apache.james.mailbox.store.publisher.Publisher;
 import org.apache.james.mailbox.store.publisher.Topic;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Publishes the serialized events with the asynchronous Kafka producer.
+ *
+ * Events are not sent one request at a time: the producer waits up to lingerInMillis for a batch of up to
+ * batchSizeInBytes to fill, and compresses each batch as a whole (serialized events are small and very repetitive).
+ * Send failures are reported to the send callback, and counted, instead of blocking the emitting thread.
+ *
+ * All the events of a publisher and a topic go to the same partition, so that the consumers get the events of a
+ * mailbox in the order they were emitted.
+ */
 public class KafkaPublisher implements Publisher {
 
+    public static final int DEFAULT_LINGER_IN_MILLIS = 5;
+    public static final int DEFAULT_BATCH_SIZE_IN_BYTES = 64 * 1024;
+    public static final String DEFAULT_COMPRESSION_TYPE = "snappy";
+
     private static final Logger LOG = LoggerFactory.getLogger(KafkaPublisher.class);
 
-    private Producer<String, byte[]> producer;
+    private Producer<byte[], byte[]> producer;
     private final int kafka_port;
     private final String kafka_ip;
+    private final int lingerInMillis;
+    private final int batchSizeInBytes;
+    private final String compressionType;
+    private final ConcurrentMap<String, Integer> partitions;
+    private final AtomicLong failedSendCount;
+    private final Callback sendCallback;
     private boolean producerLaunched;
 
     public KafkaPublisher(String kafkaHostIpString, int kafka_port) {
+        this(kafkaHostIpString, kafka_port, DEFAULT_LINGER_IN_MILLIS, DEFAULT_BATCH_SIZE_IN_BYTES, DEFAULT_COMPRESSION_TYPE);
+    }
+
+    public KafkaPublisher(String kafkaHostIpString, int kafka_port, int lingerInMillis, int batchSizeInBytes, String compressionType) {
         this.kafka_ip = kafkaHostIpString;
         this.kafka_port = kafka_port;
+        this.lingerInMillis = lingerInMillis;
+        this.batchSizeInBytes = batchSizeInBytes;
+        this.compressionType = compressionType;
+        this.partitions = new ConcurrentHashMap<>();
+        this.failedSendCount = new AtomicLong();
+        this.sendCallback = this::onSendCompletion;
         producerLaunched = false;
     }
 
+    KafkaPublisher(Producer<byte[], byte[]> producer) {
+        this(null, 0);
+        this.producer = producer;
+        this.producerLaunched = true;
+    }
+
     @PostConstruct
     @Override
     public void init() {
         if (!producerLaunched) {
             Properties props = new Properties();
-            props.put("metadata.broker.list", kafka_ip + ":" + kafka_port);
-            props.put("serializer.class", "kafka.serializer.DefaultEncoder");
-            props.put("request.required.acks", "1");
-            ProducerConfig config = new ProducerConfig(props);
-            producer = new Producer<>(config);
+            props.put("bootstrap.servers", kafka_ip + ":" + kafka_port);
+            props.put("acks", "1");
+            props.put("linger.ms", String.valueOf(lingerInMillis));
+            props.put("batch.size", String.valueOf(batchSizeInBytes));
+            props.put("compression.type", compressionType);
+            producer = new KafkaProducer<>(props, new ByteArraySerializer(), new ByteArraySerializer());
             producerLaunched = true;
         } else {
             LOG.warn("Kafka producer was already instantiated");
         }
     }
 
-
     @Override
     public void publish(Topic topic, byte[] message) {
-        producer.send(new KeyedMessage<>(topic.getValue(), message));
+        producer.send(new ProducerRecord<>(topic.getValue(), partition(topic.getValue()), null, message), sendCallback);
+    }
+
+    /**
+     * @return the count of events the broker did not acknowledge
+     */
+    public long getFailedSendCount() {
+        return failedSendCount.get();
     }
 
     @PreDestroy
     @Override
     public void close() {
+        // Sends the lingering batches before closing
         producer.close();
     }
 
+    private Integer partition(String topic) {
+        return partitions.computeIfAbsent(topic,
+            key -> ThreadLocalRandom.current().nextInt(producer.partitionsFor(key).size()));
+    }
+
+    private void onSendCompletion(RecordMetadata metadata, Exception exception) {
+        if (exception != null) {
+            failedSendCount.incrementAndGet();
+            LOG.error("Unable to send event to Kafka", exception);
+        }
+    }
+
 }
@@ -0,0 +1,142 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.kafka;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import kafka.consumer.ConsumerIterator;
+import kafka.consumer.KafkaStream;
+import kafka.javaapi.consumer.ConsumerConnector;
+import kafka.message.MessageAndMetadata;
+import org.apache.james.mailbox.store.publisher.MessageReceiver;
+import org.apache.james.mailbox.store.publisher.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class KafkaMessageConsumerTest {
+
+    private static final String TOPIC = "topic";
+    private static final byte[] EVENT_1 = "event 1".getBytes();
+    private static final byte[] EVENT_2 = "event 2".getBytes();
+
+    private ConsumerConnector connector1;
+    private ConsumerConnector connector2;
+    private MessageReceiver messageReceiver;
+    private KafkaMessageConsumer messageConsumer;
+
+    @Before
+    public void setUp() {
+        connector1 = mock(ConsumerConnector.class);
+        connector2 = mock(ConsumerConnector.class);
+        messageReceiver = mock(MessageReceiver.class);
+        Iterator<ConsumerConnector> connectors = Arrays.asList(connector1, connector2).iterator();
+        messageConsumer = new KafkaMessageConsumer(connectors::next, 2, 10);
+        messageConsumer.setMessageReceiver(messageReceiver);
+    }
+
+    @After
+    public void tearDown() {
+        messageConsumer.destroy();
+    }
+
+    @Test
+    public void eachThreadShouldConsumeOneStreamOfItsOwnConnector() {
+        givenStream(connector1, EVENT_1);
+        givenStream(connector2, EVENT_2);
+
+        messageConsumer.init(new Topic(TOPIC));
+
+        verify(connector1).createMessageStreams(Collections.singletonMap(TOPIC, 1));
+        verify(connector2).createMessageStreams(Collections.singletonMap(TOPIC, 1));
+        verify(messageReceiver, timeout(1000)).receiveSerializedEvent(EVENT_1);
+        verify(messageReceiver, timeout(1000)).receiveSerializedEvent(EVENT_2);
+    }
+
+    @Test
+    public void offsetsShouldBeCommittedAfterTheDispatchOfTheBatch() {
+        givenStream(connector1, EVENT_1, EVENT_2);
+        givenStream(connector2);
+
+        messageConsumer.init(new Topic(TOPIC));
+
+        verify(connector1, timeout(1000)).commitOffsets();
+        InOrder inOrder = inOrder(messageReceiver, connector1);
+        inOrder.verify(messageReceiver).receiveSerializedEvent(EVENT_1);
+        inOrder.verify(messageReceiver).receiveSerializedEvent(EVENT_2);
+        inOrder.verify(connector1).commitOffsets();
+    }
+
+    @Test
+    public void aThreadShouldNotCommitTheOffsetsOfOtherThreads() {
+        givenStream(connector1, EVENT_1);
+        givenStream(connector2);
+
+        messageConsumer.init(new Topic(TOPIC));
+
+        verify(connector1, timeout(1000)).commitOffsets();
+        verify(connector2, never()).commitOffsets();
+    }
+
+    @Test
+    public void destroyShouldShutdownEveryConnector() {
+        givenStream(connector1);
+        givenStream(connector2);
+        messageConsumer.init(new Topic(TOPIC));
+
+        messageConsumer.destroy();
+
+        verify(connector1).shutdown();
+        verify(connector2).shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenStream(ConsumerConnector connector, byte[]... events) {
+        ConsumerIterator<byte[], byte[]> iterator = mock(ConsumerIterator.class);
+        Boolean[] hasNext = new Boolean[events.length + 1];
+        Arrays.fill(hasNext, true);
+        hasNext[events.length] = false;
+        when(iterator.hasNext()).thenReturn(hasNext[0], Arrays.copyOfRange(hasNext, 1, hasNext.length));
+        if (events.length > 0) {
+            MessageAndMetadata<byte[], byte[]>[] messages = new MessageAndMetadata[events.length];
+            for (int i = 0; i < events.length; i++) {
+                messages[i] = mock(MessageAndMetadata.class);
+                when(messages[i].message()).thenReturn(events[i]);
+            }
+            when(iterator.next()).thenReturn(messages[0], Arrays.copyOfRange(messages, 1, messages.length));
+        }
+        KafkaStream<byte[], byte[]> stream = mock(KafkaStream.class);
+        when(stream.iterator()).thenReturn(iterator);
+        Map<String, List<KafkaStream<byte[], byte[]>>> streams = Collections.singletonMap(TOPIC, Collections.singletonList(stream));
+        when(connector.createMessageStreams(Collections.singletonMap(TOPIC, 1))).thenReturn(streams);
+    }
+}
@@ -0,0 +1,94 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.kafka;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.james.mailbox.store.publisher.Topic;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class KafkaPublisherTest {
+
+    private static final Topic TOPIC = new Topic("topic");
+    private static final byte[] EVENT = "event".getBytes();
+
+    private Producer<byte[], byte[]> producer;
+    private KafkaPublisher publisher;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        producer = mock(Producer.class);
+        when(producer.partitionsFor(TOPIC.getValue())).thenReturn(Arrays.asList(
+            new PartitionInfo(TOPIC.getValue(), 0, null, null, null),
+            new PartitionInfo(TOPIC.getValue(), 1, null, null, null),
+            new PartitionInfo(TOPIC.getValue(), 2, null, null, null)));
+        publisher = new KafkaPublisher(producer);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void publishShouldSendAllTheEventsOfATopicToTheSamePartition() {
+        publisher.publish(TOPIC, EVENT);
+        publisher.publish(TOPIC, EVENT);
+
+        ArgumentCaptor<ProducerRecord> records = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(producer, times(2)).send(records.capture(), any(Callback.class));
+        List<ProducerRecord> sent = records.getAllValues();
+        assertThat(sent.get(0).topic()).isEqualTo(TOPIC.getValue());
+        assertThat(sent.get(0).value()).isEqualTo(EVENT);
+        assertThat(sent.get(0).partition()).isBetween(0, 2);
+        assertThat(sent.get(1).partition()).isEqualTo(sent.get(0).partition());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void failedSendsShouldBeCounted() {
+        publisher.publish(TOPIC, EVENT);
+
+        ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+        verify(producer).send(any(ProducerRecord.class), callback.capture());
+        callback.getValue().onCompletion(null, new RuntimeException("broker unavailable"));
+        callback.getValue().onCompletion(null, null);
+
+        assertThat(publisher.getFailedSendCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void closeShouldCloseTheProducer() {
+        publisher.close();
+
+        verify(producer).close();
+    }
+}
@@ -409,7 +409,21 @@ public class LuceneMessageSearchIndex<Id extends MailboxId> extends ListeningMes
      * @see org.apache.james.mailbox.store.search.MessageSearchIndex#search(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.model.SearchQuery)
      */
     public Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery) throws MailboxException {
+        return search(session, mailbox, searchQuery, 0, maxQueryResults);
+    }
+
+    /**
+     * Only collects the top <code>position + limit</code> documents, bounded by the maximal number of query results.
+     * 
+     * @see org.apache.james.mailbox.store.search.MessageSearchIndex#search(org.apache.james.mailbox.MailboxSession, org.apache.james.mailbox.store.mail.model.Mailbox, org.apache.james.mailbox.model.SearchQuery, int, int)
+     */
+    @Override
+    public Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery, int position, int limit) throws MailboxException {
         Set<Long> uids = new LinkedHashSet<Long>();
+        int maxResults = (int) Math.min((long) position + limit, maxQueryResults);
+        if (position >= maxResults) {
+            return uids.iterator();
+        }
         IndexSearcher searcher = null;
 
         try {
@@ -423,11 +437,11 @@ public class LuceneMessageSearchIndex<Id extends MailboxId> extends ListeningMes
                 query.add(createQuery(crit, mailbox, searchQuery.getRecentMessageUids()), BooleanClause.Occur.MUST);
             }
 
-            // query for all the documents sorted as specified in the SearchQuery
-            TopDocs docs = searcher.search(query, null, maxQueryResults, createSort(searchQuery.getSorts()));
+            // query for the documents of the page sorted as specified in the SearchQuery
+            TopDocs docs = searcher.search(query, null, maxResults, createSort(searchQuery.getSorts()));
             ScoreDoc[] sDocs = docs.scoreDocs;
-            for (ScoreDoc sDoc : sDocs) {
-                long uid = Long.valueOf(searcher.doc(sDoc.doc).get(UID_FIELD));
+            for (int i = position; i < sDocs.length; i++) {
+                long uid = Long.valueOf(searcher.doc(sDocs[i].doc).get(UID_FIELD));
                 uids.add(uid);
             }
         } catch (IOException e) {
@@ -439,6 +439,24 @@ public class LuceneMailboxMessageSearchIndexTest {
         assertEquals(1L, it4.next().longValue());
         assertFalse(it4.hasNext());
     }
+
+    @Test
+    public void testSearchPageShouldSkipPositionAndRespectLimit() throws Exception {
+        SearchQuery q2 = new SearchQuery();
+        q2.setSorts(Arrays.asList(new SearchQuery.Sort(SortClause.Uid, true)));
+        q2.andCriteria(SearchQuery.all());
+        Iterator<Long> it4 = index.search(null, mailbox, q2, 1, 1);
+        assertEquals(2L, it4.next().longValue());
+        assertFalse(it4.hasNext());
+    }
+
+    @Test
+    public void testSearchPageShouldBeEmptyWhenPositionIsAfterLastResult() throws Exception {
+        SearchQuery q2 = new SearchQuery();
+        q2.andCriteria(SearchQuery.all());
+        Iterator<Long> it4 = index.search(null, mailbox, q2, 3, 10);
+        assertFalse(it4.hasNext());
+    }
     
     @Test
     public void testSortSentDate() throws Exception {
@@ -249,11 +249,21 @@ public class MaildirStore implements UidProvider<MaildirId>, ModSeqProvider<Mail
         }
     }
 
+    @Override
+    public long nextUids(MailboxSession session, Mailbox<MaildirId> mailbox, int count) throws MailboxException {
+        return nextUid(session, mailbox);
+    }
+
     @Override
     public long nextModSeq(MailboxSession session, Mailbox<MaildirId> mailbox) throws MailboxException {
         return System.currentTimeMillis();
     }
 
+    @Override
+    public long nextModSeqs(MailboxSession session, Mailbox<MaildirId> mailbox, int count) throws MailboxException {
+        return nextModSeq(session, mailbox);
+    }
+
     @Override
     public long highestModSeq(MailboxSession session, Mailbox<MaildirId> mailbox) throws MailboxException {
         try {
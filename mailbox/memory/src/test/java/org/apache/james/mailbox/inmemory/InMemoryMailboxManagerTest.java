@@ -20,17 +20,23 @@ package org.apache.james.mailbox.inmemory;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.james.mailbox.AbstractMailboxManagerTest;
 import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
 import org.apache.james.mailbox.acl.GroupMembershipResolver;
 import org.apache.james.mailbox.acl.MailboxACLResolver;
 import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
 import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
 import org.apache.james.mailbox.exception.BadCredentialsException;
 import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.FetchGroupImpl;
 import org.apache.james.mailbox.model.MailboxMetaData;
 import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.mailbox.model.MailboxQuery;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.MessageResultIterator;
 import org.apache.james.mailbox.store.MockAuthenticator;
 import org.apache.james.mailbox.store.StoreMailboxManager;
 import org.junit.After;
@@ -38,8 +44,13 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
 
+import javax.mail.Flags;
+import javax.mail.util.SharedByteArrayInputStream;
+
 /**
  * InMemoryMailboxManagerTest that extends the MailboxManagerTest.
  */
@@ -107,5 +118,36 @@ public class InMemoryMailboxManagerTest extends AbstractMailboxManagerTest {
         assertThat(metaDatas).hasSize(1);
         assertThat(metaDatas.get(0).getPath()).isEqualTo(MailboxPath.inbox(session));
     }
-    
+
+    @Test
+    public void appendMessageShouldStoreASharedStreamStartingInsideItsSource() throws Exception {
+        String message = "Subject: test\r\n\r\nbody\r\n";
+        InputStream sharedMessage = new SharedByteArrayInputStream(("* 1 APPEND {23}\r\n" + message + ")\r\n").getBytes("US-ASCII"))
+            .newStream(17, 17 + message.length());
+        getMailboxManager().createMailbox(MailboxPath.inbox(session), session);
+        MessageManager inbox = getMailboxManager().getMailbox(MailboxPath.inbox(session), session);
+
+        inbox.appendMessage(sharedMessage, new Date(), session, false, new Flags());
+        sharedMessage.close();
+
+        MessageResultIterator messages = inbox.getMessages(MessageRange.all(),
+            new FetchGroupImpl(MessageResult.FetchGroup.FULL_CONTENT | MessageResult.FetchGroup.BODY_CONTENT), session);
+        MessageResult result = messages.next();
+        assertThat(result.getSize()).isEqualTo(message.length());
+        assertThat(IOUtils.toString(result.getFullContent().getInputStream(), "US-ASCII")).isEqualTo(message);
+        assertThat(IOUtils.toString(result.getBody().getInputStream(), "US-ASCII")).isEqualTo("body\r\n");
+    }
+
+    @Test
+    public void appendMessageShouldNotConsumeTheSharedStream() throws Exception {
+        String message = "Subject: test\r\n\r\nbody\r\n";
+        InputStream sharedMessage = new SharedByteArrayInputStream(message.getBytes("US-ASCII"));
+        getMailboxManager().createMailbox(MailboxPath.inbox(session), session);
+        MessageManager inbox = getMailboxManager().getMailbox(MailboxPath.inbox(session), session);
+
+        inbox.appendMessage(sharedMessage, new Date(), session, false, new Flags());
+
+        assertThat(IOUtils.toString(sharedMessage, "US-ASCII")).isEqualTo(message);
+    }
+
 }
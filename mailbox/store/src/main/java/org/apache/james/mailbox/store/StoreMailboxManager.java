@@ -25,6 +25,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -117,6 +118,8 @@ public class StoreMailboxManager<Id extends MailboxId> implements MailboxManager
 
     private int fetchBatchSize = DEFAULT_FETCH_BATCH_SIZE;
 
+    private ExecutorService searchExecutor;
+
 
     @Inject
     public StoreMailboxManager(MailboxSessionMapperFactory<Id> mailboxSessionMapperFactory, final Authenticator authenticator, final MailboxPathLocker locker, final MailboxACLResolver aclResolver, final GroupMembershipResolver groupMembershipResolver) {
@@ -159,6 +162,16 @@ public class StoreMailboxManager<Id extends MailboxId> implements MailboxManager
         this.fetchBatchSize = fetchBatchSize;
     }
 
+    /**
+     * Set the executor matching the messages of large mailboxes concurrently when no {@link MessageSearchIndex} is
+     * given. Only set it when the messages of the mapper can be read outside of the thread which loaded them.
+     *
+     * @see SimpleMessageSearchIndex
+     */
+    public void setSearchExecutor(ExecutorService searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
 
     /**
      * Init the {@link MailboxManager}
@@ -171,7 +184,7 @@ public class StoreMailboxManager<Id extends MailboxId> implements MailboxManager
         dispatcher = new MailboxEventDispatcher<Id>(getDelegationListener());
 
         if (index == null) {
-            index = new SimpleMessageSearchIndex<Id>(mailboxSessionMapperFactory);
+            index = new SimpleMessageSearchIndex<Id>(mailboxSessionMapperFactory, searchExecutor);
         }
         if (index instanceof ListeningMessageSearchIndex) {
             this.addGlobalListener((MailboxListener) index, null);
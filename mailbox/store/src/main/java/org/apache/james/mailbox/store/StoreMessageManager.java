@@ -252,7 +252,7 @@ public class StoreMessageManager<Id extends MailboxId> implements org.apache.jam
     public long appendMessage(final InputStream msgIn, Date internalDate, final MailboxSession mailboxSession, final boolean isRecent, final Flags flagsToBeSet) throws MailboxException {
 
         File file = null;
-        TeeInputStream tmpMsgIn = null;
+        InputStream tmpMsgIn = null;
         BodyOffsetInputStream bIn = null;
         FileOutputStream out = null;
         SharedFileInputStream contentIn = null;
@@ -262,13 +262,26 @@ public class StoreMessageManager<Id extends MailboxId> implements org.apache.jam
         }
 
         try {
-            // Create a temporary file and copy the message to it. We will work
-            // with the file as
-            // source for the InputStream
-            file = File.createTempFile("imap", ".msg");
-            out = new FileOutputStream(file);
-
-            tmpMsgIn = new TeeInputStream(msgIn, out);
+            final SharedInputStream sharedMsgIn;
+            if (msgIn instanceof SharedInputStream) {
+                // The message is already backed by a shareable source (like a
+                // spooled IMAP literal), so parse it in place instead of
+                // copying it to a temporary file. As with the temporary file,
+                // the content is only guaranteed to stay readable until this
+                // method returns: a mapper which keeps it must take its own
+                // stream with newStream.
+                sharedMsgIn = (SharedInputStream) msgIn;
+                tmpMsgIn = sharedMsgIn.newStream(0, -1);
+            } else {
+                // Create a temporary file and copy the message to it. We will work
+                // with the file as
+                // source for the InputStream
+                sharedMsgIn = null;
+                file = File.createTempFile("imap", ".msg");
+                out = new FileOutputStream(file);
+
+                tmpMsgIn = new TeeInputStream(msgIn, out);
+            }
 
             bIn = new BodyOffsetInputStream(tmpMsgIn);
             // Disable line length... This should be handled by the smtp server
@@ -368,10 +381,18 @@ public class StoreMessageManager<Id extends MailboxId> implements org.apache.jam
             if (bodyStartOctet == -1) {
                 bodyStartOctet = 0;
             }
-            contentIn = new SharedFileInputStream(file);
-            final int size = (int) file.length();
+            final SharedInputStream content;
+            final int size;
+            if (sharedMsgIn != null) {
+                content = sharedMsgIn;
+                size = (int) ((SharedInputStream) tmpMsgIn).getPosition();
+            } else {
+                contentIn = new SharedFileInputStream(file);
+                content = contentIn;
+                size = (int) file.length();
+            }
 
-            final MailboxMessage<Id> message = createMessage(internalDate, size, bodyStartOctet, contentIn, flags, propertyBuilder);
+            final MailboxMessage<Id> message = createMessage(internalDate, size, bodyStartOctet, content, flags, propertyBuilder);
 
             new QuotaChecker<Id>(quotaManager, quotaRootResolver, mailbox).tryAddition(1, size);
 
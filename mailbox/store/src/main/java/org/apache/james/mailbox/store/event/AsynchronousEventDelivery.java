@@ -16,37 +16,408 @@
  * specific language governing permissions and limitations      *
  * under the License.                                           *
  ****************************************************************/
-
 package org.apache.james.mailbox.store.event;
 
-import org.apache.james.mailbox.MailboxListener;
-
-import javax.annotation.PreDestroy;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class AsynchronousEventDelivery implements EventDelivery {
+import javax.annotation.PreDestroy;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.store.event.EventSpill.QueuedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EventDelivery} which delivers events from a thread pool.
+ *
+ * Each listener has its own bounded queue, drained by at most one thread at a time. Events are therefore delivered
+ * to a listener in the order they were emitted, and a slow listener only holds back its own events. What happens
+ * when a queue is full is decided by the {@link OverflowPolicy}.
+ *
+ * With {@link OverflowPolicy#BLOCK}, events emitted by listeners from the delivery threads are queued beyond the
+ * capacity instead: waiting for room there could wait for the very thread that would make it.
+ */
+public class AsynchronousEventDelivery implements EventDelivery, AsynchronousEventDeliveryMBean {
+
+    public enum OverflowPolicy {
+        /**
+         * Wait for the listener to catch up. No event is lost.
+         */
+        BLOCK,
+        /**
+         * Drop the event. Listeners implementing {@link DropAwareMailboxListener} are told which mailboxes
+         * they missed events of, so that they can recover, for example by re-indexing them.
+         */
+        DROP,
+        /**
+         * Write the events to disk until the listener catches up
+         */
+        SPILL
+    }
+
+    /**
+     * {@link MailboxListener} which can recover from missed events, for example by re-indexing the mailbox
+     */
+    public interface DropAwareMailboxListener extends MailboxListener {
+
+        /**
+         * Called once per mailbox some events were dropped for, after the events queued before the drop were delivered.
+         *
+         * @param lastDroppedEvent the last event dropped for the mailbox
+         */
+        void eventsDropped(MailboxListener.Event lastDroppedEvent);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsynchronousEventDelivery.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    public static final String DEFAULT_JMX_NAME = "org.apache.james:type=component,name=asynchronouseventdelivery";
+    // Count of events a thread delivers to a listener before giving way to the other ones
+    private static final int BATCH_SIZE = 100;
 
     private final ExecutorService threadPoolExecutor;
     private final SynchronousEventDelivery synchronousEventDelivery;
+    private final ConcurrentMap<MailboxListener, ListenerQueue> queues;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final EventSerializer spillSerializer;
+    private final File spillDirectory;
+    private final String jmxName;
+    private final AtomicLong deliveredEventCount = new AtomicLong();
+    private final AtomicLong droppedEventCount = new AtomicLong();
+    private final AtomicLong spilledEventCount = new AtomicLong();
+    private final ThreadLocal<Boolean> deliveryThread = new ThreadLocal<Boolean>();
+    private volatile boolean stopped;
+    private boolean registered;
 
     public AsynchronousEventDelivery(int threadPoolSize) {
+        this(threadPoolSize, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    public AsynchronousEventDelivery(int threadPoolSize, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(threadPoolSize, queueCapacity, overflowPolicy, null, null, DEFAULT_JMX_NAME);
+    }
+
+    /**
+     * @param spillSerializer serializer of the spilled events, needed by {@link OverflowPolicy#SPILL} only
+     * @param spillDirectory directory of the spill files, the default temporary directory if null
+     * @param jmxName name to register the metrics under, or null to not register them. If the name is already
+     *                taken the metrics are not registered
+     */
+    public AsynchronousEventDelivery(int threadPoolSize, int queueCapacity, OverflowPolicy overflowPolicy,
+                                     EventSerializer spillSerializer, File spillDirectory, String jmxName) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        if (overflowPolicy == OverflowPolicy.SPILL && spillSerializer == null) {
+            throw new IllegalArgumentException("An event serializer is needed to spill events");
+        }
         this.threadPoolExecutor = Executors.newFixedThreadPool(threadPoolSize);
         this.synchronousEventDelivery = new SynchronousEventDelivery();
+        this.queues = new ConcurrentHashMap<MailboxListener, ListenerQueue>();
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.spillSerializer = spillSerializer;
+        this.spillDirectory = spillDirectory;
+        this.jmxName = jmxName;
+        registerMBean();
     }
 
     @Override
     public void deliver(final MailboxListener mailboxListener, final MailboxListener.Event event) {
-        threadPoolExecutor.submit(new Runnable() {
-            @Override
-            public void run() {
-                synchronousEventDelivery.deliver(mailboxListener, event);
+        while (true) {
+            ListenerQueue queue = queues.get(mailboxListener);
+            if (queue == null) {
+                ListenerQueue created = new ListenerQueue(mailboxListener);
+                queue = queues.putIfAbsent(mailboxListener, created);
+                if (queue == null) {
+                    queue = created;
+                }
+            }
+            // A queue found empty by its drainer is retired, the event then goes to a new one
+            if (queue.offer(event)) {
+                return;
             }
-        });
+        }
+    }
+
+    public long getQueuedEventCount() {
+        long count = 0;
+        for (ListenerQueue queue : queues.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    public long getLagInMillis() {
+        long now = System.currentTimeMillis();
+        long lag = 0;
+        for (ListenerQueue queue : queues.values()) {
+            Long oldestQueuedAt = queue.oldestQueuedAt();
+            if (oldestQueuedAt != null) {
+                lag = Math.max(lag, now - oldestQueuedAt);
+            }
+        }
+        return lag;
+    }
+
+    public long getDeliveredEventCount() {
+        return deliveredEventCount.get();
+    }
+
+    public long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    public long getSpilledEventCount() {
+        return spilledEventCount.get();
+    }
+
+    public String[] getListenerQueueDepths() {
+        List<String> depths = new ArrayList<String>();
+        for (ListenerQueue queue : queues.values()) {
+            depths.add(queue.listener.getClass().getName() + ": " + queue.size());
+        }
+        return depths.toArray(new String[depths.size()]);
     }
 
     @PreDestroy
     public void stop() {
+        stopped = true;
         threadPoolExecutor.shutdownNow();
+        for (ListenerQueue queue : queues.values()) {
+            queue.discardSpill();
+        }
+        unregisterMBean();
+    }
+
+    private void registerMBean() {
+        if (jmxName != null) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                mbeanServer.registerMBean(this, new ObjectName(jmxName));
+                registered = true;
+            } catch (InstanceAlreadyExistsException e) {
+                registered = false;
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to register mbean", e);
+            }
+        }
+    }
+
+    private void unregisterMBean() {
+        if (registered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(jmxName));
+                registered = false;
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to unregister mbean", e);
+            }
+        }
+    }
+
+    /**
+     * Events of a listener. All the state is guarded by the queue monitor, the delivery itself is done outside of it.
+     */
+    private final class ListenerQueue implements Runnable {
+
+        private final MailboxListener listener;
+        private final Deque<QueuedEvent> events = new ArrayDeque<QueuedEvent>();
+        private final Map<MailboxPath, MailboxListener.Event> droppedEvents = new LinkedHashMap<MailboxPath, MailboxListener.Event>();
+        // Once spilling started all new events go to the spill, until it is read back, to keep their order
+        private EventSpill spill;
+        private boolean scheduled;
+        private boolean retired;
+
+        public ListenerQueue(MailboxListener listener) {
+            this.listener = listener;
+        }
+
+        public boolean offer(MailboxListener.Event event) {
+            synchronized (this) {
+                boolean fromDeliveryThread = deliveryThread.get() != null;
+                if (overflowPolicy == OverflowPolicy.BLOCK && !fromDeliveryThread) {
+                    awaitRoom();
+                }
+                if (retired) {
+                    return false;
+                }
+                long now = System.currentTimeMillis();
+                if (spill != null) {
+                    spill(event, now);
+                } else if (events.size() < queueCapacity || overflowPolicy == OverflowPolicy.BLOCK) {
+                    events.add(new QueuedEvent(event, now));
+                } else if (overflowPolicy == OverflowPolicy.SPILL) {
+                    spill(event, now);
+                } else {
+                    drop(event);
+                }
+                if (scheduled || (events.isEmpty() && spill == null && droppedEvents.isEmpty())) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            threadPoolExecutor.execute(this);
+            return true;
+        }
+
+        /**
+         * An interrupted emitter stops waiting, its event is then queued beyond the capacity rather than lost.
+         */
+        private void awaitRoom() {
+            try {
+                while (events.size() >= queueCapacity && !stopped) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void spill(MailboxListener.Event event, long now) {
+            try {
+                if (spill == null) {
+                    spill = new EventSpill(spillSerializer, spillDirectory);
+                }
+                spill.append(event, now);
+                spilledEventCount.incrementAndGet();
+            } catch (Exception e) {
+                LOG.error("Unable to spill event for listener " + listener.getClass().getCanonicalName(), e);
+                drop(event);
+            }
+        }
+
+        private void drop(MailboxListener.Event event) {
+            droppedEventCount.incrementAndGet();
+            if (event.getMailboxPath() != null) {
+                droppedEvents.put(event.getMailboxPath(), event);
+            }
+            LOG.warn("Event queue of listener {} is full, dropping {}", listener.getClass().getCanonicalName(), event.getClass().getSimpleName());
+        }
+
+        public void run() {
+            deliveryThread.set(Boolean.TRUE);
+            try {
+                drain();
+            } finally {
+                deliveryThread.remove();
+            }
+        }
+
+        private void drain() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                QueuedEvent next;
+                List<MailboxListener.Event> dropped = null;
+                synchronized (this) {
+                    next = poll();
+                    if (next == null && !droppedEvents.isEmpty()) {
+                        dropped = new ArrayList<MailboxListener.Event>(droppedEvents.values());
+                        droppedEvents.clear();
+                    } else if (next == null) {
+                        // Nothing left: retire this queue so that idle listeners do not hold on to one
+                        scheduled = false;
+                        retired = true;
+                        queues.remove(listener, this);
+                        notifyAll();
+                        return;
+                    }
+                }
+                if (next != null) {
+                    try {
+                        synchronousEventDelivery.deliver(listener, next.event);
+                    } catch (Throwable t) {
+                        // The queue must keep on being drained whatever happens
+                        LOG.error("Error while delivering event to listener " + listener.getClass().getCanonicalName(), t);
+                    }
+                    deliveredEventCount.incrementAndGet();
+                } else {
+                    notifyDropped(dropped);
+                }
+            }
+            // Give way to the other listeners
+            threadPoolExecutor.execute(this);
+        }
+
+        private QueuedEvent poll() {
+            QueuedEvent next = events.poll();
+            if (next != null) {
+                notifyAll();
+                return next;
+            }
+            if (spill != null) {
+                try {
+                    if (spill.size() > 0) {
+                        return spill.next();
+                    }
+                } catch (Exception e) {
+                    LOG.error("Unable to read back spilled events of listener " + listener.getClass().getCanonicalName(), e);
+                    droppedEventCount.addAndGet(spill.size());
+                }
+                spill.delete();
+                spill = null;
+            }
+            return null;
+        }
+
+        private void notifyDropped(List<MailboxListener.Event> lastDroppedEvents) {
+            if (listener instanceof DropAwareMailboxListener) {
+                for (MailboxListener.Event lastDroppedEvent : lastDroppedEvents) {
+                    try {
+                        ((DropAwareMailboxListener) listener).eventsDropped(lastDroppedEvent);
+                    } catch (Throwable t) {
+                        LOG.error("Error while recovering dropped events of " + lastDroppedEvent.getMailboxPath() + " for listener " + listener.getClass().getCanonicalName(), t);
+                    }
+                }
+            }
+        }
+
+        public synchronized long size() {
+            long size = events.size();
+            if (spill != null) {
+                size += spill.size();
+            }
+            return size;
+        }
+
+        public synchronized Long oldestQueuedAt() {
+            QueuedEvent oldest = events.peek();
+            if (oldest != null) {
+                return oldest.queuedAt;
+            }
+            if (spill != null && spill.size() > 0) {
+                try {
+                    return spill.oldestQueuedAt();
+                } catch (Exception e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        public synchronized void discardSpill() {
+            // Also releases the emitters waiting for room
+            notifyAll();
+            if (spill != null) {
+                spill.delete();
+                spill = null;
+            }
+        }
     }
 }
@@ -0,0 +1,55 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event;
+
+/**
+ * JMX view of the {@link AsynchronousEventDelivery}
+ */
+public interface AsynchronousEventDeliveryMBean {
+
+    /**
+     * @return the count of events waiting to be delivered, in memory or spilled to disk
+     */
+    long getQueuedEventCount();
+
+    /**
+     * @return the age in milliseconds of the oldest event waiting to be delivered
+     */
+    long getLagInMillis();
+
+    /**
+     * @return the count of events delivered since the start
+     */
+    long getDeliveredEventCount();
+
+    /**
+     * @return the count of events dropped since the start because a listener queue was full
+     */
+    long getDroppedEventCount();
+
+    /**
+     * @return the count of events spilled to disk since the start because a listener queue was full
+     */
+    long getSpilledEventCount();
+
+    /**
+     * @return the count of queued events of each listener
+     */
+    String[] getListenerQueueDepths();
+}
@@ -0,0 +1,118 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.james.mailbox.MailboxListener;
+
+/**
+ * Append only file of serialized events, read back in the order they were written.
+ *
+ * Each record holds the time the event was queued, the length of the serialized event and the serialized event.
+ * This class is not thread safe.
+ */
+class EventSpill {
+
+    private final EventSerializer serializer;
+    private final File file;
+    private final DataOutputStream out;
+    private DataInputStream in;
+    private long size = 0;
+
+    public EventSpill(EventSerializer serializer, File directory) throws IOException {
+        this.serializer = serializer;
+        this.file = File.createTempFile("mailbox-events", ".spill", directory);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    public void append(MailboxListener.Event event, long queuedAt) throws Exception {
+        byte[] serialized = serializer.serializeEvent(event);
+        out.writeLong(queuedAt);
+        out.writeInt(serialized.length);
+        out.write(serialized);
+        size++;
+    }
+
+    /**
+     * @return the count of events which were not read back yet
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Read back the oldest event. Must only be called when {@link #size()} is positive.
+     */
+    public QueuedEvent next() throws Exception {
+        openReader();
+        long queuedAt = in.readLong();
+        byte[] serialized = new byte[in.readInt()];
+        in.readFully(serialized);
+        size--;
+        return new QueuedEvent(serializer.deSerializeEvent(serialized), queuedAt);
+    }
+
+    /**
+     * @return the time the oldest event which was not read back yet was queued at
+     */
+    public long oldestQueuedAt() throws IOException {
+        openReader();
+        in.mark(8);
+        long queuedAt = in.readLong();
+        in.reset();
+        return queuedAt;
+    }
+
+    private void openReader() throws IOException {
+        // make the records written so far visible to the reader
+        out.flush();
+        if (in == null) {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+    }
+
+    public void delete() {
+        IOUtils.closeQuietly(out);
+        IOUtils.closeQuietly(in);
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * An event and the time it was queued at
+     */
+    static class QueuedEvent {
+        final MailboxListener.Event event;
+        final long queuedAt;
+
+        QueuedEvent(MailboxListener.Event event, long queuedAt) {
+            this.event = event;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
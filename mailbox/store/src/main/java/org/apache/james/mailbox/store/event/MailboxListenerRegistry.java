@@ -16,61 +16,162 @@
  * specific language governing permissions and limitations      *
  * under the License.                                           *
  ****************************************************************/
-
 package org.apache.james.mailbox.store.event;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.james.mailbox.MailboxListener;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxPath;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-
+/**
+ * Registry of the {@link MailboxListener}s, by {@link MailboxPath} and global.
+ *
+ * Listeners are kept in copy-on-write arrays which are swapped with compare-and-set operations. Looking up the
+ * listeners of an event, which happens for each of them, neither locks nor copies anything. Registrations are
+ * spread over the stripes of a {@link ConcurrentHashMap}, so that sessions selecting different mailboxes do not
+ * contend with each other.
+ */
 public class MailboxListenerRegistry {
 
-    private final Multimap<MailboxPath, MailboxListener> listeners;
-    private final ConcurrentLinkedQueue<MailboxListener> globalListeners;
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+
+    private static final MailboxListener[] NO_LISTENER = new MailboxListener[0];
+
+    private final ConcurrentMap<MailboxPath, MailboxListener[]> listeners;
+    private final AtomicReference<MailboxListener[]> globalListeners;
 
     public MailboxListenerRegistry() {
-        this.globalListeners = new ConcurrentLinkedQueue<MailboxListener>();
-        this.listeners = Multimaps.synchronizedMultimap(HashMultimap.<MailboxPath, MailboxListener>create());
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public MailboxListenerRegistry(int concurrencyLevel) {
+        this.globalListeners = new AtomicReference<MailboxListener[]>(NO_LISTENER);
+        this.listeners = new ConcurrentHashMap<MailboxPath, MailboxListener[]>(16, 0.75f, concurrencyLevel);
     }
 
     public void addListener(MailboxPath path, MailboxListener listener) throws MailboxException {
-        listeners.put(path, listener);
+        add(path, new MailboxListener[] { listener });
     }
 
     public void addGlobalListener(MailboxListener listener) throws MailboxException {
-        globalListeners.add(listener);
+        while (true) {
+            MailboxListener[] current = globalListeners.get();
+            MailboxListener[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+            if (globalListeners.compareAndSet(current, updated)) {
+                return;
+            }
+        }
     }
 
     public void removeListener(MailboxPath mailboxPath, MailboxListener listener) throws MailboxException {
-        listeners.remove(mailboxPath, listener);
+        while (true) {
+            MailboxListener[] current = listeners.get(mailboxPath);
+            if (current == null) {
+                return;
+            }
+            MailboxListener[] updated = without(current, listener);
+            if (updated == current) {
+                return;
+            }
+            // Arrays are compared by identity, so these calls only succeed if no one changed the entry meanwhile
+            boolean swapped;
+            if (updated.length == 0) {
+                swapped = listeners.remove(mailboxPath, current);
+            } else {
+                swapped = listeners.replace(mailboxPath, current, updated);
+            }
+            if (swapped) {
+                return;
+            }
+        }
     }
 
     public void removeGlobalListener(MailboxListener listener) throws MailboxException {
-        globalListeners.remove(listener);
+        while (true) {
+            MailboxListener[] current = globalListeners.get();
+            MailboxListener[] updated = without(current, listener);
+            if (updated == current || globalListeners.compareAndSet(current, updated)) {
+                return;
+            }
+        }
     }
 
     public List<MailboxListener> getLocalMailboxListeners(MailboxPath path) {
-        return ImmutableList.copyOf(listeners.get(path));
+        MailboxListener[] current = listeners.get(path);
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        // The arrays are never modified once published, no need to copy them
+        return Collections.unmodifiableList(Arrays.asList(current));
     }
 
     public List<MailboxListener> getGlobalListeners() {
-        return ImmutableList.copyOf(globalListeners);
+        return Collections.unmodifiableList(Arrays.asList(globalListeners.get()));
     }
 
     public void deleteRegistryFor(MailboxPath path) {
-        listeners.removeAll(path);
+        listeners.remove(path);
     }
 
     public void handleRename(MailboxPath oldName, MailboxPath newName) {
-        listeners.putAll(newName, listeners.removeAll(oldName));
+        MailboxListener[] moved = listeners.remove(oldName);
+        if (moved != null) {
+            add(newName, moved);
+        }
+    }
+
+    private void add(MailboxPath path, MailboxListener[] added) {
+        while (true) {
+            MailboxListener[] current = listeners.get(path);
+            if (current == null) {
+                if (listeners.putIfAbsent(path, added) == null) {
+                    return;
+                }
+            } else {
+                MailboxListener[] updated = union(current, added);
+                if (updated == current || listeners.replace(path, current, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private MailboxListener[] union(MailboxListener[] current, MailboxListener[] added) {
+        MailboxListener[] updated = current;
+        for (MailboxListener listener : added) {
+            if (indexOf(updated, listener) == -1) {
+                updated = Arrays.copyOf(updated, updated.length + 1);
+                updated[updated.length - 1] = listener;
+            }
+        }
+        return updated;
+    }
+
+    private MailboxListener[] without(MailboxListener[] current, MailboxListener listener) {
+        int index = indexOf(current, listener);
+        if (index == -1) {
+            return current;
+        }
+        MailboxListener[] updated = new MailboxListener[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        return updated;
+    }
+
+    private int indexOf(MailboxListener[] listeners, MailboxListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
 }
@@ -0,0 +1,144 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.model.MailboxPath;
+
+/**
+ * {@link EventDelivery} which runs asynchronous listeners on a fixed set of single threaded lanes.
+ *
+ * A listener always gets the events of a given mailbox on the same lane, so in the order they were emitted, while
+ * the other listeners and the other mailboxes are processed in parallel. Unlike {@link AsynchronousEventDelivery},
+ * two events of a mailbox can not overtake each other.
+ *
+ * Each lane holds at most laneCapacity pending events. An emitter finding its lane full waits for room, so events
+ * are never lost. Events emitted by a listener from a lane thread are always accepted, as that lane could otherwise
+ * wait for itself.
+ *
+ * Synchronous listeners are called from the emitting thread, as with {@link MixedEventDelivery}.
+ */
+public class ParallelEventDelivery implements EventDelivery {
+
+    public static final int DEFAULT_LANE_CAPACITY = 10000;
+
+    private final Lane[] lanes;
+    private final SynchronousEventDelivery synchronousEventDelivery;
+
+    public ParallelEventDelivery(int laneCount) {
+        this(laneCount, DEFAULT_LANE_CAPACITY);
+    }
+
+    public ParallelEventDelivery(int laneCount, int laneCapacity) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("At least one lane is needed");
+        }
+        if (laneCapacity < 1) {
+            throw new IllegalArgumentException("Lane capacity must be positive");
+        }
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, laneCapacity);
+        }
+        this.synchronousEventDelivery = new SynchronousEventDelivery();
+    }
+
+    @Override
+    public void deliver(final MailboxListener mailboxListener, final MailboxListener.Event event) {
+        if (mailboxListener.getExecutionMode() == MailboxListener.ExecutionMode.SYNCHRONOUS) {
+            synchronousEventDelivery.deliver(mailboxListener, event);
+            return;
+        }
+        lanes[lane(mailboxListener, event.getMailboxPath())].execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronousEventDelivery.deliver(mailboxListener, event);
+            }
+        });
+    }
+
+    private int lane(MailboxListener mailboxListener, MailboxPath path) {
+        int hash = 31 * System.identityHashCode(mailboxListener);
+        if (path != null) {
+            hash += path.hashCode();
+        }
+        // spread the high bits, as the lane count is usually small
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Lane lane : lanes) {
+            lane.executor.shutdownNow();
+        }
+    }
+
+    private static final class Lane implements ThreadFactory {
+
+        private final ExecutorService executor;
+        private final Semaphore room;
+        private final String name;
+        private volatile Thread thread;
+
+        public Lane(int number, int capacity) {
+            this.name = "event-delivery-lane-" + number;
+            this.room = new Semaphore(capacity);
+            this.executor = Executors.newSingleThreadExecutor(this);
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread created = new Thread(runnable, name);
+            created.setDaemon(true);
+            thread = created;
+            return created;
+        }
+
+        public void execute(final Runnable task) {
+            if (Thread.currentThread() == thread) {
+                executor.execute(task);
+                return;
+            }
+            room.acquireUninterruptibly();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            room.release();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                room.release();
+                throw e;
+            }
+        }
+    }
+}
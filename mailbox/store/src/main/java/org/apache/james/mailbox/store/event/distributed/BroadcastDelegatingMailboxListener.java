@@ -35,6 +35,8 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 
+import javax.annotation.PreDestroy;
+
 public class BroadcastDelegatingMailboxListener implements DistributedDelegatingMailboxListener {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(BroadcastDelegatingMailboxListener.class);
@@ -44,21 +46,37 @@ public class BroadcastDelegatingMailboxListener implements DistributedDelegating
     private final EventSerializer eventSerializer;
     private final Topic globalTopic;
     private final EventDelivery eventDelivery;
+    private final EventCoalescer eventCoalescer;
 
     public BroadcastDelegatingMailboxListener(Publisher publisher,
                                               MessageConsumer messageConsumer,
                                               EventSerializer eventSerializer,
                                               EventDelivery eventDelivery,
-                                              String globalTopic) throws Exception {
+                                              String globalTopic,
+                                              long coalescingWindowInMillis) throws Exception {
         this.mailboxListenerRegistry = new MailboxListenerRegistry();
         this.publisher = publisher;
         this.eventSerializer = eventSerializer;
         this.globalTopic = new Topic(globalTopic);
         this.eventDelivery = eventDelivery;
+        this.eventCoalescer = new EventCoalescer(new EventCoalescer.EventSink() {
+            @Override
+            public void send(Event event) {
+                publish(event);
+            }
+        }, coalescingWindowInMillis);
         messageConsumer.setMessageReceiver(this);
         messageConsumer.init(this.globalTopic);
     }
 
+    public BroadcastDelegatingMailboxListener(Publisher publisher,
+                                              MessageConsumer messageConsumer,
+                                              EventSerializer eventSerializer,
+                                              EventDelivery eventDelivery,
+                                              String globalTopic) throws Exception {
+        this(publisher, messageConsumer, eventSerializer, eventDelivery, globalTopic, 0);
+    }
+
     public BroadcastDelegatingMailboxListener(Publisher publisher,
                                               MessageConsumer messageConsumer,
                                               EventSerializer eventSerializer,
@@ -99,6 +117,15 @@ public class BroadcastDelegatingMailboxListener implements DistributedDelegating
     @Override
     public void event(Event event) {
         deliverEventToGlobalListeners(event, ListenerType.ONCE);
+        eventCoalescer.submit(event);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        eventCoalescer.stop();
+    }
+
+    private void publish(Event event) {
         try {
             publisher.publish(globalTopic, eventSerializer.serializeEvent(event));
         } catch (Throwable t) {
@@ -0,0 +1,205 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event.distributed;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the {@link MailboxListener.FlagsUpdated} events a session emits on a mailbox within a time window, so that
+ * a STORE on a large range crosses the wire as a single event instead of one per command.
+ *
+ * When the same message is updated several times in the window, only its first old flags and its last new flags
+ * are kept. Any other event of the mailbox first sends the pending flags updates of this mailbox, so that the
+ * receivers see the events of a mailbox in the order they were emitted.
+ *
+ * With a window of 0 events are sent as soon as they are submitted.
+ */
+public class EventCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventCoalescer.class);
+
+    public interface EventSink {
+
+        void send(MailboxListener.Event event);
+
+    }
+
+    private static class PendingKey {
+
+        private final long sessionId;
+        private final MailboxPath path;
+
+        public PendingKey(long sessionId, MailboxPath path) {
+            this.sessionId = sessionId;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) o;
+            return sessionId == other.sessionId && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + (int) (sessionId ^ (sessionId >>> 32));
+        }
+    }
+
+    private static class PendingFlagsUpdate {
+
+        private final MailboxSession session;
+        private final Mailbox<?> mailbox;
+        private final Map<Long, UpdatedFlags> updatedFlags = new LinkedHashMap<Long, UpdatedFlags>();
+
+        public PendingFlagsUpdate(MailboxSession session, Mailbox<?> mailbox) {
+            this.session = session;
+            this.mailbox = mailbox;
+        }
+
+        public void merge(List<UpdatedFlags> updates) {
+            for (UpdatedFlags update : updates) {
+                UpdatedFlags previous = updatedFlags.get(update.getUid());
+                if (previous != null) {
+                    update = new UpdatedFlags(update.getUid(), update.getModSeq(), previous.getOldFlags(), update.getNewFlags());
+                }
+                updatedFlags.put(update.getUid(), update);
+            }
+        }
+
+        public MailboxListener.FlagsUpdated toEvent() {
+            return toEvent(mailbox);
+        }
+
+        private <Id extends MailboxId> MailboxListener.FlagsUpdated toEvent(Mailbox<Id> mailbox) {
+            return new EventFactory<Id>().flagsUpdated(session,
+                new ArrayList<Long>(updatedFlags.keySet()),
+                mailbox,
+                new ArrayList<UpdatedFlags>(updatedFlags.values()));
+        }
+    }
+
+    private final EventSink sink;
+    private final long windowInMillis;
+    private final Map<PendingKey, PendingFlagsUpdate> pending;
+    private final ScheduledExecutorService scheduler;
+
+    public EventCoalescer(EventSink sink, long windowInMillis) {
+        this.sink = sink;
+        this.windowInMillis = windowInMillis;
+        this.pending = new LinkedHashMap<PendingKey, PendingFlagsUpdate>();
+        if (windowInMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public void submit(MailboxListener.Event event) {
+        if (scheduler == null) {
+            sink.send(event);
+            return;
+        }
+        synchronized (this) {
+            if (event instanceof MailboxListener.FlagsUpdated && event instanceof EventFactory.MailboxAware
+                && event.getSession() != null) {
+                coalesce((MailboxListener.FlagsUpdated) event);
+            } else {
+                flush(event.getMailboxPath());
+                sink.send(event);
+            }
+        }
+    }
+
+    /**
+     * Send all the pending flags updates
+     */
+    public synchronized void flush() {
+        for (PendingFlagsUpdate flagsUpdate : pending.values()) {
+            sink.send(flagsUpdate.toEvent());
+        }
+        pending.clear();
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            flush();
+        }
+    }
+
+    private void coalesce(MailboxListener.FlagsUpdated event) {
+        final PendingKey key = new PendingKey(event.getSession().getSessionId(), event.getMailboxPath());
+        PendingFlagsUpdate flagsUpdate = pending.get(key);
+        if (flagsUpdate == null) {
+            flagsUpdate = new PendingFlagsUpdate(event.getSession(), ((EventFactory.MailboxAware<?>) event).getMailbox());
+            pending.put(key, flagsUpdate);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush(key);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Error while sending coalesced flags updates", e);
+                    }
+                }
+            }, windowInMillis, TimeUnit.MILLISECONDS);
+        }
+        flagsUpdate.merge(event.getUpdatedFlags());
+    }
+
+    private synchronized void flush(PendingKey key) {
+        PendingFlagsUpdate flagsUpdate = pending.remove(key);
+        if (flagsUpdate != null) {
+            sink.send(flagsUpdate.toEvent());
+        }
+    }
+
+    private void flush(MailboxPath path) {
+        Iterator<Map.Entry<PendingKey, PendingFlagsUpdate>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<PendingKey, PendingFlagsUpdate> entry = entries.next();
+            if (entry.getKey().path.equals(path)) {
+                entries.remove();
+                sink.send(entry.getValue().toEvent());
+            }
+        }
+    }
+
+}
@@ -36,6 +36,8 @@ import org.slf4j.LoggerFactory;
 import java.util.Collection;
 import java.util.Set;
 
+import javax.annotation.PreDestroy;
+
 public class RegisteredDelegatingMailboxListener implements DistributedDelegatingMailboxListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RegisteredDelegatingMailboxListener.class);
@@ -45,21 +47,37 @@ public class RegisteredDelegatingMailboxListener implements DistributedDelegatin
     private final Publisher publisher;
     private final EventSerializer eventSerializer;
     private final EventDelivery eventDelivery;
+    private final EventCoalescer eventCoalescer;
 
     public RegisteredDelegatingMailboxListener(EventSerializer eventSerializer,
                                                Publisher publisher,
                                                MessageConsumer messageConsumer,
                                                MailboxPathRegister mailboxPathRegister,
-                                               EventDelivery eventDelivery) throws Exception {
+                                               EventDelivery eventDelivery,
+                                               long coalescingWindowInMillis) throws Exception {
         this.eventSerializer = eventSerializer;
         this.publisher = publisher;
         this.mailboxPathRegister = mailboxPathRegister;
         this.mailboxListenerRegistry = new MailboxListenerRegistry();
         this.eventDelivery = eventDelivery;
+        this.eventCoalescer = new EventCoalescer(new EventCoalescer.EventSink() {
+            @Override
+            public void send(Event event) {
+                sendToRemoteJames(event);
+            }
+        }, coalescingWindowInMillis);
         messageConsumer.setMessageReceiver(this);
         messageConsumer.init(mailboxPathRegister.getLocalTopic());
     }
 
+    public RegisteredDelegatingMailboxListener(EventSerializer eventSerializer,
+                                               Publisher publisher,
+                                               MessageConsumer messageConsumer,
+                                               MailboxPathRegister mailboxPathRegister,
+                                               EventDelivery eventDelivery) throws Exception {
+        this(eventSerializer, publisher, messageConsumer, mailboxPathRegister, eventDelivery, 0);
+    }
+
     public RegisteredDelegatingMailboxListener(EventSerializer eventSerializer,
                                                Publisher publisher,
                                                MessageConsumer messageConsumer,
@@ -107,7 +125,7 @@ public class RegisteredDelegatingMailboxListener implements DistributedDelegatin
         try {
             deliverEventToOnceGlobalListeners(event);
             deliverToMailboxPathRegisteredListeners(event);
-            sendToRemoteJames(event);
+            eventCoalescer.submit(event);
         } catch (Throwable t) {
             event.getSession()
                 .getLog()
@@ -115,6 +133,11 @@ public class RegisteredDelegatingMailboxListener implements DistributedDelegatin
         }
     }
 
+    @PreDestroy
+    public void destroy() {
+        eventCoalescer.stop();
+    }
+
     public void receiveSerializedEvent(byte[] serializedEvent) {
         try {
             Event event = eventSerializer.deSerializeEvent(serializedEvent);
@@ -0,0 +1,578 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.json;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.model.MailboxACL;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.SimpleMailboxACL;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.SimpleMailboxSession;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.event.EventSerializer;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxId;
+import org.apache.james.mailbox.store.mail.model.MailboxIdDeserializer;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Compact binary {@link EventSerializer}, written by hand instead of going through the DTO graph and Jackson.
+ *
+ * Integers are written as varints, uid and mod-sequence lists as deltas from the previous entry (a range of
+ * contiguous uids costs a byte per uid), and system flags as a single bitmask byte. The namespace, user and name
+ * of the mailbox paths are interned when read, so that the many events of a mailbox share the same strings.
+ *
+ * Each thread encodes into its own pooled buffer: serializing an event only allocates the returned array.
+ */
+public class BinaryEventSerializer<Id extends MailboxId> implements EventSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryEventSerializer.class);
+
+    private static final byte VERSION = 1;
+
+    private static final byte ADDED = 1;
+    private static final byte EXPUNGED = 2;
+    private static final byte FLAGS_UPDATED = 3;
+    private static final byte MAILBOX_ADDED = 4;
+    private static final byte MAILBOX_DELETED = 5;
+    private static final byte MAILBOX_RENAMED = 6;
+
+    private static final int ANSWERED = 0x01;
+    private static final int DELETED = 0x02;
+    private static final int DRAFT = 0x04;
+    private static final int FLAGGED = 0x08;
+    private static final int RECENT = 0x10;
+    private static final int SEEN = 0x20;
+    private static final int USER_FLAGS = 0x40;
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<Output> OUTPUTS = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output();
+        }
+    };
+
+    private final MailboxIdDeserializer<Id> mailboxIdDeserializer;
+    private final EventFactory<Id> eventFactory;
+    private final Interner<String> interner;
+
+    public BinaryEventSerializer(MailboxIdDeserializer<Id> mailboxIdDeserializer) {
+        this.mailboxIdDeserializer = mailboxIdDeserializer;
+        this.eventFactory = new EventFactory<Id>();
+        this.interner = Interners.newWeakInterner();
+    }
+
+    @Override
+    public byte[] serializeEvent(MailboxListener.Event event) throws Exception {
+        Output output = OUTPUTS.get();
+        try {
+            output.writeByte(VERSION);
+            writeEvent(output, event);
+            return output.toByteArray();
+        } finally {
+            output.reset();
+        }
+    }
+
+    @Override
+    public MailboxListener.Event deSerializeEvent(byte[] serializedEvent) throws Exception {
+        Input input = new Input(serializedEvent);
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported event serialization version " + version);
+        }
+        return readEvent(input);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeEvent(Output output, MailboxListener.Event event) throws Exception {
+        if (!(event instanceof EventFactory.MailboxAware)) {
+            throw new Exception("You are trying to serialize an event that can't be serialized");
+        }
+        Mailbox<Id> mailbox = ((EventFactory.MailboxAware<Id>) event).getMailbox();
+        if (event instanceof MailboxListener.Added) {
+            output.writeByte(ADDED);
+            writeHeader(output, event.getSession(), mailbox);
+            writeMetaData(output, (MailboxListener.Added) event);
+        } else if (event instanceof MailboxListener.Expunged) {
+            output.writeByte(EXPUNGED);
+            writeHeader(output, event.getSession(), mailbox);
+            writeMetaData(output, (MailboxListener.Expunged) event);
+        } else if (event instanceof MailboxListener.FlagsUpdated) {
+            output.writeByte(FLAGS_UPDATED);
+            writeHeader(output, event.getSession(), mailbox);
+            writeUids(output, ((MailboxListener.FlagsUpdated) event).getUids());
+            writeUpdatedFlags(output, ((MailboxListener.FlagsUpdated) event).getUpdatedFlags());
+        } else if (event instanceof MailboxListener.MailboxRenamed) {
+            output.writeByte(MAILBOX_RENAMED);
+            writeHeader(output, event.getSession(), mailbox);
+            writePath(output, event.getMailboxPath());
+        } else if (event instanceof MailboxListener.MailboxDeletion) {
+            output.writeByte(MAILBOX_DELETED);
+            writeHeader(output, event.getSession(), mailbox);
+        } else if (event instanceof MailboxListener.MailboxAdded) {
+            output.writeByte(MAILBOX_ADDED);
+            writeHeader(output, event.getSession(), mailbox);
+        } else {
+            throw new Exception("You are trying to serialize an event that can't be serialized");
+        }
+    }
+
+    private MailboxListener.Event readEvent(Input input) throws Exception {
+        byte type = input.readByte();
+        MailboxSession session = readSession(input);
+        Mailbox<Id> mailbox = readMailbox(input);
+        switch (type) {
+            case ADDED:
+                return eventFactory.added(session, readMetaData(input), mailbox);
+            case EXPUNGED:
+                return eventFactory.expunged(session, readMetaData(input), mailbox);
+            case FLAGS_UPDATED:
+                List<Long> uids = readUids(input);
+                return eventFactory.flagsUpdated(session, uids, mailbox, readUpdatedFlags(input));
+            case MAILBOX_RENAMED:
+                return eventFactory.mailboxRenamed(session, readPath(input), mailbox);
+            case MAILBOX_DELETED:
+                return eventFactory.mailboxDeleted(session, mailbox);
+            case MAILBOX_ADDED:
+                return eventFactory.mailboxAdded(session, mailbox);
+            default:
+                throw new Exception("Can not deserialize unknown event");
+        }
+    }
+
+    private void writeHeader(Output output, MailboxSession session, Mailbox<Id> mailbox) {
+        writeSession(output, session);
+        writeMailbox(output, mailbox);
+    }
+
+    private void writeSession(Output output, MailboxSession session) {
+        output.writeLong(session.getSessionId());
+        output.writeString(session.getUser().getUserName());
+        output.writeStrings(session.getSharedSpaces());
+        output.writeString(session.getOtherUsersSpace());
+        output.writeVarLong(session.getPathDelimiter());
+        output.writeByte(session.getType() == MailboxSession.SessionType.System ? (byte) 1 : (byte) 0);
+        List<Locale> locales = session.getUser().getLocalePreferences();
+        output.writeVarLong(locales.size());
+        for (Locale locale : locales) {
+            output.writeString(locale.getLanguage());
+            output.writeString(locale.getCountry());
+            output.writeString(locale.getVariant());
+        }
+    }
+
+    private MailboxSession readSession(Input input) throws IOException {
+        long sessionId = input.readLong();
+        String userName = intern(input.readString());
+        List<String> sharedSpaces = input.readStrings();
+        String otherUsersSpace = input.readString();
+        char pathDelimiter = (char) input.readVarLong();
+        MailboxSession.SessionType type = input.readByte() == 1 ? MailboxSession.SessionType.System : MailboxSession.SessionType.User;
+        int localeCount = input.readCount();
+        List<Locale> locales = new ArrayList<Locale>(localeCount);
+        for (int i = 0; i < localeCount; i++) {
+            locales.add(new Locale(input.readString(), input.readString(), input.readString()));
+        }
+        return new SimpleMailboxSession(sessionId, userName, "", LOG, locales, sharedSpaces, otherUsersSpace, pathDelimiter, type);
+    }
+
+    private void writeMailbox(Output output, Mailbox<Id> mailbox) {
+        output.writeString(mailbox.getMailboxId().serialize());
+        output.writeString(mailbox.getNamespace());
+        output.writeString(mailbox.getUser());
+        output.writeString(mailbox.getName());
+        output.writeVarLong(mailbox.getUidValidity());
+        MailboxACL acl = mailbox.getACL();
+        if (acl == null) {
+            output.writeVarLong(0);
+            return;
+        }
+        output.writeVarLong(acl.getEntries().size() + 1);
+        for (Map.Entry<MailboxACL.MailboxACLEntryKey, MailboxACL.MailboxACLRights> entry : acl.getEntries().entrySet()) {
+            output.writeString(entry.getKey().serialize());
+            output.writeString(entry.getValue().serialize());
+        }
+    }
+
+    private Mailbox<Id> readMailbox(Input input) throws Exception {
+        String serializedMailboxId = input.readString();
+        SimpleMailbox<Id> mailbox = new SimpleMailbox<Id>(readPath(input), input.readVarLong());
+        int aclEntryCount = input.readCount() - 1;
+        if (aclEntryCount >= 0) {
+            Map<MailboxACL.MailboxACLEntryKey, MailboxACL.MailboxACLRights> entries = new HashMap<MailboxACL.MailboxACLEntryKey, MailboxACL.MailboxACLRights>();
+            for (int i = 0; i < aclEntryCount; i++) {
+                entries.put(new SimpleMailboxACL.SimpleMailboxACLEntryKey(input.readString()),
+                    new SimpleMailboxACL.Rfc4314Rights(input.readString()));
+            }
+            mailbox.setACL(new SimpleMailboxACL(entries));
+        }
+        mailbox.setMailboxId(mailboxIdDeserializer.deserialize(serializedMailboxId));
+        return mailbox;
+    }
+
+    private void writePath(Output output, MailboxPath path) {
+        output.writeString(path.getNamespace());
+        output.writeString(path.getUser());
+        output.writeString(path.getName());
+    }
+
+    private MailboxPath readPath(Input input) throws IOException {
+        return new MailboxPath(intern(input.readString()), intern(input.readString()), intern(input.readString()));
+    }
+
+    private void writeMetaData(Output output, MailboxListener.MetaDataHoldingEvent event) {
+        List<Long> uids = event.getUids();
+        output.writeVarLong(uids.size());
+        long previousUid = 0;
+        long previousModSeq = 0;
+        for (Long uid : uids) {
+            MessageMetaData metaData = event.getMetaData(uid);
+            output.writeZigZag(uid - previousUid);
+            output.writeZigZag(metaData.getModSeq() - previousModSeq);
+            output.writeVarLong(metaData.getSize());
+            writeFlags(output, metaData.getFlags());
+            Date internalDate = metaData.getInternalDate();
+            output.writeZigZag(internalDate == null ? 0 : internalDate.getTime() + 1);
+            previousUid = uid;
+            previousModSeq = metaData.getModSeq();
+        }
+    }
+
+    private TreeMap<Long, MessageMetaData> readMetaData(Input input) throws IOException {
+        int count = input.readCount();
+        TreeMap<Long, MessageMetaData> metaData = new TreeMap<Long, MessageMetaData>();
+        long uid = 0;
+        long modSeq = 0;
+        for (int i = 0; i < count; i++) {
+            uid += input.readZigZag();
+            modSeq += input.readZigZag();
+            long size = input.readVarLong();
+            Flags flags = readFlags(input);
+            long internalDate = input.readZigZag();
+            metaData.put(uid, new SimpleMessageMetaData(uid, modSeq, flags, size,
+                internalDate == 0 ? null : new Date(internalDate - 1)));
+        }
+        return metaData;
+    }
+
+    private void writeUids(Output output, List<Long> uids) {
+        output.writeVarLong(uids.size());
+        long previousUid = 0;
+        for (Long uid : uids) {
+            output.writeZigZag(uid - previousUid);
+            previousUid = uid;
+        }
+    }
+
+    private List<Long> readUids(Input input) throws IOException {
+        int count = input.readCount();
+        List<Long> uids = new ArrayList<Long>(count);
+        long uid = 0;
+        for (int i = 0; i < count; i++) {
+            uid += input.readZigZag();
+            uids.add(uid);
+        }
+        return uids;
+    }
+
+    private void writeUpdatedFlags(Output output, List<UpdatedFlags> updatedFlagsList) {
+        output.writeVarLong(updatedFlagsList.size());
+        long previousUid = 0;
+        long previousModSeq = 0;
+        for (UpdatedFlags updatedFlags : updatedFlagsList) {
+            output.writeZigZag(updatedFlags.getUid() - previousUid);
+            output.writeZigZag(updatedFlags.getModSeq() - previousModSeq);
+            writeFlags(output, updatedFlags.getOldFlags());
+            writeFlags(output, updatedFlags.getNewFlags());
+            previousUid = updatedFlags.getUid();
+            previousModSeq = updatedFlags.getModSeq();
+        }
+    }
+
+    private List<UpdatedFlags> readUpdatedFlags(Input input) throws IOException {
+        int count = input.readCount();
+        List<UpdatedFlags> updatedFlagsList = new ArrayList<UpdatedFlags>(count);
+        long uid = 0;
+        long modSeq = 0;
+        for (int i = 0; i < count; i++) {
+            uid += input.readZigZag();
+            modSeq += input.readZigZag();
+            Flags oldFlags = readFlags(input);
+            updatedFlagsList.add(new UpdatedFlags(uid, modSeq, oldFlags, readFlags(input)));
+        }
+        return updatedFlagsList;
+    }
+
+    private void writeFlags(Output output, Flags flags) {
+        String[] userFlags = flags.getUserFlags();
+        int mask = 0;
+        mask |= flags.contains(Flags.Flag.ANSWERED) ? ANSWERED : 0;
+        mask |= flags.contains(Flags.Flag.DELETED) ? DELETED : 0;
+        mask |= flags.contains(Flags.Flag.DRAFT) ? DRAFT : 0;
+        mask |= flags.contains(Flags.Flag.FLAGGED) ? FLAGGED : 0;
+        mask |= flags.contains(Flags.Flag.RECENT) ? RECENT : 0;
+        mask |= flags.contains(Flags.Flag.SEEN) ? SEEN : 0;
+        mask |= userFlags.length > 0 ? USER_FLAGS : 0;
+        output.writeByte((byte) mask);
+        if (userFlags.length > 0) {
+            output.writeStrings(Arrays.asList(userFlags));
+        }
+    }
+
+    private Flags readFlags(Input input) throws IOException {
+        int mask = input.readByte();
+        Flags flags = new Flags();
+        if ((mask & ANSWERED) != 0) {
+            flags.add(Flags.Flag.ANSWERED);
+        }
+        if ((mask & DELETED) != 0) {
+            flags.add(Flags.Flag.DELETED);
+        }
+        if ((mask & DRAFT) != 0) {
+            flags.add(Flags.Flag.DRAFT);
+        }
+        if ((mask & FLAGGED) != 0) {
+            flags.add(Flags.Flag.FLAGGED);
+        }
+        if ((mask & RECENT) != 0) {
+            flags.add(Flags.Flag.RECENT);
+        }
+        if ((mask & SEEN) != 0) {
+            flags.add(Flags.Flag.SEEN);
+        }
+        if ((mask & USER_FLAGS) != 0) {
+            for (String userFlag : input.readStrings()) {
+                flags.add(userFlag);
+            }
+        }
+        return flags;
+    }
+
+    private String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        return interner.intern(value);
+    }
+
+    /**
+     * Growable buffer, reused by all the events serialized by a thread
+     */
+    private static class Output {
+
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+        private int position = 0;
+
+        public void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer[position++] = value;
+        }
+
+        public void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        public void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        public void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes the UTF-8 length plus one (0 standing for null) then the UTF-8 bytes, encoded in place
+         */
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            int length = value.length();
+            int encodedLength = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    encodedLength += 1;
+                } else if (c < 0x800) {
+                    encodedLength += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    encodedLength += 4;
+                    i++;
+                } else {
+                    encodedLength += 3;
+                }
+            }
+            writeVarLong(encodedLength + 1);
+            ensureCapacity(encodedLength);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        public void writeStrings(Collection<String> values) {
+            writeVarLong(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        public void reset() {
+            position = 0;
+            if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+                // Do not pin the buffer of an exceptionally large event
+                buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        private void ensureCapacity(int count) {
+            if (position + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(position + count, buffer.length << 1));
+            }
+        }
+    }
+
+    private static class Input {
+
+        private final byte[] data;
+        private int position = 0;
+
+        public Input(byte[] data) {
+            this.data = data;
+        }
+
+        public byte readByte() throws IOException {
+            if (position >= data.length) {
+                throw new EOFException("Truncated serialized event");
+            }
+            return data[position++];
+        }
+
+        public long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        public long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in serialized event");
+        }
+
+        public long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public int readCount() throws IOException {
+            long count = readVarLong();
+            if (count < 0 || count > data.length) {
+                throw new IOException("Invalid count in serialized event: " + count);
+            }
+            return (int) count;
+        }
+
+        public String readString() throws IOException {
+            int length = readCount() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > data.length) {
+                throw new EOFException("Truncated serialized event");
+            }
+            String value = new String(data, position, length, Charsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        public List<String> readStrings() throws IOException {
+            int count = readCount();
+            List<String> values = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+    }
+
+}
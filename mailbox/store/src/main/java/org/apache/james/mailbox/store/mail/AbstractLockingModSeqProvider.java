@@ -51,6 +51,17 @@ public abstract class AbstractLockingModSeqProvider<Id extends MailboxId> implem
         }, true);
     }
     
+    @Override
+    public long nextModSeqs(final MailboxSession session, final Mailbox<Id> mailbox, final int count) throws MailboxException {
+        return locker.executeWithLock(session, new StoreMailboxPath<Id>(mailbox), new LockAwareExecution<Long>() {
+
+            @Override
+            public Long execute() throws MailboxException {
+                return lockedNextModSeqs(session, mailbox, count);
+            }
+        }, true);
+    }
+
     /**
      * Generate the next mod-seq for the given {@link Mailbox} while holding a lock on it.
      * 
@@ -61,4 +72,24 @@ public abstract class AbstractLockingModSeqProvider<Id extends MailboxId> implem
      */
     protected abstract long lockedNextModSeq(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException;
 
+    /**
+     * Reserve count consecutive mod-seqs for the given {@link Mailbox} while holding a lock on it.
+     * 
+     * The default implementation calls {@link #lockedNextModSeq(MailboxSession, Mailbox)} count times, which gives
+     * consecutive values as long as the lock is held. Implementations able to reserve a range at once should override it.
+     * 
+     * @param session
+     * @param mailbox
+     * @param count
+     * @return the first reserved mod-seq
+     * @throws MailboxException
+     */
+    protected long lockedNextModSeqs(MailboxSession session, Mailbox<Id> mailbox, int count) throws MailboxException {
+        long first = lockedNextModSeq(session, mailbox);
+        for (int i = 1; i < count; i++) {
+            lockedNextModSeq(session, mailbox);
+        }
+        return first;
+    }
+
 }
@@ -53,6 +53,17 @@ public abstract class AbstractLockingUidProvider<Id extends MailboxId> implement
         }, true);
     }
     
+    @Override
+    public long nextUids(final MailboxSession session, final Mailbox<Id> mailbox, final int count) throws MailboxException {
+        return locker.executeWithLock(session, new StoreMailboxPath<Id>(mailbox), new LockAwareExecution<Long>() {
+
+            @Override
+            public Long execute() throws MailboxException {
+                return lockedNextUids(session, mailbox, count);
+            }
+        }, true);
+    }
+
     /**
      * Generate the next uid to use while the {@link Mailbox} is locked
      * 
@@ -63,4 +74,24 @@ public abstract class AbstractLockingUidProvider<Id extends MailboxId> implement
      */
     protected abstract long lockedNextUid(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException;
 
+    /**
+     * Reserve count consecutive uids for the given {@link Mailbox} while holding a lock on it.
+     * 
+     * The default implementation calls {@link #lockedNextUid(MailboxSession, Mailbox)} count times, which gives
+     * consecutive values as long as the lock is held. Implementations able to reserve a range at once should override it.
+     * 
+     * @param session
+     * @param mailbox
+     * @param count
+     * @return the first reserved uid
+     * @throws MailboxException
+     */
+    protected long lockedNextUids(MailboxSession session, Mailbox<Id> mailbox, int count) throws MailboxException {
+        long first = lockedNextUid(session, mailbox);
+        for (int i = 1; i < count; i++) {
+            lockedNextUid(session, mailbox);
+        }
+        return first;
+    }
+
 }
@@ -19,6 +19,8 @@
 package org.apache.james.mailbox.store.mail;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -66,6 +68,30 @@ public abstract class AbstractMessageMapper<Id extends MailboxId> extends Transa
         return uidProvider.lastUid(mailboxSession, mailbox);
     }
     
+    /**
+     * Read the messages one range of contiguous uids at a time. Mappers able to look up a set of uids with a single
+     * request should override it.
+     */
+    public Iterator<MailboxMessage<Id>> findInMailbox(Mailbox<Id> mailbox, Collection<Long> uids, FetchType type) throws MailboxException {
+        return findInMailboxByRanges(this, mailbox, uids, type);
+    }
+
+    /**
+     * Read the messages of the given uids with one {@link MessageMapper#findInMailbox(Mailbox, MessageRange, FetchType, int)}
+     * call per range of contiguous uids
+     */
+    public static <Id extends MailboxId> Iterator<MailboxMessage<Id>> findInMailboxByRanges(MessageMapper<Id> messageMapper,
+            Mailbox<Id> mailbox, Collection<Long> uids, FetchType type) throws MailboxException {
+        List<MailboxMessage<Id>> messages = new ArrayList<MailboxMessage<Id>>();
+        for (MessageRange range : MessageRange.toRanges(new HashSet<Long>(uids))) {
+            Iterator<MailboxMessage<Id>> iterator = messageMapper.findInMailbox(mailbox, range, type, -1);
+            while (iterator.hasNext()) {
+                messages.add(iterator.next());
+            }
+        }
+        return messages.iterator();
+    }
+
     /**
      * @see org.apache.james.mailbox.store.mail.MessageMapper#updateFlags(org.apache.james.mailbox.store.mail.model.Mailbox, javax.mail.Flags, boolean, boolean, org.apache.james.mailbox.model.MessageRange)
      */
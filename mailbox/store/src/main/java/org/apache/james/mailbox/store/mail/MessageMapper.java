@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.mailbox.store.mail;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +54,18 @@ public interface MessageMapper<Id extends MailboxId> extends Mapper {
     Iterator<MailboxMessage<Id>> findInMailbox(Mailbox<Id> mailbox, MessageRange set, FetchType type, int limit)
             throws MailboxException;
 
+    /**
+     * Return a {@link Iterator} which holds the messages of the given uids, which do not need to be contiguous.
+     * The list must be ordered by the {@link MailboxMessage} uid. Uids of messages which do not exist are skipped
+     * 
+     * @param mailbox The mailbox to search
+     * @param uids uids of the messages to return
+     * @param type
+     * @throws MailboxException
+     */
+    Iterator<MailboxMessage<Id>> findInMailbox(Mailbox<Id> mailbox, Collection<Long> uids, FetchType type)
+            throws MailboxException;
+
     /**
      * Return a {@link Iterator} which holds the uids for all deleted Messages for the given {@link MessageRange} which are marked for deletion
      * The list must be ordered
@@ -45,6 +45,19 @@ public interface ModSeqProvider<Id extends MailboxId> {
      * @throws MailboxException
      */
     long nextModSeq(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException;
+
+    /**
+     * Reserve count consecutive mod-sequences for the {@link Mailbox}, for instance to update the flags of several
+     * messages at once. The reserved mod-sequences are all higher than the last used one, and the next calls of
+     * {@link #nextModSeq(MailboxSession, Mailbox)} or of this method return higher ones.
+     * 
+     * @param session
+     * @param mailbox
+     * @param count number of mod-sequences to reserve, which must be positive
+     * @return the first reserved mod-sequence, the last one being first + count - 1
+     * @throws MailboxException
+     */
+    long nextModSeqs(MailboxSession session, Mailbox<Id> mailbox, int count) throws MailboxException;
     
     /**
      * Return the highest mod-sequence which were used for the {@link Mailbox}
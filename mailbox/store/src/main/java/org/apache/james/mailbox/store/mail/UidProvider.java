@@ -43,6 +43,19 @@ public interface UidProvider<Id extends MailboxId> {
      * @throws MailboxException
      */
     long nextUid(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException;
+
+    /**
+     * Reserve count consecutive uids for the {@link Mailbox}, for instance to append several messages at once.
+     * The reserved uids are all higher than the last used one, and the next calls of {@link #nextUid(MailboxSession, Mailbox)}
+     * or of this method return higher ones.
+     * 
+     * @param session
+     * @param mailbox
+     * @param count number of uids to reserve, which must be positive
+     * @return the first reserved uid, the last one being first + count - 1
+     * @throws MailboxException
+     */
+    long nextUids(MailboxSession session, Mailbox<Id> mailbox, int count) throws MailboxException;
     
     /**
      * Return the last uid which were used for storing a MailboxMessage in the {@link Mailbox}
@@ -24,13 +24,14 @@ import java.util.Date;
 
 import javax.mail.Flags;
 import javax.mail.internet.SharedInputStream;
-import javax.mail.util.SharedByteArrayInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.store.mail.model.DelegatingMailboxMessage;
 import org.apache.james.mailbox.store.mail.model.MailboxId;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.mail.model.Message;
 
 import com.google.common.base.Objects;
 import com.google.common.primitives.Ints;
@@ -41,15 +42,15 @@ public class SimpleMailboxMessage<Id extends MailboxId> extends DelegatingMailbo
         Date internalDate = original.getInternalDate();
         long size = original.getFullContentOctets();
         Flags flags = original.createFlags();
-        SharedByteArrayInputStream content = copyFullContent(original);
+        ByteBufferInputStream content = copyFullContent(original);
         int bodyStartOctet = Ints.checkedCast(original.getFullContentOctets() - original.getBodyOctets());
         PropertyBuilder pBuilder = new PropertyBuilder(original.getProperties());
         return new SimpleMailboxMessage<Id>(internalDate, size, bodyStartOctet, content, flags, pBuilder, mailboxId);
     }
 
-    private static <Id extends MailboxId> SharedByteArrayInputStream copyFullContent(MailboxMessage<Id> original) throws MailboxException {
+    private static <Id extends MailboxId> ByteBufferInputStream copyFullContent(MailboxMessage<Id> original) throws MailboxException {
         try {
-            return new SharedByteArrayInputStream(IOUtils.toByteArray(original.getFullContent()));
+            return new ByteBufferInputStream(IOUtils.toByteArray(original.getFullContent()));
         } catch (IOException e) {
             throw new MailboxException("Unable to parse message", e);
         }
@@ -82,6 +83,13 @@ public class SimpleMailboxMessage<Id extends MailboxId> extends DelegatingMailbo
         this.userFlags = flags.getUserFlags();
     }
 
+    public SimpleMailboxMessage(Message message, Flags flags, final Id mailboxId) {
+        super(message);
+        setFlags(flags);
+        this.mailboxId = mailboxId;
+        this.userFlags = flags.getUserFlags();
+    }
+
     @Override
     protected String[] createUserFlags() {
         return userFlags.clone();
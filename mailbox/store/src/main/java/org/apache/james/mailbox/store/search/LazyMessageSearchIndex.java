@@ -76,6 +76,17 @@ public class LazyMessageSearchIndex<Id extends MailboxId> extends ListeningMessa
      */
     @Override
     public Iterator<Long> search(final MailboxSession session, final Mailbox<Id> mailbox, SearchQuery searchQuery) throws MailboxException {
+        ensureIndexed(session, mailbox);
+        return index.search(session, mailbox, searchQuery);
+    }
+
+    @Override
+    public Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery, int position, int limit) throws MailboxException {
+        ensureIndexed(session, mailbox);
+        return index.search(session, mailbox, searchQuery, position, limit);
+    }
+
+    private void ensureIndexed(final MailboxSession session, final Mailbox<Id> mailbox) throws MailboxException {
         Id id = mailbox.getMailboxId();
         
         Object done = indexed.get(id);
@@ -98,8 +109,6 @@ public class LazyMessageSearchIndex<Id extends MailboxId> extends ListeningMessa
                 }
             }
         }
-       
-        return index.search(session, mailbox, searchQuery);
     }
 
 
@@ -27,7 +27,9 @@ import org.apache.james.mailbox.MailboxListener;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.event.AsynchronousEventDelivery.DropAwareMailboxListener;
 import org.apache.james.mailbox.store.event.EventFactory;
 import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
 import org.apache.james.mailbox.store.mail.MessageMapperFactory;
@@ -35,14 +37,19 @@ import org.apache.james.mailbox.store.mail.model.MailboxId;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
 
+import com.google.common.collect.Iterators;
+
 /**
  * {@link MessageSearchIndex} which needs to get registered as global {@link MailboxListener} and so get
  * notified about message changes. This will then allow to update the underlying index.
+ *
+ * Mailboxes whose events were dropped by the {@link org.apache.james.mailbox.store.event.AsynchronousEventDelivery}
+ * are re-indexed.
  * 
  *
  * @param <Id>
  */
-public abstract class ListeningMessageSearchIndex<Id extends MailboxId> implements MessageSearchIndex<Id>, MailboxListener {
+public abstract class ListeningMessageSearchIndex<Id extends MailboxId> implements MessageSearchIndex<Id>, DropAwareMailboxListener {
 
     private final MessageMapperFactory<Id> factory;
 
@@ -130,6 +137,43 @@ public abstract class ListeningMessageSearchIndex<Id extends MailboxId> implemen
         }
     }
 
+    /**
+     * The index can not tell which of its messages the dropped events were about, the whole mailbox is re-indexed
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void eventsDropped(Event lastDroppedEvent) {
+        if (lastDroppedEvent instanceof EventFactory.MailboxAware) {
+            MailboxSession session = lastDroppedEvent.getSession();
+            Mailbox<Id> mailbox = ((EventFactory.MailboxAware<Id>) lastDroppedEvent).getMailbox();
+            try {
+                reIndex(session, mailbox);
+            } catch (MailboxException e) {
+                session.getLog().error("Unable to re-index mailbox " + mailbox, e);
+            }
+        }
+    }
+
+    /**
+     * Replace the indexed messages of the given {@link Mailbox} by its current ones
+     *
+     * @param session
+     * @param mailbox
+     * @throws MailboxException
+     */
+    protected void reIndex(MailboxSession session, Mailbox<Id> mailbox) throws MailboxException {
+        delete(session, mailbox, MessageRange.all());
+        Iterator<MailboxMessage<Id>> messages = factory.getMessageMapper(session).findInMailbox(mailbox, MessageRange.all(), FetchType.Full, -1);
+        while (messages.hasNext()) {
+            MailboxMessage<Id> message = messages.next();
+            try {
+                add(session, mailbox, message);
+            } catch (MailboxException e) {
+                session.getLog().debug("Unable to index message " + message.getUid() + " for mailbox " + mailbox, e);
+            }
+        }
+    }
+
     /**
      * Never closed
      */
@@ -137,6 +181,15 @@ public abstract class ListeningMessageSearchIndex<Id extends MailboxId> implemen
         return false;
     }
 
+    /**
+     * Cut the page out of the full result. Implementations able to paginate in their index should override this.
+     */
+    public Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery, int position, int limit) throws MailboxException {
+        Iterator<Long> uids = search(session, mailbox, searchQuery);
+        Iterators.advance(uids, position);
+        return Iterators.limit(uids, limit);
+    }
+
     /**
      * Add the {@link MailboxMessage} for the given {@link Mailbox} to the index
      *
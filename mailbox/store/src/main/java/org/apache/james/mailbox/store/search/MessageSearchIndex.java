@@ -47,4 +47,20 @@ public interface MessageSearchIndex<Id extends MailboxId> {
      * @throws MailboxException
      */
     Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery) throws MailboxException;
+
+    /**
+     * Return one page of the uids of the previous indexed {@link Mailbox}'s which match the {@link SearchQuery}.
+     * 
+     * The uids are ordered according to the {@link SearchQuery.Sort}s of the query. The first <code>position</code>
+     * ones are skipped and at most <code>limit</code> are returned. Implementations should push the pagination down
+     * to their storage, so that only the requested page is read.
+     * 
+     * @param mailbox
+     * @param searchQuery
+     * @param position number of matching uids to skip
+     * @param limit maximum number of uids to return
+     * @return Iterator on found uids
+     * @throws MailboxException
+     */
+    Iterator<Long> search(MailboxSession session, Mailbox<Id> mailbox, SearchQuery searchQuery, int position, int limit) throws MailboxException;
 }
@@ -23,20 +23,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.mail.Flags;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.exception.UnsupportedSearchException;
 import org.apache.james.mailbox.model.MessageResult.Header;
@@ -63,21 +71,64 @@ import org.slf4j.Logger;
 
 /**
  * Utility methods to help perform search operations.
+ * 
+ * The criteria of the query are compiled once: at every level of the query tree they are reordered so that the
+ * cheap, metadata only criteria (uid, flags, size, mod-sequence, internal date) are evaluated before the ones which
+ * need the headers, and those before the full text ones. As AND, OR and NOR short-circuit, most messages are then
+ * rejected without their content ever being read. Headers are parsed at most once per message, whatever the number
+ * of header criteria.
+ * 
+ * Candidates are matched as they are read, only the matching ones being kept. When an {@link ExecutorService} is
+ * given, candidates are read in chunks which are matched concurrently, a bounded number of chunks being read ahead.
  */
 public class MessageSearches implements Iterable<Long> {
 
-    private Iterator<MailboxMessage<?>> messages;
+    /**
+     * Number of messages matched by a single task when searching in parallel
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Number of chunks read ahead of the oldest one still being matched
+     */
+    private static final int MAX_CHUNKS_IN_FLIGHT = 16;
+
+    private static final int METADATA_COST = 0;
+    private static final int HEADER_COST = 1;
+    private static final int CONTENT_COST = 2;
+
+    private static final Comparator<SearchQuery.Criterion> BY_COST = new Comparator<SearchQuery.Criterion>() {
+        public int compare(SearchQuery.Criterion o1, SearchQuery.Criterion o2) {
+            return cost(o1) - cost(o2);
+        }
+    };
+
+    private Iterator<? extends MailboxMessage<?>> messages;
     private SearchQuery query;
+    private List<SearchQuery.Criterion> compiledCriteria;
     private Logger log;
+    private ExecutorService executor;
 
-    public MessageSearches(Iterator<MailboxMessage<?>> messages, SearchQuery query) {
+    public MessageSearches(Iterator<? extends MailboxMessage<?>> messages, SearchQuery query) {
         this(messages, query, null);
     }
 
-    public MessageSearches(Iterator<MailboxMessage<?>> messages, SearchQuery query, Logger log) {
+    public MessageSearches(Iterator<? extends MailboxMessage<?>> messages, SearchQuery query, Logger log) {
+        this(messages, query, log, null);
+    }
+
+    /**
+     * @param executor
+     *            used to match large sets of messages concurrently, may be <code>null</code> to
+     *            match them in the calling thread. The messages must then be safe to read from
+     *            any thread.
+     */
+    public MessageSearches(Iterator<? extends MailboxMessage<?>> messages, SearchQuery query, Logger log, ExecutorService executor) {
         this.messages = messages;
         this.query = query;
+        this.compiledCriteria = compile(query.getCriterias());
         this.log = log;
+        this.executor = executor;
     }
 
     /**
@@ -88,22 +139,122 @@ public class MessageSearches implements Iterable<Long> {
 
     private Collection<Long> search() {
         TreeSet<MailboxMessage<?>> matched = new TreeSet<MailboxMessage<?>>(CombinedComparator.create(query.getSorts()));
-        while (messages.hasNext()) {
-            MailboxMessage<?> m = messages.next();
+        if (executor == null) {
+            matched.addAll(filter(messages));
+        } else {
+            matched.addAll(filterConcurrently(messages));
+        }
+        List<Long> uids = new ArrayList<Long>(matched.size());
+        Iterator<MailboxMessage<?>> matchedIt = matched.iterator();
+        while (matchedIt.hasNext()) {
+            uids.add(matchedIt.next().getUid());
+        }
+        return uids;
+    }
+
+    private List<MailboxMessage<?>> filter(Iterator<? extends MailboxMessage<?>> candidates) {
+        final Collection<Long> recentMessageUids = query.getRecentMessageUids();
+        List<MailboxMessage<?>> matched = new ArrayList<MailboxMessage<?>>();
+        while (candidates.hasNext()) {
+            MailboxMessage<?> m = candidates.next();
             try {
-                if (isMatch(query, m, log)) {
+                if (isMatch(compiledCriteria, m, recentMessageUids, log)) {
                     matched.add(m);
                 }
             } catch (MailboxException e) {
-                log.debug("Unable to search message " + m.getUid(), e);
+                if (log != null) {
+                    log.debug("Unable to search message " + m.getUid(), e);
+                }
             }
         }
-        Set<Long> uids = new HashSet<Long>();
-        Iterator<MailboxMessage<?>> matchedIt = matched.iterator();
-        while (matchedIt.hasNext()) {
-            uids.add(matchedIt.next().getUid());
+        return matched;
+    }
+
+    /**
+     * A single chunk of candidates is matched in the calling thread, as parallel matching would cost more than it saves.
+     */
+    private List<MailboxMessage<?>> filterConcurrently(Iterator<? extends MailboxMessage<?>> candidates) {
+        Iterator<? extends List<? extends MailboxMessage<?>>> chunks = Iterators.partition(candidates, CHUNK_SIZE);
+        if (!chunks.hasNext()) {
+            return new ArrayList<MailboxMessage<?>>();
+        }
+        List<? extends MailboxMessage<?>> firstChunk = chunks.next();
+        if (!chunks.hasNext()) {
+            return filter(firstChunk.iterator());
+        }
+        List<MailboxMessage<?>> matched = new ArrayList<MailboxMessage<?>>();
+        Deque<Future<List<MailboxMessage<?>>>> inFlight = new ArrayDeque<Future<List<MailboxMessage<?>>>>();
+        try {
+            inFlight.add(submitFilter(firstChunk));
+            while (chunks.hasNext()) {
+                if (inFlight.size() >= MAX_CHUNKS_IN_FLIGHT) {
+                    matched.addAll(inFlight.poll().get());
+                }
+                inFlight.add(submitFilter(chunks.next()));
+            }
+            while (!inFlight.isEmpty()) {
+                matched.addAll(inFlight.poll().get());
+            }
+            return matched;
+        } catch (InterruptedException e) {
+            cancel(inFlight);
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            cancel(inFlight);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private Future<List<MailboxMessage<?>>> submitFilter(final List<? extends MailboxMessage<?>> chunk) {
+        return executor.submit(new Callable<List<MailboxMessage<?>>>() {
+            public List<MailboxMessage<?>> call() {
+                return filter(chunk.iterator());
+            }
+        });
+    }
+
+    private void cancel(Collection<Future<List<MailboxMessage<?>>>> tasks) {
+        for (Future<List<MailboxMessage<?>>> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Reorder the criteria, recursively, so that the cheapest ones are evaluated first. The sort is stable, so
+     * criteria of the same cost keep the order of the query.
+     */
+    private static List<SearchQuery.Criterion> compile(List<SearchQuery.Criterion> criteria) {
+        if (criteria == null) {
+            return null;
+        }
+        List<SearchQuery.Criterion> compiled = new ArrayList<SearchQuery.Criterion>(criteria.size());
+        for (SearchQuery.Criterion criterion : criteria) {
+            if (criterion instanceof SearchQuery.ConjunctionCriterion) {
+                SearchQuery.ConjunctionCriterion conjunction = (SearchQuery.ConjunctionCriterion) criterion;
+                compiled.add(new SearchQuery.ConjunctionCriterion(conjunction.getType(), compile(conjunction.getCriteria())));
+            } else {
+                compiled.add(criterion);
+            }
+        }
+        Collections.sort(compiled, BY_COST);
+        return compiled;
+    }
+
+    private static int cost(SearchQuery.Criterion criterion) {
+        if (criterion instanceof SearchQuery.HeaderCriterion) {
+            return HEADER_COST;
+        } else if (criterion instanceof SearchQuery.TextCriterion) {
+            return CONTENT_COST;
+        } else if (criterion instanceof SearchQuery.ConjunctionCriterion) {
+            int cost = METADATA_COST;
+            for (SearchQuery.Criterion child : ((SearchQuery.ConjunctionCriterion) criterion).getCriteria()) {
+                cost = Math.max(cost, cost(child));
+            }
+            return cost;
+        } else {
+            return METADATA_COST;
         }
-        return uids;
     }
 
     /**
@@ -120,18 +271,15 @@ public class MessageSearches implements Iterable<Long> {
      * @throws MailboxException
      */
     protected boolean isMatch(final SearchQuery query, final MailboxMessage<?> message, Logger log) throws MailboxException {
-        final List<SearchQuery.Criterion> criteria = query.getCriterias();
-        final Collection<Long> recentMessageUids = query.getRecentMessageUids();
-        boolean result = true;
-        if (criteria != null) {
-            for (final SearchQuery.Criterion criterion : criteria) {
-                if (!isMatch(criterion, message, recentMessageUids, log)) {
-                    result = false;
-                    break;
-                }
-            }
+        return isMatch(compile(query.getCriterias()), message, query.getRecentMessageUids(), log);
+    }
+
+    private boolean isMatch(final List<SearchQuery.Criterion> criteria, final MailboxMessage<?> message,
+            final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
+        if (criteria == null) {
+            return true;
         }
-        return result;
+        return and(criteria, message, new MessageHeaders(message), recentMessageUids, log);
     }
 
     /**
@@ -151,6 +299,11 @@ public class MessageSearches implements Iterable<Long> {
      */
     public boolean isMatch(SearchQuery.Criterion criterion, MailboxMessage<?> message,
             final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
+        return isMatch(criterion, message, new MessageHeaders(message), recentMessageUids, log);
+    }
+
+    private boolean isMatch(SearchQuery.Criterion criterion, MailboxMessage<?> message, MessageHeaders headers,
+            final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
         final boolean result;
         if (criterion instanceof SearchQuery.InternalDateCriterion) {
             result = matches((SearchQuery.InternalDateCriterion) criterion, message);
@@ -158,7 +311,7 @@ public class MessageSearches implements Iterable<Long> {
             result = matches((SearchQuery.SizeCriterion) criterion, message);
         } else if (criterion instanceof SearchQuery.HeaderCriterion) {
             try {
-                result = matches((SearchQuery.HeaderCriterion) criterion, message, log);
+                result = matches((SearchQuery.HeaderCriterion) criterion, headers, log);
             } catch (IOException e) {
                 throw new MailboxException("Unable to search header", e);
             }
@@ -173,7 +326,7 @@ public class MessageSearches implements Iterable<Long> {
         } else if (criterion instanceof SearchQuery.AllCriterion) {
             result = true;
         } else if (criterion instanceof SearchQuery.ConjunctionCriterion) {
-            result = matches((SearchQuery.ConjunctionCriterion) criterion, message, recentMessageUids, log);
+            result = matches((SearchQuery.ConjunctionCriterion) criterion, message, headers, recentMessageUids, log);
         } else if (criterion instanceof SearchQuery.ModSeqCriterion) {
             result = matches((SearchQuery.ModSeqCriterion) criterion, message);
         } else {
@@ -209,7 +362,7 @@ public class MessageSearches implements Iterable<Long> {
 
     protected boolean isInMessage(String value, final InputStream input, boolean header, Logger log) throws IOException, MimeException {
         MessageMatcher.MessageMatcherBuilder builder = MessageMatcher.builder()
-            .searchContents(Lists.<CharSequence>newArrayList(value))
+            .searchContents(Collections.<CharSequence>singletonList(value))
             .caseInsensitive(true)
             .includeHeaders(header);
         if (log != null) {
@@ -223,26 +376,26 @@ public class MessageSearches implements Iterable<Long> {
         return isInMessage(value, input, true, log);
     }
 
-    private boolean matches(SearchQuery.ConjunctionCriterion criterion, MailboxMessage<?> message,
+    private boolean matches(SearchQuery.ConjunctionCriterion criterion, MailboxMessage<?> message, MessageHeaders headers,
             final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
         final List<SearchQuery.Criterion> criteria = criterion.getCriteria();
         switch (criterion.getType()) {
         case NOR:
-            return nor(criteria, message, recentMessageUids, log);
+            return nor(criteria, message, headers, recentMessageUids, log);
         case OR:
-            return or(criteria, message, recentMessageUids, log);
+            return or(criteria, message, headers, recentMessageUids, log);
         case AND:
-            return and(criteria, message, recentMessageUids, log);
+            return and(criteria, message, headers, recentMessageUids, log);
         default:
             return false;
         }
     }
 
     private boolean and(final List<SearchQuery.Criterion> criteria, final MailboxMessage<?> message,
-            final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
+            final MessageHeaders headers, final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
         boolean result = true;
         for (final SearchQuery.Criterion criterion : criteria) {
-            final boolean matches = isMatch(criterion, message, recentMessageUids, log);
+            final boolean matches = isMatch(criterion, message, headers, recentMessageUids, log);
             if (!matches) {
                 result = false;
                 break;
@@ -252,10 +405,10 @@ public class MessageSearches implements Iterable<Long> {
     }
 
     private boolean or(final List<SearchQuery.Criterion> criteria, final MailboxMessage<?> message,
-            final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
+            final MessageHeaders headers, final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
         boolean result = false;
         for (final SearchQuery.Criterion criterion : criteria) {
-            final boolean matches = isMatch(criterion, message, recentMessageUids, log);
+            final boolean matches = isMatch(criterion, message, headers, recentMessageUids, log);
             if (matches) {
                 result = true;
                 break;
@@ -265,10 +418,10 @@ public class MessageSearches implements Iterable<Long> {
     }
 
     private boolean nor(final List<SearchQuery.Criterion> criteria, final MailboxMessage<?> message,
-            final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
+            final MessageHeaders headers, final Collection<Long> recentMessageUids, Logger log) throws MailboxException {
         boolean result = true;
         for (final SearchQuery.Criterion criterion : criteria) {
-            final boolean matches = isMatch(criterion, message, recentMessageUids, log);
+            final boolean matches = isMatch(criterion, message, headers, recentMessageUids, log);
             if (matches) {
                 result = false;
                 break;
@@ -324,19 +477,19 @@ public class MessageSearches implements Iterable<Long> {
         return result;
     }
 
-    private boolean matches(SearchQuery.HeaderCriterion criterion, MailboxMessage<?> message, Logger log)
+    private boolean matches(SearchQuery.HeaderCriterion criterion, MessageHeaders headers, Logger log)
             throws MailboxException, IOException {
         final SearchQuery.HeaderOperator operator = criterion.getOperator();
         final String headerName = criterion.getHeaderName();
         final boolean result;
         if (operator instanceof SearchQuery.DateOperator) {
-            result = matches((SearchQuery.DateOperator) operator, headerName, message);
+            result = matches((SearchQuery.DateOperator) operator, headerName, headers);
         } else if (operator instanceof SearchQuery.ContainsOperator) {
-            result = matches((SearchQuery.ContainsOperator) operator, headerName, message);
+            result = matches((SearchQuery.ContainsOperator) operator, headerName, headers);
         } else if (operator instanceof SearchQuery.ExistsOperator) {
-            result = exists(headerName, message);
+            result = exists(headerName, headers);
         } else if (operator instanceof SearchQuery.AddressOperator) {
-            result = matchesAddress((SearchQuery.AddressOperator) operator, headerName, message, log);
+            result = matchesAddress((SearchQuery.AddressOperator) operator, headerName, headers, log);
         } else {
             throw new UnsupportedSearchException();
         }
@@ -348,16 +501,15 @@ public class MessageSearches implements Iterable<Long> {
      * 
      * @param operator
      * @param headerName
-     * @param message
+     * @param headers
      * @return containsAddress
      * @throws MailboxException
      * @throws IOException
      */
     private boolean matchesAddress(final SearchQuery.AddressOperator operator, final String headerName,
-                                   final MailboxMessage<?> message, Logger log) throws MailboxException, IOException {
+                                   final MessageHeaders headers, Logger log) throws MailboxException, IOException {
         final String text = operator.getAddress().toUpperCase(Locale.ENGLISH);
-        final List<Header> headers = ResultUtils.createHeaders(message);
-        for (Header header : headers) {
+        for (Header header : headers.get()) {
             final String name = header.getName();
             if (headerName.equalsIgnoreCase(name)) {
                 final String value = header.getValue();
@@ -386,11 +538,9 @@ public class MessageSearches implements Iterable<Long> {
         return false;
     }
 
-    private boolean exists(String headerName, MailboxMessage<?> message) throws MailboxException, IOException {
+    private boolean exists(String headerName, MessageHeaders headers) throws MailboxException, IOException {
         boolean result = false;
-        final List<Header> headers = ResultUtils.createHeaders(message);
-
-        for (Header header : headers) {
+        for (Header header : headers.get()) {
             final String name = header.getName();
             if (headerName.equalsIgnoreCase(name)) {
                 result = true;
@@ -401,11 +551,10 @@ public class MessageSearches implements Iterable<Long> {
     }
 
     private boolean matches(final SearchQuery.ContainsOperator operator, final String headerName,
-            final MailboxMessage<?> message) throws MailboxException, IOException {
+            final MessageHeaders headers) throws MailboxException, IOException {
         final String text = operator.getValue().toUpperCase();
         boolean result = false;
-        final List<Header> headers = ResultUtils.createHeaders(message);
-        for (Header header : headers) {
+        for (Header header : headers.get()) {
             final String name = header.getName();
             if (headerName.equalsIgnoreCase(name)) {
                 final String value = header.getValue();
@@ -420,13 +569,13 @@ public class MessageSearches implements Iterable<Long> {
         return result;
     }
 
-    private boolean matches(final SearchQuery.DateOperator operator, final String headerName, final MailboxMessage<?> message)
+    private boolean matches(final SearchQuery.DateOperator operator, final String headerName, final MessageHeaders headers)
             throws MailboxException {
 
         final Date date = operator.getDate();
         final DateResolution res = operator.getDateResultion();
         try {
-            final String value = headerValue(headerName, message);
+            final String value = headerValue(headerName, headers);
             if (value == null) {
                 return false;
             } else {
@@ -452,10 +601,9 @@ public class MessageSearches implements Iterable<Long> {
         }
     }
 
-    private String headerValue(final String headerName, final MailboxMessage<?> message) throws MailboxException, IOException {
-        final List<Header> headers = ResultUtils.createHeaders(message);
+    private String headerValue(final String headerName, final MessageHeaders headers) throws MailboxException, IOException {
         String value = null;
-        for (Header header : headers) {
+        for (Header header : headers.get()) {
             final String name = header.getName();
             if (headerName.equalsIgnoreCase(name)) {
                 value = header.getValue();
@@ -594,4 +742,23 @@ public class MessageSearches implements Iterable<Long> {
         return search().iterator();
     }
 
+    /**
+     * Headers of a message, parsed on first use and shared by all the criteria evaluated against it
+     */
+    private static final class MessageHeaders {
+        private final MailboxMessage<?> message;
+        private List<Header> headers;
+
+        private MessageHeaders(MailboxMessage<?> message) {
+            this.message = message;
+        }
+
+        private List<Header> get() throws IOException {
+            if (headers == null) {
+                headers = ResultUtils.createHeaders(message);
+            }
+            return headers;
+        }
+    }
+
 }
@@ -22,10 +22,10 @@
  */
 package org.apache.james.mailbox.store.streaming;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.model.Content;
 
 public final class ByteContent implements Content {
@@ -48,7 +48,7 @@ public final class ByteContent implements Content {
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return new ByteArrayInputStream(contents);
+        return new ByteBufferInputStream(contents);
     }
 
 
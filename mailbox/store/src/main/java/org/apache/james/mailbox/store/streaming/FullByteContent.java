@@ -19,15 +19,15 @@
 package org.apache.james.mailbox.store.streaming;
 
 import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.mailbox.model.Content;
 import org.apache.james.mailbox.model.MessageResult;
 import org.apache.james.mailbox.model.MessageResult.Header;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -74,7 +74,7 @@ public class FullByteContent implements Content {
         }
         out.write("\r\n".getBytes("US-ASCII"));
         out.flush();
-        return new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), new ByteArrayInputStream(body));
+        return new ByteBufferInputStream(ByteBuffer.wrap(out.toByteArray()), ByteBuffer.wrap(body));
     }
 
     @Override
@@ -22,6 +22,7 @@ package org.apache.james.mailbox.store;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -96,6 +97,13 @@ public class StoreMailboxMessageResultIteratorTest {
             return messages.iterator();
         }
 
+        @Override
+        public Iterator<MailboxMessage<TestId>> findInMailbox(Mailbox<TestId> mailbox, Collection<Long> uids,
+                                                              org.apache.james.mailbox.store.mail.MessageMapper.FetchType type)
+                throws MailboxException {
+            throw new UnsupportedOperationException();
+        }
+
         private SimpleMailboxMessage<TestId> createMessage(long uid) {
             SimpleMailboxMessage<TestId> message = new SimpleMailboxMessage<TestId>(null, 0, 0, new SharedByteArrayInputStream(
                     "".getBytes()), new Flags(), new PropertyBuilder(), TestId.of(1L));
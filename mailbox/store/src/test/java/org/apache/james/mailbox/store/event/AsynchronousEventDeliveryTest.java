@@ -19,15 +19,25 @@
 
 package org.apache.james.mailbox.store.event;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.james.mailbox.MailboxListener;
 import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.store.event.AsynchronousEventDelivery.DropAwareMailboxListener;
+import org.apache.james.mailbox.store.event.AsynchronousEventDelivery.OverflowPolicy;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -35,6 +45,7 @@ import org.junit.Test;
 public class AsynchronousEventDeliveryTest {
 
     private static final int ONE_MINUTE = (int) TimeUnit.MINUTES.toMillis(1);
+    private static final MailboxPath MAILBOX_PATH = new MailboxPath("#private", "user", "INBOX");
     private MailboxListener mailboxListener;
     private AsynchronousEventDelivery asynchronousEventDelivery;
 
@@ -74,4 +85,201 @@ public class AsynchronousEventDeliveryTest {
         verify(mailboxListener, timeout(ONE_MINUTE).times(operationCount)).event(event);
     }
 
+    @Test
+    public void deliverShouldKeepTheOrderOfTheEventsOfAListener() throws Exception {
+        int eventCount = 1000;
+        RecordingListener listener = new RecordingListener(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            asynchronousEventDelivery.deliver(listener, new NumberedEvent(i));
+        }
+        assertThat(listener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+        for (int i = 0; i < eventCount; i++) {
+            assertThat(listener.events.get(i).number).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void aSlowListenerShouldNotHoldBackTheOtherOnes() throws Exception {
+        RecordingListener slowListener = new RecordingListener(1);
+        slowListener.blocked = new CountDownLatch(1);
+        RecordingListener fastListener = new RecordingListener(1);
+        asynchronousEventDelivery.deliver(slowListener, new NumberedEvent(0));
+        asynchronousEventDelivery.deliver(fastListener, new NumberedEvent(0));
+        assertThat(fastListener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+        slowListener.blocked.countDown();
+        assertThat(slowListener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+    }
+
+    @Test
+    public void dropPolicyShouldDropEventsOfFullQueuesAndReportTheirMailboxes() throws Exception {
+        asynchronousEventDelivery.stop();
+        asynchronousEventDelivery = new AsynchronousEventDelivery(1, 2, OverflowPolicy.DROP);
+        RecordingListener listener = new RecordingListener(3);
+        listener.blocked = new CountDownLatch(1);
+        for (int i = 0; i < 5; i++) {
+            asynchronousEventDelivery.deliver(listener, new NumberedEvent(i));
+        }
+        assertThat(asynchronousEventDelivery.getDroppedEventCount()).isGreaterThanOrEqualTo(2);
+        listener.blocked.countDown();
+        assertThat(listener.dropped.await(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(listener.droppedPaths).containsOnly(MAILBOX_PATH);
+        assertThat(listener.events.size() + asynchronousEventDelivery.getDroppedEventCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void blockPolicyShouldWaitForRoomWithoutDroppingEvents() throws Exception {
+        asynchronousEventDelivery.stop();
+        asynchronousEventDelivery = new AsynchronousEventDelivery(1, 1, OverflowPolicy.BLOCK, null, null, null);
+        final int eventCount = 3;
+        final RecordingListener listener = new RecordingListener(eventCount);
+        listener.blocked = new CountDownLatch(1);
+        Thread emitter = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < eventCount; i++) {
+                    asynchronousEventDelivery.deliver(listener, new NumberedEvent(i));
+                }
+            }
+        };
+        emitter.start();
+        emitter.join(200);
+        assertThat(emitter.isAlive()).isTrue();
+        listener.blocked.countDown();
+        emitter.join(ONE_MINUTE);
+        assertThat(listener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(asynchronousEventDelivery.getDroppedEventCount()).isEqualTo(0);
+        for (int i = 0; i < eventCount; i++) {
+            assertThat(listener.events.get(i).number).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void blockPolicyShouldNotBlockListenersEmittingEventsToTheirFullQueue() throws Exception {
+        asynchronousEventDelivery.stop();
+        asynchronousEventDelivery = new AsynchronousEventDelivery(1, 1, OverflowPolicy.BLOCK, null, null, null);
+        final int emittedEventCount = 5;
+        final RecordingListener listener = new RecordingListener(emittedEventCount + 1) {
+            @Override
+            public void event(Event event) {
+                super.event(event);
+                if (((NumberedEvent) event).number == 0) {
+                    for (int i = 1; i <= emittedEventCount; i++) {
+                        asynchronousEventDelivery.deliver(this, new NumberedEvent(i));
+                    }
+                }
+            }
+        };
+        asynchronousEventDelivery.deliver(listener, new NumberedEvent(0));
+        assertThat(listener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(asynchronousEventDelivery.getDroppedEventCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void spillPolicyShouldDeliverAllEventsInOrder() throws Exception {
+        asynchronousEventDelivery.stop();
+        asynchronousEventDelivery = new AsynchronousEventDelivery(1, 2, OverflowPolicy.SPILL, new InMemoryEventSerializer(), null, null);
+        int eventCount = 50;
+        RecordingListener listener = new RecordingListener(eventCount);
+        listener.blocked = new CountDownLatch(1);
+        for (int i = 0; i < eventCount; i++) {
+            asynchronousEventDelivery.deliver(listener, new NumberedEvent(i));
+        }
+        assertThat(asynchronousEventDelivery.getSpilledEventCount()).isGreaterThan(0);
+        assertThat(asynchronousEventDelivery.getQueuedEventCount()).isGreaterThan(0);
+        listener.blocked.countDown();
+        assertThat(listener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+        for (int i = 0; i < eventCount; i++) {
+            assertThat(listener.events.get(i).number).isEqualTo(i);
+        }
+        assertThat(asynchronousEventDelivery.getDroppedEventCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void metricsShouldReportTheQueuedEvents() throws Exception {
+        RecordingListener listener = new RecordingListener(3);
+        listener.blocked = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            asynchronousEventDelivery.deliver(listener, new NumberedEvent(i));
+        }
+        assertThat(asynchronousEventDelivery.getQueuedEventCount()).isBetween(2L, 3L);
+        assertThat(asynchronousEventDelivery.getListenerQueueDepths()).hasSize(1);
+        listener.blocked.countDown();
+        assertThat(listener.delivered.await(1, TimeUnit.MINUTES)).isTrue();
+        verifyDeliveredCount(3);
+    }
+
+    private void verifyDeliveredCount(long expected) throws InterruptedException {
+        // The count is updated after the listener returns
+        long deadline = System.currentTimeMillis() + ONE_MINUTE;
+        while (asynchronousEventDelivery.getDeliveredEventCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(asynchronousEventDelivery.getDeliveredEventCount()).isEqualTo(expected);
+    }
+
+    private static class NumberedEvent extends MailboxListener.Event {
+        private final int number;
+
+        public NumberedEvent(int number) {
+            super(new MockMailboxSession("user"), MAILBOX_PATH);
+            this.number = number;
+        }
+    }
+
+    private static class RecordingListener implements DropAwareMailboxListener {
+        private final List<NumberedEvent> events = new CopyOnWriteArrayList<NumberedEvent>();
+        private final List<MailboxPath> droppedPaths = new CopyOnWriteArrayList<MailboxPath>();
+        private final CountDownLatch delivered;
+        private final CountDownLatch dropped = new CountDownLatch(1);
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+        public RecordingListener(int expectedEvents) {
+            this.delivered = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public ListenerType getType() {
+            return ListenerType.MAILBOX;
+        }
+
+        @Override
+        public ExecutionMode getExecutionMode() {
+            return ExecutionMode.ASYNCHRONOUS;
+        }
+
+        @Override
+        public void event(Event event) {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add((NumberedEvent) event);
+            delivered.countDown();
+        }
+
+        @Override
+        public void eventsDropped(Event lastDroppedEvent) {
+            droppedPaths.add(lastDroppedEvent.getMailboxPath());
+            dropped.countDown();
+        }
+    }
+
+    private static class InMemoryEventSerializer implements EventSerializer {
+        private final Map<Integer, MailboxListener.Event> events = new ConcurrentHashMap<Integer, MailboxListener.Event>();
+        private final AtomicInteger ids = new AtomicInteger();
+
+        @Override
+        public byte[] serializeEvent(MailboxListener.Event event) {
+            int id = ids.incrementAndGet();
+            events.put(id, event);
+            return String.valueOf(id).getBytes();
+        }
+
+        @Override
+        public MailboxListener.Event deSerializeEvent(byte[] serializedEvent) {
+            return events.remove(Integer.valueOf(new String(serializedEvent)));
+        }
+    }
+
 }
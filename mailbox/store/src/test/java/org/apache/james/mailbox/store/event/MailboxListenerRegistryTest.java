@@ -0,0 +1,138 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MailboxListenerRegistryTest {
+
+    private static final MailboxPath MAILBOX_PATH = new MailboxPath("#private", "user", "INBOX");
+    private static final MailboxPath OTHER_MAILBOX_PATH = new MailboxPath("#private", "user", "other");
+
+    private MailboxListenerRegistry testee;
+    private MailboxListener listener;
+    private MailboxListener otherListener;
+
+    @Before
+    public void setUp() {
+        testee = new MailboxListenerRegistry();
+        listener = mock(MailboxListener.class);
+        otherListener = mock(MailboxListener.class);
+    }
+
+    @Test
+    public void getLocalMailboxListenersShouldBeEmptyByDefault() {
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).isEmpty();
+    }
+
+    @Test
+    public void addListenerShouldNotAddTheSameListenerTwice() throws Exception {
+        testee.addListener(MAILBOX_PATH, listener);
+        testee.addListener(MAILBOX_PATH, listener);
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).containsOnly(listener);
+    }
+
+    @Test
+    public void removeListenerShouldOnlyRemoveTheGivenListener() throws Exception {
+        testee.addListener(MAILBOX_PATH, listener);
+        testee.addListener(MAILBOX_PATH, otherListener);
+        testee.removeListener(MAILBOX_PATH, listener);
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).containsOnly(otherListener);
+    }
+
+    @Test
+    public void removeListenerShouldNotFailWhenNothingIsRegistered() throws Exception {
+        testee.removeListener(MAILBOX_PATH, listener);
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).isEmpty();
+    }
+
+    @Test
+    public void snapshotsShouldNotSeeLaterRegistrations() throws Exception {
+        testee.addListener(MAILBOX_PATH, listener);
+        List<MailboxListener> snapshot = testee.getLocalMailboxListeners(MAILBOX_PATH);
+        testee.addListener(MAILBOX_PATH, otherListener);
+        assertThat(snapshot).containsOnly(listener);
+    }
+
+    @Test
+    public void handleRenameShouldMergeListenersIntoTheNewPath() throws Exception {
+        testee.addListener(MAILBOX_PATH, listener);
+        testee.addListener(OTHER_MAILBOX_PATH, otherListener);
+        testee.handleRename(MAILBOX_PATH, OTHER_MAILBOX_PATH);
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).isEmpty();
+        assertThat(testee.getLocalMailboxListeners(OTHER_MAILBOX_PATH)).containsOnly(otherListener, listener);
+    }
+
+    @Test
+    public void deleteRegistryForShouldRemoveAllListenersOfThePath() throws Exception {
+        testee.addListener(MAILBOX_PATH, listener);
+        testee.addListener(MAILBOX_PATH, otherListener);
+        testee.deleteRegistryFor(MAILBOX_PATH);
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).isEmpty();
+    }
+
+    @Test
+    public void removeGlobalListenerShouldRemoveTheListener() throws Exception {
+        testee.addGlobalListener(listener);
+        testee.addGlobalListener(otherListener);
+        testee.removeGlobalListener(listener);
+        assertThat(testee.getGlobalListeners()).containsOnly(otherListener);
+    }
+
+    @Test
+    public void concurrentRegistrationsShouldAllBeKept() throws Exception {
+        final int listenerCount = 1000;
+        final MailboxListener[] listeners = new MailboxListener[listenerCount];
+        for (int i = 0; i < listenerCount; i++) {
+            listeners[i] = mock(MailboxListener.class);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < listenerCount; i++) {
+            final MailboxListener registered = listeners[i];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        testee.addListener(MAILBOX_PATH, registered);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+        assertThat(testee.getLocalMailboxListeners(MAILBOX_PATH)).containsOnly(listeners);
+    }
+}
@@ -0,0 +1,181 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelEventDeliveryTest {
+
+    private static final MailboxPath PATH = new MailboxPath("#private", "user", "INBOX");
+    private static final int EVENT_COUNT = 1000;
+
+    private ParallelEventDelivery parallelEventDelivery;
+
+    @Before
+    public void setUp() {
+        parallelEventDelivery = new ParallelEventDelivery(4);
+    }
+
+    @After
+    public void tearDown() {
+        parallelEventDelivery.stop();
+    }
+
+    @Test
+    public void deliverShouldKeepTheOrderOfTheEventsOfAMailbox() throws Exception {
+        RecordingListener listener = new RecordingListener(MailboxListener.ExecutionMode.ASYNCHRONOUS, EVENT_COUNT);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            parallelEventDelivery.deliver(listener, new NumberedEvent(i));
+        }
+        assertThat(listener.latch.await(1, TimeUnit.MINUTES)).isTrue();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            assertThat(((NumberedEvent) listener.events.get(i)).number).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void deliverShouldCallSynchronousListenersFromTheCallingThread() throws Exception {
+        RecordingListener listener = new RecordingListener(MailboxListener.ExecutionMode.SYNCHRONOUS, 1);
+        parallelEventDelivery.deliver(listener, new NumberedEvent(0));
+        assertThat(listener.threads).containsExactly(Thread.currentThread());
+    }
+
+    @Test
+    public void deliverShouldNotPropagateException() throws Exception {
+        RecordingListener failing = new RecordingListener(MailboxListener.ExecutionMode.ASYNCHRONOUS, 2) {
+            @Override
+            public void event(Event event) {
+                super.event(event);
+                throw new RuntimeException();
+            }
+        };
+        parallelEventDelivery.deliver(failing, new NumberedEvent(0));
+        parallelEventDelivery.deliver(failing, new NumberedEvent(1));
+        assertThat(failing.latch.await(1, TimeUnit.MINUTES)).isTrue();
+    }
+
+    @Test
+    public void deliverShouldWaitForRoomWhenTheLaneIsFull() throws Exception {
+        final ParallelEventDelivery boundedDelivery = new ParallelEventDelivery(1, 1);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final RecordingListener blocking = new RecordingListener(MailboxListener.ExecutionMode.ASYNCHRONOUS, 3) {
+                @Override
+                public void event(Event event) {
+                    try {
+                        release.await(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.event(event);
+                }
+            };
+            boundedDelivery.deliver(blocking, new NumberedEvent(0));
+            final CountDownLatch emitted = new CountDownLatch(1);
+            Thread emitter = new Thread() {
+                @Override
+                public void run() {
+                    boundedDelivery.deliver(blocking, new NumberedEvent(1));
+                    boundedDelivery.deliver(blocking, new NumberedEvent(2));
+                    emitted.countDown();
+                }
+            };
+            emitter.start();
+
+            assertThat(emitted.await(500, TimeUnit.MILLISECONDS)).isFalse();
+            release.countDown();
+            assertThat(emitted.await(1, TimeUnit.MINUTES)).isTrue();
+            assertThat(blocking.latch.await(1, TimeUnit.MINUTES)).isTrue();
+            assertThat(blocking.events).hasSize(3);
+        } finally {
+            boundedDelivery.stop();
+        }
+    }
+
+    @Test
+    public void deliverShouldAcceptEventsEmittedFromAFullLane() throws Exception {
+        final ParallelEventDelivery boundedDelivery = new ParallelEventDelivery(1, 1);
+        try {
+            final RecordingListener emitting = new RecordingListener(MailboxListener.ExecutionMode.ASYNCHRONOUS, 3) {
+                @Override
+                public void event(Event event) {
+                    super.event(event);
+                    int number = ((NumberedEvent) event).number;
+                    if (number < 2) {
+                        boundedDelivery.deliver(this, new NumberedEvent(number + 1));
+                    }
+                }
+            };
+            boundedDelivery.deliver(emitting, new NumberedEvent(0));
+            assertThat(emitting.latch.await(1, TimeUnit.MINUTES)).isTrue();
+        } finally {
+            boundedDelivery.stop();
+        }
+    }
+
+    private static class NumberedEvent extends MailboxListener.Event {
+        private final int number;
+
+        public NumberedEvent(int number) {
+            super(new MockMailboxSession("user"), PATH);
+            this.number = number;
+        }
+    }
+
+    private static class RecordingListener implements MailboxListener {
+        private final ExecutionMode executionMode;
+        private final List<Event> events = new CopyOnWriteArrayList<Event>();
+        private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        private final CountDownLatch latch;
+
+        public RecordingListener(ExecutionMode executionMode, int expectedEvents) {
+            this.executionMode = executionMode;
+            this.latch = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public ListenerType getType() {
+            return ListenerType.MAILBOX;
+        }
+
+        @Override
+        public ExecutionMode getExecutionMode() {
+            return executionMode;
+        }
+
+        @Override
+        public void event(Event event) {
+            events.add(event);
+            threads.add(Thread.currentThread());
+            latch.countDown();
+        }
+    }
+}
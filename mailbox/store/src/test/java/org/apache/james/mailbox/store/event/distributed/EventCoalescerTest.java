@@ -0,0 +1,184 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.event.distributed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.TestId;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class EventCoalescerTest {
+
+    private static final MailboxPath MAILBOX_PATH = new MailboxPath("namespace", "user", "name");
+    private static final MailboxPath OTHER_MAILBOX_PATH = new MailboxPath("namespace", "user", "other");
+    private static final long WINDOW_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final MailboxSession session = new MockMailboxSession("benwa");
+    private final EventFactory<TestId> eventFactory = new EventFactory<TestId>();
+    private final SimpleMailbox<TestId> mailbox = new SimpleMailbox<TestId>(MAILBOX_PATH, 42);
+    private final SimpleMailbox<TestId> otherMailbox = new SimpleMailbox<TestId>(OTHER_MAILBOX_PATH, 42);
+    private List<MailboxListener.Event> sentEvents;
+    private EventCoalescer eventCoalescer;
+
+    @Before
+    public void setUp() {
+        sentEvents = new CopyOnWriteArrayList<MailboxListener.Event>();
+        eventCoalescer = new EventCoalescer(new EventCoalescer.EventSink() {
+            @Override
+            public void send(MailboxListener.Event event) {
+                sentEvents.add(event);
+            }
+        }, WINDOW_IN_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        eventCoalescer.stop();
+    }
+
+    @Test
+    public void eventsShouldBeSentRightAwayWithoutWindow() {
+        EventCoalescer noWindowCoalescer = new EventCoalescer(new EventCoalescer.EventSink() {
+            @Override
+            public void send(MailboxListener.Event event) {
+                sentEvents.add(event);
+            }
+        }, 0);
+        MailboxListener.FlagsUpdated event = flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN));
+
+        noWindowCoalescer.submit(event);
+
+        assertThat(sentEvents).containsExactly(event);
+    }
+
+    @Test
+    public void flagsUpdatesShouldBeHeldUntilFlushed() {
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+
+        assertThat(sentEvents).isEmpty();
+    }
+
+    @Test
+    public void flagsUpdatesOfAMailboxShouldBeMerged() {
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+        eventCoalescer.submit(flagsUpdated(mailbox, 2, 2, new Flags(), new Flags(Flags.Flag.DELETED)));
+
+        eventCoalescer.flush();
+
+        assertThat(sentEvents).hasSize(1);
+        MailboxListener.FlagsUpdated merged = (MailboxListener.FlagsUpdated) sentEvents.get(0);
+        assertThat(merged.getMailboxPath()).isEqualTo(MAILBOX_PATH);
+        assertThat(merged.getUids()).containsExactly(1L, 2L);
+        assertThat(merged.getUpdatedFlags()).hasSize(2);
+    }
+
+    @Test
+    public void successiveUpdatesOfAMessageShouldKeepTheFirstOldFlagsAndTheLastNewFlags() {
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 2, new Flags(Flags.Flag.SEEN), new Flags(Flags.Flag.DELETED)));
+
+        eventCoalescer.flush();
+
+        MailboxListener.FlagsUpdated merged = (MailboxListener.FlagsUpdated) sentEvents.get(0);
+        assertThat(merged.getUids()).containsExactly(1L);
+        UpdatedFlags updatedFlags = merged.getUpdatedFlags().get(0);
+        assertThat(updatedFlags.getModSeq()).isEqualTo(2);
+        assertThat(updatedFlags.getOldFlags()).isEqualTo(new Flags());
+        assertThat(updatedFlags.getNewFlags()).isEqualTo(new Flags(Flags.Flag.DELETED));
+    }
+
+    @Test
+    public void flagsUpdatesOfDistinctSessionsShouldNotBeMerged() {
+        MailboxSession otherSession = new MockMailboxSession("other");
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+        eventCoalescer.submit(eventFactory.flagsUpdated(otherSession, ImmutableList.of(2L), mailbox,
+            ImmutableList.of(new UpdatedFlags(2, 2, new Flags(), new Flags(Flags.Flag.SEEN)))));
+
+        eventCoalescer.flush();
+
+        assertThat(sentEvents).hasSize(2);
+    }
+
+    @Test
+    public void otherEventsShouldSendThePendingFlagsUpdatesOfTheirMailboxFirst() {
+        MailboxListener.FlagsUpdated otherMailboxUpdate = flagsUpdated(otherMailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN));
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+        eventCoalescer.submit(otherMailboxUpdate);
+        MailboxListener.Event deletion = eventFactory.mailboxDeleted(session, mailbox);
+
+        eventCoalescer.submit(deletion);
+
+        assertThat(sentEvents).hasSize(2);
+        assertThat(sentEvents.get(0)).isInstanceOf(MailboxListener.FlagsUpdated.class);
+        assertThat(sentEvents.get(0).getMailboxPath()).isEqualTo(MAILBOX_PATH);
+        assertThat(sentEvents.get(1)).isSameAs(deletion);
+    }
+
+    @Test
+    public void pendingFlagsUpdatesShouldBeSentOnceTheWindowIsElapsed() throws Exception {
+        EventCoalescer shortWindowCoalescer = new EventCoalescer(new EventCoalescer.EventSink() {
+            @Override
+            public void send(MailboxListener.Event event) {
+                sentEvents.add(event);
+            }
+        }, 10);
+        try {
+            shortWindowCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while (sentEvents.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(sentEvents).hasSize(1);
+        } finally {
+            shortWindowCoalescer.stop();
+        }
+    }
+
+    @Test
+    public void stopShouldSendThePendingFlagsUpdates() {
+        eventCoalescer.submit(flagsUpdated(mailbox, 1, 1, new Flags(), new Flags(Flags.Flag.SEEN)));
+
+        eventCoalescer.stop();
+
+        assertThat(sentEvents).hasSize(1);
+    }
+
+    private MailboxListener.FlagsUpdated flagsUpdated(SimpleMailbox<TestId> mailbox, long uid, long modSeq, Flags oldFlags, Flags newFlags) {
+        return eventFactory.flagsUpdated(session, ImmutableList.of(uid), mailbox,
+            ImmutableList.of(new UpdatedFlags(uid, modSeq, oldFlags, newFlags)));
+    }
+
+}
@@ -0,0 +1,188 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.SimpleMailboxACL;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.TestId;
+import org.apache.james.mailbox.store.TestIdDeserializer;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.event.EventSerializer;
+import org.apache.james.mailbox.store.event.EventFactory.MailboxAware;
+import org.apache.james.mailbox.store.json.event.EventConverter;
+import org.apache.james.mailbox.store.json.event.MailboxConverter;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.junit.Test;
+
+public class BinaryEventSerializerTest extends EventSerializerTest {
+
+    private final EventFactory<TestId> eventFactory = new EventFactory<TestId>();
+    private final MailboxSession session = new MockMailboxSession("benwa");
+
+    @Override
+    EventSerializer createSerializer() {
+        return new BinaryEventSerializer<TestId>(new TestIdDeserializer());
+    }
+
+    @Test
+    public void metaDataShouldBeKeptForLargeUidRanges() throws Exception {
+        TreeMap<Long, MessageMetaData> metaData = new TreeMap<Long, MessageMetaData>();
+        for (long uid = 1; uid <= 10000; uid++) {
+            Flags flags = uid % 2 == 0 ? new Flags(Flags.Flag.SEEN) : new Flags("$Forwarded");
+            metaData.put(uid, new SimpleMessageMetaData(uid, 20000 - uid, flags, uid * 10, new Date(uid * 1000)));
+        }
+        MailboxListener.Added event = eventFactory.added(session, metaData, mailbox());
+
+        MailboxListener.Added deserializedEvent = (MailboxListener.Added) roundTrip(event);
+
+        assertThat(deserializedEvent.getUids()).isEqualTo(event.getUids());
+        for (long uid = 1; uid <= 10000; uid++) {
+            assertThat(deserializedEvent.getMetaData(uid)).isEqualTo(metaData.get(uid));
+            assertThat(deserializedEvent.getMetaData(uid).getFlags()).isEqualTo(metaData.get(uid).getFlags());
+            assertThat(deserializedEvent.getMetaData(uid).getInternalDate()).isEqualTo(metaData.get(uid).getInternalDate());
+        }
+    }
+
+    @Test
+    public void contiguousUidsShouldTakeAboutOneByteEach() throws Exception {
+        List<Long> uids = new ArrayList<Long>();
+        for (long uid = 1000000; uid < 1010000; uid++) {
+            uids.add(uid);
+        }
+        MailboxListener.FlagsUpdated event = eventFactory.flagsUpdated(session, uids, mailbox(), new ArrayList<UpdatedFlags>());
+
+        assertThat(createSerializer().serializeEvent(event).length).isLessThan(uids.size() + 200);
+    }
+
+    @Test
+    public void addedEventsShouldBeSmallerThanTheirJsonForm() throws Exception {
+        TreeMap<Long, MessageMetaData> metaData = new TreeMap<Long, MessageMetaData>();
+        for (long uid = 1; uid <= 100; uid++) {
+            metaData.put(uid, new SimpleMessageMetaData(uid, 1000 + uid, new Flags(Flags.Flag.RECENT), 25000, new Date()));
+        }
+        MailboxListener.Added event = eventFactory.added(session, metaData, mailbox());
+        EventSerializer jsonSerializer = new JsonEventSerializer<TestId>(
+            new EventConverter<TestId>(new MailboxConverter<TestId>(new TestIdDeserializer())));
+
+        assertThat(createSerializer().serializeEvent(event).length).isLessThan(jsonSerializer.serializeEvent(event).length / 4);
+    }
+
+    @Test
+    public void flagsUpdatesShouldBeKeptForUnorderedUids() throws Exception {
+        List<UpdatedFlags> updatedFlags = Arrays.asList(
+            new UpdatedFlags(42, 12, new Flags(Flags.Flag.RECENT), new Flags(Flags.Flag.DELETED)),
+            new UpdatedFlags(7, 11, new Flags("custom"), new Flags(Flags.Flag.ANSWERED)));
+        MailboxListener.FlagsUpdated event = eventFactory.flagsUpdated(session, Arrays.asList(42L, 7L), mailbox(), updatedFlags);
+
+        MailboxListener.FlagsUpdated deserializedEvent = (MailboxListener.FlagsUpdated) roundTrip(event);
+
+        assertThat(deserializedEvent.getUids()).containsExactly(42L, 7L);
+        assertThat(deserializedEvent.getUpdatedFlags()).hasSize(2);
+        UpdatedFlags second = deserializedEvent.getUpdatedFlags().get(1);
+        assertThat(second.getUid()).isEqualTo(7);
+        assertThat(second.getModSeq()).isEqualTo(11);
+        assertThat(second.getOldFlags()).isEqualTo(new Flags("custom"));
+        assertThat(second.getNewFlags()).isEqualTo(new Flags(Flags.Flag.ANSWERED));
+    }
+
+    @Test
+    public void mailboxShouldBeKeptWithItsAcl() throws Exception {
+        SimpleMailbox<TestId> mailbox = mailbox();
+        mailbox.setACL(SimpleMailboxACL.OWNER_FULL_ACL);
+
+        MailboxListener.Event deserializedEvent = roundTrip(eventFactory.mailboxAdded(session, mailbox));
+
+        @SuppressWarnings("unchecked")
+        SimpleMailbox<TestId> deserializedMailbox = (SimpleMailbox<TestId>) ((MailboxAware<TestId>) deserializedEvent).getMailbox();
+        assertThat(deserializedMailbox.getMailboxId()).isEqualTo(TestId.of(28L));
+        assertThat(deserializedMailbox.getUidValidity()).isEqualTo(42);
+        assertThat(deserializedMailbox.getACL()).isEqualTo(SimpleMailboxACL.OWNER_FULL_ACL);
+    }
+
+    @Test
+    public void sessionShouldBeKept() throws Exception {
+        MailboxListener.Event deserializedEvent = roundTrip(eventFactory.mailboxAdded(session, mailbox()));
+
+        MailboxSession deserializedSession = deserializedEvent.getSession();
+        assertThat(deserializedSession.getSessionId()).isEqualTo(session.getSessionId());
+        assertThat(deserializedSession.getUser().getUserName()).isEqualTo("benwa");
+        assertThat(deserializedSession.getPathDelimiter()).isEqualTo(session.getPathDelimiter());
+        assertThat(deserializedSession.getType()).isEqualTo(session.getType());
+    }
+
+    @Test
+    public void nonAsciiNamesShouldBeKept() throws Exception {
+        SimpleMailbox<TestId> mailbox = new SimpleMailbox<TestId>(new MailboxPath("#private", "benwa", "Boîte 📬 邮箱"), 42);
+        mailbox.setMailboxId(TestId.of(28L));
+
+        MailboxListener.Event deserializedEvent = roundTrip(eventFactory.mailboxAdded(session, mailbox));
+
+        assertThat(deserializedEvent.getMailboxPath().getName()).isEqualTo("Boîte 📬 邮箱");
+    }
+
+    @Test
+    public void mailboxPathsShouldBeInterned() throws Exception {
+        EventSerializer serializer = createSerializer();
+        byte[] serializedEvent = serializer.serializeEvent(eventFactory.mailboxAdded(session, mailbox()));
+
+        MailboxPath first = serializer.deSerializeEvent(serializedEvent).getMailboxPath();
+        MailboxPath second = serializer.deSerializeEvent(serializedEvent).getMailboxPath();
+
+        assertThat(second.getName()).isSameAs(first.getName());
+        assertThat(second.getUser()).isSameAs(first.getUser());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedEventsShouldBeRejected() throws Exception {
+        EventSerializer serializer = createSerializer();
+        byte[] serializedEvent = serializer.serializeEvent(eventFactory.mailboxAdded(session, mailbox()));
+
+        serializer.deSerializeEvent(Arrays.copyOf(serializedEvent, serializedEvent.length - 3));
+    }
+
+    private MailboxListener.Event roundTrip(MailboxListener.Event event) throws Exception {
+        EventSerializer serializer = createSerializer();
+        return serializer.deSerializeEvent(serializer.serializeEvent(event));
+    }
+
+    private SimpleMailbox<TestId> mailbox() {
+        SimpleMailbox<TestId> mailbox = new SimpleMailbox<TestId>(new MailboxPath("#private", "benwa", "name"), 42);
+        mailbox.setMailboxId(TestId.of(28L));
+        return mailbox;
+    }
+
+}
@@ -0,0 +1,148 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailbox.store.json;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageMetaData;
+import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.mailbox.store.SimpleMessageMetaData;
+import org.apache.james.mailbox.store.TestId;
+import org.apache.james.mailbox.store.TestIdDeserializer;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.event.EventSerializer;
+import org.apache.james.mailbox.store.json.event.EventConverter;
+import org.apache.james.mailbox.store.json.event.MailboxConverter;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link BinaryEventSerializer} with the Jackson based JSON and MessagePack serializers, on Added,
+ * FlagsUpdated and Expunged events carrying from 1 to 10000 contiguous uids.
+ *
+ * Run with the GC profiler (-prof gc, see gc.alloc.rate.norm) to compare the allocations per event. The size of
+ * the serialized events is checked by {@link BinaryEventSerializerTest}.
+ *
+ * Run it from the IDE through {@link #main(String[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventSerializerBenchmark {
+
+    @Param({"binary", "json", "messagepack"})
+    public String serializerType;
+
+    @Param({"added", "flagsUpdated", "expunged"})
+    public String eventType;
+
+    @Param({"1", "100", "10000"})
+    public int uidCount;
+
+    private EventSerializer serializer;
+    private MailboxListener.Event event;
+    private byte[] serializedEvent;
+
+    @Setup
+    public void setUp() throws Exception {
+        serializer = createSerializer();
+        event = createEvent();
+        serializedEvent = serializer.serializeEvent(event);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return serializer.serializeEvent(event);
+    }
+
+    @Benchmark
+    public MailboxListener.Event deserialize() throws Exception {
+        return serializer.deSerializeEvent(serializedEvent);
+    }
+
+    private EventSerializer createSerializer() {
+        if (serializerType.equals("binary")) {
+            return new BinaryEventSerializer<TestId>(new TestIdDeserializer());
+        }
+        EventConverter<TestId> eventConverter = new EventConverter<TestId>(new MailboxConverter<TestId>(new TestIdDeserializer()));
+        if (serializerType.equals("json")) {
+            return new JsonEventSerializer<TestId>(eventConverter);
+        }
+        return new MessagePackEventSerializer<TestId>(eventConverter);
+    }
+
+    private MailboxListener.Event createEvent() {
+        EventFactory<TestId> eventFactory = new EventFactory<TestId>();
+        MockMailboxSession session = new MockMailboxSession("benwa");
+        SimpleMailbox<TestId> mailbox = new SimpleMailbox<TestId>(new MailboxPath("#private", "benwa", "INBOX"), 42);
+        mailbox.setMailboxId(TestId.of(28L));
+        if (eventType.equals("flagsUpdated")) {
+            List<Long> uids = new ArrayList<Long>();
+            List<UpdatedFlags> updatedFlags = new ArrayList<UpdatedFlags>();
+            for (long uid = 1; uid <= uidCount; uid++) {
+                uids.add(uid);
+                updatedFlags.add(new UpdatedFlags(uid, 1000 + uid, new Flags(), new Flags(Flags.Flag.SEEN)));
+            }
+            return eventFactory.flagsUpdated(session, uids, mailbox, updatedFlags);
+        }
+        TreeMap<Long, MessageMetaData> metaData = new TreeMap<Long, MessageMetaData>();
+        for (long uid = 1; uid <= uidCount; uid++) {
+            metaData.put(uid, new SimpleMessageMetaData(uid, 1000 + uid, new Flags(Flags.Flag.RECENT), 25000, new Date()));
+        }
+        if (eventType.equals("added")) {
+            return eventFactory.added(session, metaData, mailbox);
+        }
+        return eventFactory.expunged(session, metaData, mailbox);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(EventSerializerBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+
+}
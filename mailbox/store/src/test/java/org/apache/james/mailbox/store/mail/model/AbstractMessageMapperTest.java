@@ -47,6 +47,8 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
+
 public abstract class AbstractMessageMapperTest<Id extends MailboxId> {
 
     private final static char DELIMITER = ':';
@@ -192,6 +194,16 @@ public abstract class AbstractMessageMapperTest<Id extends MailboxId> {
         assertThat(retrievedMessageIterator).containsOnly(message1, message2, message4);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void messagesCanBeRetrievedInMailboxByScatteredUids() throws MailboxException, IOException {
+        saveMessages();
+        messageMapper.delete(benwaInboxMailbox, message3);
+        Iterator<MailboxMessage<Id>> retrievedMessageIterator = messageMapper
+            .findInMailbox(benwaInboxMailbox, ImmutableList.of(message5.getUid(), message1.getUid(), message3.getUid()), MessageMapper.FetchType.Full);
+        assertThat(retrievedMessageIterator).containsExactly(message1, message5);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void messagesCanBeRetrievedInMailboxWithRangeTypeFrom() throws MailboxException, IOException {
@@ -0,0 +1,138 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxListener;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.mock.MockMailboxSession;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.store.TestId;
+import org.apache.james.mailbox.store.event.EventFactory;
+import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
+import org.apache.james.mailbox.store.mail.MessageMapperFactory;
+import org.apache.james.mailbox.store.mail.model.Mailbox;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailbox;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ListeningMessageSearchIndexTest {
+
+    private static final MailboxPath MAILBOX_PATH = new MailboxPath("#private", "user", "INBOX");
+
+    private MailboxSession session;
+    private SimpleMailbox<TestId> mailbox;
+    private MessageMapper<TestId> messageMapper;
+    private RecordingSearchIndex searchIndex;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        session = new MockMailboxSession("user");
+        mailbox = new SimpleMailbox<TestId>(MAILBOX_PATH, 42);
+        mailbox.setMailboxId(TestId.of(1));
+        messageMapper = mock(MessageMapper.class);
+        MessageMapperFactory<TestId> factory = mock(MessageMapperFactory.class);
+        when(factory.getMessageMapper(session)).thenReturn(messageMapper);
+        searchIndex = new RecordingSearchIndex(factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void eventsDroppedShouldReIndexTheMailbox() throws Exception {
+        MailboxMessage<TestId> message1 = mock(MailboxMessage.class);
+        MailboxMessage<TestId> message2 = mock(MailboxMessage.class);
+        when(messageMapper.findInMailbox(mailbox, MessageRange.all(), FetchType.Full, -1))
+            .thenReturn(ImmutableList.of(message1, message2).iterator());
+
+        searchIndex.eventsDropped(new DroppedEvent());
+
+        assertThat(searchIndex.deletedRanges).containsExactly(MessageRange.all());
+        assertThat(searchIndex.addedMessages).containsExactly(message1, message2);
+    }
+
+    @Test
+    public void eventsDroppedShouldIgnoreEventsWithoutMailbox() throws Exception {
+        searchIndex.eventsDropped(new MailboxListener.Event(session, MAILBOX_PATH) {});
+
+        assertThat(searchIndex.deletedRanges).isEmpty();
+        assertThat(searchIndex.addedMessages).isEmpty();
+    }
+
+    private class DroppedEvent extends MailboxListener.Event implements EventFactory.MailboxAware<TestId> {
+
+        public DroppedEvent() {
+            super(session, MAILBOX_PATH);
+        }
+
+        @Override
+        public Mailbox<TestId> getMailbox() {
+            return mailbox;
+        }
+    }
+
+    private static class RecordingSearchIndex extends ListeningMessageSearchIndex<TestId> {
+        private final List<MailboxMessage<TestId>> addedMessages = new ArrayList<MailboxMessage<TestId>>();
+        private final List<MessageRange> deletedRanges = new ArrayList<MessageRange>();
+
+        public RecordingSearchIndex(MessageMapperFactory<TestId> factory) {
+            super(factory);
+        }
+
+        @Override
+        public ListenerType getType() {
+            return ListenerType.EACH_NODE;
+        }
+
+        @Override
+        public Iterator<Long> search(MailboxSession session, Mailbox<TestId> mailbox, SearchQuery searchQuery) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(MailboxSession session, Mailbox<TestId> mailbox, MailboxMessage<TestId> message) {
+            addedMessages.add(message);
+        }
+
+        @Override
+        public void delete(MailboxSession session, Mailbox<TestId> mailbox, MessageRange range) {
+            deletedRanges.add(range);
+        }
+
+        @Override
+        public void update(MailboxSession session, Mailbox<TestId> mailbox, MessageRange range, Flags flags, long modseq) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailbox.store.search;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.store.MessageBuilder;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class MessageSearchesTest {
+
+    private static final int MESSAGE_COUNT = 1000;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void searchShouldReturnTheSameUidsWhenMatchingConcurrently() throws Exception {
+        SearchQuery query = new SearchQuery();
+        query.andCriteria(SearchQuery.flagIsSet(Flags.Flag.SEEN));
+
+        List<Long> concurrentUids = ImmutableList.copyOf(new MessageSearches(messages(MESSAGE_COUNT).iterator(), query, null, executor));
+        List<Long> sequentialUids = ImmutableList.copyOf(new MessageSearches(messages(MESSAGE_COUNT).iterator(), query));
+
+        assertThat(concurrentUids).hasSize(MESSAGE_COUNT / 2)
+            .isSorted()
+            .isEqualTo(sequentialUids);
+    }
+
+    @Test
+    public void searchShouldMatchASingleChunkOfCandidatesInTheCallingThread() throws Exception {
+        CountingExecutor countingExecutor = new CountingExecutor();
+
+        List<Long> uids = ImmutableList.copyOf(new MessageSearches(messages(10).iterator(), new SearchQuery(), null, countingExecutor));
+
+        assertThat(uids).hasSize(10);
+        assertThat(countingExecutor.submittedTasks.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void searchShouldMatchSeveralChunksOfCandidatesOnTheExecutor() throws Exception {
+        CountingExecutor countingExecutor = new CountingExecutor();
+
+        List<Long> uids = ImmutableList.copyOf(new MessageSearches(messages(MESSAGE_COUNT).iterator(), new SearchQuery(), null, countingExecutor));
+
+        assertThat(uids).hasSize(MESSAGE_COUNT);
+        assertThat(countingExecutor.submittedTasks.get()).isGreaterThan(1);
+    }
+
+    @Test
+    public void searchShouldReturnNoUidsWhenThereAreNoCandidates() throws Exception {
+        List<MailboxMessage<?>> noMessages = ImmutableList.of();
+
+        assertThat(ImmutableList.copyOf(new MessageSearches(noMessages.iterator(), new SearchQuery(), null, executor))).isEmpty();
+    }
+
+    private List<MailboxMessage<?>> messages(int count) throws Exception {
+        List<MailboxMessage<?>> messages = new ArrayList<MailboxMessage<?>>();
+        for (int uid = 1; uid <= count; uid++) {
+            MessageBuilder builder = new MessageBuilder();
+            builder.uid = uid;
+            if (uid % 2 == 0) {
+                builder.flags.add(Flags.Flag.SEEN);
+            }
+            messages.add(builder.build());
+        }
+        return messages;
+    }
+
+    /**
+     * Runs the submitted tasks in the calling thread, counting them
+     */
+    private static class CountingExecutor extends AbstractExecutorService {
+        private final AtomicInteger submittedTasks = new AtomicInteger();
+
+        public void execute(Runnable command) {
+            submittedTasks.incrementAndGet();
+            command.run();
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return ImmutableList.of();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
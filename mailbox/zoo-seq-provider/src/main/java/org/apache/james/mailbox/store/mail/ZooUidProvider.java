@@ -69,6 +69,22 @@ public class ZooUidProvider<E extends MailboxId> implements UidProvider<E> {
         throw new MailboxException("Curator client is closed.");
     }
 
+    @Override
+    public long nextUids(MailboxSession session, Mailbox<E> mailbox, int count) throws MailboxException {
+        if (client.getState() == CuratorFrameworkState.STARTED) {
+            DistributedAtomicLong uid = new DistributedAtomicLong(client, pathForMailbox(mailbox), retryPolicy);
+            try {
+                AtomicValue<Long> value = uid.add((long) count);
+                if (value.succeeded()) {
+                    return value.postValue() - count + 1;
+                }
+            } catch (Exception e) {
+                throw new MailboxException("Exception reserving UIDs for session " + session, e);
+            }
+        }
+        throw new MailboxException("Curator client is closed.");
+    }
+
     @Override
     public long lastUid(MailboxSession session, Mailbox<E> mailbox) throws MailboxException {
         if (client.getState() == CuratorFrameworkState.STARTED) {
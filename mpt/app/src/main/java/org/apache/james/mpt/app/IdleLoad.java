@@ -0,0 +1,325 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mpt.app;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * <p>Load test keeping a large count of IMAP sessions in IDLE.</p>
+ * <p>Each session logs in, selects INBOX and enters IDLE, then stays there until the end of the
+ * run while the untagged responses it receives (heartbeats and mailbox updates) are counted.
+ * All the sessions are driven by a single selector, so tens of thousands of them can be
+ * simulated from one process.</p>
+ * <p>The user name may contain a <code>%d</code> which is replaced by the index of the session,
+ * to spread the sessions over several users.</p>
+ */
+public class IdleLoad {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final long REPORT_INTERVAL_IN_MILLIS = 10000;
+    private static final int CONNECTIONS_PER_ROUND = 200;
+
+    private static final char PORT_OPTION = 'p';
+    private static final char HOST_OPTION = 'h';
+    private static final char SESSIONS_OPTION = 'n';
+    private static final char USER_OPTION = 'u';
+    private static final char PASSWORD_OPTION = 'w';
+    private static final char DURATION_OPTION = 'd';
+
+    private enum State {
+        GREETING, LOGIN, SELECT, IDLE, IDLING, FAILED
+    }
+
+    private static class IdleSession {
+        private final SocketChannel channel;
+        private final String user;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+        private final StringBuilder line = new StringBuilder();
+        private State state = State.GREETING;
+
+        private IdleSession(SocketChannel channel, String user) {
+            this.channel = channel;
+            this.user = user;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final int sessionCount;
+    private final String user;
+    private final String password;
+    private final long durationInMillis;
+
+    private int opened;
+    private int idling;
+    private int failed;
+    private long untaggedWhileIdling;
+
+    public IdleLoad(InetSocketAddress address, int sessionCount, String user, String password, long durationInMillis) {
+        this.address = address;
+        this.sessionCount = sessionCount;
+        this.user = user;
+        this.password = password;
+        this.durationInMillis = durationInMillis;
+    }
+
+    /**
+     * Open the sessions then keep them in IDLE for the configured duration
+     */
+    public void run() throws IOException {
+        final Selector selector = Selector.open();
+        try {
+            final long end = System.currentTimeMillis() + durationInMillis;
+            long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_IN_MILLIS;
+            while (System.currentTimeMillis() < end) {
+                openSessions(selector);
+                selector.select(100);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                if (System.currentTimeMillis() >= nextReport) {
+                    report();
+                    nextReport += REPORT_INTERVAL_IN_MILLIS;
+                }
+            }
+            report();
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    private void openSessions(Selector selector) {
+        // Ramp up progressively to not overflow the server backlog
+        for (int i = 0; i < CONNECTIONS_PER_ROUND && opened < sessionCount; i++) {
+            final String sessionUser = String.format(user, opened);
+            opened++;
+            try {
+                final SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, new IdleSession(channel, sessionUser));
+            } catch (IOException e) {
+                failed++;
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        final IdleSession session = (IdleSession) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                session.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (key.isReadable()) {
+                read(session);
+            }
+        } catch (IOException e) {
+            fail(key, session);
+        }
+        if (session.state == State.FAILED) {
+            fail(key, session);
+        }
+    }
+
+    private void read(IdleSession session) throws IOException {
+        final int read = session.channel.read(session.readBuffer);
+        if (read < 0) {
+            session.state = State.FAILED;
+            return;
+        }
+        session.readBuffer.flip();
+        while (session.readBuffer.hasRemaining()) {
+            final char next = (char) session.readBuffer.get();
+            if (next == '\n') {
+                onLine(session, session.line.toString());
+                session.line.setLength(0);
+            } else if (next != '\r') {
+                session.line.append(next);
+            }
+        }
+        session.readBuffer.clear();
+    }
+
+    private void onLine(IdleSession session, String line) throws IOException {
+        switch (session.state) {
+        case GREETING:
+            if (line.startsWith("* OK")) {
+                write(session, "a1 LOGIN " + session.user + " " + password);
+                session.state = State.LOGIN;
+            }
+            break;
+        case LOGIN:
+            session.state = expectOk(line, "a1", State.LOGIN, State.SELECT);
+            if (session.state == State.SELECT) {
+                write(session, "a2 SELECT INBOX");
+            }
+            break;
+        case SELECT:
+            session.state = expectOk(line, "a2", State.SELECT, State.IDLE);
+            if (session.state == State.IDLE) {
+                write(session, "a3 IDLE");
+            }
+            break;
+        case IDLE:
+            if (line.startsWith("+")) {
+                session.state = State.IDLING;
+                idling++;
+            } else if (line.startsWith("a3 ")) {
+                session.state = State.FAILED;
+            }
+            break;
+        case IDLING:
+            if (line.startsWith("* ")) {
+                untaggedWhileIdling++;
+            } else {
+                idling--;
+                session.state = State.FAILED;
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private State expectOk(String line, String tag, State current, State next) {
+        if (!line.startsWith(tag + " ")) {
+            // untagged response
+            return current;
+        }
+        if (line.startsWith(tag + " OK")) {
+            return next;
+        }
+        return State.FAILED;
+    }
+
+    private void write(IdleSession session, String command) throws IOException {
+        final ByteBuffer buffer = ASCII.encode(command + "\r\n");
+        while (buffer.hasRemaining()) {
+            session.channel.write(buffer);
+        }
+    }
+
+    private void fail(SelectionKey key, IdleSession session) {
+        if (key.isValid()) {
+            key.cancel();
+            failed++;
+            if (session.state == State.IDLING) {
+                idling--;
+            }
+            try {
+                session.channel.close();
+            } catch (IOException e) {
+                // Nothing to do, the session is already counted as failed
+            }
+        }
+    }
+
+    private void report() {
+        System.out.println("opened=" + opened + " idling=" + idling + " failed=" + failed + " untagged=" + untaggedWhileIdling);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = buildOptions();
+        try {
+            final CommandLine cmd = new GnuParser().parse(options, args);
+            final InetSocketAddress address = new InetSocketAddress(cmd.getOptionValue(HOST_OPTION, "localhost"),
+                    Integer.parseInt(cmd.getOptionValue(PORT_OPTION)));
+            new IdleLoad(address,
+                    Integer.parseInt(cmd.getOptionValue(SESSIONS_OPTION, "10000")),
+                    cmd.getOptionValue(USER_OPTION),
+                    cmd.getOptionValue(PASSWORD_OPTION),
+                    Long.parseLong(cmd.getOptionValue(DURATION_OPTION, "600")) * 1000).run();
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            new HelpFormatter().printHelp("idleload", options);
+            System.exit(-1);
+        } catch (NumberFormatException e) {
+            System.out.println("Port, sessions and duration must be numeric");
+            System.exit(-1);
+        }
+    }
+
+    @SuppressWarnings("static-access")
+    private static Options buildOptions() {
+        final Options options = new Options();
+        options.addOption(OptionBuilder
+                    .withArgName("port")
+                    .hasArg()
+                    .withDescription("runs against this port")
+                    .withLongOpt("port")
+                    .isRequired()
+                    .create(PORT_OPTION));
+        options.addOption(OptionBuilder
+                    .withArgName("host")
+                    .hasArg()
+                    .withDescription("runs against this host (defaults to localhost)")
+                    .withLongOpt("host")
+                    .isRequired(false)
+                    .create(HOST_OPTION));
+        options.addOption(OptionBuilder
+                    .withArgName("sessions")
+                    .hasArg()
+                    .withDescription("count of IDLE sessions to open (defaults to 10000)")
+                    .withLongOpt("sessions")
+                    .isRequired(false)
+                    .create(SESSIONS_OPTION));
+        options.addOption(OptionBuilder
+                    .withArgName("user")
+                    .hasArg()
+                    .withDescription("user to log in with, %d is replaced by the session index")
+                    .withLongOpt("user")
+                    .isRequired()
+                    .create(USER_OPTION));
+        options.addOption(OptionBuilder
+                    .withArgName("password")
+                    .hasArg()
+                    .withDescription("password of the users")
+                    .withLongOpt("password")
+                    .isRequired()
+                    .create(PASSWORD_OPTION));
+        options.addOption(OptionBuilder
+                    .withArgName("seconds")
+                    .hasArg()
+                    .withDescription("duration of the run (defaults to 600)")
+                    .withLongOpt("duration")
+                    .isRequired(false)
+                    .create(DURATION_OPTION));
+        return options;
+    }
+}
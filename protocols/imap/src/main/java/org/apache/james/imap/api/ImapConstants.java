@@ -177,6 +177,10 @@ public interface ImapConstants {
 
     String SEARCH_COMMAND_NAME = "SEARCH";
 
+    String SORT_COMMAND_NAME = "SORT";
+
+    String THREAD_COMMAND_NAME = "THREAD";
+
     String RENAME_COMMAND_NAME = "RENAME";
 
     String NOOP_COMMAND_NAME = "NOOP";
@@ -243,6 +247,10 @@ public interface ImapConstants {
 
     String SEARCH_RESPONSE_NAME = "SEARCH";
 
+    String SORT_RESPONSE_NAME = "SORT";
+
+    String THREAD_RESPONSE_NAME = "THREAD";
+
     String ACL_RESPONSE_NAME = "ACL";
 
     String QUOTA_RESPONSE_NAME = "QUOTA";
@@ -0,0 +1,118 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.api.message.request;
+
+/**
+ * A SORT criterion. See RFC5256 and RFC5957
+ */
+public final class SortKey {
+
+    public enum Type {
+        /**
+         * Internal date and time of the message
+         */
+        ARRIVAL,
+
+        /**
+         * addr-mailbox of the first "Cc" address
+         */
+        CC,
+
+        /**
+         * Sent date and time of the message, from the Date header
+         */
+        DATE,
+
+        /**
+         * addr-mailbox of the first "From" address
+         */
+        FROM,
+
+        /**
+         * Size of the message in octets
+         */
+        SIZE,
+
+        /**
+         * Base subject of the message
+         */
+        SUBJECT,
+
+        /**
+         * addr-mailbox of the first "To" address
+         */
+        TO,
+
+        /**
+         * Display name of the first "From" address. See RFC5957
+         */
+        DISPLAYFROM,
+
+        /**
+         * Display name of the first "To" address. See RFC5957
+         */
+        DISPLAYTO
+    }
+
+    private final Type type;
+    private final boolean reverse;
+
+    public SortKey(Type type, boolean reverse) {
+        this.type = type;
+        this.reverse = reverse;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Return true if the criterion was prefixed by REVERSE
+     * 
+     * @return reverse
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + (reverse ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SortKey)) {
+            return false;
+        }
+        SortKey other = (SortKey) obj;
+        return type == other.type && reverse == other.reverse;
+    }
+
+    @Override
+    public String toString() {
+        if (reverse) {
+            return "REVERSE " + type;
+        }
+        return type.toString();
+    }
+}
@@ -0,0 +1,72 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.api.process;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Lets a processor load data ahead of the responses it writes, and complete a request asynchronously instead of
+ * blocking its thread while the client is slow to read the responses.
+ */
+public interface ImapPipeline {
+
+    /**
+     * Return the {@link Executor} on which the data of the next responses can be loaded
+     * 
+     * @return executor
+     */
+    Executor getExecutor();
+
+    /**
+     * Return the count of batches of responses which can be loaded ahead of the one being written
+     * 
+     * @return window
+     */
+    int getPrefetchWindow();
+
+    /**
+     * Return true if the client reads the responses fast enough for more to be written. Otherwise the written
+     * responses are only buffered.
+     * 
+     * @return writable
+     */
+    boolean isWritable();
+
+    /**
+     * Run the given task once the session is writable again. The task may be run by an I/O thread, or right away
+     * by the calling thread, so it must not block.
+     * 
+     * @param task
+     */
+    void whenWritable(Runnable task);
+
+    /**
+     * Hold back the next requests of the session until {@link #resume()} is called, because the current one
+     * completes asynchronously
+     */
+    void suspend();
+
+    /**
+     * Process the requests held back since {@link #suspend()} was called. Must be called once the asynchronous
+     * request wrote its tagged response.
+     */
+    void resume();
+
+}
@@ -176,4 +176,12 @@ public interface ImapSession {
      */
     boolean isPlainAuthDisallowed();
 
+    /**
+     * Return the {@link ImapPipeline} used to complete requests asynchronously, or null if the requests of this
+     * session must be completed by the thread processing them
+     * 
+     * @return pipeline
+     */
+    ImapPipeline getPipeline();
+
 }
@@ -80,13 +80,15 @@ public class ImapParserFactory implements ImapCommandParserFactory {
         _imapCommands.put(ImapConstants.MYRIGHTS_COMMAND_NAME, MyRightsCommandParser.class );
 
         // Commands only valid in SELECTED state.
-        // CHECK, CLOSE, EXPUNGE, SEARCH, FETCH, STORE, COPY, UID and IDLE
+        // CHECK, CLOSE, EXPUNGE, SEARCH, SORT, THREAD, FETCH, STORE, COPY, UID and IDLE
         _imapCommands.put(ImapConstants.CHECK_COMMAND_NAME, CheckCommandParser.class);
         _imapCommands.put(ImapConstants.CLOSE_COMMAND_NAME, CloseCommandParser.class);
         _imapCommands.put(ImapConstants.EXPUNGE_COMMAND_NAME, ExpungeCommandParser.class);
         _imapCommands.put(ImapConstants.COPY_COMMAND_NAME, CopyCommandParser.class);
         _imapCommands.put(ImapConstants.MOVE_COMMAND_NAME, MoveCommandParser.class);
         _imapCommands.put(ImapConstants.SEARCH_COMMAND_NAME, SearchCommandParser.class);
+        _imapCommands.put(ImapConstants.SORT_COMMAND_NAME, SortCommandParser.class);
+        _imapCommands.put(ImapConstants.THREAD_COMMAND_NAME, ThreadCommandParser.class);
         _imapCommands.put(ImapConstants.FETCH_COMMAND_NAME, FetchCommandParser.class);
         _imapCommands.put(ImapConstants.STORE_COMMAND_NAME, StoreCommandParser.class);
         _imapCommands.put(ImapConstants.UID_COMMAND_NAME, UidCommandParser.class);
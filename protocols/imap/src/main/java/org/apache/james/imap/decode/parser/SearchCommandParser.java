@@ -50,7 +50,11 @@ import org.apache.james.protocols.imap.DecodingException;
 public class SearchCommandParser extends AbstractUidCommandParser {
 
     public SearchCommandParser() {
-        super(ImapCommand.selectedStateCommand(ImapConstants.SEARCH_COMMAND_NAME));
+        this(ImapCommand.selectedStateCommand(ImapConstants.SEARCH_COMMAND_NAME));
+    }
+
+    protected SearchCommandParser(ImapCommand command) {
+        super(command);
     }
 
     /**
@@ -885,15 +889,27 @@ public class SearchCommandParser extends AbstractUidCommandParser {
     }
 
     public SearchKey decode(ImapSession session, ImapRequestLineReader request) throws DecodingException, IllegalCharsetNameException, UnsupportedCharsetException {
+        return decode(session, request, null, true);
+    }
+
+    /**
+     * Parses the search criteria which end the request.
+     * 
+     * @param charset
+     *            <code>Charset</code> given before the criteria, or null if there is none
+     * @param allowCharset
+     *            true if the criteria may start with a CHARSET key
+     */
+    protected SearchKey decode(ImapSession session, ImapRequestLineReader request, Charset charset, boolean allowCharset) throws DecodingException, IllegalCharsetNameException, UnsupportedCharsetException {
         request.nextWordChar();
-        final SearchKey firstKey = searchKey(session, request, null, true);
+        final SearchKey firstKey = searchKey(session, request, charset, allowCharset);
         final SearchKey result;
         if (request.nextChar() == ' ') {
             List<SearchKey> keys = new ArrayList<SearchKey>();
             keys.add(firstKey);
             while (request.nextChar() == ' ') {
                 request.nextWordChar();
-                final SearchKey key = searchKey(session, request, null, false);
+                final SearchKey key = searchKey(session, request, charset, false);
                 keys.add(key);
             }
             result = SearchKey.buildAnd(keys);
@@ -904,7 +920,7 @@ public class SearchCommandParser extends AbstractUidCommandParser {
         return result;
     }
 
-    private ImapMessage unsupportedCharset(final String tag, final ImapCommand command) {
+    protected ImapMessage unsupportedCharset(final String tag, final ImapCommand command) {
         final StatusResponseFactory factory = getStatusResponseFactory();
         final ResponseCode badCharset = StatusResponse.ResponseCode.badCharset(CharsetUtil.getAvailableCharsetNames());
         return factory.taggedNo(tag, command, HumanReadableText.BAD_CHARSET, badCharset);
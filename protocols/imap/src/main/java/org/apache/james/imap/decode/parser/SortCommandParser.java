@@ -0,0 +1,101 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.decode.parser;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.james.imap.api.ImapCommand;
+import org.apache.james.imap.api.ImapConstants;
+import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.api.display.HumanReadableText;
+import org.apache.james.imap.api.message.request.SearchKey;
+import org.apache.james.imap.api.message.request.SortKey;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.imap.message.request.SortRequest;
+import org.apache.james.protocols.imap.DecodingException;
+
+/**
+ * Parse SORT commands. See RFC5256
+ */
+public class SortCommandParser extends SearchCommandParser {
+
+    private static final String REVERSE = "REVERSE";
+
+    public SortCommandParser() {
+        super(ImapCommand.selectedStateCommand(ImapConstants.SORT_COMMAND_NAME));
+    }
+
+    protected ImapMessage decode(ImapCommand command, ImapRequestLineReader request, String tag, boolean useUids, ImapSession session) throws DecodingException {
+        try {
+            final List<SortKey> sortKeys = sortKeys(request);
+            request.nextWordChar();
+            final Charset charset = Charset.forName(request.astring());
+            final SearchKey searchKey = decode(session, request, charset, false);
+            return new SortRequest(command, sortKeys, searchKey, useUids, tag);
+        } catch (IllegalCharsetNameException e) {
+            session.getLog().debug("Unable to decode request", e);
+            return unsupportedCharset(tag, command);
+        } catch (UnsupportedCharsetException e) {
+            session.getLog().debug("Unable to decode request", e);
+            return unsupportedCharset(tag, command);
+        }
+    }
+
+    /**
+     * Parses the parenthesized list of sort criteria
+     */
+    private List<SortKey> sortKeys(ImapRequestLineReader request) throws DecodingException {
+        final List<SortKey> sortKeys = new ArrayList<SortKey>();
+        request.nextWordChar();
+        request.consumeChar('(');
+        boolean reverse = false;
+        while (request.nextWordChar() != ')') {
+            final String criterion = request.atom();
+            if (REVERSE.equalsIgnoreCase(criterion)) {
+                if (reverse) {
+                    throw new DecodingException(HumanReadableText.ILLEGAL_ARGUMENTS, "REVERSE must be followed by a sort criterion");
+                }
+                reverse = true;
+            } else {
+                sortKeys.add(new SortKey(sortKeyType(criterion), reverse));
+                reverse = false;
+            }
+        }
+        request.consumeChar(')');
+        if (reverse || sortKeys.isEmpty()) {
+            throw new DecodingException(HumanReadableText.ILLEGAL_ARGUMENTS, "Invalid sort criteria");
+        }
+        return sortKeys;
+    }
+
+    private SortKey.Type sortKeyType(String criterion) throws DecodingException {
+        try {
+            return SortKey.Type.valueOf(criterion.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new DecodingException(HumanReadableText.ILLEGAL_ARGUMENTS, "Unknown sort criterion: '" + criterion + "'");
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.encode;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.james.imap.api.ImapConstants;
+import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.encode.base.AbstractChainedImapEncoder;
+import org.apache.james.imap.message.response.ThreadResponse;
+import org.apache.james.imap.message.response.ThreadResponse.Node;
+
+/**
+ * Encodes <code>THREAD</code> responses. See RFC5256
+ * 
+ * <pre>
+ * thread-list     = "(" (thread-members / thread-nested) ")"
+ * thread-members  = nz-number *(SP nz-number) [SP thread-nested]
+ * thread-nested   = 2*thread-list
+ * </pre>
+ */
+public class ThreadResponseEncoder extends AbstractChainedImapEncoder {
+
+    public ThreadResponseEncoder(ImapEncoder next) {
+        super(next);
+    }
+
+    protected void doEncode(ImapMessage acceptableMessage, ImapResponseComposer composer, ImapSession session) throws IOException {
+        ThreadResponse response = (ThreadResponse) acceptableMessage;
+        composer.untagged();
+        composer.message(ImapConstants.THREAD_RESPONSE_NAME);
+        threadLists(composer, response.getThreads());
+        composer.end();
+    }
+
+    private void threadLists(ImapResponseComposer composer, List<Node> nodes) throws IOException {
+        boolean first = true;
+        for (Node node : nodes) {
+            if (!first) {
+                // thread-list are not separated by spaces
+                composer.skipNextSpace();
+            }
+            composer.openParen();
+            threadMembers(composer, node);
+            composer.closeParen();
+            first = false;
+        }
+    }
+
+    private void threadMembers(ImapResponseComposer composer, Node node) throws IOException {
+        composer.message(node.getId());
+        List<Node> children = node.getChildren();
+        if (children.size() == 1) {
+            threadMembers(composer, children.get(0));
+        } else if (children.size() > 1) {
+            threadLists(composer, children);
+        }
+    }
+
+    protected boolean isAcceptable(ImapMessage message) {
+        return (message instanceof ThreadResponse);
+    }
+}
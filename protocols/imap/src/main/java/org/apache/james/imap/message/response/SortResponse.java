@@ -0,0 +1,67 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.message.response;
+
+import java.util.Arrays;
+
+import org.apache.james.imap.api.message.response.ImapResponseMessage;
+
+/**
+ * A <code>SORT</code> response. See RFC5256
+ */
+public class SortResponse implements ImapResponseMessage {
+    private final long[] ids;
+
+    /**
+     * Constructs a <code>SORT</code> response.
+     * 
+     * @param ids sorted ids, not null
+     */
+    public SortResponse(final long[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Gets the ids returned by this sort, in the requested order.
+     * 
+     * @return the ids, not null
+     */
+    public final long[] getIds() {
+        return ids;
+    }
+
+    public int hashCode() {
+        return ids.length;
+    }
+
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final SortResponse other = (SortResponse) obj;
+        return Arrays.equals(ids, other.ids);
+    }
+
+    public String toString() {
+        return "SortResponse ( ids = " + Arrays.toString(ids) + " )";
+    }
+}
@@ -0,0 +1,108 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.message.response;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.james.imap.api.message.response.ImapResponseMessage;
+
+/**
+ * A <code>THREAD</code> response. See RFC5256
+ */
+public class ThreadResponse implements ImapResponseMessage {
+
+    /**
+     * A message of a thread, along with its children
+     */
+    public static final class Node {
+        private final long id;
+        private final List<Node> children;
+
+        public Node(long id, List<Node> children) {
+            this.id = id;
+            this.children = children;
+        }
+
+        public Node(long id) {
+            this(id, Collections.<Node>emptyList());
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        public int hashCode() {
+            return (int) (id ^ (id >>> 32)) * 31 + children.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Node))
+                return false;
+            final Node other = (Node) obj;
+            return id == other.id && children.equals(other.children);
+        }
+
+        public String toString() {
+            if (children.isEmpty()) {
+                return String.valueOf(id);
+            }
+            return id + " " + children;
+        }
+    }
+
+    private final List<Node> threads;
+
+    /**
+     * Constructs a <code>THREAD</code> response.
+     * 
+     * @param threads the root of each thread, not null
+     */
+    public ThreadResponse(final List<Node> threads) {
+        this.threads = threads;
+    }
+
+    public final List<Node> getThreads() {
+        return threads;
+    }
+
+    public int hashCode() {
+        return threads.hashCode();
+    }
+
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        return threads.equals(((ThreadResponse) obj).threads);
+    }
+
+    public String toString() {
+        return "ThreadResponse ( threads = " + threads + " )";
+    }
+}
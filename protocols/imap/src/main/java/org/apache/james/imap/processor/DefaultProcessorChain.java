@@ -67,10 +67,13 @@ public class DefaultProcessorChain {
         final NoopProcessor noopProcessor = new NoopProcessor(storeProcessor, mailboxManager, statusResponseFactory);
         final IdleProcessor idleProcessor;
         if (idleKeepAlive > 0) {
-            idleProcessor = new IdleProcessor(noopProcessor, mailboxManager, statusResponseFactory, idleKeepAlive, milliseconds, Executors.newScheduledThreadPool(IdleProcessor.DEFAULT_SCHEDULED_POOL_CORE_SIZE));
+            // One heartbeat wheel, ticked by a single thread, for all the sessions of the chain
+            final IdleHeartbeatService heartbeatService = new IdleHeartbeatService(idleKeepAlive, milliseconds, IdleHeartbeatService.DEFAULT_WHEEL_SIZE,
+                Executors.newSingleThreadScheduledExecutor(), IdleHeartbeatService.DEFAULT_JMX_NAME);
+            idleProcessor = new IdleProcessor(noopProcessor, mailboxManager, statusResponseFactory, heartbeatService);
         } else {
             // We don't want to send keep alives so now scheduled executur needed
-            idleProcessor = new IdleProcessor(noopProcessor, mailboxManager, statusResponseFactory, idleKeepAlive, milliseconds, null);
+            idleProcessor = new IdleProcessor(noopProcessor, mailboxManager, statusResponseFactory, null);
         }
         final StatusProcessor statusProcessor = new StatusProcessor(idleProcessor, mailboxManager, statusResponseFactory);
         final LSubProcessor lsubProcessor = new LSubProcessor(statusProcessor, mailboxManager, subscriptionManager, statusResponseFactory);
@@ -79,8 +82,12 @@ public class DefaultProcessorChain {
         final SearchProcessor searchProcessor = new SearchProcessor(listProcessor, mailboxManager, statusResponseFactory);
         // WITHIN extension
         capabilityProcessor.addProcessor(searchProcessor);
+        final SortProcessor sortProcessor = new SortProcessor(searchProcessor, mailboxManager, statusResponseFactory);
+        capabilityProcessor.addProcessor(sortProcessor);
+        final ThreadProcessor threadProcessor = new ThreadProcessor(sortProcessor, mailboxManager, statusResponseFactory);
+        capabilityProcessor.addProcessor(threadProcessor);
 
-        final SelectProcessor selectProcessor = new SelectProcessor(searchProcessor, mailboxManager, statusResponseFactory);
+        final SelectProcessor selectProcessor = new SelectProcessor(threadProcessor, mailboxManager, statusResponseFactory);
         final NamespaceProcessor namespaceProcessor = new NamespaceProcessor(selectProcessor, mailboxManager, statusResponseFactory);
 
         capabilityProcessor.addProcessor(xlistProcessor);
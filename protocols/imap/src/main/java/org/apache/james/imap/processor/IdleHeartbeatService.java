@@ -0,0 +1,236 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.processor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Sends the IDLE heartbeats of all the sessions from a single hashed timer wheel.
+ * 
+ * Instead of one scheduled task per IDLE-ing session, the registered heartbeats are spread over the
+ * <code>wheelSize</code> slots of a wheel which advances by one slot every <code>interval / wheelSize</code>.
+ * On each tick the heartbeats of the current slot are sent as one batch, and stay in that slot for the next
+ * turn of the wheel. Only the ticking thread touches the slots, new registrations are handed over through a
+ * queue and cancelled ones are dropped when their slot comes up.
+ * 
+ * A heartbeat is thus sent every <code>interval</code>, the first one after between <code>interval</code> and
+ * <code>interval</code> plus one tick.
+ */
+public class IdleHeartbeatService implements IdleHeartbeatServiceMBean {
+
+    public final static int DEFAULT_WHEEL_SIZE = 128;
+    public final static String DEFAULT_JMX_NAME = "org.apache.james:type=component,name=imapidle";
+
+    /**
+     * A heartbeat to send periodically
+     */
+    public interface Heartbeat {
+
+        /**
+         * Send the heartbeat
+         * 
+         * @return false if the session is gone and no more heartbeat should be sent
+         */
+        boolean beat();
+    }
+
+    /**
+     * Handle on a registered {@link Heartbeat}
+     */
+    public interface Registration {
+
+        /**
+         * Stop sending the heartbeat. Calling it more than once has no effect.
+         */
+        void cancel();
+    }
+
+    private final long tickInMillis;
+    private final long intervalInMillis;
+    private final List<List<Subscription>> wheel;
+    private final Queue<Subscription> pendingRegistrations = new ConcurrentLinkedQueue<Subscription>();
+    private final AtomicInteger idleSessionCount = new AtomicInteger();
+    private final AtomicLong heartbeatCount = new AtomicLong();
+    private final ScheduledExecutorService ticker;
+    private final String jmxName;
+    private boolean registered = false;
+    private long tick = 0;
+
+    public IdleHeartbeatService(long interval, TimeUnit unit) {
+        this(interval, unit, DEFAULT_WHEEL_SIZE, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "imap-idle-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }), null);
+    }
+
+    /**
+     * @param ticker executor used to advance the wheel, only one of its threads is used at once
+     * @param jmxName name to register the service under, or null to not register it. If the name is already
+     *                taken, for example by the service of another processor chain, the service is not registered
+     */
+    public IdleHeartbeatService(long interval, TimeUnit unit, int wheelSize, ScheduledExecutorService ticker, String jmxName) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive");
+        }
+        this.intervalInMillis = unit.toMillis(interval);
+        final int slots = (int) Math.max(1, Math.min(wheelSize, intervalInMillis));
+        this.tickInMillis = intervalInMillis / slots;
+        this.wheel = new ArrayList<List<Subscription>>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ArrayList<Subscription>());
+        }
+        this.ticker = ticker;
+        this.jmxName = jmxName;
+        registerMBean();
+        ticker.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                tick();
+            }
+        }, tickInMillis, tickInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the given heartbeat every interval until the returned {@link Registration} is cancelled
+     * or the heartbeat reports its session is gone
+     */
+    public Registration register(Heartbeat heartbeat) {
+        final Subscription subscription = new Subscription(heartbeat);
+        idleSessionCount.incrementAndGet();
+        pendingRegistrations.add(subscription);
+        return subscription;
+    }
+
+    public int getIdleSessionCount() {
+        return idleSessionCount.get();
+    }
+
+    public long getHeartbeatCount() {
+        return heartbeatCount.get();
+    }
+
+    public long getHeartbeatIntervalInMillis() {
+        return intervalInMillis;
+    }
+
+    /**
+     * Stop sending heartbeats
+     */
+    public void dispose() {
+        ticker.shutdownNow();
+        unregisterMBean();
+    }
+
+    private void tick() {
+        final List<Subscription> slot = wheel.get((int) (tick++ % wheel.size()));
+        long sent = 0;
+        final Iterator<Subscription> subscriptions = slot.iterator();
+        while (subscriptions.hasNext()) {
+            final Subscription subscription = subscriptions.next();
+            if (subscription.isActive() && subscription.beat()) {
+                sent++;
+            } else {
+                subscriptions.remove();
+            }
+        }
+        heartbeatCount.addAndGet(sent);
+
+        // Registered during the last tick, so their first heartbeat is one turn of the wheel away
+        Subscription registration;
+        while ((registration = pendingRegistrations.poll()) != null) {
+            slot.add(registration);
+        }
+    }
+
+    private void registerMBean() {
+        if (jmxName != null) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                mbeanServer.registerMBean(this, new ObjectName(jmxName));
+                registered = true;
+            } catch (InstanceAlreadyExistsException e) {
+                registered = false;
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to register mbean", e);
+            }
+        }
+    }
+
+    private void unregisterMBean() {
+        if (registered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(jmxName));
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to unregister mbean", e);
+            }
+        }
+    }
+
+    private final class Subscription implements Registration {
+
+        private final Heartbeat heartbeat;
+        private final AtomicBoolean active = new AtomicBoolean(true);
+
+        private Subscription(Heartbeat heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        public void cancel() {
+            if (active.compareAndSet(true, false)) {
+                idleSessionCount.decrementAndGet();
+            }
+        }
+
+        private boolean isActive() {
+            return active.get();
+        }
+
+        private boolean beat() {
+            boolean alive;
+            try {
+                alive = heartbeat.beat();
+            } catch (RuntimeException e) {
+                // One failing session must not stop the wheel
+                alive = false;
+            }
+            if (!alive) {
+                cancel();
+            }
+            return alive;
+        }
+    }
+}
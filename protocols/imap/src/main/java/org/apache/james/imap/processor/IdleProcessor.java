@@ -25,10 +25,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.james.imap.api.ImapCommand;
 import org.apache.james.imap.api.ImapSessionState;
@@ -49,27 +49,39 @@ import org.apache.james.mailbox.exception.MailboxException;
 
 public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> implements CapabilityImplementingProcessor {
 
-    private final ScheduledExecutorService heartbeatExecutor;
+    private final IdleHeartbeatService heartbeatService;
+    private final StatusResponse heartbeatResponse;
     private final static List<String> CAPS = Collections.unmodifiableList(Arrays.asList(SUPPORTS_IDLE));
     // 2 minutes
     public final static long DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS = 2 * 60;
     public final static TimeUnit DEFAULT_HEARTBEAT_INTERVAL_UNIT = TimeUnit.SECONDS;
     public final static int DEFAULT_SCHEDULED_POOL_CORE_SIZE = 5;
     private final static String DONE = "DONE";
-    private final TimeUnit heartbeatIntervalUnit;
-    private final long heartbeatInterval;
 
     public IdleProcessor(final ImapProcessor next, final MailboxManager mailboxManager, final StatusResponseFactory factory) {
-        this(next, mailboxManager, factory, DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS, DEFAULT_HEARTBEAT_INTERVAL_UNIT, Executors.newScheduledThreadPool(DEFAULT_SCHEDULED_POOL_CORE_SIZE));
+        this(next, mailboxManager, factory, new IdleHeartbeatService(DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS, DEFAULT_HEARTBEAT_INTERVAL_UNIT));
 
     }
 
     public IdleProcessor(final ImapProcessor next, final MailboxManager mailboxManager, final StatusResponseFactory factory, long heartbeatInterval, TimeUnit heartbeatIntervalUnit, ScheduledExecutorService heartbeatExecutor) {
+        this(next, mailboxManager, factory, createHeartbeatService(heartbeatInterval, heartbeatIntervalUnit, heartbeatExecutor));
+    }
+
+    /**
+     * @param heartbeatService service sending the heartbeats of all the IDLE-ing sessions, or null to not send heartbeats
+     */
+    public IdleProcessor(final ImapProcessor next, final MailboxManager mailboxManager, final StatusResponseFactory factory, IdleHeartbeatService heartbeatService) {
         super(IdleRequest.class, next, mailboxManager, factory);
-        this.heartbeatInterval = heartbeatInterval;
-        this.heartbeatIntervalUnit = heartbeatIntervalUnit;
-        this.heartbeatExecutor = heartbeatExecutor;
+        this.heartbeatService = heartbeatService;
+        // Status responses are immutable so all the heartbeats share the same one
+        this.heartbeatResponse = factory.untaggedOk(HumanReadableText.HEARTBEAT);
+    }
 
+    private static IdleHeartbeatService createHeartbeatService(long heartbeatInterval, TimeUnit heartbeatIntervalUnit, ScheduledExecutorService heartbeatExecutor) {
+        if (heartbeatInterval > 0 && heartbeatExecutor != null) {
+            return new IdleHeartbeatService(heartbeatInterval, heartbeatIntervalUnit, IdleHeartbeatService.DEFAULT_WHEEL_SIZE, heartbeatExecutor, null);
+        }
+        return null;
     }
 
     protected void doProcess(final IdleRequest message, final ImapSession session, final String tag, final ImapCommand command, final Responder responder) {
@@ -88,6 +100,7 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
             }
 
             final AtomicBoolean idleActive = new AtomicBoolean(true);
+            final AtomicReference<IdleHeartbeatService.Registration> heartbeat = new AtomicReference<IdleHeartbeatService.Registration>();
             
             session.pushLineHandler(new ImapLineHandler() {
 
@@ -122,15 +135,16 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
 
                     }
                     idleActive.set(false);
+                    cancelHeartbeat(heartbeat);
                 }
             });
 
             // Check if we should send heartbeats
-            if (heartbeatInterval > 0) {
-                heartbeatExecutor.schedule(new Runnable() {
+            if (heartbeatService != null) {
+                heartbeat.set(heartbeatService.register(new IdleHeartbeatService.Heartbeat() {
 
-                    public void run() {
-                        // check if we need to cancel the Runnable
+                    public boolean beat() {
+                        // check if we need to cancel the heartbeat
                         // See IMAP-275
                         if (session.getState() != ImapSessionState.LOGOUT && idleActive.get()) {
                             // Send a heartbeat to the client to make sure we
@@ -141,14 +155,16 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
                             // outlook client, but can't harm for other clients
                             // too.
                             // See IMAP-272
-                            StatusResponse response = getStatusResponseFactory().untaggedOk(HumanReadableText.HEARTBEAT);
-                            responder.respond(response);
-                            
-                            // schedule the heartbeat again for the next interval
-                            heartbeatExecutor.schedule(this, heartbeatInterval, heartbeatIntervalUnit);
+                            responder.respond(heartbeatResponse);
+                            return true;
                         }
+                        return false;
                     }
-                }, heartbeatInterval, heartbeatIntervalUnit);
+                }));
+                // DONE may have been received before the registration
+                if (!idleActive.get()) {
+                    cancelHeartbeat(heartbeat);
+                }
             }
             
             // Write the response after the listener was add
@@ -166,6 +182,13 @@ public class IdleProcessor extends AbstractMailboxProcessor<IdleRequest> impleme
         }
     }
 
+    private void cancelHeartbeat(AtomicReference<IdleHeartbeatService.Registration> heartbeat) {
+        IdleHeartbeatService.Registration registration = heartbeat.getAndSet(null);
+        if (registration != null) {
+            registration.cancel();
+        }
+    }
+
     /**
     * @see org.apache.james.imap.processor.CapabilityImplementingProcessor
     * #getImplementedCapabilities(org.apache.james.imap.api.process.ImapSession)
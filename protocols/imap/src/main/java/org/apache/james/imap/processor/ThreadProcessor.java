@@ -0,0 +1,213 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.james.imap.api.ImapCommand;
+import org.apache.james.imap.api.ImapConstants;
+import org.apache.james.imap.api.ImapSessionUtils;
+import org.apache.james.imap.api.display.HumanReadableText;
+import org.apache.james.imap.api.message.response.StatusResponseFactory;
+import org.apache.james.imap.api.process.ImapProcessor;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.apache.james.imap.message.request.ThreadRequest;
+import org.apache.james.imap.message.response.ThreadResponse;
+import org.apache.james.imap.message.response.ThreadResponse.Node;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.exception.MessageRangeException;
+import org.apache.james.mailbox.model.FetchGroupImpl;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.MessageResult.Header;
+import org.apache.james.mailbox.model.MessageResultIterator;
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.model.SearchQuery.Sort;
+import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
+import org.apache.james.mime4j.codec.DecodeMonitor;
+import org.apache.james.mime4j.codec.DecoderUtil;
+import org.apache.james.mime4j.util.MimeUtil;
+
+/**
+ * Process THREAD commands. See RFC5256.
+ * 
+ * Only the ORDEREDSUBJECT algorithm is supported: the search index returns the matching
+ * messages ordered by sent date, which are then grouped by base subject. Only the
+ * headers of the matching messages are fetched.
+ */
+public class ThreadProcessor extends AbstractMailboxProcessor<ThreadRequest> implements CapabilityImplementingProcessor {
+
+    private final static List<String> CAPS = Collections.unmodifiableList(Arrays.asList("THREAD=ORDEREDSUBJECT"));
+
+    private final static String BLOB = "\\[[^\\[\\]]*\\]\\s*";
+    // subj-trailer = "(fwd)" / WSP
+    private final static Pattern SUBJ_TRAILER = Pattern.compile("(?:\\s|\\(fwd\\))+$", Pattern.CASE_INSENSITIVE);
+    // subj-leader = (*subj-blob subj-refwd) / WSP
+    private final static Pattern SUBJ_LEADER = Pattern.compile("^(?:\\s|(?:" + BLOB + ")*(?:re|fwd?)\\s*(?:" + BLOB + ")?:)+", Pattern.CASE_INSENSITIVE);
+    private final static Pattern SUBJ_BLOB = Pattern.compile("^" + BLOB);
+    private final static String SUBJ_FWD_HDR = "[fwd:";
+    private final static String SUBJ_FWD_TRL = "]";
+
+    public ThreadProcessor(final ImapProcessor next, final MailboxManager mailboxManager, final StatusResponseFactory factory) {
+        super(ThreadRequest.class, next, mailboxManager, factory);
+    }
+
+    protected void doProcess(ThreadRequest request, ImapSession session, String tag, ImapCommand command, Responder responder) {
+        final boolean useUids = request.isUseUids();
+        try {
+            final MessageManager mailbox = getSelectedMailbox(session);
+            final SearchQuery query = SearchProcessor.toQuery(request.getSearchKey(), session);
+            query.setSorts(Arrays.asList(new Sort(SortClause.SentDate), new Sort(SortClause.Uid)));
+            final MailboxSession mailboxSession = ImapSessionUtils.getMailboxSession(session);
+            final List<Long> uids = new ArrayList<Long>();
+            final Iterator<Long> it = mailbox.search(query, mailboxSession);
+            while (it.hasNext()) {
+                uids.add(it.next());
+            }
+
+            responder.respond(new ThreadResponse(orderedSubjectThreads(uids, baseSubjects(mailbox, uids, mailboxSession), session.getSelected(), useUids)));
+
+            boolean omitExpunged = (!useUids);
+            unsolicitedResponses(session, responder, omitExpunged, useUids);
+            okComplete(command, tag, responder);
+        } catch (MessageRangeException e) {
+            if (session.getLog().isDebugEnabled()) {
+                session.getLog().debug("Thread failed in mailbox " + session.getSelected().getPath() + " because of an invalid sequence-set ", e);
+            }
+            taggedBad(command, tag, responder, HumanReadableText.INVALID_MESSAGESET);
+        } catch (MailboxException e) {
+            if (session.getLog().isInfoEnabled()) {
+                session.getLog().info("Thread failed in mailbox " + session.getSelected().getPath(), e);
+            }
+            no(command, tag, responder, HumanReadableText.SEARCH_FAILED);
+        } finally {
+            session.setAttribute(SearchProcessor.SEARCH_MODSEQ, null);
+        }
+    }
+
+    /**
+     * Group the messages, ordered by sent date, by base subject. Each thread is then ordered by the sent
+     * date of its first message, which is the parent of all the others.
+     */
+    static List<Node> orderedSubjectThreads(List<Long> uids, Map<Long, String> baseSubjects, SelectedMailbox selected, boolean useUids) {
+        final Map<String, List<Long>> threads = new LinkedHashMap<String, List<Long>>();
+        for (Long uid : uids) {
+            final long id = useUids ? uid : selected.msn(uid);
+            if (id == SelectedMailbox.NO_SUCH_MESSAGE) {
+                continue;
+            }
+            final String baseSubject = baseSubjects.get(uid);
+            List<Long> thread = threads.get(baseSubject);
+            if (thread == null) {
+                thread = new ArrayList<Long>();
+                threads.put(baseSubject, thread);
+            }
+            thread.add(id);
+        }
+
+        final List<Node> result = new ArrayList<Node>(threads.size());
+        for (List<Long> thread : threads.values()) {
+            final List<Node> children = new ArrayList<Node>(thread.size() - 1);
+            for (Long child : thread.subList(1, thread.size())) {
+                children.add(new Node(child));
+            }
+            result.add(new Node(thread.get(0), children));
+        }
+        return result;
+    }
+
+    private Map<Long, String> baseSubjects(MessageManager mailbox, List<Long> uids, MailboxSession mailboxSession) throws MailboxException {
+        final Map<Long, String> baseSubjects = new HashMap<Long, String>();
+        for (MessageRange range : MessageRange.toRanges(uids)) {
+            final MessageResultIterator messages = mailbox.getMessages(range, FetchGroupImpl.HEADERS, mailboxSession);
+            while (messages.hasNext()) {
+                final MessageResult message = messages.next();
+                baseSubjects.put(message.getUid(), getBaseSubject(subject(message)).toUpperCase(Locale.US));
+            }
+        }
+        return baseSubjects;
+    }
+
+    private String subject(MessageResult message) throws MailboxException {
+        final Iterator<Header> headers = message.getHeaders().headers();
+        while (headers.hasNext()) {
+            final Header header = headers.next();
+            if (ImapConstants.RFC822_SUBJECT.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Extract the base subject of the given subject. See RFC5256 2.1
+     */
+    static String getBaseSubject(String subject) {
+        // (1) decode the encoded-words, convert tabs and continuations to a single space
+        String baseSubject = MimeUtil.unfold(DecoderUtil.decodeEncodedWords(subject, DecodeMonitor.SILENT))
+            .replace('\t', ' ')
+            .replaceAll(" {2,}", " ");
+        while (true) {
+            // (2) remove the subj-trailers
+            baseSubject = SUBJ_TRAILER.matcher(baseSubject).replaceFirst("");
+            boolean matched = true;
+            while (matched) {
+                // (3) remove the subj-leaders
+                final String withoutLeader = SUBJ_LEADER.matcher(baseSubject).replaceFirst("");
+                matched = withoutLeader.length() < baseSubject.length();
+                baseSubject = withoutLeader;
+                // (4) remove a subj-blob prefix if it does not leave an empty subject
+                final Matcher blob = SUBJ_BLOB.matcher(baseSubject);
+                if (blob.lookingAt() && blob.end() < baseSubject.length()) {
+                    baseSubject = baseSubject.substring(blob.end());
+                    matched = true;
+                }
+                // (5) repeat (3) and (4) until no matches remain
+            }
+            // (6) remove the subj-fwd-hdr and subj-fwd-trl and repeat from (2)
+            if (baseSubject.toLowerCase(Locale.US).startsWith(SUBJ_FWD_HDR) && baseSubject.endsWith(SUBJ_FWD_TRL)) {
+                baseSubject = baseSubject.substring(SUBJ_FWD_HDR.length(), baseSubject.length() - SUBJ_FWD_TRL.length());
+            } else {
+                return baseSubject;
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.james.imap.processor.CapabilityImplementingProcessor
+     * #getImplementedCapabilities(org.apache.james.imap.api.process.ImapSession)
+     */
+    public List<String> getImplementedCapabilities(ImapSession session) {
+        return CAPS;
+    }
+}
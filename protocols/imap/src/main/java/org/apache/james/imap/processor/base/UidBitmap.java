@@ -0,0 +1,154 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A sparse set of uids stored as a bitmap.
+ *
+ * Only the 64 bits words holding at least one uid are kept, in two parallel
+ * arrays sorted by word index. As uids of a mailbox are mostly contiguous, a
+ * set of n uids takes about n / 4 bytes instead of the tree nodes and boxed
+ * Longs of a TreeSet.
+ *
+ * This class is not thread safe.
+ */
+public class UidBitmap {
+
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int WORD_SHIFT = 6;
+    private static final long WORD_MASK = 63;
+
+    private long[] wordIndexes = new long[INITIAL_CAPACITY];
+
+    private long[] words = new long[INITIAL_CAPACITY];
+
+    private int wordCount = 0;
+
+    private int size = 0;
+
+    /**
+     * @param uid
+     * @return true if the uid was not already contained
+     */
+    public boolean add(long uid) {
+        long wordIndex = uid >>> WORD_SHIFT;
+        long bit = 1L << (uid & WORD_MASK);
+        int position = findWord(wordIndex);
+        if (position < 0) {
+            position = insertWord(-(position + 1), wordIndex);
+        }
+        if ((words[position] & bit) != 0) {
+            return false;
+        }
+        words[position] |= bit;
+        size++;
+        return true;
+    }
+
+    public void addAll(Collection<Long> uids) {
+        for (Long uid : uids) {
+            add(uid);
+        }
+    }
+
+    /**
+     * @param uid
+     * @return true if the uid was contained
+     */
+    public boolean remove(long uid) {
+        int position = findWord(uid >>> WORD_SHIFT);
+        long bit = 1L << (uid & WORD_MASK);
+        if (position < 0 || (words[position] & bit) == 0) {
+            return false;
+        }
+        words[position] &= ~bit;
+        size--;
+        if (words[position] == 0) {
+            removeWord(position);
+        }
+        return true;
+    }
+
+    public boolean contains(long uid) {
+        int position = findWord(uid >>> WORD_SHIFT);
+        return position >= 0 && (words[position] & (1L << (uid & WORD_MASK))) != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        wordIndexes = new long[INITIAL_CAPACITY];
+        words = new long[INITIAL_CAPACITY];
+        wordCount = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the uids, in ascending order
+     */
+    public List<Long> toList() {
+        List<Long> uids = new ArrayList<Long>(size);
+        for (int i = 0; i < wordCount; i++) {
+            long word = words[i];
+            long base = wordIndexes[i] << WORD_SHIFT;
+            while (word != 0) {
+                uids.add(base + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return uids;
+    }
+
+    private int findWord(long wordIndex) {
+        return Arrays.binarySearch(wordIndexes, 0, wordCount, wordIndex);
+    }
+
+    private int insertWord(int position, long wordIndex) {
+        if (wordCount == words.length) {
+            int capacity = words.length << 1;
+            wordIndexes = Arrays.copyOf(wordIndexes, capacity);
+            words = Arrays.copyOf(words, capacity);
+        }
+        System.arraycopy(wordIndexes, position, wordIndexes, position + 1, wordCount - position);
+        System.arraycopy(words, position, words, position + 1, wordCount - position);
+        wordIndexes[position] = wordIndex;
+        words[position] = 0;
+        wordCount++;
+        return position;
+    }
+
+    private void removeWord(int position) {
+        System.arraycopy(wordIndexes, position + 1, wordIndexes, position, wordCount - position - 1);
+        System.arraycopy(words, position + 1, words, position, wordCount - position - 1);
+        wordCount--;
+    }
+
+}
@@ -0,0 +1,138 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import java.util.Arrays;
+
+import org.apache.james.imap.api.process.SelectedMailbox;
+
+/**
+ * Maps the message sequence numbers of a selected mailbox to their uids.
+ *
+ * The uids are kept sorted in a plain long[]: the msn of a message is its
+ * position in the array (plus one), so a uid lookup is a binary search and an
+ * expunge is a single array copy instead of renumbering every following msn.
+ *
+ * This class is not thread safe.
+ */
+public class UidMsnConverter {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] uids = new long[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    /**
+     * Add the given uid. Adding an already known uid has no effect.
+     *
+     * @param uid
+     */
+    public void addUid(long uid) {
+        if (size == 0 || uid > uids[size - 1]) {
+            // Fast path: new messages get the highest uid
+            ensureCapacity(size + 1);
+            uids[size++] = uid;
+            return;
+        }
+        int position = Arrays.binarySearch(uids, 0, size, uid);
+        if (position >= 0) {
+            return;
+        }
+        int insertionPoint = -(position + 1);
+        ensureCapacity(size + 1);
+        System.arraycopy(uids, insertionPoint, uids, insertionPoint + 1, size - insertionPoint);
+        uids[insertionPoint] = uid;
+        size++;
+    }
+
+    /**
+     * Remove the given uid, shifting down the msn of all following messages
+     *
+     * @param uid
+     * @return the msn the uid had, or {@link SelectedMailbox#NO_SUCH_MESSAGE}
+     */
+    public int remove(long uid) {
+        int position = Arrays.binarySearch(uids, 0, size, uid);
+        if (position < 0) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        System.arraycopy(uids, position + 1, uids, position, size - position - 1);
+        size--;
+        return position + 1;
+    }
+
+    /**
+     * @param uid
+     * @return the msn of the uid, or {@link SelectedMailbox#NO_SUCH_MESSAGE}
+     */
+    public int getMsn(long uid) {
+        int position = Arrays.binarySearch(uids, 0, size, uid);
+        if (position < 0) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return position + 1;
+    }
+
+    /**
+     * @param msn
+     * @return the uid of the msn, or {@link SelectedMailbox#NO_SUCH_MESSAGE}
+     */
+    public long getUid(int msn) {
+        if (msn < 1 || msn > size) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return uids[msn - 1];
+    }
+
+    public long getFirstUid() {
+        if (size == 0) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return uids[0];
+    }
+
+    public long getLastUid() {
+        if (size == 0) {
+            return SelectedMailbox.NO_SUCH_MESSAGE;
+        }
+        return uids[size - 1];
+    }
+
+    public int getNumMessage() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        uids = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > uids.length) {
+            uids = Arrays.copyOf(uids, Math.max(capacity, uids.length + (uids.length >> 1)));
+        }
+    }
+
+}
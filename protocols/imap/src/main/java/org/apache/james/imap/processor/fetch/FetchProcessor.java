@@ -21,7 +21,12 @@ package org.apache.james.imap.processor.fetch;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.james.imap.api.ImapCommand;
 import org.apache.james.imap.api.ImapConstants;
@@ -31,8 +36,10 @@ import org.apache.james.imap.api.message.BodyFetchElement;
 import org.apache.james.imap.api.message.FetchData;
 import org.apache.james.imap.api.message.IdRange;
 import org.apache.james.imap.api.message.response.StatusResponseFactory;
+import org.apache.james.imap.api.process.ImapPipeline;
 import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.api.process.SelectedMailbox;
 import org.apache.james.imap.message.request.FetchRequest;
 import org.apache.james.imap.message.response.FetchResponse;
 import org.apache.james.imap.processor.AbstractMailboxProcessor;
@@ -50,10 +57,27 @@ import org.apache.james.mailbox.model.MessageResult.FetchGroup;
 import org.apache.james.mailbox.model.MessageResult.MimePath;
 import org.apache.james.mailbox.model.MessageResultIterator;
 
+/**
+ * Process FETCH commands.
+ * 
+ * When the session has an {@link ImapPipeline} with a positive prefetch window, the messages are fetched in
+ * batches: the next batches are loaded from the {@link MessageManager} while the current one is encoded and
+ * written, so that the backend latency and the response encoding overlap. The request then completes
+ * asynchronously, and no thread waits while the client is slow to read the responses.
+ */
 public class FetchProcessor extends AbstractMailboxProcessor<FetchRequest> {
 
+    public final static int DEFAULT_BATCH_SIZE = 100;
+
+    private final int batchSize;
+
     public FetchProcessor(final ImapProcessor next, final MailboxManager mailboxManager, final StatusResponseFactory factory) {
+        this(next, mailboxManager, factory, DEFAULT_BATCH_SIZE);
+    }
+
+    public FetchProcessor(final ImapProcessor next, final MailboxManager mailboxManager, final StatusResponseFactory factory, int batchSize) {
         super(FetchRequest.class, next, mailboxManager, factory);
+        this.batchSize = batchSize;
     }
 
     /**
@@ -115,6 +139,11 @@ public class FetchProcessor extends AbstractMailboxProcessor<FetchRequest> {
             if (EnableProcessor.getEnabledCapabilities(session).contains(ImapConstants.SUPPORTS_QRESYNC)) {
                 fetch.setUid(true);
             }
+            final ImapPipeline pipeline = session.getPipeline();
+            if (pipeline != null && pipeline.getPrefetchWindow() > 0) {
+                processPipelined(session, pipeline, mailbox, ranges, fetch, useUids, mailboxSession, command, tag, responder);
+                return;
+            }
             processMessageRanges(session, mailbox, ranges, fetch, useUids, mailboxSession, responder);
 
             
@@ -158,39 +187,297 @@ public class FetchProcessor extends AbstractMailboxProcessor<FetchRequest> {
         for (MessageRange range : ranges) {
             MessageResultIterator messages = mailbox.getMessages(range, resultToFetch, mailboxSession);
             while (messages.hasNext()) {
-                final MessageResult result = messages.next();
+                respond(session, mailbox, messages.next(), fetch, useUids, builder, responder);
+            }
+
+            // Throw the exception if we received one
+            if (messages.getException() != null) {
+                throw messages.getException();
+            }
+        }
+
+    }
+
+    /**
+     * Fetch the given ranges through the {@link ImapPipeline} of the session. The request completes asynchronously,
+     * once the tagged response was written the pipeline is resumed.
+     */
+    void processPipelined(ImapSession session, ImapPipeline pipeline, MessageManager mailbox, List<MessageRange> ranges, FetchData fetch, boolean useUids, MailboxSession mailboxSession, ImapCommand command, String tag, Responder responder) {
+        new PipelinedFetch(session, pipeline, mailbox, ranges, fetch, useUids, mailboxSession, command, tag, responder).start();
+    }
+
+    /**
+     * Split the given range in batches of at most <code>batchSize</code> messages. The known uids of the
+     * selected mailbox are used so that sparse uids do not lead to empty batches. The last batch is left
+     * open up to the end of the range to still include messages the session is not aware of yet.
+     */
+    List<MessageRange> split(SelectedMailbox selected, MessageRange range) {
+        final List<MessageRange> batches = new ArrayList<MessageRange>();
+        final int count = (int) selected.existsCount();
+        int msn = firstMsn(selected, range.getUidFrom(), count);
+        long from = range.getUidFrom();
+        while (msn + batchSize <= count && selected.uid(msn + batchSize) <= range.getUidTo()) {
+            // the next batch starts with the uid of msn + batchSize
+            final long next = selected.uid(msn + batchSize);
+            batches.add(MessageRange.range(from, next - 1));
+            from = next;
+            msn += batchSize;
+        }
+        batches.add(MessageRange.range(from, range.getUidTo()));
+        return batches;
+    }
+
+    /**
+     * @return the msn of the first message with an uid greater or equal to the given one, or count + 1 if there is none
+     */
+    static int firstMsn(SelectedMailbox selected, long uid, int count) {
+        int low = 1;
+        int high = count + 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (selected.uid(middle) < uid) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
 
-                //skip unchanged messages - this should be filtered at the mailbox level to take advantage of indexes
-                if (fetch.isModSeq() && result.getModSeq() <= fetch.getChangedSince()) {
-                    continue;
+    /**
+     * A FETCH whose ranges are fetched by batches of <code>batchSize</code> messages, keeping up to the prefetch
+     * window of batches loading while the current one is written. Nothing waits: a batch is written by the thread
+     * which loaded it, or by the one resumed once the client read enough of the previous responses. The session is
+     * suspended until the tagged response is written.
+     */
+    private final class PipelinedFetch implements Runnable {
+
+        private final ImapSession session;
+        private final ImapPipeline pipeline;
+        private final MessageManager mailbox;
+        private final FetchData fetch;
+        private final FetchGroup resultToFetch;
+        private final boolean useUids;
+        private final MailboxSession mailboxSession;
+        private final ImapCommand command;
+        private final String tag;
+        private final Responder responder;
+        private final FetchResponseBuilder builder;
+        private final Iterator<MessageRange> pendingBatches;
+        private final Queue<Batch> loading = new ConcurrentLinkedQueue<Batch>();
+        // The mailbox of a session is not thread safe: the batches are loaded, and their responses built, one at a time
+        private final Object mailboxLock = new Object();
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private final Runnable resume = new Runnable() {
+            public void run() {
+                try {
+                    pipeline.getExecutor().execute(PipelinedFetch.this);
+                } catch (RejectedExecutionException e) {
+                    // Better write the batch from the notifying thread than never complete the request
+                    drain();
                 }
+            }
+        };
+        private boolean completed;
+
+        public PipelinedFetch(ImapSession session, ImapPipeline pipeline, MessageManager mailbox, List<MessageRange> ranges, FetchData fetch, boolean useUids, MailboxSession mailboxSession, ImapCommand command, String tag, Responder responder) {
+            this.session = session;
+            this.pipeline = pipeline;
+            this.mailbox = mailbox;
+            this.fetch = fetch;
+            this.resultToFetch = getFetchGroup(fetch);
+            this.useUids = useUids;
+            this.mailboxSession = mailboxSession;
+            this.command = command;
+            this.tag = tag;
+            this.responder = responder;
+            this.builder = new FetchResponseBuilder(new EnvelopeBuilder(session.getLog()));
+            final List<MessageRange> batches = new ArrayList<MessageRange>();
+            for (MessageRange range : ranges) {
+                batches.addAll(split(session.getSelected(), range));
+            }
+            this.pendingBatches = batches.iterator();
+        }
 
+        public void start() {
+            pipeline.suspend();
+            drain();
+        }
+
+        public void run() {
+            drain();
+        }
+
+        /**
+         * Go through the batches from the calling thread, unless another thread already does
+         */
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                // The draining thread goes through the batches again once done
+                return;
+            }
+            int missed = 1;
+            do {
                 try {
-                    final FetchResponse response = builder.build(fetch, result, mailbox, session, useUids);
+                    step();
+                } catch (RuntimeException e) {
+                    fail(new MailboxException("Unable to write the fetched messages", e));
+                }
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void step() {
+            while (!completed) {
+                fill();
+                final Batch batch = loading.peek();
+                if (batch == null) {
+                    complete();
+                    return;
+                }
+                if (!batch.done) {
+                    // Drained again once loaded
+                    return;
+                }
+                if (batch.failure != null) {
+                    fail(batch.failure);
+                    return;
+                }
+                if (!pipeline.isWritable()) {
+                    pipeline.whenWritable(resume);
+                    return;
+                }
+                loading.poll();
+                fill();
+                write(batch);
+            }
+        }
+
+        private void fill() {
+            while (loading.size() < pipeline.getPrefetchWindow() && pendingBatches.hasNext()) {
+                final Batch batch = new Batch(pendingBatches.next());
+                loading.add(batch);
+                try {
+                    pipeline.getExecutor().execute(batch);
+                } catch (RejectedExecutionException e) {
+                    batch.failure = new MailboxException("Too many messages being fetched", e);
+                    batch.done = true;
+                }
+            }
+        }
+
+        private void write(Batch batch) {
+            for (MessageResult result : batch.results) {
+                final FetchResponse response;
+                synchronized (mailboxLock) {
+                    response = build(session, mailbox, result, fetch, useUids, builder);
+                }
+                if (response != null) {
                     responder.respond(response);
-                } catch (MessageRangeException e) {
-                    // we can't for whatever reason find the message so
-                    // just skip it and log it to debug
-                    if (session.getLog().isDebugEnabled()) {
-                        session.getLog().debug("Unable to find message with uid " + result.getUid(), e);
+                }
+            }
+        }
+
+        private void complete() {
+            completed = true;
+            try {
+                // Don't send expunge responses if FETCH is used to trigger this
+                // processor. See IMAP-284
+                final boolean omitExpunged = (!useUids);
+                synchronized (mailboxLock) {
+                    unsolicitedResponses(session, responder, omitExpunged, useUids);
+                }
+                okComplete(command, tag, responder);
+            } finally {
+                pipeline.resume();
+            }
+        }
+
+        private void fail(MailboxException e) {
+            completed = true;
+            try {
+                if (session.getLog().isInfoEnabled()) {
+                    session.getLog().info("Fetch failed for mailbox " + session.getSelected().getPath(), e);
+                }
+                no(command, tag, responder, HumanReadableText.SEARCH_FAILED);
+            } finally {
+                pipeline.resume();
+            }
+        }
+
+        private final class Batch implements Runnable {
+
+            private final MessageRange range;
+            private volatile List<MessageResult> results;
+            private volatile MailboxException failure;
+            private volatile boolean done;
+
+            public Batch(MessageRange range) {
+                this.range = range;
+            }
+
+            public void run() {
+                try {
+                    synchronized (mailboxLock) {
+                        results = load();
                     }
                 } catch (MailboxException e) {
-                    // we can't for whatever reason find parse all requested parts of the message. This may because it was deleted while try to access the parts.
-                    // So we just skip it 
-                    //
-                    // See IMAP-347
-                    if (session.getLog().isDebugEnabled()) {
-                        session.getLog().debug("Unable to fetch message with uid " + result.getUid() + ", so skip it", e);
-                    }
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new MailboxException("Unable to fetch messages", e);
                 }
+                done = true;
+                drain();
             }
 
-            // Throw the exception if we received one
-            if (messages.getException() != null) {
-                throw messages.getException();
+            private List<MessageResult> load() throws MailboxException {
+                final List<MessageResult> loaded = new ArrayList<MessageResult>();
+                MessageResultIterator messages = mailbox.getMessages(range, resultToFetch, mailboxSession);
+                while (messages.hasNext()) {
+                    loaded.add(messages.next());
+                }
+                if (messages.getException() != null) {
+                    throw messages.getException();
+                }
+                return loaded;
             }
         }
+    }
+
+    private void respond(final ImapSession session, final MessageManager mailbox, final MessageResult result, final FetchData fetch, final boolean useUids, final FetchResponseBuilder builder, final Responder responder) {
+        final FetchResponse response = build(session, mailbox, result, fetch, useUids, builder);
+        if (response != null) {
+            responder.respond(response);
+        }
+    }
+
+    /**
+     * @return the response for the given message, or null if it must be skipped
+     */
+    private FetchResponse build(final ImapSession session, final MessageManager mailbox, final MessageResult result, final FetchData fetch, final boolean useUids, final FetchResponseBuilder builder) {
+        //skip unchanged messages - this should be filtered at the mailbox level to take advantage of indexes
+        if (fetch.isModSeq() && result.getModSeq() <= fetch.getChangedSince()) {
+            return null;
+        }
 
+        try {
+            return builder.build(fetch, result, mailbox, session, useUids);
+        } catch (MessageRangeException e) {
+            // we can't for whatever reason find the message so
+            // just skip it and log it to debug
+            if (session.getLog().isDebugEnabled()) {
+                session.getLog().debug("Unable to find message with uid " + result.getUid(), e);
+            }
+        } catch (MailboxException e) {
+            // we can't for whatever reason find parse all requested parts of the message. This may because it was deleted while try to access the parts.
+            // So we just skip it 
+            //
+            // See IMAP-347
+            if (session.getLog().isDebugEnabled()) {
+                session.getLog().debug("Unable to fetch message with uid " + result.getUid() + ", so skip it", e);
+            }
+        }
+        return null;
     }
 
     protected FetchGroup getFetchGroup(FetchData fetch) {
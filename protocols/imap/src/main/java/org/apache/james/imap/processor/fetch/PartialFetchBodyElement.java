@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.james.imap.message.response.FetchResponse.BodyElement;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 
 /**
  * Wraps full content to implement a partial fetch.
@@ -74,7 +75,12 @@ final class PartialFetchBodyElement implements BodyElement {
      * @see org.apache.james.imap.message.response.Literal#getInputStream()
      */
     public InputStream getInputStream() throws IOException {
-        return new LimitingInputStream(delegate.getInputStream(), firstOctet, size());
+        InputStream in = delegate.getInputStream();
+        if (in instanceof ByteBufferInputStream) {
+            // Slice the buffers so that the writer can still send them without copying
+            return ((ByteBufferInputStream) in).newStream(firstOctet, firstOctet + size());
+        }
+        return new LimitingInputStream(in, firstOctet, size());
     }
 
     private final class LimitingInputStream extends FilterInputStream {
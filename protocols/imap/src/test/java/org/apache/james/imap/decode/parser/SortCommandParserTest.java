@@ -0,0 +1,105 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.decode.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.apache.james.imap.api.ImapCommand;
+import org.apache.james.imap.api.message.request.SearchKey;
+import org.apache.james.imap.api.message.request.SortKey;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.imap.decode.ImapRequestStreamLineReader;
+import org.apache.james.imap.message.request.SortRequest;
+import org.apache.james.protocols.imap.DecodingException;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class SortCommandParserTest {
+
+    private static final String TAG = "A1";
+
+    private Mockery context = new JUnit4Mockery();
+
+    private SortCommandParser parser;
+
+    private ImapCommand command;
+
+    private ImapSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = new SortCommandParser();
+        command = ImapCommand.anyStateCommand("Command");
+        session = context.mock(ImapSession.class);
+        context.checking(new Expectations() {{
+            ignoring(session);
+        }});
+    }
+
+    @Test
+    public void testSingleKey() throws Exception {
+        SortRequest request = decode("(DATE) UTF-8 ALL\r\n");
+        assertEquals(Arrays.asList(new SortKey(SortKey.Type.DATE, false)), request.getSortKeys());
+        assertEquals(SearchKey.buildAll(), request.getSearchKey());
+    }
+
+    @Test
+    public void testReverseOnlyAppliesToFollowingKey() throws Exception {
+        SortRequest request = decode("(REVERSE arrival subject) US-ASCII ALL\r\n");
+        assertEquals(Arrays.asList(new SortKey(SortKey.Type.ARRIVAL, true), new SortKey(SortKey.Type.SUBJECT, false)),
+            request.getSortKeys());
+    }
+
+    @Test
+    public void testDisplayKeys() throws Exception {
+        SortRequest request = decode("(DISPLAYFROM REVERSE DISPLAYTO) UTF-8 ALL\r\n");
+        assertEquals(Arrays.asList(new SortKey(SortKey.Type.DISPLAYFROM, false), new SortKey(SortKey.Type.DISPLAYTO, true)),
+            request.getSortKeys());
+    }
+
+    @Test(expected = DecodingException.class)
+    public void testEmptyKeysShouldFail() throws Exception {
+        decode("() UTF-8 ALL\r\n");
+    }
+
+    @Test(expected = DecodingException.class)
+    public void testTrailingReverseShouldFail() throws Exception {
+        decode("(DATE REVERSE) UTF-8 ALL\r\n");
+    }
+
+    @Test(expected = DecodingException.class)
+    public void testUnknownKeyShouldFail() throws Exception {
+        decode("(UNKNOWN) UTF-8 ALL\r\n");
+    }
+
+    private SortRequest decode(String input) throws DecodingException {
+        ImapRequestLineReader reader = new ImapRequestStreamLineReader(new ByteArrayInputStream(input.getBytes()), null);
+        return (SortRequest) parser.decode(command, reader, TAG, false, session);
+    }
+}
@@ -0,0 +1,103 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.decode.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.james.imap.api.ImapCommand;
+import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.api.message.request.SearchKey;
+import org.apache.james.imap.api.message.request.ThreadAlgorithm;
+import org.apache.james.imap.api.message.response.StatusResponse;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.imap.decode.ImapRequestStreamLineReader;
+import org.apache.james.imap.message.request.ThreadRequest;
+import org.apache.james.imap.message.response.UnpooledStatusResponseFactory;
+import org.apache.james.protocols.imap.DecodingException;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class ThreadCommandParserTest {
+
+    private static final String TAG = "A1";
+
+    private Mockery context = new JUnit4Mockery();
+
+    private ThreadCommandParser parser;
+
+    private ImapCommand command;
+
+    private ImapSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = new ThreadCommandParser();
+        parser.setStatusResponseFactory(new UnpooledStatusResponseFactory());
+        command = ImapCommand.anyStateCommand("Command");
+        session = context.mock(ImapSession.class);
+        context.checking(new Expectations() {{
+            ignoring(session);
+        }});
+    }
+
+    @Test
+    public void testOrderedSubject() throws Exception {
+        ThreadRequest request = (ThreadRequest) decode("ORDEREDSUBJECT UTF-8 ALL\r\n");
+        assertEquals(ThreadAlgorithm.ORDEREDSUBJECT, request.getAlgorithm());
+        assertEquals(SearchKey.buildAll(), request.getSearchKey());
+    }
+
+    @Test
+    public void testAlgorithmShouldBeCaseInsensitive() throws Exception {
+        ThreadRequest request = (ThreadRequest) decode("orderedsubject US-ASCII ALL\r\n");
+        assertEquals(ThreadAlgorithm.ORDEREDSUBJECT, request.getAlgorithm());
+    }
+
+    @Test
+    public void testSearchKeyShouldBeDecoded() throws Exception {
+        ThreadRequest request = (ThreadRequest) decode("ORDEREDSUBJECT UTF-8 SUBJECT test\r\n");
+        assertEquals(SearchKey.buildSubject("test"), request.getSearchKey());
+    }
+
+    @Test(expected = DecodingException.class)
+    public void testUnsupportedAlgorithmShouldFail() throws Exception {
+        decode("REFERENCES UTF-8 ALL\r\n");
+    }
+
+    @Test
+    public void testUnknownCharsetShouldBeRejected() throws Exception {
+        ImapMessage message = decode("ORDEREDSUBJECT UNKNOWN-CHARSET ALL\r\n");
+        assertTrue(message instanceof StatusResponse);
+    }
+
+    private ImapMessage decode(String input) throws DecodingException {
+        ImapRequestLineReader reader = new ImapRequestStreamLineReader(new ByteArrayInputStream(input.getBytes()), null);
+        return parser.decode(command, reader, TAG, false, session);
+    }
+}
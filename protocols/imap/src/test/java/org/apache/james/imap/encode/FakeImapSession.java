@@ -23,6 +23,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.james.imap.api.ImapSessionState;
 import org.apache.james.imap.api.process.ImapLineHandler;
+import org.apache.james.imap.api.process.ImapPipeline;
 import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.api.process.SelectedMailbox;
 import org.slf4j.Logger;
@@ -121,6 +122,10 @@ public class FakeImapSession implements ImapSession {
         return false;
     }
 
+    public ImapPipeline getPipeline() {
+        return null;
+    }
+
     public boolean isTLSActive() {
         return false;
     }
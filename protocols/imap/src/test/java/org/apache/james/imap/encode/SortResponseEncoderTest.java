@@ -0,0 +1,77 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.encode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.encode.base.ByteImapResponseWriter;
+import org.apache.james.imap.encode.base.ImapResponseComposerImpl;
+import org.apache.james.imap.message.response.SortResponse;
+import org.apache.james.imap.message.response.ThreadResponse;
+import org.apache.james.imap.message.response.ThreadResponse.Node;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class SortResponseEncoderTest {
+
+    private SortResponseEncoder encoder;
+
+    private ImapEncoder mockNextEncoder;
+
+    private ByteImapResponseWriter writer = new ByteImapResponseWriter();
+    private ImapResponseComposer composer = new ImapResponseComposerImpl(writer);
+
+    private Mockery context = new JUnit4Mockery();
+
+    @Before
+    public void setUp() throws Exception {
+        mockNextEncoder = context.mock(ImapEncoder.class);
+        encoder = new SortResponseEncoder(mockNextEncoder);
+    }
+
+    @Test
+    public void testIsAcceptable() {
+        assertTrue(encoder.isAcceptable(new SortResponse(new long[0])));
+        assertFalse(encoder.isAcceptable(new ThreadResponse(Collections.<Node>emptyList())));
+        assertFalse(encoder.isAcceptable(context.mock(ImapMessage.class)));
+        assertFalse(encoder.isAcceptable(null));
+    }
+
+    @Test
+    public void testIdsShouldKeepTheirOrder() throws Exception {
+        encoder.encode(new SortResponse(new long[] {5, 3, 4, 1, 2}), composer, new FakeImapSession());
+        assertEquals("* SORT 5 3 4 1 2\r\n", writer.getString());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        encoder.encode(new SortResponse(new long[0]), composer, new FakeImapSession());
+        assertEquals("* SORT\r\n", writer.getString());
+    }
+}
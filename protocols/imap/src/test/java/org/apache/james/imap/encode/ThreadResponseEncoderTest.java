@@ -0,0 +1,93 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.encode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.james.imap.api.ImapMessage;
+import org.apache.james.imap.encode.base.ByteImapResponseWriter;
+import org.apache.james.imap.encode.base.ImapResponseComposerImpl;
+import org.apache.james.imap.message.response.SortResponse;
+import org.apache.james.imap.message.response.ThreadResponse;
+import org.apache.james.imap.message.response.ThreadResponse.Node;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class ThreadResponseEncoderTest {
+
+    private ThreadResponseEncoder encoder;
+
+    private ImapEncoder mockNextEncoder;
+
+    private ByteImapResponseWriter writer = new ByteImapResponseWriter();
+    private ImapResponseComposer composer = new ImapResponseComposerImpl(writer);
+
+    private Mockery context = new JUnit4Mockery();
+
+    @Before
+    public void setUp() throws Exception {
+        mockNextEncoder = context.mock(ImapEncoder.class);
+        encoder = new ThreadResponseEncoder(mockNextEncoder);
+    }
+
+    @Test
+    public void testIsAcceptable() {
+        assertTrue(encoder.isAcceptable(new ThreadResponse(Collections.<Node>emptyList())));
+        assertFalse(encoder.isAcceptable(new SortResponse(new long[0])));
+        assertFalse(encoder.isAcceptable(context.mock(ImapMessage.class)));
+        assertFalse(encoder.isAcceptable(null));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        encoder.encode(new ThreadResponse(Collections.<Node>emptyList()), composer, new FakeImapSession());
+        assertEquals("* THREAD\r\n", writer.getString());
+    }
+
+    @Test
+    public void testFlatThreads() throws Exception {
+        encoder.encode(new ThreadResponse(Arrays.asList(
+            new Node(2, Arrays.asList(new Node(3), new Node(6))),
+            new Node(4),
+            new Node(5))), composer, new FakeImapSession());
+        assertEquals("* THREAD (2 (3)(6))(4)(5)\r\n", writer.getString());
+    }
+
+    @Test
+    public void testNestedThreads() throws Exception {
+        // RFC5256 example: (3 6 (4 23)(44 7 96))
+        encoder.encode(new ThreadResponse(Arrays.asList(
+            new Node(3, Arrays.asList(
+                new Node(6, Arrays.asList(
+                    new Node(4, Arrays.asList(new Node(23))),
+                    new Node(44, Arrays.asList(new Node(7, Arrays.asList(new Node(96))))))))))),
+            composer, new FakeImapSession());
+        assertEquals("* THREAD (3 6 (4 23)(44 7 96))\r\n", writer.getString());
+    }
+}
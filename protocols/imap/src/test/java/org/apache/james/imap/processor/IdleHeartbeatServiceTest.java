@@ -0,0 +1,128 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdleHeartbeatServiceTest {
+
+    private static final long INTERVAL_IN_MILLIS = 100;
+
+    private IdleHeartbeatService service;
+
+    @Before
+    public void setUp() {
+        service = new IdleHeartbeatService(INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS, 10, Executors.newSingleThreadScheduledExecutor(), null);
+    }
+
+    @After
+    public void tearDown() {
+        service.dispose();
+    }
+
+    @Test
+    public void registeredHeartbeatShouldBeSentEveryInterval() throws Exception {
+        final CountDownLatch beats = new CountDownLatch(3);
+        service.register(new CountingHeartbeat(beats, new AtomicInteger()));
+
+        assertTrue(beats.await(10 * INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS));
+        // the heartbeats of a tick are counted once the whole batch is sent
+        assertTrue(service.getHeartbeatCount() >= 2);
+    }
+
+    @Test
+    public void firstHeartbeatShouldNotBeSentBeforeAnInterval() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        service.register(new CountingHeartbeat(new CountDownLatch(1), count));
+
+        Thread.sleep(INTERVAL_IN_MILLIS / 2);
+        assertEquals(0, count.get());
+    }
+
+    @Test
+    public void cancelledHeartbeatShouldNotBeSent() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        IdleHeartbeatService.Registration registration = service.register(new CountingHeartbeat(new CountDownLatch(1), count));
+        assertEquals(1, service.getIdleSessionCount());
+
+        registration.cancel();
+        registration.cancel();
+        Thread.sleep(3 * INTERVAL_IN_MILLIS);
+
+        assertEquals(0, count.get());
+        assertEquals(0, service.getIdleSessionCount());
+    }
+
+    @Test
+    public void heartbeatOfAGoneSessionShouldBeDropped() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        service.register(new IdleHeartbeatService.Heartbeat() {
+            public boolean beat() {
+                count.incrementAndGet();
+                return false;
+            }
+        });
+
+        Thread.sleep(4 * INTERVAL_IN_MILLIS);
+
+        assertEquals(1, count.get());
+        assertEquals(0, service.getIdleSessionCount());
+    }
+
+    @Test
+    public void failingHeartbeatShouldNotStopOtherHeartbeats() throws Exception {
+        final CountDownLatch beats = new CountDownLatch(2);
+        service.register(new IdleHeartbeatService.Heartbeat() {
+            public boolean beat() {
+                throw new RuntimeException();
+            }
+        });
+        service.register(new CountingHeartbeat(beats, new AtomicInteger()));
+
+        assertTrue(beats.await(10 * INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, service.getIdleSessionCount());
+    }
+
+    private static class CountingHeartbeat implements IdleHeartbeatService.Heartbeat {
+
+        private final CountDownLatch latch;
+        private final AtomicInteger count;
+
+        public CountingHeartbeat(CountDownLatch latch, AtomicInteger count) {
+            this.latch = latch;
+            this.count = count;
+        }
+
+        public boolean beat() {
+            count.incrementAndGet();
+            latch.countDown();
+            return true;
+        }
+    }
+}
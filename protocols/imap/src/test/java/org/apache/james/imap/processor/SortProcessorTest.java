@@ -0,0 +1,67 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.james.imap.api.message.request.SortKey;
+import org.apache.james.mailbox.model.SearchQuery.Sort;
+import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
+import org.junit.Test;
+
+public class SortProcessorTest {
+
+    @Test
+    public void testSortKeysShouldMapToSortClauses() {
+        assertEquals(SortClause.Arrival, SortProcessor.toSortClause(SortKey.Type.ARRIVAL));
+        assertEquals(SortClause.MailboxCc, SortProcessor.toSortClause(SortKey.Type.CC));
+        assertEquals(SortClause.SentDate, SortProcessor.toSortClause(SortKey.Type.DATE));
+        assertEquals(SortClause.MailboxFrom, SortProcessor.toSortClause(SortKey.Type.FROM));
+        assertEquals(SortClause.Size, SortProcessor.toSortClause(SortKey.Type.SIZE));
+        assertEquals(SortClause.BaseSubject, SortProcessor.toSortClause(SortKey.Type.SUBJECT));
+        assertEquals(SortClause.MailboxTo, SortProcessor.toSortClause(SortKey.Type.TO));
+        assertEquals(SortClause.DisplayFrom, SortProcessor.toSortClause(SortKey.Type.DISPLAYFROM));
+        assertEquals(SortClause.DisplayTo, SortProcessor.toSortClause(SortKey.Type.DISPLAYTO));
+    }
+
+    @Test
+    public void testEverySortKeyShouldBeMapped() {
+        for (SortKey.Type type : SortKey.Type.values()) {
+            SortProcessor.toSortClause(type);
+        }
+    }
+
+    @Test
+    public void testSortsShouldKeepReverseAndEndWithUid() {
+        List<Sort> sorts = SortProcessor.toSorts(Arrays.asList(
+            new SortKey(SortKey.Type.DATE, true),
+            new SortKey(SortKey.Type.SUBJECT, false)));
+
+        assertEquals(3, sorts.size());
+        assertEquals(SortClause.SentDate, sorts.get(0).getSortClause());
+        assertEquals(true, sorts.get(0).isReverse());
+        assertEquals(SortClause.BaseSubject, sorts.get(1).getSortClause());
+        assertEquals(false, sorts.get(1).isReverse());
+        assertEquals(SortClause.Uid, sorts.get(2).getSortClause());
+        assertEquals(false, sorts.get(2).isReverse());
+    }
+}
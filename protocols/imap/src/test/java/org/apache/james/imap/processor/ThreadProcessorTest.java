@@ -0,0 +1,142 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imap.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.apache.james.imap.message.response.ThreadResponse.Node;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class ThreadProcessorTest {
+
+    private Mockery context = new JUnit4Mockery();
+
+    @Test
+    public void testBaseSubjectShouldRemoveReplyAndForwardLeaders() {
+        assertEquals("test", ThreadProcessor.getBaseSubject("Re: test"));
+        assertEquals("test", ThreadProcessor.getBaseSubject("re: RE: Fwd: fw: test"));
+        assertEquals("test", ThreadProcessor.getBaseSubject("Re:Re:test"));
+    }
+
+    @Test
+    public void testBaseSubjectShouldRemoveBlobsBeforeLeaders() {
+        assertEquals("test", ThreadProcessor.getBaseSubject("[PATCH] Re: test"));
+        assertEquals("test", ThreadProcessor.getBaseSubject("Re[2]: test"));
+    }
+
+    @Test
+    public void testBaseSubjectShouldRemoveLeadingBlob() {
+        assertEquals("test", ThreadProcessor.getBaseSubject("[list] test"));
+        assertEquals("test", ThreadProcessor.getBaseSubject("[list] Re: [other] test"));
+    }
+
+    @Test
+    public void testBaseSubjectShouldKeepABlobWhichIsTheWholeSubject() {
+        assertEquals("[list]", ThreadProcessor.getBaseSubject("[list]"));
+        assertEquals("[list]", ThreadProcessor.getBaseSubject("Re: [list]"));
+    }
+
+    @Test
+    public void testBaseSubjectShouldRemoveTrailers() {
+        assertEquals("test", ThreadProcessor.getBaseSubject("test (fwd)"));
+        assertEquals("test", ThreadProcessor.getBaseSubject("test (FWD)  (fwd) "));
+    }
+
+    @Test
+    public void testBaseSubjectShouldUnwrapForwardedSubjects() {
+        assertEquals("test", ThreadProcessor.getBaseSubject("[Fwd: test]"));
+        assertEquals("test", ThreadProcessor.getBaseSubject("Re: [fwd: Re: test (fwd)]"));
+    }
+
+    @Test
+    public void testBaseSubjectShouldCollapseWhiteSpaces() {
+        assertEquals("a test", ThreadProcessor.getBaseSubject("Re:\ta  \t test "));
+        assertEquals("a test", ThreadProcessor.getBaseSubject("Re: a\r\n test"));
+    }
+
+    @Test
+    public void testBaseSubjectShouldDecodeEncodedWords() {
+        assertEquals("caf\u00e9", ThreadProcessor.getBaseSubject("=?UTF-8?Q?Re=3A_caf=C3=A9?="));
+    }
+
+    @Test
+    public void testBaseSubjectOfEmptySubjectShouldBeEmpty() {
+        assertEquals("", ThreadProcessor.getBaseSubject(""));
+        assertEquals("", ThreadProcessor.getBaseSubject("Re: "));
+    }
+
+    @Test
+    public void testOrderedSubjectShouldGroupMessagesByBaseSubject() {
+        final SelectedMailbox selected = context.mock(SelectedMailbox.class);
+        Map<Long, String> baseSubjects = new HashMap<Long, String>();
+        baseSubjects.put(1L, "A");
+        baseSubjects.put(2L, "B");
+        baseSubjects.put(3L, "A");
+        baseSubjects.put(4L, "C");
+        baseSubjects.put(5L, "B");
+
+        assertEquals(Arrays.asList(
+                new Node(1, Arrays.asList(new Node(3))),
+                new Node(2, Arrays.asList(new Node(5))),
+                new Node(4)),
+            ThreadProcessor.orderedSubjectThreads(Arrays.asList(1L, 2L, 3L, 4L, 5L), baseSubjects, selected, true));
+    }
+
+    @Test
+    public void testOrderedSubjectShouldKeepTheSentDateOrderOfTheMessages() {
+        final SelectedMailbox selected = context.mock(SelectedMailbox.class);
+        Map<Long, String> baseSubjects = new HashMap<Long, String>();
+        baseSubjects.put(1L, "A");
+        baseSubjects.put(2L, "A");
+        baseSubjects.put(3L, "B");
+
+        assertEquals(Arrays.asList(
+                new Node(3),
+                new Node(2, Arrays.asList(new Node(1)))),
+            ThreadProcessor.orderedSubjectThreads(Arrays.asList(3L, 2L, 1L), baseSubjects, selected, true));
+    }
+
+    @Test
+    public void testOrderedSubjectShouldUseSequenceNumbersAndSkipExpungedMessages() {
+        final SelectedMailbox selected = context.mock(SelectedMailbox.class);
+        context.checking(new Expectations() {{
+            allowing(selected).msn(10L); will(returnValue(1));
+            allowing(selected).msn(20L); will(returnValue(SelectedMailbox.NO_SUCH_MESSAGE));
+            allowing(selected).msn(30L); will(returnValue(2));
+        }});
+        Map<Long, String> baseSubjects = new HashMap<Long, String>();
+        baseSubjects.put(10L, "A");
+        baseSubjects.put(20L, "A");
+        baseSubjects.put(30L, "A");
+
+        assertEquals(Arrays.asList(new Node(1, Arrays.asList(new Node(2)))),
+            ThreadProcessor.orderedSubjectThreads(Arrays.asList(10L, 20L, 30L), baseSubjects, selected, false));
+    }
+}
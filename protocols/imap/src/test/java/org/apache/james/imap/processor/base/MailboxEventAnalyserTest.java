@@ -39,6 +39,7 @@ import org.apache.commons.lang.NotImplementedException;
 import org.apache.james.imap.api.ImapSessionState;
 import org.apache.james.imap.api.ImapSessionUtils;
 import org.apache.james.imap.api.process.ImapLineHandler;
+import org.apache.james.imap.api.process.ImapPipeline;
 import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.api.process.SelectedMailbox;
 import org.apache.james.mailbox.MailboxListener;
@@ -482,6 +483,10 @@ public class MailboxEventAnalyserTest {
             return false;
         }
 
+        public ImapPipeline getPipeline() {
+            return null;
+        }
+
         public boolean isTLSActive() {
             return false;
         }
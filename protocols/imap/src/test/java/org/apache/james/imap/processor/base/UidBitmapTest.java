@@ -0,0 +1,108 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UidBitmapTest {
+
+    private UidBitmap testee;
+
+    @Before
+    public void setUp() {
+        testee = new UidBitmap();
+    }
+
+    @Test
+    public void addShouldReturnFalseWhenAlreadyContained() {
+        assertTrue(testee.add(42L));
+        assertFalse(testee.add(42L));
+        assertEquals(1, testee.size());
+    }
+
+    @Test
+    public void containsShouldReturnAddedUids() {
+        testee.add(1L);
+        testee.add(64L);
+        testee.add(1000000L);
+
+        assertTrue(testee.contains(1L));
+        assertTrue(testee.contains(64L));
+        assertTrue(testee.contains(1000000L));
+        assertFalse(testee.contains(63L));
+        assertFalse(testee.contains(65L));
+    }
+
+    @Test
+    public void toListShouldReturnUidsInAscendingOrder() {
+        testee.addAll(Arrays.asList(4294967295L, 130L, 3L, 64L, 63L));
+
+        assertEquals(Arrays.asList(3L, 63L, 64L, 130L, 4294967295L), testee.toList());
+    }
+
+    @Test
+    public void removeShouldRemoveOnlyTheGivenUid() {
+        testee.addAll(Arrays.asList(1L, 2L, 200L));
+
+        assertTrue(testee.remove(2L));
+        assertFalse(testee.remove(2L));
+        assertFalse(testee.remove(300L));
+
+        assertEquals(Arrays.asList(1L, 200L), testee.toList());
+        assertEquals(2, testee.size());
+    }
+
+    @Test
+    public void removeShouldAllowToAddAgainInEmptiedWord() {
+        testee.add(200L);
+        testee.remove(200L);
+        testee.add(201L);
+
+        assertEquals(Arrays.asList(201L), testee.toList());
+    }
+
+    @Test
+    public void addShouldSupportManySparseUids() {
+        for (long uid = 0; uid < 10000; uid++) {
+            testee.add(uid * 100);
+        }
+
+        assertEquals(10000, testee.size());
+        assertTrue(testee.contains(999900L));
+        assertFalse(testee.contains(999901L));
+    }
+
+    @Test
+    public void clearShouldRemoveAllUids() {
+        testee.add(3L);
+        testee.clear();
+
+        assertTrue(testee.isEmpty());
+        assertFalse(testee.contains(3L));
+    }
+
+}
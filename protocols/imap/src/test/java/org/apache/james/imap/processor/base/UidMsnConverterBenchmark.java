@@ -0,0 +1,193 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link UidMsnConverter} with the TreeMap based msn/uid mapping
+ * SelectedMailboxImpl used before.
+ *
+ * The build benchmarks give the footprint of each structure when run with the
+ * GC profiler (-prof gc, see gc.alloc.rate.norm). The expunge benchmarks remove
+ * then restore a message in the middle of the mailbox, the fetch benchmarks
+ * resolve the uids of a 1000 messages msn range.
+ *
+ * Run it from the IDE through {@link #main(String[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UidMsnConverterBenchmark {
+
+    private static final int FETCHED_RANGE = 1000;
+
+    @Param({"10000", "100000"})
+    public int messageCount;
+
+    private UidMsnConverter converter;
+    private TreeMapUidMsn treeMaps;
+    private long middleUid;
+    private int middleMsn;
+
+    @Setup
+    public void setUp() {
+        converter = buildUidMsnConverter();
+        treeMaps = buildTreeMaps();
+        middleMsn = messageCount / 2;
+        middleUid = converter.getUid(middleMsn);
+    }
+
+    @Benchmark
+    public UidMsnConverter buildUidMsnConverter() {
+        UidMsnConverter result = new UidMsnConverter();
+        for (long uid = 1; uid <= messageCount; uid++) {
+            result.addUid(uid);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public TreeMapUidMsn buildTreeMaps() {
+        TreeMapUidMsn result = new TreeMapUidMsn();
+        for (long uid = 1; uid <= messageCount; uid++) {
+            result.add(uid);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public void expungeUidMsnConverter() {
+        converter.remove(middleUid);
+        converter.addUid(middleUid);
+    }
+
+    @Benchmark
+    public void expungeTreeMaps() {
+        treeMaps.expunge(middleUid);
+        // Restore the message at its position: renumbers like an expunge does
+        treeMaps.insert(middleMsn, middleUid);
+    }
+
+    @Benchmark
+    public void fetchRangeUidMsnConverter(Blackhole blackhole) {
+        for (int msn = middleMsn; msn < middleMsn + FETCHED_RANGE; msn++) {
+            blackhole.consume(converter.getUid(msn));
+        }
+    }
+
+    @Benchmark
+    public void fetchRangeTreeMaps(Blackhole blackhole) {
+        for (int msn = middleMsn; msn < middleMsn + FETCHED_RANGE; msn++) {
+            blackhole.consume(treeMaps.uid(msn));
+        }
+    }
+
+    /**
+     * The msn/uid mapping as done by SelectedMailboxImpl before {@link UidMsnConverter}
+     */
+    public static class TreeMapUidMsn {
+
+        private final SortedMap<Integer, Long> msnToUid = new TreeMap<Integer, Long>();
+        private final SortedMap<Long, Integer> uidToMsn = new TreeMap<Long, Integer>();
+        private int highestMsn = 0;
+
+        public void add(long uid) {
+            if (!uidToMsn.containsKey(uid)) {
+                highestMsn++;
+                put(highestMsn, uid);
+            }
+        }
+
+        public long uid(int msn) {
+            Long uid = msnToUid.get(msn);
+            if (uid != null) {
+                return uid;
+            }
+            return -1;
+        }
+
+        public void expunge(long uid) {
+            int msn = uidToMsn.get(uid);
+            remove(msn, uid);
+            List<Integer> renumberMsns = new ArrayList<Integer>(msnToUid.tailMap(msn + 1).keySet());
+            for (Integer aMsn : renumberMsns) {
+                long aUid = uid(aMsn);
+                remove(aMsn, aUid);
+                put(aMsn - 1, aUid);
+            }
+            highestMsn--;
+        }
+
+        public void insert(int msn, long uid) {
+            List<Integer> renumberMsns = new ArrayList<Integer>(msnToUid.tailMap(msn).keySet());
+            for (int i = renumberMsns.size() - 1; i >= 0; i--) {
+                int aMsn = renumberMsns.get(i);
+                long aUid = uid(aMsn);
+                remove(aMsn, aUid);
+                put(aMsn + 1, aUid);
+            }
+            put(msn, uid);
+            highestMsn++;
+        }
+
+        private void put(int msn, long uid) {
+            msnToUid.put(msn, uid);
+            uidToMsn.put(uid, msn);
+        }
+
+        private void remove(int msn, long uid) {
+            uidToMsn.remove(uid);
+            msnToUid.remove(msn);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(UidMsnConverterBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+
+}
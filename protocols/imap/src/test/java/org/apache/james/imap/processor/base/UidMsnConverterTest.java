@@ -0,0 +1,127 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UidMsnConverterTest {
+
+    private UidMsnConverter testee;
+
+    @Before
+    public void setUp() {
+        testee = new UidMsnConverter();
+    }
+
+    @Test
+    public void getUidShouldReturnNoSuchMessageWhenEmpty() {
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getUid(1));
+    }
+
+    @Test
+    public void getMsnShouldReturnNoSuchMessageWhenUnknownUid() {
+        testee.addUid(3L);
+
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getMsn(4L));
+    }
+
+    @Test
+    public void getUidShouldReturnNoSuchMessageWhenOutOfRangeMsn() {
+        testee.addUid(3L);
+
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getUid(0));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getUid(2));
+    }
+
+    @Test
+    public void addUidShouldNumberMessagesInUidOrder() {
+        testee.addUid(7L);
+        testee.addUid(3L);
+        testee.addUid(5L);
+
+        assertEquals(3L, testee.getUid(1));
+        assertEquals(5L, testee.getUid(2));
+        assertEquals(7L, testee.getUid(3));
+        assertEquals(2, testee.getMsn(5L));
+    }
+
+    @Test
+    public void addUidShouldIgnoreKnownUids() {
+        testee.addUid(3L);
+        testee.addUid(5L);
+        testee.addUid(3L);
+
+        assertEquals(2, testee.getNumMessage());
+    }
+
+    @Test
+    public void addUidShouldGrowBeyondInitialCapacity() {
+        for (long uid = 1; uid <= 1000; uid++) {
+            testee.addUid(uid * 2);
+        }
+
+        assertEquals(1000, testee.getNumMessage());
+        assertEquals(500, testee.getMsn(1000L));
+        assertEquals(2000L, testee.getLastUid());
+    }
+
+    @Test
+    public void removeShouldRenumberFollowingMessages() {
+        testee.addUid(3L);
+        testee.addUid(5L);
+        testee.addUid(7L);
+
+        assertEquals(2, testee.remove(5L));
+
+        assertEquals(2, testee.getNumMessage());
+        assertEquals(2, testee.getMsn(7L));
+        assertEquals(7L, testee.getUid(2));
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getUid(3));
+    }
+
+    @Test
+    public void removeShouldReturnNoSuchMessageWhenUnknownUid() {
+        testee.addUid(3L);
+
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.remove(4L));
+        assertEquals(1, testee.getNumMessage());
+    }
+
+    @Test
+    public void firstAndLastUidShouldReturnNoSuchMessageWhenEmpty() {
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getFirstUid());
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getLastUid());
+    }
+
+    @Test
+    public void clearShouldRemoveAllMessages() {
+        testee.addUid(3L);
+        testee.clear();
+
+        assertTrue(testee.isEmpty());
+        assertEquals(SelectedMailbox.NO_SUCH_MESSAGE, testee.getMsn(3L));
+    }
+
+}
@@ -0,0 +1,366 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imap.processor.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import javax.mail.Flags;
+
+import org.apache.james.imap.api.ImapCommand;
+import org.apache.james.imap.api.ImapSessionUtils;
+import org.apache.james.imap.api.message.FetchData;
+import org.apache.james.imap.api.message.response.ImapResponseMessage;
+import org.apache.james.imap.api.message.response.StatusResponse;
+import org.apache.james.imap.api.process.ImapPipeline;
+import org.apache.james.imap.api.process.ImapProcessor;
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.apache.james.imap.encode.FakeImapSession;
+import org.apache.james.imap.message.response.FetchResponse;
+import org.apache.james.imap.message.response.UnpooledStatusResponseFactory;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.exception.MailboxException;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.model.MessageResult.FetchGroup;
+import org.apache.james.mailbox.model.MessageResultIterator;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class FetchProcessorTest {
+
+    // The selected mailbox holds the uids 10, 20, ... 100
+    private static final int MESSAGE_COUNT = 10;
+    private static final int BATCH_SIZE = 3;
+    private static final String TAG = "A1";
+
+    private Mockery mockery = new JUnit4Mockery();
+
+    private FetchProcessor processor;
+    private SelectedMailbox selected;
+    private MessageManager mailbox;
+    private MailboxSession mailboxSession;
+    private FakeImapSession session;
+    private FakePipeline pipeline;
+    private List<ImapResponseMessage> responses;
+    private ImapProcessor.Responder responder;
+    private FetchData fetch;
+
+    @Before
+    public void setUp() throws Exception {
+        selected = mockery.mock(SelectedMailbox.class);
+        mailbox = mockery.mock(MessageManager.class);
+        mailboxSession = mockery.mock(MailboxSession.class);
+        processor = new FetchProcessor(mockery.mock(ImapProcessor.class), mockery.mock(MailboxManager.class), new UnpooledStatusResponseFactory(), BATCH_SIZE);
+        session = new FakeImapSession();
+        session.selected(selected);
+        session.setAttribute(ImapSessionUtils.MAILBOX_SESSION_ATTRIBUTE_SESSION_KEY, mailboxSession);
+        pipeline = new FakePipeline(2);
+        responses = new ArrayList<ImapResponseMessage>();
+        responder = new ImapProcessor.Responder() {
+            public void respond(ImapResponseMessage message) {
+                responses.add(message);
+            }
+        };
+        fetch = new FetchData();
+        fetch.setUid(true);
+
+        mockery.checking(new Expectations() {{
+            allowing(selected).existsCount(); will(returnValue((long) MESSAGE_COUNT));
+            allowing(selected).uid(with(any(Integer.class))); will(new CustomAction("uid of a msn") {
+                public Object invoke(Invocation invocation) {
+                    return (Integer) invocation.getParameter(0) * 10L;
+                }
+            });
+            allowing(selected).msn(with(any(Long.class))); will(new CustomAction("msn of an uid") {
+                public Object invoke(Invocation invocation) {
+                    return (int) ((Long) invocation.getParameter(0) / 10);
+                }
+            });
+            allowing(selected).isSizeChanged(); will(returnValue(false));
+            allowing(selected).isRecentUidRemoved(); will(returnValue(false));
+            allowing(selected).hasNewApplicableFlags(); will(returnValue(false));
+            allowing(selected).flagUpdateUids(); will(returnValue(Collections.emptyList()));
+            allowing(selected).resetEvents();
+            allowing(selected).getPath(); will(returnValue(new MailboxPath("#private", "user", "INBOX")));
+        }});
+    }
+
+    @Test
+    public void firstMsnShouldReturnTheMsnOfTheFirstUidGreaterOrEqual() {
+        assertEquals(1, FetchProcessor.firstMsn(selected, 1, MESSAGE_COUNT));
+        assertEquals(1, FetchProcessor.firstMsn(selected, 10, MESSAGE_COUNT));
+        assertEquals(2, FetchProcessor.firstMsn(selected, 15, MESSAGE_COUNT));
+        assertEquals(MESSAGE_COUNT, FetchProcessor.firstMsn(selected, 100, MESSAGE_COUNT));
+    }
+
+    @Test
+    public void firstMsnShouldReturnCountPlusOneWhenNoUidIsGreater() {
+        assertEquals(MESSAGE_COUNT + 1, FetchProcessor.firstMsn(selected, 101, MESSAGE_COUNT));
+        assertEquals(1, FetchProcessor.firstMsn(selected, 1, 0));
+    }
+
+    @Test
+    public void splitShouldCutBatchesOnTheKnownUids() {
+        assertEquals(Arrays.asList(MessageRange.range(1, 39), MessageRange.range(40, 69), MessageRange.range(70, 99), MessageRange.range(100, 200)),
+                processor.split(selected, MessageRange.range(1, 200)));
+    }
+
+    @Test
+    public void splitShouldStartAndEndWithTheRange() {
+        assertEquals(Arrays.asList(MessageRange.range(25, 59), MessageRange.range(60, 65)),
+                processor.split(selected, MessageRange.range(25, 65)));
+    }
+
+    @Test
+    public void splitShouldReturnTheRangeWhenItHoldsLessThanABatch() {
+        assertEquals(Arrays.asList(MessageRange.range(20, 45)),
+                processor.split(selected, MessageRange.range(20, 45)));
+    }
+
+    @Test
+    public void pipelinedFetchShouldOnlyLoadTheWindowAndSuspendTheSession() throws Exception {
+        allowLoading(null);
+
+        fetchAll();
+
+        assertTrue(pipeline.suspended);
+        assertEquals(2, pipeline.tasks.size());
+        assertTrue(responses.isEmpty());
+    }
+
+    @Test
+    public void pipelinedFetchShouldWriteTheMessagesInOrderThenComplete() throws Exception {
+        allowLoading(null);
+
+        fetchAll();
+        pipeline.runTasks();
+
+        assertFetched(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertTagged(StatusResponse.Type.OK);
+        assertFalse(pipeline.suspended);
+    }
+
+    @Test
+    public void pipelinedFetchShouldWaitForTheFirstBatchWhenTheNextOneIsLoadedFirst() throws Exception {
+        allowLoading(null);
+
+        fetchAll();
+        Runnable first = pipeline.tasks.poll();
+        pipeline.tasks.poll().run();
+
+        assertTrue(responses.isEmpty());
+
+        first.run();
+        pipeline.runTasks();
+
+        assertFetched(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertTagged(StatusResponse.Type.OK);
+    }
+
+    @Test
+    public void pipelinedFetchShouldStopWritingWhileTheSessionIsNotWritable() throws Exception {
+        allowLoading(null);
+        pipeline.writable = false;
+
+        fetchAll();
+        pipeline.runTasks();
+
+        assertTrue(responses.isEmpty());
+        assertTrue(pipeline.suspended);
+
+        pipeline.writable = true;
+        pipeline.notifyWritable();
+        pipeline.runTasks();
+
+        assertFetched(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertTagged(StatusResponse.Type.OK);
+        assertFalse(pipeline.suspended);
+    }
+
+    @Test
+    public void pipelinedFetchShouldRespondNoWhenABatchCanNotBeLoaded() throws Exception {
+        allowLoading(MessageRange.range(40, 69));
+
+        fetchAll();
+        pipeline.runTasks();
+
+        assertFetched(1, 2, 3);
+        assertTagged(StatusResponse.Type.NO);
+        assertFalse(pipeline.suspended);
+    }
+
+    private void fetchAll() {
+        processor.processPipelined(session, pipeline, mailbox, Arrays.asList(MessageRange.range(1, 100)), fetch, false, mailboxSession,
+                ImapCommand.selectedStateCommand("FETCH"), TAG, responder);
+    }
+
+    private void assertFetched(Integer... msns) {
+        List<Integer> fetched = new ArrayList<Integer>();
+        for (ImapResponseMessage response : responses) {
+            if (response instanceof FetchResponse) {
+                fetched.add(((FetchResponse) response).getMessageNumber());
+            }
+        }
+        assertEquals(Arrays.asList(msns), fetched);
+    }
+
+    private void assertTagged(StatusResponse.Type type) {
+        StatusResponse last = (StatusResponse) responses.get(responses.size() - 1);
+        assertEquals(TAG, last.getTag());
+        assertEquals(type, last.getServerResponseType());
+    }
+
+    /**
+     * Let the mailbox return the messages of the requested ranges, failing for the given one
+     */
+    private void allowLoading(final MessageRange failing) throws Exception {
+        mockery.checking(new Expectations() {{
+            allowing(mailbox).getMessages(with(any(MessageRange.class)), with(any(FetchGroup.class)), with(equal(mailboxSession)));
+            will(new CustomAction("load messages") {
+                public Object invoke(Invocation invocation) throws Throwable {
+                    MessageRange range = (MessageRange) invocation.getParameter(0);
+                    if (range.equals(failing)) {
+                        throw new MailboxException("Unable to load " + range);
+                    }
+                    List<MessageResult> results = new ArrayList<MessageResult>();
+                    for (long uid = 10; uid <= MESSAGE_COUNT * 10; uid += 10) {
+                        if (range.includes(uid)) {
+                            results.add(message(uid));
+                        }
+                    }
+                    return new FakeMessageResultIterator(results.iterator());
+                }
+            });
+        }});
+    }
+
+    private MessageResult message(final long uid) {
+        final MessageResult result = mockery.mock(MessageResult.class, "message" + uid);
+        mockery.checking(new Expectations() {{
+            allowing(result).getUid(); will(returnValue(uid));
+            allowing(result).getFlags(); will(returnValue(new Flags()));
+        }});
+        return result;
+    }
+
+    private static class FakeMessageResultIterator implements MessageResultIterator {
+
+        private final Iterator<MessageResult> results;
+
+        public FakeMessageResultIterator(Iterator<MessageResult> results) {
+            this.results = results;
+        }
+
+        public boolean hasNext() {
+            return results.hasNext();
+        }
+
+        public MessageResult next() {
+            return results.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public MailboxException getException() {
+            return null;
+        }
+    }
+
+    /**
+     * {@link ImapPipeline} whose tasks are run by the test
+     */
+    private static class FakePipeline implements ImapPipeline, Executor {
+
+        private final int prefetchWindow;
+        private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+        private Runnable writabilityTask;
+        private boolean writable = true;
+        private boolean suspended;
+
+        public FakePipeline(int prefetchWindow) {
+            this.prefetchWindow = prefetchWindow;
+        }
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        public void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        public void notifyWritable() {
+            Runnable task = writabilityTask;
+            writabilityTask = null;
+            task.run();
+        }
+
+        public Executor getExecutor() {
+            return this;
+        }
+
+        public int getPrefetchWindow() {
+            return prefetchWindow;
+        }
+
+        public boolean isWritable() {
+            return writable;
+        }
+
+        public void whenWritable(Runnable task) {
+            writabilityTask = task;
+        }
+
+        public void suspend() {
+            suspended = true;
+        }
+
+        public void resume() {
+            suspended = false;
+        }
+    }
+}
@@ -18,10 +18,17 @@
  ****************************************************************/
 package org.apache.james.modules.mailbox;
 
+import java.io.FileNotFoundException;
+
 import javax.inject.Singleton;
 
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.james.adapter.mailbox.store.UserRepositoryAuthenticator;
 import org.apache.james.backends.cassandra.components.CassandraModule;
+import org.apache.james.backends.cassandra.init.CassandraTypesProvider;
+import org.apache.james.backends.cassandra.utils.CassandraAsyncExecutor;
+import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxPathLocker;
 import org.apache.james.mailbox.SubscriptionManager;
@@ -41,7 +48,9 @@ import org.apache.james.mailbox.store.mail.ModSeqProvider;
 import org.apache.james.mailbox.store.mail.UidProvider;
 import org.apache.james.mailbox.store.mail.model.MailboxId;
 
+import com.datastax.driver.core.Session;
 import com.google.inject.AbstractModule;
+import com.google.inject.MembersInjector;
 import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.Multibinder;
@@ -75,6 +84,20 @@ public class CassandraMailboxModule extends AbstractModule {
         cassandraDataDefinitions.addBinding().to(org.apache.james.mailbox.cassandra.modules.CassandraUidAndModSeqModule.class);
     }
 
+    @Provides @Singleton
+    public CassandraMailboxSessionMapperFactory provideMailboxSessionMapperFactory(UidProvider<CassandraId> uidProvider, ModSeqProvider<CassandraId> modSeqProvider,
+            Session session, CassandraTypesProvider typesProvider, FileSystem fileSystem,
+            MembersInjector<CassandraMailboxSessionMapperFactory> lifecycle) throws FileNotFoundException, ConfigurationException {
+        PropertiesConfiguration configuration = new PropertiesConfiguration(fileSystem.getFile(FileSystem.FILE_PROTOCOL_AND_CONF + "cassandra.properties"));
+        CassandraMailboxSessionMapperFactory mapperFactory = new CassandraMailboxSessionMapperFactory(uidProvider, modSeqProvider, session, typesProvider);
+        // Registers its @PreDestroy method, which Guice does not see on instances built by provider methods
+        lifecycle.injectMembers(mapperFactory);
+        mapperFactory.setMaxInFlightRequests(configuration.getInt("cassandra.max.in.flight.requests", CassandraAsyncExecutor.DEFAULT_MAX_IN_FLIGHT_REQUESTS));
+        mapperFactory.setMaxPendingStatements(configuration.getInt("cassandra.max.pending.statements", CassandraAsyncExecutor.DEFAULT_MAX_PENDING_STATEMENTS));
+        mapperFactory.setContentDeduplication(configuration.getBoolean("cassandra.content.deduplication", false));
+        return mapperFactory;
+    }
+
     @Provides @Named(MAILBOXMANAGER_NAME) @Singleton
     public MailboxManager provideMailboxManager(CassandraMailboxManager cassandraMailboxManager) throws MailboxException {
         cassandraMailboxManager.init();
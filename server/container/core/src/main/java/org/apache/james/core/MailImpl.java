@@ -39,10 +39,13 @@ import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -111,6 +114,14 @@ public class MailImpl implements Disposable, Mail {
      */
     private Map<String, Object> attributes;
 
+    /**
+     * Attribute value types whose instances can not be modified, and thus
+     * can be shared between mails without being cloned
+     */
+    private static final Set<Class<?>> IMMUTABLE_ATTRIBUTE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, MailAddress.class));
+
     /**
      * A constructor that creates a new, uninitialized MailImpl
      */
@@ -181,6 +192,45 @@ public class MailImpl implements Disposable, Mail {
         }
     }
 
+    /**
+     * Create a copy of the given mail for the given recipients, which are
+     * usually a subset of the recipients of the mail, and assign it a new
+     * name.
+     * <p/>
+     * Unlike {@link #MailImpl(Mail)} the attributes are not all cloned: the
+     * copy gets its own attributes map, a shallow copy of the attributes of
+     * the given mail where only the values of a mutable type are cloned. As
+     * for any copy, the message is shared until one of the mails modifies it.
+     *
+     * @param mail       original mail
+     * @param recipients the recipients of the copy
+     * @return the copy
+     * @throws MessagingException when the message is not clonable
+     */
+    public static MailImpl partition(Mail mail, Collection<MailAddress> recipients) throws MessagingException {
+        MailImpl partition = new MailImpl(newName(mail), mail.getSender(), null, mail.getMessage());
+        partition.setRecipients(recipients);
+        partition.setRemoteHost(mail.getRemoteHost());
+        partition.setRemoteAddr(mail.getRemoteAddr());
+        partition.setLastUpdated(mail.getLastUpdated());
+        HashMap<String, Object> attribs = new HashMap<String, Object>();
+        try {
+            for (Iterator<String> i = mail.getAttributeNames(); i.hasNext(); ) {
+                String hashKey = i.next();
+                Serializable value = mail.getAttribute(hashKey);
+                attribs.put(hashKey, isImmutable(value) ? value : cloneSerializableObject(value));
+            }
+        } catch (IOException e) {
+            // should never happen for in memory streams
+            attribs = new HashMap<String, Object>();
+        } catch (ClassNotFoundException e) {
+            // should never happen as we just serialized it
+            attribs = new HashMap<String, Object>();
+        }
+        partition.setAttributesRaw(attribs);
+        return partition;
+    }
+
     /**
      * A constructor that creates a MailImpl with the specified name, sender,
      * recipients, and message data.
@@ -603,6 +653,10 @@ public class MailImpl implements Disposable, Mail {
         return !attributes.isEmpty();
     }
 
+    private static boolean isImmutable(Object value) {
+        return value == null || IMMUTABLE_ATTRIBUTE_TYPES.contains(value.getClass());
+    }
+
     /**
      * This methods provide cloning for serializable objects. Mail Attributes
      * are Serializable but not Clonable so we need a deep copy
@@ -25,6 +25,8 @@ import org.apache.mailet.Mail;
 
 import javax.mail.MessagingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -102,4 +104,53 @@ public class MailImplTest extends MailTestAllImplementations {
         helperTestInitialState(duplicate);
         helperTestMessageSize(duplicate, 0);
     }
+
+    @Test
+    public void testPartition() throws MessagingException {
+        MailAddress recipient1 = new MailAddress("rcpt1@localhost");
+        MailAddress recipient2 = new MailAddress("rcpt2@localhost");
+        FakeMimeMessage mimeMessage = new FakeMimeMessage();
+        MailImpl mail = new MailImpl("name", new MailAddress("sender@localhost"), Arrays.asList(recipient1, recipient2), mimeMessage);
+        mail.setRemoteHost("host");
+
+        MailImpl partition = MailImpl.partition(mail, Arrays.asList(recipient2));
+
+        assertFalse("new name", mail.getName().equals(partition.getName()));
+        assertEquals("sender", mail.getSender(), partition.getSender());
+        assertEquals("recipients", Arrays.asList(recipient2), partition.getRecipients());
+        assertEquals("remote host", "host", partition.getRemoteHost());
+        assertEquals("message", mimeMessage.getMessageID(), partition.getMessage().getMessageID());
+    }
+
+    @Test
+    public void testPartitionAttributesAreIsolated() throws MessagingException {
+        MailImpl mail = new MailImpl("name", null, new ArrayList<MailAddress>());
+        mail.setAttribute("shared", "value");
+        mail.setAttribute("removed", "value");
+
+        MailImpl partition = MailImpl.partition(mail, new ArrayList<MailAddress>());
+        partition.setAttribute("partition", "value");
+        partition.removeAttribute("removed");
+        mail.setAttribute("original", "value");
+
+        assertEquals("value", partition.getAttribute("shared"));
+        assertNull(partition.getAttribute("original"));
+        assertEquals("value", mail.getAttribute("removed"));
+        assertNull(mail.getAttribute("partition"));
+    }
+
+    @Test
+    public void testPartitionClonesMutableAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl("name", null, new ArrayList<MailAddress>());
+        ArrayList<String> values = new ArrayList<String>();
+        mail.setAttribute("list", values);
+
+        MailImpl partition = MailImpl.partition(mail, new ArrayList<MailAddress>());
+        @SuppressWarnings("unchecked")
+        List<String> partitionValues = (List<String>) partition.getAttribute("list");
+        partitionValues.add("value");
+
+        assertNotSame(values, partitionValues);
+        assertTrue(values.isEmpty());
+    }
 }
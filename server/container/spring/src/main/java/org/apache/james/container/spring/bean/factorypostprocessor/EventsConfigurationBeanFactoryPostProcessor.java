@@ -91,6 +91,8 @@ public class EventsConfigurationBeanFactoryPostProcessor implements BeanFactoryP
             return "json-event-serializer";
         } else if (serialization.equals("message-pack")) {
             return "message-pack-event-serializer";
+        } else if (serialization.equals("binary")) {
+            return "binary-event-serializer";
         }
         return null;
     }
@@ -113,6 +115,8 @@ public class EventsConfigurationBeanFactoryPostProcessor implements BeanFactoryP
             return  "asynchronous-event-delivery";
         } else if (delivery.equals("mixed")) {
             return  "mixed-event-delivery";
+        } else if (delivery.equals("parallel")) {
+            return  "parallel-event-delivery";
         }
         return null;
     }
@@ -72,6 +72,11 @@ public class MailboxConfigurationBeanFactoryPostProcessor implements BeanFactory
                 subscription = "maildir-subscriptionManager";
                 messageMapperFactory = "maildir-sessionMapperFactory";
                 mailboxIdDeserializer = "maildir-mailbox-id-deserializer";
+            } else if (provider.equalsIgnoreCase("maildir-caching")) {
+                mailbox = "maildir-caching-mailboxmanager";
+                subscription = "maildir-subscriptionManager";
+                messageMapperFactory = "maildir-caching-sessionMapperFactory";
+                mailboxIdDeserializer = "maildir-mailbox-id-deserializer";
             } else if (provider.equalsIgnoreCase("hbase")) {
                 mailbox = "hbase-mailboxmanager";
                 subscription = "hbase-subscriptionManager";
@@ -57,6 +57,19 @@ public interface SieveRepository {
     List<ScriptSummary> listScripts(String user) throws UserNotFoundException, StorageException;
     
     InputStream getActive(String user) throws UserNotFoundException, ScriptNotFoundException, StorageException;
+
+    /**
+     * Return the time, in milliseconds, of the last modification of the active script of the
+     * user. It changes whenever the content of the active script changes or another script is
+     * activated, so that callers can cache what they derive from the active script.
+     *
+     * @param user
+     * @return the modification time of the active script
+     * @throws UserNotFoundException
+     * @throws ScriptNotFoundException when the user has no active script
+     * @throws StorageException
+     */
+    long getActiveModificationTime(String user) throws UserNotFoundException, ScriptNotFoundException, StorageException;
     
     void setActive(String user, String name) throws UserNotFoundException, ScriptNotFoundException, StorageException;
     
@@ -78,6 +78,19 @@ public class SieveDefaultRepository implements SieveRepository {
         }
     }
 
+    @Override
+    public long getActiveModificationTime(String user) throws UserNotFoundException, ScriptNotFoundException, StorageException {
+        try {
+            File file = retrieveUserFile(user);
+            if (!file.exists()) {
+                throw new ScriptNotFoundException();
+            }
+            return file.lastModified();
+        } catch (FileNotFoundException e) {
+            throw new ScriptNotFoundException();
+        }
+    }
+
     public File retrieveUserFile(String user) throws FileNotFoundException {
         // RFC 5228 permits extensions: .siv .sieve
         String sieveFilePrefix = FileSystem.FILE_PROTOCOL + "sieve/" + user + ".";
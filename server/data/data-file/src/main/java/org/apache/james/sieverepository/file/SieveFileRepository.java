@@ -48,6 +48,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <code>SieveFileRepository</code> manages sieve scripts stored on the file system.
@@ -67,6 +69,11 @@ public class SieveFileRepository implements SieveRepository {
 
     private FileSystem _fileSystem = null;
     private final Object lock = new Object();
+    /**
+     * Time of the last change made through this repository to the scripts of each user. File
+     * times may be too coarse to tell apart two changes made in the same second.
+     */
+    private final ConcurrentMap<String, Long> modificationTimes = new ConcurrentHashMap<String, Long>();
 
     /**
      * Read a file with the specified encoding into a String
@@ -257,6 +264,7 @@ public class SieveFileRepository implements SieveRepository {
             File file = new File(getUserDirectory(user), name);
             haveSpace(user, name, content.length());
             toFile(file, content);
+            updateModificationTime(user);
         }
     }
 
@@ -274,6 +282,7 @@ public class SieveFileRepository implements SieveRepository {
                 FileUtils.copyFile(oldFile, newFile);
                 if (isActiveFile(user, oldFile)) {
                     setActiveFile(newFile, user, true);
+                    updateModificationTime(user);
                 }
                 FileUtils.forceDelete(oldFile);
             } catch (IOException ex) {
@@ -294,6 +303,22 @@ public class SieveFileRepository implements SieveRepository {
         return script;
     }
 
+    @Override
+    public long getActiveModificationTime(final String user) throws UserNotFoundException,
+            ScriptNotFoundException, StorageException {
+        File activeFile = getActiveFile(user);
+        if (!activeFile.exists()) {
+            throw new ScriptNotFoundException("There is no active script.");
+        }
+        long modificationTime = Math.max(activeFile.lastModified(),
+                new File(activeFile.getParentFile(), FILE_NAME_ACTIVE).lastModified());
+        Long lastChange = modificationTimes.get(user);
+        if (lastChange != null) {
+            modificationTime = Math.max(modificationTime, lastChange);
+        }
+        return modificationTime;
+    }
+
     @Override
     public void setActive(final String user, final String name) throws UserNotFoundException,
             ScriptNotFoundException, StorageException {
@@ -317,9 +342,19 @@ public class SieveFileRepository implements SieveRepository {
                     throw ex;
                 }
             }
+            updateModificationTime(user);
         }
     }
 
+    /**
+     * Record a change to the scripts of the user, always later than the previous one
+     */
+    private void updateModificationTime(String user) {
+        long now = System.currentTimeMillis();
+        Long lastChange = modificationTimes.get(user);
+        modificationTimes.put(user, lastChange == null ? now : Math.max(now, lastChange + 1));
+    }
+
     protected File getSieveRootDirectory() throws StorageException {
         try {
             return _fileSystem.getFile(SIEVE_ROOT);
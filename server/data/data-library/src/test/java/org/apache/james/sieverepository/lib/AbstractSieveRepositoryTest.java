@@ -181,6 +181,31 @@ public abstract class AbstractSieveRepositoryTest {
         assertThat(getScriptContent(sieveRepository.getActive(USER))).isEqualTo(OTHER_SCRIPT_CONTENT);
     }
 
+    @Test(expected = ScriptNotFoundException.class)
+    public void getActiveModificationTimeShouldThrowWhenNoActiveScript() throws Exception {
+        sieveRepository.putScript(USER, SCRIPT_NAME, SCRIPT_CONTENT);
+        sieveRepository.getActiveModificationTime(USER);
+    }
+
+    @Test
+    public void getActiveModificationTimeShouldChangeWhenActiveScriptIsModified() throws Exception {
+        sieveRepository.putScript(USER, SCRIPT_NAME, SCRIPT_CONTENT);
+        sieveRepository.setActive(USER, SCRIPT_NAME);
+        long modificationTime = sieveRepository.getActiveModificationTime(USER);
+        sieveRepository.putScript(USER, SCRIPT_NAME, OTHER_SCRIPT_CONTENT);
+        assertThat(sieveRepository.getActiveModificationTime(USER)).isNotEqualTo(modificationTime);
+    }
+
+    @Test
+    public void getActiveModificationTimeShouldChangeWhenActiveScriptIsSwitched() throws Exception {
+        sieveRepository.putScript(USER, SCRIPT_NAME, SCRIPT_CONTENT);
+        sieveRepository.setActive(USER, SCRIPT_NAME);
+        sieveRepository.putScript(USER, OTHER_SCRIPT_NAME, OTHER_SCRIPT_CONTENT);
+        long modificationTime = sieveRepository.getActiveModificationTime(USER);
+        sieveRepository.setActive(USER, OTHER_SCRIPT_NAME);
+        assertThat(sieveRepository.getActiveModificationTime(USER)).isNotEqualTo(modificationTime);
+    }
+
     @Test(expected = ScriptNotFoundException.class)
     public void switchOffActiveScriptShouldWork() throws Exception {
         sieveRepository.putScript(USER, SCRIPT_NAME, SCRIPT_CONTENT);
@@ -36,4 +36,44 @@ public interface MailSpoolerMBean {
      */
     int getCurrentSpoolCount();
 
+    /**
+     * Return the maximum count of mails dequeued but not done yet
+     * 
+     * @return concurrencyLimit
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Return the count of mails dequeued but not done yet
+     * 
+     * @return inFlightCount
+     */
+    int getInFlightCount();
+
+    /**
+     * 
+     * @return count of mails processed since startup
+     */
+    long getProcessedMailCount();
+
+    /**
+     * Return the median of the time spent between the dequeue and the end of
+     * the processing of the last mails
+     * 
+     * @return latency in milliseconds
+     */
+    long getLatencyMedianInMillis();
+
+    /**
+     * @see #getLatencyMedianInMillis()
+     * @return latency in milliseconds
+     */
+    long getLatency95thPercentileInMillis();
+
+    /**
+     * @see #getLatencyMedianInMillis()
+     * @return latency in milliseconds
+     */
+    long getLatency99thPercentileInMillis();
+
 }
@@ -0,0 +1,148 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the count of mails being processed at once.
+ *
+ * The limit can be adapted to the observed latencies with {@link #adjust()}, in an additive increase, multiplicative
+ * decrease fashion: when the average latency of the last interval climbs over twice the lowest one seen recently,
+ * the workers are assumed to contend with each other (CPU, remote services) and the limit shrinks by 10%. When it
+ * does not and the limit was reached, the limit grows by 10%.
+ */
+class ConcurrencyLimiter {
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double DECREASE_FACTOR = 0.9;
+    private static final double INCREASE_FACTOR = 0.1;
+    /**
+     * The lowest latency is forgotten after this count of adjustments, so that the limit follows the load changes
+     */
+    private static final int BASELINE_RESET_INTERVAL = 60;
+
+    private static class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        public ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        public void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    private final ResizableSemaphore permits;
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile int limit;
+    private int inFlight = 0;
+    private int maxInFlightInInterval = 0;
+    private long latencySumInInterval = 0;
+    private long latencyCountInInterval = 0;
+    private long baselineLatency = Long.MAX_VALUE;
+    private int adjustmentCount = 0;
+
+    public ConcurrencyLimiter(int limit) {
+        this(limit, limit, limit);
+    }
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.permits = new ResizableSemaphore(initialLimit);
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Wait for the count of mails being processed to fall under the limit
+     */
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+        synchronized (this) {
+            inFlight++;
+            maxInFlightInInterval = Math.max(maxInFlightInInterval, inFlight);
+        }
+    }
+
+    /**
+     * Release the permit of a mail whose processing is over
+     *
+     * @param latencyInMillis the processing time, or a negative value if the mail was not processed
+     */
+    public void release(long latencyInMillis) {
+        synchronized (this) {
+            inFlight--;
+            if (latencyInMillis >= 0) {
+                latencySumInInterval += latencyInMillis;
+                latencyCountInInterval++;
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Adapt the limit to the latencies recorded since the last call
+     *
+     * @return the new limit
+     */
+    public synchronized int adjust() {
+        if (latencyCountInInterval == 0) {
+            return limit;
+        }
+        long averageLatency = latencySumInInterval / latencyCountInInterval;
+        if (++adjustmentCount % BASELINE_RESET_INTERVAL == 0) {
+            baselineLatency = averageLatency;
+        }
+        baselineLatency = Math.min(baselineLatency, averageLatency);
+        int newLimit = limit;
+        if (averageLatency > Math.max(1, baselineLatency) * LATENCY_TOLERANCE) {
+            newLimit = Math.max(minLimit, Math.min(limit - 1, (int) (limit * DECREASE_FACTOR)));
+        } else if (maxInFlightInInterval >= limit) {
+            newLimit = Math.min(maxLimit, limit + Math.max(1, (int) (limit * INCREASE_FACTOR)));
+        }
+        setLimit(newLimit);
+        latencySumInInterval = 0;
+        latencyCountInInterval = 0;
+        maxInFlightInInterval = inFlight;
+        return limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void setLimit(int newLimit) {
+        if (newLimit > limit) {
+            permits.release(newLimit - limit);
+        } else if (newLimit < limit) {
+            permits.reduce(limit - newLimit);
+        }
+        limit = newLimit;
+    }
+
+}
@@ -39,6 +39,10 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -46,6 +50,17 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Manages the mail spool. This class is responsible for retrieving messages
  * from the spool, directing messages to the appropriate processor, and removing
  * them from the spool when processing is complete.
+ * <p/>
+ * A mail is only dequeued once it can be processed: the count of mails
+ * dequeued but not done yet is bounded by <code>maxInFlight</code> (which
+ * defaults to the count of threads), so that a burst stays in the queue
+ * instead of piling up in memory.
+ * <p/>
+ * When <code>adaptive</code> is enabled, this bound and the count of worker
+ * threads are adapted every second to the processing latency, between
+ * <code>minThreads</code> and <code>maxInFlight</code>: they shrink when the
+ * latency climbs, and grow while all the workers are busy and the latency
+ * holds. <code>maxInFlight</code> can then not exceed <code>threads</code>.
  */
 public class JamesMailSpooler implements Runnable, Disposable, Configurable, LogEnabled, MailSpoolerMBean {
 
@@ -86,6 +101,25 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
     private int numDequeueThreads;
 
+    private int maxInFlight;
+
+    private boolean adaptive;
+
+    private int minThreads;
+
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    private ScheduledExecutorService adaptationService;
+
+    /**
+     * Dequeue to done latencies of the last processed mails
+     */
+    private final LatencyReservoir latencies = new LatencyReservoir(LATENCY_SAMPLE_COUNT);
+
+    private static final int LATENCY_SAMPLE_COUNT = 1024;
+
+    private static final long ADAPTATION_INTERVAL_IN_MILLIS = 1000;
+
     @Inject
     public void setMailQueueFactory(MailQueueFactory queueFactory) {
         this.queueFactory = queueFactory;
@@ -103,6 +137,19 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         numDequeueThreads = config.getInt("dequeueThreads", 2);
 
         numThreads = config.getInt("threads", 100);
+
+        maxInFlight = config.getInt("maxInFlight", numThreads);
+
+        adaptive = config.getBoolean("adaptive", false);
+
+        minThreads = config.getInt("minThreads", Math.max(1, Math.min(maxInFlight, numThreads) / 10));
+
+        if (maxInFlight < 1 || minThreads < 1 || minThreads > numThreads) {
+            throw new ConfigurationException("maxInFlight and minThreads must be positive, and minThreads can not exceed threads");
+        }
+        if (adaptive && (maxInFlight > numThreads || minThreads > maxInFlight)) {
+            throw new ConfigurationException("With adaptive, maxInFlight can not exceed threads, and minThreads can not exceed maxInFlight");
+        }
     }
 
     /**
@@ -120,7 +167,23 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         }
 
         active.set(true);
-        workerService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "spooler", numThreads);
+        final JMXEnabledThreadPoolExecutor workerPool = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "spooler", numThreads);
+        workerService = workerPool;
+        if (adaptive) {
+            concurrencyLimiter = new ConcurrencyLimiter(maxInFlight, minThreads, maxInFlight);
+            adaptationService = Executors.newSingleThreadScheduledExecutor();
+            adaptationService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    int limit = concurrencyLimiter.adjust();
+                    if (limit != workerPool.getCorePoolSize()) {
+                        workerPool.setCorePoolSize(limit);
+                    }
+                }
+            }, ADAPTATION_INTERVAL_IN_MILLIS, ADAPTATION_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            concurrencyLimiter = new ConcurrencyLimiter(maxInFlight);
+        }
         dequeueService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "dequeuer", numDequeueThreads);
 
         for (int i = 0; i < numDequeueThreads; i++) {
@@ -144,8 +207,23 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         while (active.get()) {
 
             final MailQueueItem queueItem;
+            try {
+                concurrencyLimiter.acquire();
+            } catch (InterruptedException e) {
+                continue;
+            }
             try {
                 queueItem = queue.deQueue();
+            } catch (MailQueueException e1) {
+                concurrencyLimiter.release(-1);
+                if (active.get() && logger.isErrorEnabled()) {
+                    logger.error("Exception dequeue mail", e1);
+
+                }
+                continue;
+            }
+            final long dequeuedAt = System.currentTimeMillis();
+            try {
                 workerService.execute(new Runnable() {
 
                     @Override
@@ -181,16 +259,22 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
                             }
                         } finally {
+                            long latency = System.currentTimeMillis() - dequeuedAt;
+                            latencies.record(latency);
+                            concurrencyLimiter.release(latency);
                             processingActive.decrementAndGet();
                             numActive.decrementAndGet();
                         }
 
                     }
                 });
-            } catch (MailQueueException e1) {
-                if (active.get() && logger.isErrorEnabled()) {
-                    logger.error("Exception dequeue mail", e1);
-
+            } catch (RejectedExecutionException e) {
+                // The spooler is being disposed: give the mail back to the queue
+                concurrencyLimiter.release(-1);
+                try {
+                    queueItem.done(false);
+                } catch (MailQueueException e1) {
+                    logger.error("Unable to give back mail " + queueItem.getMail().getName() + " to the queue", e1);
                 }
             }
         }
@@ -214,6 +298,9 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
     public void dispose() {
         logger.info(getClass().getName() + " dispose...");
         active.set(false); // shutdown the threads
+        if (adaptationService != null) {
+            adaptationService.shutdownNow();
+        }
         dequeueService.shutdownNow();
         workerService.shutdown();
 
@@ -242,4 +329,34 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
     public int getCurrentSpoolCount() {
         return processingActive.get();
     }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return concurrencyLimiter.getLimit();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return concurrencyLimiter.getInFlight();
+    }
+
+    @Override
+    public long getProcessedMailCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getLatencyMedianInMillis() {
+        return latencies.getPercentile(50);
+    }
+
+    @Override
+    public long getLatency95thPercentileInMillis() {
+        return latencies.getPercentile(95);
+    }
+
+    @Override
+    public long getLatency99thPercentileInMillis() {
+        return latencies.getPercentile(99);
+    }
 }
@@ -0,0 +1,64 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last latencies recorded, to compute their percentiles.
+ */
+class LatencyReservoir {
+
+    private final long[] samples;
+    private int next = 0;
+    private long count = 0;
+
+    public LatencyReservoir(int size) {
+        this.samples = new long[size];
+    }
+
+    public synchronized void record(long latencyInMillis) {
+        samples[next] = latencyInMillis;
+        next = (next + 1) % samples.length;
+        count++;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the given percentile of the kept latencies, 0 if none was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot;
+        synchronized (this) {
+            snapshot = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        if (snapshot.length == 0) {
+            return 0;
+        }
+        Arrays.sort(snapshot);
+        int rank = (int) Math.ceil(percentile / 100 * snapshot.length) - 1;
+        return snapshot[Math.max(0, Math.min(rank, snapshot.length - 1))];
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+}
@@ -21,8 +21,10 @@ package org.apache.james.mailetcontainer.impl.camel;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import javax.mail.MessagingException;
 
@@ -41,6 +43,10 @@ import org.slf4j.Logger;
 /**
  * A Splitter for use with Camel to split the MailMessage into many pieces if
  * needed. This is done by use a Matcher.
+ * <p/>
+ * The mail created for the matched recipients is a
+ * {@link MailImpl#partition(Mail, Collection)} of the original mail: it shares
+ * the message and the attributes with it until one of them modifies them.
  */
 @InOnly
 public class MatcherSplitter {
@@ -114,12 +120,15 @@ public class MatcherSplitter {
 
             // check if the matcher matched
             if (matchedRcpts != null && !matchedRcpts.isEmpty()) {
-                List<MailAddress> rcpts = new ArrayList<MailAddress>(mail.getRecipients());
-
-                for (MailAddress matchedRcpt : matchedRcpts) {
-                    // loop through the recipients and remove the recipients
-                    // that matched
-                    rcpts.remove(matchedRcpt);
+                // keep the recipients that did not match, using a set
+                // so that large recipient lists are not scanned once per
+                // matched recipient
+                Set<MailAddress> matchedRcptSet = new HashSet<MailAddress>(matchedRcpts);
+                List<MailAddress> rcpts = new ArrayList<MailAddress>(mail.getRecipients().size());
+                for (MailAddress rcpt : mail.getRecipients()) {
+                    if (!matchedRcptSet.contains(rcpt)) {
+                        rcpts.add(rcpt);
+                    }
                 }
 
                 if (rcpts.isEmpty()) {
@@ -128,8 +137,7 @@ public class MatcherSplitter {
                 } else {
                     mail.setRecipients(rcpts);
 
-                    Mail newMail = new MailImpl(mail);
-                    newMail.setRecipients(matchedRcpts);
+                    Mail newMail = MailImpl.partition(mail, matchedRcpts);
 
                     // Set a header because the matcher matched. This can be
                     // used later when processing the route
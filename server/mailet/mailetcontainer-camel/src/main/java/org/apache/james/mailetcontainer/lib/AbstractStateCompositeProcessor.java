@@ -21,11 +21,16 @@ package org.apache.james.mailetcontainer.lib;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.mail.MessagingException;
 
 import org.apache.commons.configuration.ConfigurationException;
@@ -35,22 +40,47 @@ import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.mailetcontainer.api.MailProcessor;
 import org.apache.james.mailetcontainer.impl.jmx.JMXStateCompositeProcessorListener;
+import org.apache.james.queue.api.MailQueue;
+import org.apache.james.queue.api.MailQueueFactory;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
 /**
  * Abstract base class for {@link org.apache.james.mailetcontainer.impl.camel.CamelCompositeProcessor} which service the
  * {@link Mail} with a {@link org.apache.james.mailetcontainer.impl.camel.CamelProcessor} instances
+ * <p/>
+ * The count of mails a processor handles at once can be limited with its <code>maxConcurrency</code> attribute, so
+ * that a processor waiting on a slow remote service (DNS, anti-virus) can not hold all the spooler threads. As the
+ * processors hand the mails over to each other synchronously, a thread waiting for a slot would be as stuck as the
+ * ones holding them: a mail reaching a saturated processor is instead put back on the spool in its current state,
+ * to be dequeued again after {@link #SATURATED_PROCESSOR_RETRY_DELAY_IN_MILLIS}.
  */
 public abstract class AbstractStateCompositeProcessor implements MailProcessor, Configurable, LogEnabled {
 
     private final List<CompositeProcessorListener> listeners = Collections.synchronizedList(new ArrayList<CompositeProcessorListener>());
     private final Map<String, MailProcessor> processors = new HashMap<String, MailProcessor>();
+    private final Map<String, Semaphore> concurrencyLimits = new HashMap<String, Semaphore>();
+    // The states whose slot the current thread holds, as a processor can hand a mail back to a previous one
+    private final ThreadLocal<Set<String>> heldStates = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new HashSet<String>();
+        }
+    };
+
+    public static final long SATURATED_PROCESSOR_RETRY_DELAY_IN_MILLIS = 1000;
     protected Logger logger;
     protected HierarchicalConfiguration config;
 
     private JMXStateCompositeProcessorListener jmxListener;
     private boolean enableJmx = true;
+    private MailQueueFactory queueFactory;
+    private MailQueue spool;
+
+    @Inject
+    public void setMailQueueFactory(MailQueueFactory queueFactory) {
+        this.queueFactory = queueFactory;
+    }
 
     /**
      * @see org.apache.james.lifecycle.api.LogEnabled#setLog(org.slf4j.Logger)
@@ -93,7 +123,17 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
         MailProcessor processor = getProcessor(mail.getState());
 
         if (processor != null) {
-            logger.debug("Call MailProcessor " + mail.getState());
+            String state = mail.getState();
+            boolean acquired = false;
+            if (mustAcquireConcurrencySlot(state)) {
+                if (!concurrencyLimits.get(state).tryAcquire()) {
+                    park(mail);
+                    return;
+                }
+                heldStates.get().add(state);
+                acquired = true;
+            }
+            logger.debug("Call MailProcessor " + state);
             try {
                 processor.service(mail);
 
@@ -109,6 +149,9 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
                 ex = e;
                 throw e;
             } finally {
+                if (acquired) {
+                    releaseConcurrencySlot(state);
+                }
                 long end = System.currentTimeMillis() - start;
                 for (CompositeProcessorListener listener : listeners) {
                     listener.afterProcessor(processor, mail.getName(), end, ex);
@@ -119,6 +162,27 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
         }
     }
 
+    /**
+     * A thread which already holds the slot of a state, because a processor handed the mail back to a previous one,
+     * does not need another one
+     */
+    private boolean mustAcquireConcurrencySlot(String state) {
+        return concurrencyLimits.containsKey(state) && !heldStates.get().contains(state);
+    }
+
+    /**
+     * Put the mail back on the spool, in its current state, as its processor is saturated
+     */
+    private void park(Mail mail) throws MessagingException {
+        logger.debug("Processor " + mail.getState() + " is saturated, spooling mail " + mail.getName() + " again");
+        spool.enQueue(mail, SATURATED_PROCESSOR_RETRY_DELAY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void releaseConcurrencySlot(String state) {
+        heldStates.get().remove(state);
+        concurrencyLimits.get(state).release();
+    }
+
     /**
      * Return a {@link MailProcessor} for a given state
      * 
@@ -172,6 +236,10 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
                 processorConf.addProperty("[@enableJmx]", enableJmx);
             }
             processors.put(processorName, createMailProcessor(processorName, processorConf));
+            int maxConcurrency = processorConf.getInt("[@maxConcurrency]", 0);
+            if (maxConcurrency > 0) {
+                concurrencyLimits.put(processorName, new Semaphore(maxConcurrency));
+            }
         }
 
         if (enableJmx) {
@@ -181,6 +249,13 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
 
         // check if all needed processors are configured
         checkProcessors();
+
+        if (!concurrencyLimits.isEmpty()) {
+            if (queueFactory == null) {
+                throw new ConfigurationException("maxConcurrency needs a MailQueueFactory to put the mails back on the spool");
+            }
+            spool = queueFactory.getQueue(MailQueueFactory.SPOOL);
+        }
     }
 
     @PreDestroy
@@ -0,0 +1,127 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void acquireShouldBlockOnceTheLimitIsReached() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        limiter.acquire();
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    // test over
+                }
+            }
+        };
+        thread.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(10);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void adjustShouldNotChangeTheLimitWithoutSamples() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20);
+
+        assertEquals(10, limiter.adjust());
+    }
+
+    @Test
+    public void adjustShouldGrowTheLimitWhenSaturatedWithAStableLatency() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20);
+        process(limiter, 10, 100);
+
+        assertEquals(11, limiter.adjust());
+    }
+
+    @Test
+    public void adjustShouldNotGrowTheLimitWhenNotSaturated() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20);
+        process(limiter, 5, 100);
+
+        assertEquals(10, limiter.adjust());
+    }
+
+    @Test
+    public void adjustShouldShrinkTheLimitWhenTheLatencyClimbs() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20);
+        process(limiter, 5, 100);
+        limiter.adjust();
+        process(limiter, 5, 1000);
+
+        assertEquals(9, limiter.adjust());
+    }
+
+    @Test
+    public void adjustShouldRespectTheBounds() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 3);
+        process(limiter, 2, 100);
+        assertEquals(3, limiter.adjust());
+        process(limiter, 3, 100);
+        assertEquals(3, limiter.adjust());
+        process(limiter, 1, 10000);
+        assertEquals(2, limiter.adjust());
+        process(limiter, 1, 10000);
+        assertEquals(2, limiter.adjust());
+    }
+
+    @Test
+    public void shrinkingShouldApplyOnceInFlightMailsAreDone() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20);
+        process(limiter, 5, 100);
+        limiter.adjust();
+        process(limiter, 5, 1000);
+        limiter.adjust();
+
+        for (int i = 0; i < 9; i++) {
+            limiter.acquire();
+        }
+        assertEquals(9, limiter.getInFlight());
+    }
+
+    private void process(ConcurrencyLimiter limiter, int concurrentMails, long latency) throws InterruptedException {
+        for (int i = 0; i < concurrentMails; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < concurrentMails; i++) {
+            limiter.release(latency);
+        }
+    }
+
+}
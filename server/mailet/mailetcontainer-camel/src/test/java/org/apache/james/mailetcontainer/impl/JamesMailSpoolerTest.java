@@ -0,0 +1,198 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.DefaultConfigurationBuilder;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MailImpl;
+import org.apache.james.mailetcontainer.api.MailProcessor;
+import org.apache.james.queue.api.MailQueue;
+import org.apache.james.queue.api.MailQueueFactory;
+import org.apache.mailet.Mail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class JamesMailSpoolerTest {
+
+    private final BlockingSpool spool = new BlockingSpool();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger processing = new AtomicInteger();
+    private final AtomicInteger maxProcessing = new AtomicInteger();
+    private JamesMailSpooler spooler;
+
+    @Before
+    public void setUp() {
+        spooler = new JamesMailSpooler();
+        spooler.setLog(LoggerFactory.getLogger("MockLog"));
+        spooler.setMailQueueFactory(spool);
+        spooler.setMailProcessor(new MailProcessor() {
+            @Override
+            public void service(Mail mail) throws MessagingException {
+                int current = processing.incrementAndGet();
+                synchronized (maxProcessing) {
+                    maxProcessing.set(Math.max(maxProcessing.get(), current));
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new MessagingException("Interrupted");
+                } finally {
+                    processing.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void spoolerShouldNotProcessMoreThanMaxInFlightMailsAtOnce() throws Exception {
+        spooler.configure(createConfig("<threads>10</threads><maxInFlight>2</maxInFlight><dequeueThreads>1</dequeueThreads>"));
+        spooler.init();
+        try {
+            for (int i = 0; i < 5; i++) {
+                spool.enQueue(new MailImpl());
+            }
+
+            waitUntil(2, processing);
+            Thread.sleep(200);
+
+            assertEquals(2, maxProcessing.get());
+            assertEquals(2, spooler.getInFlightCount());
+            assertEquals(3, spool.mails.size());
+            release.countDown();
+            waitUntilProcessed(5);
+            assertEquals(2, maxProcessing.get());
+        } finally {
+            release.countDown();
+            spooler.dispose();
+        }
+    }
+
+    @Test
+    public void adaptiveLimitShouldNotExceedMaxInFlight() throws Exception {
+        spooler.configure(createConfig("<threads>10</threads><maxInFlight>4</maxInFlight><minThreads>2</minThreads><adaptive>true</adaptive>"));
+        spooler.init();
+        try {
+            for (int i = 0; i < 10; i++) {
+                spool.enQueue(new MailImpl());
+            }
+
+            waitUntil(4, processing);
+            Thread.sleep(200);
+
+            assertEquals(4, spooler.getConcurrencyLimit());
+            assertEquals(4, maxProcessing.get());
+        } finally {
+            release.countDown();
+            spooler.dispose();
+        }
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void configureShouldRejectAnAdaptiveMaxInFlightAboveThreads() throws Exception {
+        spooler.configure(createConfig("<threads>10</threads><maxInFlight>20</maxInFlight><adaptive>true</adaptive>"));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void configureShouldRejectAnAdaptiveMinThreadsAboveMaxInFlight() throws Exception {
+        spooler.configure(createConfig("<threads>10</threads><maxInFlight>4</maxInFlight><minThreads>5</minThreads><adaptive>true</adaptive>"));
+    }
+
+    private void waitUntil(int expected, AtomicInteger value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (value.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, value.get());
+    }
+
+    private void waitUntilProcessed(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (spooler.getProcessedMailCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(spooler.getProcessedMailCount() >= expected);
+    }
+
+    private HierarchicalConfiguration createConfig(String spoolerConfig) throws ConfigurationException {
+        DefaultConfigurationBuilder builder = new DefaultConfigurationBuilder();
+        builder.load(new ByteArrayInputStream(("<?xml version=\"1.0\"?><spooler>" + spoolerConfig + "</spooler>").getBytes()));
+        return builder;
+    }
+
+    /**
+     * Spool whose mails are dequeued in memory, done or not
+     */
+    private static class BlockingSpool implements MailQueueFactory, MailQueue {
+
+        private final LinkedBlockingQueue<Mail> mails = new LinkedBlockingQueue<Mail>();
+
+        @Override
+        public MailQueue getQueue(String name) {
+            return this;
+        }
+
+        @Override
+        public void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
+            mails.add(mail);
+        }
+
+        @Override
+        public void enQueue(Mail mail) throws MailQueueException {
+            mails.add(mail);
+        }
+
+        @Override
+        public MailQueueItem deQueue() throws MailQueueException {
+            try {
+                final Mail mail = mails.take();
+                return new MailQueueItem() {
+                    @Override
+                    public Mail getMail() {
+                        return mail;
+                    }
+
+                    @Override
+                    public void done(boolean success) throws MailQueueException {
+                    }
+                };
+            } catch (InterruptedException e) {
+                throw new MailQueueException("Interrupted", e);
+            }
+        }
+    }
+}
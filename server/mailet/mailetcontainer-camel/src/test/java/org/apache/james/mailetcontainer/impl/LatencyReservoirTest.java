@@ -0,0 +1,56 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyReservoirTest {
+
+    @Test
+    public void percentilesShouldBeZeroWithoutSamples() {
+        assertEquals(0, new LatencyReservoir(10).getPercentile(50));
+    }
+
+    @Test
+    public void percentilesShouldBeComputedOnRecordedLatencies() {
+        LatencyReservoir reservoir = new LatencyReservoir(100);
+        for (int latency = 100; latency >= 1; latency--) {
+            reservoir.record(latency);
+        }
+
+        assertEquals(50, reservoir.getPercentile(50));
+        assertEquals(95, reservoir.getPercentile(95));
+        assertEquals(100, reservoir.getPercentile(100));
+    }
+
+    @Test
+    public void onlyTheLastLatenciesShouldBeKept() {
+        LatencyReservoir reservoir = new LatencyReservoir(2);
+        reservoir.record(1000);
+        reservoir.record(1);
+        reservoir.record(2);
+
+        assertEquals(2, reservoir.getPercentile(100));
+        assertEquals(3, reservoir.getCount());
+    }
+
+}
@@ -0,0 +1,167 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.camel;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.Matcher;
+import org.apache.mailet.base.GenericMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits a mail with a matcher matching half of its recipients, then
+ * processes both resulting mails the way a mailet usually does (read a
+ * header, set an attribute).
+ *
+ * The split benchmark goes through {@link MatcherSplitter}, which creates a
+ * {@link MailImpl#partition(Mail, Collection)} of the mail. The copy benchmark
+ * does the same with the full {@link MailImpl#MailImpl(Mail)} copy and the
+ * per matched recipient list removal MatcherSplitter used before.
+ *
+ * Run it from the IDE through {@link #main(String[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatcherSplitterBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MatcherSplitterBenchmark.class);
+
+    private static final String MESSAGE = "From: sender@james.apache.org\r\n"
+        + "To: list@james.apache.org\r\n"
+        + "Subject: benchmark\r\n"
+        + "Message-ID: <benchmark@james.apache.org>\r\n"
+        + "\r\n"
+        + "Body of the benchmark message\r\n";
+
+    @Param({"1", "100", "10000"})
+    public int recipientCount;
+
+    private MatcherSplitter splitter;
+    private CamelMailetProcessor container;
+    private Matcher halfMatcher;
+    private MimeMessage message;
+    private List<MailAddress> recipients;
+
+    @Setup
+    public void setUp() throws Exception {
+        splitter = new MatcherSplitter();
+        container = new CamelMailetProcessor();
+        halfMatcher = new GenericMatcher() {
+            @Override
+            public Collection<MailAddress> match(Mail mail) {
+                List<MailAddress> matched = new ArrayList<MailAddress>();
+                int i = 0;
+                for (MailAddress recipient : mail.getRecipients()) {
+                    if (i++ % 2 == 0) {
+                        matched.add(recipient);
+                    }
+                }
+                return matched;
+            }
+        };
+        message = new MimeMessage(Session.getDefaultInstance(new Properties()), new ByteArrayInputStream(MESSAGE.getBytes("US-ASCII")));
+        recipients = new ArrayList<MailAddress>();
+        for (int i = 0; i < recipientCount; i++) {
+            recipients.add(new MailAddress("user" + i + "@james.apache.org"));
+        }
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) throws MessagingException {
+        for (Mail mail : splitter.split(halfMatcher, null, LOGGER, container, newMail())) {
+            process(mail, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void copy(Blackhole blackhole) throws MessagingException {
+        Mail mail = newMail();
+        Collection<MailAddress> matchedRcpts = halfMatcher.match(mail);
+        List<MailAddress> rcpts = new ArrayList<MailAddress>(mail.getRecipients());
+        for (MailAddress matchedRcpt : matchedRcpts) {
+            rcpts.remove(matchedRcpt);
+        }
+        if (!rcpts.isEmpty()) {
+            mail.setRecipients(rcpts);
+            Mail newMail = new MailImpl(mail);
+            newMail.setRecipients(matchedRcpts);
+            newMail.setAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE, true);
+            process(newMail, blackhole);
+        } else {
+            mail.setAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE, true);
+        }
+        process(mail, blackhole);
+    }
+
+    private Mail newMail() {
+        MailImpl mail = new MailImpl(MailImpl.getId(), recipients.get(0), recipients, message);
+        mail.setAttribute("org.apache.james.SMTPAuthUser", "sender");
+        mail.setAttribute("org.apache.james.smtp.helo", "mx.james.apache.org");
+        return mail;
+    }
+
+    private void process(Mail mail, Blackhole blackhole) throws MessagingException {
+        blackhole.consume(mail.getMessage().getHeader("Subject"));
+        mail.setAttribute("processed", recipientCount);
+        LifecycleUtil.dispose(mail);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(MatcherSplitterBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+
+}
@@ -19,8 +19,14 @@
 package org.apache.james.mailetcontainer.lib;
 
 import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.mail.MessagingException;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.DefaultConfigurationBuilder;
@@ -28,8 +34,11 @@ import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.james.core.MailImpl;
 import org.apache.james.mailetcontainer.api.MailProcessor;
 import org.apache.james.mailetcontainer.api.mock.MockMailProcessor;
+import org.apache.james.queue.api.MailQueue;
+import org.apache.james.queue.api.MailQueueFactory;
 import org.apache.mailet.Mail;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -141,6 +150,220 @@ public abstract class AbstractStateCompositeProcessorTest {
     }
     }
 
+    @Test
+    public void mailReachingASaturatedProcessorShouldBePutBackOnTheSpool() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSpool spool = new RecordingSpool();
+        ScriptedCompositeProcessor processor = new ScriptedCompositeProcessor();
+        processor.on(Mail.DEFAULT, blockingOn("slow", started, release));
+        processor.setMailQueueFactory(spool);
+        processor.setLog(LoggerFactory.getLogger("MockLog"));
+        processor.configure(createConfig("state=\"root\" maxConcurrency=\"1\"", "state=\"error\""));
+        processor.init();
+
+        try {
+            Thread slow = serviceInBackground(processor, mail("slow", Mail.DEFAULT));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            processor.service(mail("fast", Mail.DEFAULT));
+
+            assertEquals(Arrays.asList("fast in root after " + AbstractStateCompositeProcessor.SATURATED_PROCESSOR_RETRY_DELAY_IN_MILLIS + "ms"), spool.parked);
+            release.countDown();
+            slow.join();
+            processor.service(mail("next", Mail.DEFAULT));
+            assertEquals(1, spool.parked.size());
+        } finally {
+            release.countDown();
+            processor.dispose();
+        }
+    }
+
+    @Test
+    public void mailHandedOverToASaturatedProcessorShouldBePutBackOnTheSpoolInItsNewState() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSpool spool = new RecordingSpool();
+        ScriptedCompositeProcessor processor = new ScriptedCompositeProcessor();
+        processor.on(Mail.DEFAULT, handOverTo(processor, "transport"));
+        processor.on("transport", blockingOn("slow", started, release));
+        processor.setMailQueueFactory(spool);
+        processor.setLog(LoggerFactory.getLogger("MockLog"));
+        processor.configure(createConfig("state=\"root\"", "state=\"error\"", "state=\"transport\" maxConcurrency=\"1\""));
+        processor.init();
+
+        try {
+            Thread slow = serviceInBackground(processor, mail("slow", "transport"));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            processor.service(mail("fast", Mail.DEFAULT));
+
+            assertEquals(Arrays.asList("fast in transport after " + AbstractStateCompositeProcessor.SATURATED_PROCESSOR_RETRY_DELAY_IN_MILLIS + "ms"), spool.parked);
+            release.countDown();
+            slow.join();
+        } finally {
+            release.countDown();
+            processor.dispose();
+        }
+    }
+
+    @Test
+    public void mailHandedBackToAProcessorWhoseSlotIsHeldShouldBeProcessed() throws Exception {
+        final AtomicInteger rootCalls = new AtomicInteger();
+        RecordingSpool spool = new RecordingSpool();
+        final ScriptedCompositeProcessor processor = new ScriptedCompositeProcessor();
+        processor.on(Mail.DEFAULT, new MailProcessor() {
+            @Override
+            public void service(Mail mail) throws MessagingException {
+                if (rootCalls.incrementAndGet() == 1) {
+                    mail.setState("transport");
+                    processor.service(mail);
+                } else {
+                    mail.setState(Mail.GHOST);
+                }
+            }
+        });
+        processor.on("transport", handOverTo(processor, Mail.DEFAULT));
+        processor.setMailQueueFactory(spool);
+        processor.setLog(LoggerFactory.getLogger("MockLog"));
+        processor.configure(createConfig("state=\"root\" maxConcurrency=\"1\"", "state=\"error\"", "state=\"transport\""));
+        processor.init();
+
+        try {
+            processor.service(mail("mail", Mail.DEFAULT));
+
+            assertEquals(2, rootCalls.get());
+            assertTrue(spool.parked.isEmpty());
+        } finally {
+            processor.dispose();
+        }
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void maxConcurrencyShouldNeedAMailQueueFactory() throws Exception {
+        ScriptedCompositeProcessor processor = new ScriptedCompositeProcessor();
+        processor.setLog(LoggerFactory.getLogger("MockLog"));
+        processor.configure(createConfig("state=\"root\" maxConcurrency=\"1\"", "state=\"error\""));
+        try {
+            processor.init();
+        } finally {
+            processor.dispose();
+        }
+    }
+
+    private static Mail mail(String name, String state) throws MessagingException {
+        Mail mail = new MailImpl();
+        mail.setName(name);
+        mail.setState(state);
+        return mail;
+    }
+
+    private static MailProcessor blockingOn(final String name, final CountDownLatch started, final CountDownLatch release) {
+        return new MailProcessor() {
+            @Override
+            public void service(Mail mail) throws MessagingException {
+                if (name.equals(mail.getName())) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new MessagingException("Interrupted");
+                    }
+                }
+                mail.setState(Mail.GHOST);
+            }
+        };
+    }
+
+    private static MailProcessor handOverTo(final MailProcessor composite, final String state) {
+        return new MailProcessor() {
+            @Override
+            public void service(Mail mail) throws MessagingException {
+                mail.setState(state);
+                composite.service(mail);
+            }
+        };
+    }
+
+    private static Thread serviceInBackground(final MailProcessor processor, final Mail mail) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    processor.service(mail);
+                } catch (MessagingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private HierarchicalConfiguration createConfig(String... processorAttributes) throws ConfigurationException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>");
+        sb.append("<processors enableJmx=\"false\">");
+        for (String attributes : processorAttributes) {
+            sb.append("<processor ").append(attributes).append("/>");
+        }
+        sb.append("</processors>");
+
+        DefaultConfigurationBuilder builder = new DefaultConfigurationBuilder();
+        builder.load(new ByteArrayInputStream(sb.toString().getBytes()));
+        return builder;
+    }
+
+    /**
+     * Composite processor whose processors run the given scripts, and ghost the mails by default
+     */
+    private static class ScriptedCompositeProcessor extends AbstractStateCompositeProcessor {
+
+        private final Map<String, MailProcessor> scripts = new HashMap<String, MailProcessor>();
+
+        public void on(String state, MailProcessor script) {
+            scripts.put(state, script);
+        }
+
+        @Override
+        protected MailProcessor createMailProcessor(String state, HierarchicalConfiguration config) throws Exception {
+            MailProcessor script = scripts.get(state);
+            if (script == null) {
+                return new MockMailProcessor(Mail.GHOST);
+            }
+            return script;
+        }
+    }
+
+    /**
+     * Spool which records the mails put back on it
+     */
+    private static class RecordingSpool implements MailQueueFactory, MailQueue {
+
+        private final List<String> parked = new ArrayList<String>();
+
+        @Override
+        public MailQueue getQueue(String name) {
+            assertEquals(MailQueueFactory.SPOOL, name);
+            return this;
+        }
+
+        @Override
+        public synchronized void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
+            parked.add(mail.getName() + " in " + mail.getState() + " after " + unit.toMillis(delay) + "ms");
+        }
+
+        @Override
+        public void enQueue(Mail mail) throws MailQueueException {
+            enQueue(mail, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public MailQueueItem deQueue() throws MailQueueException {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private HierarchicalConfiguration createConfig(List<String> states) throws ConfigurationException {
 
     StringBuilder sb = new StringBuilder();
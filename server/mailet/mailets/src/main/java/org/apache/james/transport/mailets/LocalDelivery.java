@@ -44,6 +44,10 @@ import com.google.common.collect.Lists;
  * This mailet is a composition of RecipientRewriteTable, SieveMailet 
  * and MailboxManager configured to mimic the old "LocalDelivery"
  * James 2.3 behavior.
+ * 
+ * The <code>deliveryThreads</code> parameter sets the count of threads
+ * delivering the recipients of a mail in parallel. It defaults to 1, which
+ * delivers them one after the other.
  */
 public class LocalDelivery extends GenericMailet {
     
@@ -147,4 +151,14 @@ public class LocalDelivery extends GenericMailet {
         sieveMailet.setQuiet(getInitParameter("quiet", true));
     }
 
+    /**
+     * @see org.apache.mailet.base.GenericMailet#destroy()
+     */
+    public void destroy() {
+        if (sieveMailet != null) {
+            sieveMailet.destroy();
+        }
+        super.destroy();
+    }
+
 }
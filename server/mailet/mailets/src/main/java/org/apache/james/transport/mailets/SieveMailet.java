@@ -30,18 +30,63 @@ import org.apache.james.sieverepository.api.SieveRepository;
 import org.apache.james.transport.util.MailetContextLog;
 import org.apache.james.user.api.UsersRepository;
 import org.apache.james.user.api.UsersRepositoryException;
+import org.apache.james.util.concurrent.NamedThreadFactory;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.exception.SieveException;
+import org.apache.jsieve.mailet.ActionDispatcher;
 import org.apache.jsieve.mailet.Poster;
+import org.apache.jsieve.mailet.SieveMailAdapter;
 import org.apache.jsieve.mailet.SieveMailboxMailet;
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.TokenMgrError;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
 import org.apache.mailet.MailetConfig;
+import org.apache.mailet.base.RFC2822Headers;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Contains resource bindings.
+ * <p/>
+ * When the <code>deliveryThreads</code> init parameter is greater than 1, the
+ * recipients of a mail are delivered in parallel by a pool of that many
+ * threads: the message is serialized once, and each recipient gets a message
+ * sharing this content, with its own delivery header. Recipients whose
+ * delivery failed are sent to the error processor, as for a sequential
+ * delivery.
+ * <p/>
+ * The parsed active script of the last <code>sieveScriptCacheSize</code>
+ * users (1000 by default, 0 to disable the cache) is cached until their active
+ * script changes, see {@link SieveScriptCache}.
+ * <p/>
+ * The Sieve script of a recipient is always evaluated against a mail holding
+ * that sole recipient, whether the script is cached or not, so that its actions
+ * (fileinto, keep, redirect...) only apply to that recipient.
  */
 public class SieveMailet extends SieveMailboxMailet implements Poster {
     private final UsersRepository usersRepos;
@@ -49,6 +94,23 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
     private final SieveRepository sieveRepository;
     private final String folder;
 
+    private String deliveryHeader;
+    private boolean resetReturnPath;
+    private boolean consume;
+    /**
+     * Delivers the recipients of a mail in parallel, null when they are
+     * delivered sequentially
+     */
+    private ExecutorService deliveryExecutor;
+
+    private SieveFactory sieveFactory;
+    private ActionDispatcher actionDispatcher;
+    /**
+     * Parsed scripts of the users, null when scripts are parsed on each delivery
+     */
+    private SieveScriptCache scriptCache;
+    private ObjectName scriptCacheMBeanName;
+
     public SieveMailet(UsersRepository usersRepos, MailboxManager mailboxManager, SieveRepository sieveRepository, String folder) {
         this.usersRepos = usersRepos;
         this.mailboxManager = mailboxManager;
@@ -66,6 +128,144 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
         }
         setPoster(this);
         super.init(config);
+
+        deliveryHeader = getInitParameter("addDeliveryHeader");
+        resetReturnPath = getInitParameter("resetReturnPath", false);
+        consume = getInitParameter("consume", true);
+        int deliveryThreads;
+        try {
+            deliveryThreads = Integer.parseInt(getInitParameter("deliveryThreads", "1"));
+        } catch (NumberFormatException e) {
+            throw new MessagingException("deliveryThreads must be a number", e);
+        }
+        if (deliveryThreads < 1) {
+            throw new MessagingException("deliveryThreads must be positive");
+        }
+        if (deliveryThreads > 1) {
+            deliveryExecutor = Executors.newFixedThreadPool(deliveryThreads, new NamedThreadFactory("LocalDelivery-" + config.getMailetName()));
+        }
+
+        long scriptCacheSize;
+        try {
+            scriptCacheSize = Long.parseLong(getInitParameter("sieveScriptCacheSize", String.valueOf(SieveScriptCache.DEFAULT_MAXIMUM_CACHED_SCRIPTS)));
+        } catch (NumberFormatException e) {
+            throw new MessagingException("sieveScriptCacheSize must be a number", e);
+        }
+        if (scriptCacheSize > 0) {
+            try {
+                sieveFactory = new ConfigurationManager().build();
+            } catch (SieveException e) {
+                throw new MessagingException("Unable to build the Sieve factory", e);
+            }
+            actionDispatcher = new ActionDispatcher();
+            scriptCache = new SieveScriptCache(sieveRepository, sieveFactory, scriptCacheSize);
+            registerScriptCacheMBean(config.getMailetName());
+        }
+    }
+
+    private void registerScriptCacheMBean(String mailetName) {
+        try {
+            ObjectName name = new ObjectName("org.apache.james:type=component,component=mailetcontainer,name=sievescriptcache,mailet=" + ObjectName.quote(mailetName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(scriptCache, name);
+            scriptCacheMBeanName = name;
+        } catch (JMException e) {
+            // Happens when several mailets share the same name
+            log("Unable to register the Sieve script cache statistics of " + mailetName, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdownNow();
+            deliveryExecutor = null;
+        }
+        if (scriptCacheMBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(scriptCacheMBeanName);
+            } catch (JMException e) {
+                log("Unable to unregister the Sieve script cache statistics", e);
+            }
+            scriptCacheMBeanName = null;
+        }
+        super.destroy();
+    }
+
+    @Override
+    public void service(Mail mail) throws MessagingException {
+        if (deliveryExecutor == null || mail.getRecipients().size() < 2) {
+            super.service(mail);
+        } else {
+            deliverInParallel(mail);
+        }
+    }
+
+    private void deliverInParallel(final Mail mail) throws MessagingException {
+        MimeMessage message = mail.getMessage();
+        if (resetReturnPath) {
+            message.setHeader(RFC2822Headers.RETURN_PATH, (mail.getSender() == null ? "<>" : "<" + mail.getSender() + ">"));
+        }
+        final byte[] content = toBytes(message);
+
+        Map<MailAddress, Future<Void>> deliveries = new LinkedHashMap<MailAddress, Future<Void>>();
+        for (final MailAddress recipient : mail.getRecipients()) {
+            deliveries.put(recipient, deliveryExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // The parsed message shares the content instead of copying it
+                    MimeMessage localMessage = new MimeMessage(Session.getDefaultInstance(System.getProperties()), new SharedByteArrayInputStream(content));
+                    if (deliveryHeader != null) {
+                        // Add qmail's de facto standard Delivered-To header
+                        localMessage.addHeader(deliveryHeader, recipient.toString());
+                    }
+                    storeMail(mail.getSender(), recipient, new RecipientMail(mail, recipient, localMessage));
+                    return null;
+                }
+            }));
+        }
+
+        Collection<MailAddress> errors = new ArrayList<MailAddress>();
+        boolean interrupted = false;
+        for (Map.Entry<MailAddress, Future<Void>> delivery : deliveries.entrySet()) {
+            if (interrupted) {
+                delivery.getValue().cancel(true);
+                errors.add(delivery.getKey());
+                continue;
+            }
+            try {
+                delivery.getValue().get();
+            } catch (ExecutionException e) {
+                log("Error while storing mail.", e.getCause());
+                errors.add(delivery.getKey());
+            } catch (InterruptedException e) {
+                log("Interrupted while storing mail.", e);
+                interrupted = true;
+                errors.add(delivery.getKey());
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            // The recipients the mail could not be delivered to are handled
+            // by the ERROR processor, which returns the mail to the sender
+            getMailetContext().sendMail(mail.getSender(), errors, message, Mail.ERROR);
+        }
+        if (consume) {
+            mail.setState(Mail.GHOST);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] toBytes(MimeMessage message) throws MessagingException {
+        try {
+            int size = message.getSize();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? size + 1024 : 8192);
+            message.writeTo(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new MessagingException("Unable to serialize the message", e);
+        }
     }
 
     /**
@@ -99,7 +299,14 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
      */
     @Override
     public void storeMail(MailAddress sender, MailAddress recipient, Mail mail) throws MessagingException {
-        super.storeMail(sender, recipient, mail);
+        // Sieve actions are executed for the sole recipient of the mail
+        Mail recipientMail = mail;
+        if (mail.getRecipients().size() != 1) {
+            recipientMail = new RecipientMail(mail, recipient, mail.getMessage());
+        }
+        if (!evaluateCachedScript(recipient, recipientMail)) {
+            super.storeMail(sender, recipient, recipientMail);
+        }
         String s;
         if (sender != null) {
             s = sender.toString();
@@ -112,6 +319,72 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
                 + " in folder " + this.folder);
     }
 
+    /**
+     * Evaluate the cached script of the recipient against the mail.
+     * 
+     * If the evaluation fails, some actions may already have been executed:
+     * the script is then not evaluated again, the mail is stored in the INBOX
+     * of the recipient along with the error, as jSieve does.
+     * 
+     * @return false when the mail is left to the default handling: there is
+     *         no cache or no active script, or the script could not be read or
+     *         parsed
+     */
+    private boolean evaluateCachedScript(MailAddress recipient, Mail mail) throws MessagingException {
+        if (scriptCache == null) {
+            return false;
+        }
+        String user = getUsername(recipient);
+        Node script;
+        try {
+            script = scriptCache.getActiveScript(user);
+        } catch (Exception e) {
+            log("Unable to load the Sieve script of " + user, e);
+            return false;
+        } catch (TokenMgrError e) {
+            log("Unable to parse the Sieve script of " + user, e);
+            return false;
+        }
+        if (script == null) {
+            return false;
+        }
+        try {
+            sieveFactory.evaluate(new SieveMailAdapter(mail, getMailetContext(), actionDispatcher, this), script);
+        } catch (SieveException e) {
+            log("Unable to evaluate the Sieve script of " + user, e);
+            storeFailureInInbox(user, recipient, mail, e);
+        }
+        return true;
+    }
+
+    /**
+     * Store the mail in the INBOX of the recipient, wrapped in a notice of the
+     * error encountered while evaluating its Sieve script
+     */
+    private void storeFailureInInbox(String user, MailAddress recipient, Mail mail, SieveException error) throws MessagingException {
+        MimeMessage originalMessage = mail.getMessage();
+        MimeMessage message = new MimeMessage(originalMessage);
+        MimeMultipart multipart = new MimeMultipart();
+        MimeBodyPart noticePart = new MimeBodyPart();
+        noticePart.setText("An error was encountered while processing this mail with the active sieve script for user \""
+                + user + "\". The error encountered was:\r\n" + error.getLocalizedMessage() + "\r\n");
+        multipart.addBodyPart(noticePart);
+        MimeBodyPart originalPart = new MimeBodyPart();
+        originalPart.setContent(originalMessage, "message/rfc822");
+        if (originalMessage.getSubject() != null && originalMessage.getSubject().trim().length() > 0) {
+            originalPart.setFileName(originalMessage.getSubject().trim());
+        } else {
+            originalPart.setFileName("No Subject");
+        }
+        originalPart.setDisposition(MimeBodyPart.INLINE);
+        multipart.addBodyPart(originalPart);
+        message.setContent(multipart);
+        message.setSubject("[SIEVE ERROR] " + originalMessage.getSubject());
+        message.setHeader("X-Priority", "1");
+        message.saveChanges();
+        post("mailbox://" + recipient + "/", message);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -224,4 +497,159 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
         }
     }
 
+    /**
+     * The view of a mail delivered to one of its recipients: the message is
+     * the one of the recipient, anything else is read from the mail. As the
+     * recipients are delivered concurrently, the mail is modified while
+     * holding its lock.
+     */
+    private static class RecipientMail implements Mail {
+
+        private final Mail mail;
+        private final Collection<MailAddress> recipients;
+        private MimeMessage message;
+
+        public RecipientMail(Mail mail, MailAddress recipient, MimeMessage message) {
+            this.mail = mail;
+            this.recipients = Collections.singletonList(recipient);
+            this.message = message;
+        }
+
+        @Override
+        public String getName() {
+            return mail.getName();
+        }
+
+        @Override
+        public void setName(String newName) {
+            throw new UnsupportedOperationException("A delivered mail can not be renamed");
+        }
+
+        @Override
+        public MimeMessage getMessage() throws MessagingException {
+            return message;
+        }
+
+        @Override
+        public Collection<MailAddress> getRecipients() {
+            return recipients;
+        }
+
+        @Override
+        public void setRecipients(Collection<MailAddress> recipients) {
+            throw new UnsupportedOperationException("The recipients of a delivered mail can not be changed");
+        }
+
+        @Override
+        public MailAddress getSender() {
+            return mail.getSender();
+        }
+
+        @Override
+        public String getState() {
+            return mail.getState();
+        }
+
+        @Override
+        public String getRemoteHost() {
+            return mail.getRemoteHost();
+        }
+
+        @Override
+        public String getRemoteAddr() {
+            return mail.getRemoteAddr();
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return mail.getErrorMessage();
+        }
+
+        @Override
+        public void setErrorMessage(String msg) {
+            synchronized (mail) {
+                mail.setErrorMessage(msg);
+            }
+        }
+
+        @Override
+        public void setMessage(MimeMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void setState(String state) {
+            synchronized (mail) {
+                mail.setState(state);
+            }
+        }
+
+        @Override
+        public Serializable getAttribute(String name) {
+            synchronized (mail) {
+                return mail.getAttribute(name);
+            }
+        }
+
+        @Override
+        public Iterator<String> getAttributeNames() {
+            synchronized (mail) {
+                return toList(mail.getAttributeNames()).iterator();
+            }
+        }
+
+        @Override
+        public boolean hasAttributes() {
+            synchronized (mail) {
+                return mail.hasAttributes();
+            }
+        }
+
+        @Override
+        public Serializable removeAttribute(String name) {
+            synchronized (mail) {
+                return mail.removeAttribute(name);
+            }
+        }
+
+        @Override
+        public void removeAllAttributes() {
+            synchronized (mail) {
+                mail.removeAllAttributes();
+            }
+        }
+
+        @Override
+        public Serializable setAttribute(String name, Serializable object) {
+            synchronized (mail) {
+                return mail.setAttribute(name, object);
+            }
+        }
+
+        @Override
+        public long getMessageSize() throws MessagingException {
+            return mail.getMessageSize();
+        }
+
+        @Override
+        public Date getLastUpdated() {
+            return mail.getLastUpdated();
+        }
+
+        @Override
+        public void setLastUpdated(Date lastUpdated) {
+            synchronized (mail) {
+                mail.setLastUpdated(lastUpdated);
+            }
+        }
+
+        private static ArrayList<String> toList(Iterator<String> names) {
+            ArrayList<String> list = new ArrayList<String>();
+            while (names.hasNext()) {
+                list.add(names.next());
+            }
+            return list;
+        }
+    }
+
 }
@@ -0,0 +1,133 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.james.sieverepository.api.SieveRepository;
+import org.apache.james.sieverepository.api.exception.ScriptNotFoundException;
+import org.apache.james.sieverepository.api.exception.SieveRepositoryException;
+import org.apache.jsieve.SieveFactory;
+import org.apache.jsieve.parser.generated.Node;
+import org.apache.jsieve.parser.generated.ParseException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of the parsed active Sieve script of each user.
+ * <p/>
+ * A cached script is used as long as the modification time of the active
+ * script, as given by {@link SieveRepository#getActiveModificationTime(String)},
+ * did not change. Otherwise the script is read and parsed again.
+ */
+public class SieveScriptCache implements SieveScriptCacheMBean {
+
+    public static final long DEFAULT_MAXIMUM_CACHED_SCRIPTS = 1000;
+
+    private static class ParsedScript {
+
+        private final long modificationTime;
+        private final Node script;
+
+        public ParsedScript(long modificationTime, Node script) {
+            this.modificationTime = modificationTime;
+            this.script = script;
+        }
+    }
+
+    private final SieveRepository sieveRepository;
+    private final SieveFactory factory;
+    private final Cache<String, ParsedScript> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public SieveScriptCache(SieveRepository sieveRepository, SieveFactory factory, long maximumCachedScripts) {
+        this.sieveRepository = sieveRepository;
+        this.factory = factory;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumCachedScripts)
+                .build();
+    }
+
+    /**
+     * Return the parsed active script of the user
+     *
+     * @param user
+     * @return the parsed script, or null if the user has no active script
+     * @throws SieveRepositoryException
+     * @throws ParseException when the script is not valid
+     * @throws IOException
+     */
+    public Node getActiveScript(String user) throws SieveRepositoryException, ParseException, IOException {
+        long modificationTime;
+        try {
+            modificationTime = sieveRepository.getActiveModificationTime(user);
+        } catch (ScriptNotFoundException e) {
+            cache.invalidate(user);
+            return null;
+        }
+        ParsedScript parsedScript = cache.getIfPresent(user);
+        if (parsedScript != null && parsedScript.modificationTime == modificationTime) {
+            hitCount.incrementAndGet();
+            return parsedScript.script;
+        }
+        missCount.incrementAndGet();
+        // The modification time is read before the script: a concurrent
+        // modification only leads to an extra parsing on next delivery
+        InputStream content;
+        try {
+            content = sieveRepository.getActive(user);
+        } catch (ScriptNotFoundException e) {
+            cache.invalidate(user);
+            return null;
+        }
+        Node script;
+        try {
+            script = factory.parse(content);
+        } finally {
+            content.close();
+        }
+        cache.put(user, new ParsedScript(modificationTime, script));
+        return script;
+    }
+
+    public void invalidate(String user) {
+        cache.invalidate(user);
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public long getCachedScriptCount() {
+        return cache.size();
+    }
+
+}
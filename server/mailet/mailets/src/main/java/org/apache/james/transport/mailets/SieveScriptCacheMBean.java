@@ -0,0 +1,42 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.transport.mailets;
+
+/**
+ * Statistics of a {@link SieveScriptCache}
+ */
+public interface SieveScriptCacheMBean {
+
+    /**
+     * @return the count of deliveries which found the parsed script of the user in the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the count of deliveries which had to parse the script of the user
+     */
+    long getMissCount();
+
+    /**
+     * @return the count of parsed scripts in the cache
+     */
+    long getCachedScriptCount();
+
+}
@@ -0,0 +1,105 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+
+package org.apache.james.transport.mailets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.james.sieverepository.api.SieveRepository;
+import org.apache.james.sieverepository.api.exception.ScriptNotFoundException;
+import org.apache.jsieve.ConfigurationManager;
+import org.apache.jsieve.parser.generated.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+public class SieveScriptCacheTest {
+
+    private static final String USER = "receiver@localhost";
+    private static final String SCRIPT = "require \"fileinto\";\r\nfileinto \"INBOX.any\";\r\n";
+
+    private SieveRepository sieveRepository;
+    private SieveScriptCache scriptCache;
+
+    @Before
+    public void setUp() throws Exception {
+        sieveRepository = mock(SieveRepository.class);
+        scriptCache = new SieveScriptCache(sieveRepository, new ConfigurationManager().build(), 10);
+    }
+
+    @Test
+    public void getActiveScriptShouldReturnNullWhenNoActiveScript() throws Exception {
+        when(sieveRepository.getActiveModificationTime(USER)).thenThrow(new ScriptNotFoundException());
+
+        assertThat(scriptCache.getActiveScript(USER)).isNull();
+    }
+
+    @Test
+    public void getActiveScriptShouldParseTheScriptOnFirstCall() throws Exception {
+        when(sieveRepository.getActiveModificationTime(USER)).thenReturn(1L);
+        when(sieveRepository.getActive(USER)).thenReturn(script());
+
+        assertThat(scriptCache.getActiveScript(USER)).isNotNull();
+        assertThat(scriptCache.getMissCount()).isEqualTo(1);
+        assertThat(scriptCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void getActiveScriptShouldReuseTheParsedScriptWhenUnmodified() throws Exception {
+        when(sieveRepository.getActiveModificationTime(USER)).thenReturn(1L);
+        when(sieveRepository.getActive(USER)).thenReturn(script());
+
+        Node script = scriptCache.getActiveScript(USER);
+
+        assertThat(scriptCache.getActiveScript(USER)).isSameAs(script);
+        assertThat(scriptCache.getHitCount()).isEqualTo(1);
+        assertThat(scriptCache.getCachedScriptCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getActiveScriptShouldParseTheScriptAgainWhenModified() throws Exception {
+        when(sieveRepository.getActiveModificationTime(USER)).thenReturn(1L, 2L);
+        when(sieveRepository.getActive(USER)).thenReturn(script(), script());
+
+        Node script = scriptCache.getActiveScript(USER);
+
+        assertThat(scriptCache.getActiveScript(USER)).isNotSameAs(script);
+        assertThat(scriptCache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void getActiveScriptShouldForgetTheScriptWhenDeactivated() throws Exception {
+        when(sieveRepository.getActiveModificationTime(USER)).thenReturn(1L).thenThrow(new ScriptNotFoundException());
+        when(sieveRepository.getActive(USER)).thenReturn(script());
+
+        scriptCache.getActiveScript(USER);
+
+        assertThat(scriptCache.getActiveScript(USER)).isNull();
+        assertThat(scriptCache.getCachedScriptCount()).isEqualTo(0);
+    }
+
+    private InputStream script() {
+        return new ByteArrayInputStream(SCRIPT.getBytes());
+    }
+}
@@ -55,10 +55,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -79,6 +81,7 @@ public class SieveMailetTest {
     public static final MailboxPath NOT_SELECTED_MAILBOX = new MailboxPath("#private", "receiver", "INBOX.not.selected");
     public static final MailboxPath SELECTED_MAILBOX = new MailboxPath("#private", "receiver", "INBOX.select");
     public static final MailboxPath INBOX = new MailboxPath("#private", "receiver", "INBOX");
+    public static final MailboxPath OTHER_INBOX = new MailboxPath("#private", "other", "INBOX");
 
     private UsersRepository usersRepository;
     private MailboxManager mailboxManager;
@@ -125,6 +128,47 @@ public class SieveMailetTest {
         verify(messageManager).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
     }
 
+    @Test
+    public void recipientsShouldBeDeliveredInParallelWhenDeliveryThreadsIsSet() throws Exception {
+        when(usersRepository.supportVirtualHosting()).thenReturn(false);
+        when(sieveRepository.getActive(any(String.class))).thenThrow(new ScriptNotFoundException());
+        final MessageManager messageManager = prepareMessageManagerOn(INBOX);
+        when(mailboxManager.getMailbox(eq(OTHER_INBOX), any(MailboxSession.class))).thenReturn(messageManager);
+        fakeMailetConfig.setProperty("deliveryThreads", "4");
+        sieveMailet.init(fakeMailetConfig);
+
+        FakeMail mail = createMail();
+        mail.setRecipients(Lists.newArrayList(new MailAddress("receiver@domain.com"), new MailAddress("other@domain.com")));
+        sieveMailet.service(mail);
+        sieveMailet.destroy();
+
+        verify(messageManager, times(2)).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
+        assertThat(fakeMailContext.getSentMails()).isEmpty();
+        assertEquals(Mail.GHOST, mail.getState());
+    }
+
+    @Test
+    public void failedParallelDeliveriesShouldBeSentToTheErrorProcessor() throws Exception {
+        when(usersRepository.supportVirtualHosting()).thenReturn(false);
+        when(sieveRepository.getActive(any(String.class))).thenThrow(new ScriptNotFoundException());
+        prepareMessageManagerOn(INBOX);
+        final MessageManager failingMessageManager = mock(MessageManager.class);
+        when(failingMessageManager.appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class)))
+            .thenThrow(new MailboxException());
+        when(mailboxManager.getMailbox(eq(OTHER_INBOX), any(MailboxSession.class))).thenReturn(failingMessageManager);
+        fakeMailetConfig.setProperty("deliveryThreads", "4");
+        sieveMailet.init(fakeMailetConfig);
+
+        FakeMail mail = createMail();
+        MailAddress other = new MailAddress("other@domain.com");
+        mail.setRecipients(Lists.newArrayList(new MailAddress("receiver@domain.com"), other));
+        sieveMailet.service(mail);
+        sieveMailet.destroy();
+
+        assertThat(fakeMailContext.getSentMails()).hasSize(1);
+        assertThat(fakeMailContext.getSentMails().get(0).getRecipients()).containsOnly(other);
+    }
+
     @Test
     public void keepScriptShouldWork() throws Exception {
         prepareTestUsingScript("org/apache/james/transport/mailets/delivery/keep.script");
@@ -152,6 +196,49 @@ public class SieveMailetTest {
         verify(messageManager).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
     }
 
+    @Test
+    public void failedScriptEvaluationShouldStoreTheMailInInboxWithoutEvaluatingTheScriptAgain() throws Exception {
+        prepareTestUsingScript("org/apache/james/transport/mailets/delivery/fileintoTwice.script");
+        final MessageManager messageManager = prepareMessageManagerOn(new MailboxPath("#private", "receiver", "INBOX.any"));
+        final MessageManager failingMessageManager = mock(MessageManager.class);
+        when(failingMessageManager.appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class)))
+            .thenThrow(new MailboxException());
+        when(mailboxManager.getMailbox(eq(new MailboxPath("#private", "receiver", "INBOX.fails")), any(MailboxSession.class))).thenReturn(failingMessageManager);
+        final MessageManager inboxMessageManager = mock(MessageManager.class);
+        when(mailboxManager.getMailbox(eq(INBOX), any(MailboxSession.class))).thenReturn(inboxMessageManager);
+
+        sieveMailet.service(createMail());
+
+        verify(messageManager).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
+        verify(inboxMessageManager).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
+    }
+
+    @Test
+    public void fileintoShouldApplyToEachRecipientOfAMailWhenTheScriptCacheIsDisabled() throws Exception {
+        fakeMailetConfig.setProperty("sieveScriptCacheSize", "0");
+        fileintoShouldApplyToEachRecipientOfAMail();
+    }
+
+    @Test
+    public void fileintoShouldApplyToEachRecipientOfAMailWhenTheScriptCacheIsEnabled() throws Exception {
+        fileintoShouldApplyToEachRecipientOfAMail();
+    }
+
+    private void fileintoShouldApplyToEachRecipientOfAMail() throws Exception {
+        when(sieveRepository.getActive("other")).thenReturn(ClassLoader.getSystemResourceAsStream("org/apache/james/transport/mailets/delivery/fileinto.script"));
+        prepareTestUsingScript("org/apache/james/transport/mailets/delivery/fileinto.script");
+        final MessageManager messageManager = prepareMessageManagerOn(new MailboxPath("#private", "receiver", "INBOX.any"));
+        final MessageManager otherMessageManager = mock(MessageManager.class);
+        when(mailboxManager.getMailbox(eq(new MailboxPath("#private", "other", "INBOX.any")), any(MailboxSession.class))).thenReturn(otherMessageManager);
+
+        FakeMail mail = createMail();
+        mail.setRecipients(Lists.newArrayList(new MailAddress("receiver@domain.com"), new MailAddress("other@domain.com")));
+        sieveMailet.service(mail);
+
+        verify(messageManager).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
+        verify(otherMessageManager).appendMessage(any(InputStream.class), any(Date.class), any(MailboxSession.class), eq(true), any(Flags.class));
+    }
+
     @Test
     public void allOfAllFalseScriptShouldWork() throws Exception {
         prepareTestUsingScript("org/apache/james/transport/mailets/delivery/allofAllFalse.script");
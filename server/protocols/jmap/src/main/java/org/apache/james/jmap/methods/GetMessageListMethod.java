@@ -20,10 +20,14 @@
 package org.apache.james.jmap.methods;
 
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -35,12 +39,11 @@ import org.apache.james.jmap.model.GetMessageListResponse;
 import org.apache.james.jmap.model.GetMessagesRequest;
 import org.apache.james.jmap.model.MessageId;
 import org.apache.james.jmap.utils.SortToComparatorConvertor;
+import org.apache.james.jmap.utils.SortToSearchQueryConvertor;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
-import org.apache.james.mailbox.MessageManager;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxPath;
-import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.model.SearchQuery;
 import org.apache.james.mailbox.store.MailboxSessionMapperFactory;
 import org.apache.james.mailbox.store.StoreMailboxPath;
@@ -49,6 +52,7 @@ import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.MailboxId;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.search.MessageSearchIndex;
 import org.apache.james.util.streams.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,19 +73,22 @@ public class GetMessageListMethod<Id extends MailboxId> implements Method {
     private static final Logger LOGGER = LoggerFactory.getLogger(GetMailboxesMethod.class);
     private static final Method.Request.Name METHOD_NAME = Method.Request.name("getMessageList");
     private static final Method.Response.Name RESPONSE_NAME = Method.Response.name("messageList");
-    private static final int NO_LIMIT = -1;
+    private static final String ANCHOR_NOT_FOUND = "anchorNotFound";
+    private static final int NO_WINDOW = Integer.MAX_VALUE;
 
     private final MailboxManager mailboxManager;
     private final MailboxSessionMapperFactory<Id> mailboxSessionMapperFactory;
+    private final MessageSearchIndex<Id> messageSearchIndex;
     private final int maximumLimit;
     private final GetMessagesMethod<Id> getMessagesMethod;
 
     @Inject
     @VisibleForTesting public GetMessageListMethod(MailboxManager mailboxManager, MailboxSessionMapperFactory<Id> mailboxSessionMapperFactory,
-            @Named(MAXIMUM_LIMIT) int maximumLimit, GetMessagesMethod<Id> getMessagesMethod) {
+            MessageSearchIndex<Id> messageSearchIndex, @Named(MAXIMUM_LIMIT) int maximumLimit, GetMessagesMethod<Id> getMessagesMethod) {
 
         this.mailboxManager = mailboxManager;
         this.mailboxSessionMapperFactory = mailboxSessionMapperFactory;
+        this.messageSearchIndex = messageSearchIndex;
         this.maximumLimit = maximumLimit;
         this.getMessagesMethod = getMessagesMethod;
     }
@@ -100,7 +107,14 @@ public class GetMessageListMethod<Id extends MailboxId> implements Method {
     public Stream<JmapResponse> process(JmapRequest request, ClientId clientId, MailboxSession mailboxSession) {
         Preconditions.checkArgument(request instanceof GetMessageListRequest);
         GetMessageListRequest messageListRequest = (GetMessageListRequest) request;
-        GetMessageListResponse messageListResponse = getMessageListResponse(messageListRequest, clientId, mailboxSession);
+        GetMessageListResponse messageListResponse;
+        try {
+            messageListResponse = getMessageListResponse(messageListRequest, clientId, mailboxSession);
+        } catch (AnchorNotFoundException e) {
+            return Stream.of(JmapResponse.builder().clientId(clientId)
+                    .error(ANCHOR_NOT_FOUND)
+                    .build());
+        }
  
         Stream<JmapResponse> jmapResponse = Stream.of(JmapResponse.builder().clientId(clientId)
                 .response(messageListResponse)
@@ -115,11 +129,22 @@ public class GetMessageListMethod<Id extends MailboxId> implements Method {
         try {
 
             List<MailboxPath> mailboxPaths = mailboxManager.list(mailboxSession);
-            listRequestedMailboxes(messageListRequest, mailboxPaths, mailboxSession)
+            List<Mailbox<Id>> mailboxes = listRequestedMailboxes(messageListRequest, mailboxPaths, mailboxSession)
                 .stream()
-                .flatMap(mailboxPath -> listMessages(mailboxPath, mailboxSession, messageListRequest))
-                .skip(messageListRequest.getPosition())
-                .limit(limit(messageListRequest.getLimit()))
+                .map(mailboxPath -> getMailbox(mailboxPath, mailboxSession))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toImmutableList());
+            SearchQuery searchQuery = searchQueryFor(messageListRequest);
+            int limit = limit(messageListRequest.getLimit());
+            int position = messageListRequest.getAnchor()
+                .map(MessageId::of)
+                .map(anchor -> positionOfAnchor(anchor, messageListRequest, mailboxes, searchQuery, limit, mailboxSession))
+                .orElse(messageListRequest.getPosition());
+
+            listMessageIds(mailboxes, searchQuery, messageListRequest, window(position, limit), mailboxSession)
+                .skip(position)
+                .limit(limit)
                 .forEach(builder::messageId);
 
             return builder.build();
@@ -144,13 +169,80 @@ public class GetMessageListMethod<Id extends MailboxId> implements Method {
                 && !messageListRequest.isFetchThreads().orElse(false);
     }
 
-    private Stream<MessageId> listMessages(MailboxPath mailboxPath, MailboxSession mailboxSession, GetMessageListRequest messageListRequest) {
-        return getMessages(mailboxPath, mailboxSession).stream()
+    /**
+     * Resolve the anchor into a position. The ids of the first positions are listed, in a window which starts at the
+     * limit and is doubled until it holds the anchor or every mailbox is exhausted. The cost thus grows with the rank
+     * of the anchor rather than with the size of the mailboxes.
+     */
+    private int positionOfAnchor(MessageId anchor, GetMessageListRequest messageListRequest, List<Mailbox<Id>> mailboxes,
+            SearchQuery searchQuery, int limit, MailboxSession mailboxSession) {
+        int window = Math.max(limit, 1);
+        while (true) {
+            List<MessageId> messageIds = listMessageIds(mailboxes, searchQuery, messageListRequest, window, mailboxSession)
+                .collect(Collectors.toImmutableList());
+            // Only the window first positions are exact, as each mailbox contributed its window first messages
+            int anchorPosition = messageIds.subList(0, Math.min(window, messageIds.size())).indexOf(anchor);
+            if (anchorPosition >= 0) {
+                return Math.max(0, anchorPosition + messageListRequest.getAnchorOffset().orElse(0));
+            }
+            if (messageIds.size() < window || window == NO_WINDOW) {
+                throw new AnchorNotFoundException();
+            }
+            window = (int) Math.min(2L * window, NO_WINDOW);
+        }
+    }
+
+    /**
+     * List, in order, the ids of the messages which can appear in the <code>window</code> first positions.
+     * 
+     * Each mailbox only contributes its <code>window</code> first uids, read from the {@link MessageSearchIndex}.
+     * When several mailboxes are merged with a sort, the metadata of these candidates is loaded, with one request per
+     * mailbox, to order them.
+     */
+    private Stream<MessageId> listMessageIds(List<Mailbox<Id>> mailboxes, SearchQuery searchQuery, GetMessageListRequest messageListRequest,
+            int window, MailboxSession mailboxSession) {
+        if (mailboxes.size() == 1 || messageListRequest.getSort().isEmpty()) {
+            return mailboxes.stream()
+                .flatMap(mailbox -> searchUids(mailbox, searchQuery, window, mailboxSession)
+                        .map(uid -> new MessageId(mailboxSession.getUser(), new StoreMailboxPath<>(mailbox), uid)));
+        }
+        return mailboxes.stream()
+                .flatMap(mailbox -> getMessages(mailbox, searchQuery, window, mailboxSession))
                 .sorted(comparatorFor(messageListRequest))
-                .map(message -> new MessageId(mailboxSession.getUser(), mailboxPath, message.getUid()));
+                .map(message -> new MessageId(mailboxSession.getUser(), new StoreMailboxPath<>(getMailboxOf(message, mailboxes)), message.getUid()));
     }
-    
-    private long limit(Optional<Integer> limit) {
+
+    private Mailbox<Id> getMailboxOf(MailboxMessage<Id> message, List<Mailbox<Id>> mailboxes) {
+        return mailboxes.stream()
+                .filter(mailbox -> mailbox.getMailboxId().equals(message.getMailboxId()))
+                .findFirst()
+                .get();
+    }
+
+    private Stream<Long> searchUids(Mailbox<Id> mailbox, SearchQuery searchQuery, int window, MailboxSession mailboxSession) {
+        try {
+            Iterator<Long> uids = messageSearchIndex.search(mailboxSession, mailbox, searchQuery, 0, window);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(uids, Spliterator.ORDERED), false);
+        } catch (MailboxException e) {
+            LOGGER.warn("Error when searching messages for query :" + searchQuery, e);
+            return Stream.empty();
+        }
+    }
+
+    private SearchQuery searchQueryFor(GetMessageListRequest messageListRequest) {
+        SearchQuery searchQuery = new SearchQuery();
+        searchQuery.andCriteria(SearchQuery.all());
+        if (!messageListRequest.getSort().isEmpty()) {
+            searchQuery.setSorts(SortToSearchQueryConvertor.sortsFor(messageListRequest.getSort()));
+        }
+        return searchQuery;
+    }
+
+    private int window(int position, int limit) {
+        return (int) Math.min((long) position + limit, NO_WINDOW);
+    }
+
+    private int limit(Optional<Integer> limit) {
         return limit.orElse(maximumLimit);
     }
 
@@ -178,44 +270,19 @@ public class GetMessageListMethod<Id extends MailboxId> implements Method {
                 .collect(Collectors.toImmutableSet());
     }
     
-    private Optional<MessageManager> getMessageManager(MailboxPath mailboxPath, MailboxSession mailboxSession) {
-        try {
-            return Optional.of(mailboxManager.getMailbox(mailboxPath, mailboxSession));
-        } catch (MailboxException e) {
-            LOGGER.warn("Error retrieveing mailbox :" + mailboxPath, e);
-            return Optional.empty();
-        }
-    }
-
-    private List<MailboxMessage<Id>> getMessages(MailboxPath mailboxPath, MailboxSession mailboxSession) {
-        SearchQuery searchQuery = new SearchQuery();
-        searchQuery.andCriteria(SearchQuery.all());
+    private Stream<MailboxMessage<Id>> getMessages(Mailbox<Id> mailbox, SearchQuery searchQuery, int window, MailboxSession mailboxSession) {
         try {
             MessageMapper<Id> messageMapper = mailboxSessionMapperFactory.getMessageMapper(mailboxSession);
-            Optional<MessageManager> messageManager = getMessageManager(mailboxPath, mailboxSession);
-            return ImmutableList.copyOf(messageManager.get().search(searchQuery, mailboxSession))
-                    .stream()
-                    .map(Throwing.function(messageId -> getMessage(mailboxPath, mailboxSession, messageMapper, messageId)))
+            List<Long> uids = searchUids(mailbox, searchQuery, window, mailboxSession)
                     .collect(Collectors.toImmutableList());
+            if (uids.isEmpty()) {
+                return Stream.empty();
+            }
+            return ImmutableList.copyOf(messageMapper.findInMailbox(mailbox, uids, FetchType.Metadata))
+                    .stream();
         } catch (MailboxException e) {
             LOGGER.warn("Error when searching messages for query :" + searchQuery, e);
-            return ImmutableList.of();
-        }
-    }
-
-    private MailboxMessage<Id> getMessage(MailboxPath mailboxPath, MailboxSession mailboxSession, MessageMapper<Id> messageMapper, long messageId) throws MailboxException {
-        try {
-            return ImmutableList.copyOf(messageMapper.findInMailbox(
-                        getMailbox(mailboxPath, mailboxSession).get(), 
-                        MessageRange.one(messageId),
-                        FetchType.Metadata,
-                        NO_LIMIT))
-                    .stream()
-                    .findFirst()
-                    .get();
-        } catch (MailboxException e) {
-            LOGGER.warn("Error retrieveing message :" + messageId, e);
-            throw e;
+            return Stream.empty();
         }
     }
 
@@ -228,4 +295,7 @@ public class GetMessageListMethod<Id extends MailboxId> implements Method {
             return Optional.empty();
         }
     }
+
+    private static class AnchorNotFoundException extends RuntimeException {
+    }
 }
@@ -19,14 +19,23 @@
 
 package org.apache.james.jmap.methods;
 
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 import javax.inject.Inject;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.apache.commons.io.IOUtils;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.james.jmap.json.FieldNamePropertyFilter;
@@ -37,15 +46,19 @@ import org.apache.james.jmap.model.Message;
 import org.apache.james.jmap.model.MessageId;
 import org.apache.james.jmap.model.MessageProperties;
 import org.apache.james.jmap.model.MessageProperties.HeaderProperty;
+import org.apache.james.jmap.model.MessageProperties.MessageProperty;
 import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxPath;
-import org.apache.james.mailbox.model.MessageRange;
 import org.apache.james.mailbox.store.mail.MailboxMapperFactory;
 import org.apache.james.mailbox.store.mail.MessageMapper;
+import org.apache.james.mailbox.store.mail.MessageMapper.FetchType;
 import org.apache.james.mailbox.store.mail.MessageMapperFactory;
 import org.apache.james.mailbox.store.mail.model.Mailbox;
 import org.apache.james.mailbox.store.mail.model.MailboxId;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMailboxMessage;
+import org.apache.james.mailbox.store.mail.model.impl.SimpleMessage;
 import org.apache.james.util.streams.Collectors;
 import org.javatuples.Pair;
 
@@ -54,13 +67,22 @@ import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.github.fge.lambdas.Throwing;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 public class GetMessagesMethod<Id extends MailboxId> implements Method {
 
     public static final String HEADERS_FILTER = "headersFilter";
     private static final Method.Request.Name METHOD_NAME = Method.Request.name("getMessages");
     private static final Method.Response.Name RESPONSE_NAME = Method.Response.name("messages");
+    private static final ImmutableSet<MessageProperty> BODY_PROPERTIES = ImmutableSet.of(
+            MessageProperty.hasAttachment,
+            MessageProperty.preview,
+            MessageProperty.textBody,
+            MessageProperty.htmlBody,
+            MessageProperty.attachments,
+            MessageProperty.attachedMessages);
     private final MessageMapperFactory<Id> messageMapperFactory;
     private final MailboxMapperFactory<Id> mailboxMapperFactory;
 
@@ -90,7 +112,7 @@ public class GetMessagesMethod<Id extends MailboxId> implements Method {
         GetMessagesRequest getMessagesRequest = (GetMessagesRequest) request;
         MessageProperties outputProperties = getMessagesRequest.getProperties().toOutputProperties();
         return Stream.of(JmapResponse.builder().clientId(clientId)
-                            .response(getMessagesResponse(mailboxSession, getMessagesRequest))
+                            .response(getMessagesResponse(mailboxSession, getMessagesRequest, outputProperties))
                             .responseName(RESPONSE_NAME)
                             .properties(outputProperties.getOptionalMessageProperties())
                             .filterProvider(buildOptionalHeadersFilteringFilterProvider(outputProperties))
@@ -108,14 +130,14 @@ public class GetMessagesMethod<Id extends MailboxId> implements Method {
         return new FieldNamePropertyFilter((fieldName) -> headerProperties.contains(HeaderProperty.fromFieldName(fieldName)));
     }
 
-    private GetMessagesResponse getMessagesResponse(MailboxSession mailboxSession, GetMessagesRequest getMessagesRequest) {
+    private GetMessagesResponse getMessagesResponse(MailboxSession mailboxSession, GetMessagesRequest getMessagesRequest, MessageProperties outputProperties) {
         getMessagesRequest.getAccountId().ifPresent(GetMessagesMethod::notImplemented);
         
-        Function<MessageId, Stream<Pair<MailboxMessage<Id>, MailboxPath>>> loadMessages = loadMessage(mailboxSession);
+        Map<MailboxPath, Map<Long, MailboxMessage<Id>>> messagesByMailbox = loadMessages(getMessagesRequest.getIds(), fetchTypeFor(outputProperties), mailboxSession);
         Function<Pair<MailboxMessage<Id>, MailboxPath>, Message> convertToJmapMessage = toJmapMessage(mailboxSession);
         
         List<Message> result = getMessagesRequest.getIds().stream()
-            .flatMap(loadMessages)
+            .flatMap(messageId -> findLoadedMessage(messagesByMailbox, messageId, mailboxSession))
             .map(convertToJmapMessage)
             .collect(Collectors.toImmutableList());
 
@@ -135,29 +157,72 @@ public class GetMessagesMethod<Id extends MailboxId> implements Method {
         };
     }
 
-    private Function<MessageId, Stream<
-                                    Pair<MailboxMessage<Id>,
-                                         MailboxPath>>> 
-                loadMessage(MailboxSession mailboxSession) {
-
-        return Throwing
-                .function((MessageId messageId) -> {
-                     MailboxPath mailboxPath = messageId.getMailboxPath(mailboxSession);
-                     MessageMapper<Id> messageMapper = messageMapperFactory.getMessageMapper(mailboxSession);
-                     Mailbox<Id> mailbox = mailboxMapperFactory.getMailboxMapper(mailboxSession).findMailboxByPath(mailboxPath);
-                     return Pair.with(
-                             messageMapper.findInMailbox(mailbox, MessageRange.one(messageId.getUid()), MessageMapper.FetchType.Full, 1),
-                             mailboxPath
-                             );
-         })
-                .andThen(this::iteratorToStream);
+    /**
+     * Bodies are only read when a property computed from them is requested.
+     */
+    private FetchType fetchTypeFor(MessageProperties outputProperties) {
+        boolean requiresBody = outputProperties.getOptionalMessageProperties()
+                .map(properties -> !Sets.intersection(properties, BODY_PROPERTIES).isEmpty())
+                .orElse(true);
+        if (requiresBody) {
+            return FetchType.Full;
+        }
+        return FetchType.Headers;
     }
-    
-    private Stream<Pair<MailboxMessage<Id>, MailboxPath>> iteratorToStream(Pair<Iterator<MailboxMessage<Id>>, MailboxPath> value) {
-        Iterable<MailboxMessage<Id>> iterable = () -> value.getValue0();
-        Stream<MailboxMessage<Id>> targetStream = StreamSupport.stream(iterable.spliterator(), false);
-        
-        MailboxPath mailboxPath = value.getValue1();
-        return targetStream.map(x -> Pair.with(x, mailboxPath));
+
+    /**
+     * Requested ids are grouped by mailbox, and the requested uids of each mailbox are read with one set query.
+     */
+    private Map<MailboxPath, Map<Long, MailboxMessage<Id>>> loadMessages(List<MessageId> messageIds, FetchType fetchType, MailboxSession mailboxSession) {
+        Map<MailboxPath, List<Long>> uidsByMailbox = messageIds.stream()
+                .collect(groupingBy(messageId -> messageId.getMailboxPath(mailboxSession),
+                        LinkedHashMap::new,
+                        mapping(MessageId::getUid, toList())));
+        Map<MailboxPath, Map<Long, MailboxMessage<Id>>> messagesByMailbox = new LinkedHashMap<>();
+        uidsByMailbox.forEach(Throwing.biConsumer((mailboxPath, uids) ->
+                messagesByMailbox.put(mailboxPath, loadMessages(mailboxPath, uids, fetchType, mailboxSession))));
+        return messagesByMailbox;
+    }
+
+    private Map<Long, MailboxMessage<Id>> loadMessages(MailboxPath mailboxPath, List<Long> uids, FetchType fetchType, MailboxSession mailboxSession) throws MailboxException {
+        MessageMapper<Id> messageMapper = messageMapperFactory.getMessageMapper(mailboxSession);
+        Mailbox<Id> mailbox = mailboxMapperFactory.getMailboxMapper(mailboxSession).findMailboxByPath(mailboxPath);
+        Map<Long, MailboxMessage<Id>> messages = new LinkedHashMap<>();
+        Iterator<MailboxMessage<Id>> iterator = messageMapper.findInMailbox(mailbox, uids, fetchType);
+        while (iterator.hasNext()) {
+            MailboxMessage<Id> message = iterator.next();
+            messages.put(message.getUid(), withContentFor(fetchType, message));
+        }
+        return messages;
+    }
+
+    private Stream<Pair<MailboxMessage<Id>, MailboxPath>> findLoadedMessage(Map<MailboxPath, Map<Long, MailboxMessage<Id>>> messagesByMailbox,
+            MessageId messageId, MailboxSession mailboxSession) {
+        MailboxPath mailboxPath = messageId.getMailboxPath(mailboxSession);
+        return Optional.ofNullable(messagesByMailbox.get(mailboxPath))
+                .flatMap(messages -> Optional.ofNullable(messages.get(messageId.getUid())))
+                .map(message -> Stream.of(Pair.with(message, mailboxPath)))
+                .orElse(Stream.empty());
+    }
+
+    /**
+     * When only headers were fetched, hide the body so that converting the message never reads it.
+     */
+    private MailboxMessage<Id> withContentFor(FetchType fetchType, MailboxMessage<Id> message) throws MailboxException {
+        if (fetchType == FetchType.Full) {
+            return message;
+        }
+        try {
+            byte[] headers = IOUtils.toByteArray(message.getHeaderContent());
+            SimpleMessage headersOnly = new SimpleMessage(new SharedByteArrayInputStream(headers), message.getFullContentOctets(),
+                    message.getInternalDate(), message.getSubType(), message.getMediaType(), headers.length,
+                    message.getTextualLineCount(), ImmutableList.copyOf(message.getProperties()));
+            SimpleMailboxMessage<Id> headersOnlyMessage = new SimpleMailboxMessage<>(headersOnly, message.createFlags(), message.getMailboxId());
+            headersOnlyMessage.setUid(message.getUid());
+            headersOnlyMessage.setModSeq(message.getModSeq());
+            return headersOnlyMessage;
+        } catch (IOException e) {
+            throw new MailboxException("Unable to read headers of message " + message.getUid(), e);
+        }
     }
 }
@@ -84,11 +84,13 @@ public class GetMessageListRequest implements JmapRequest {
         }
 
         public Builder anchor(String anchor) {
-            throw new NotImplementedException();
+            this.anchor = anchor;
+            return this;
         }
 
         public Builder anchorOffset(int anchorOffset) {
-            throw new NotImplementedException();
+            this.anchorOffset = anchorOffset;
+            return this;
         }
 
         public Builder limit(int limit) {
@@ -0,0 +1,93 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.jmap.utils;
+
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
+import org.apache.james.mailbox.store.mail.model.MailboxMessage;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+
+/**
+ * A JMAP sort criterion, such as <code>date desc</code>. The ordering is descending unless <code>asc</code> is given.
+ *
+ * It is shared by {@link SortToComparatorConvertor} and {@link SortToSearchQueryConvertor}, so that messages are
+ * ordered the same way in memory and by the search index.
+ */
+public class SortField {
+
+    @SuppressWarnings("rawtypes")
+    private enum Field {
+        DATE("date", SortClause.Arrival, MailboxMessage::getInternalDate),
+        ID("id", SortClause.Uid, MailboxMessage::getUid);
+
+        private final String name;
+        private final SortClause sortClause;
+        private final Function<MailboxMessage<?>, Comparable> valueExtractor;
+
+        Field(String name, SortClause sortClause, Function<MailboxMessage<?>, Comparable> valueExtractor) {
+            this.name = name;
+            this.sortClause = sortClause;
+            this.valueExtractor = valueExtractor;
+        }
+    }
+
+    private static final String SEPARATOR = " ";
+    private static final String DESC_ORDERING = "desc";
+
+    public static SortField parse(String sort) {
+        List<String> splitToList = Splitter.on(SEPARATOR).splitToList(sort);
+        Preconditions.checkArgument(splitToList.size() >= 1 && splitToList.size() <= 2, "Bad sort field definition");
+        boolean reverse = splitToList.size() == 1 || splitToList.get(1).equals(DESC_ORDERING);
+        return new SortField(fieldFor(splitToList.get(0)), reverse);
+    }
+
+    private static Field fieldFor(String name) {
+        for (Field field : Field.values()) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown sorting field");
+    }
+
+    private final Field field;
+    private final boolean reverse;
+
+    private SortField(Field field, boolean reverse) {
+        this.field = field;
+        this.reverse = reverse;
+    }
+
+    public SortClause getSortClause() {
+        return field.sortClause;
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Function<MailboxMessage<?>, Comparable> getValueExtractor() {
+        return field.valueExtractor;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+}
@@ -21,29 +21,15 @@ package org.apache.james.jmap.utils;
 
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
 
 import org.apache.james.mailbox.store.mail.model.MailboxId;
 import org.apache.james.mailbox.store.mail.model.MailboxMessage;
 
-import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableMap;
-
 public class SortToComparatorConvertor {
 
-    private static final String SEPARATOR = " ";
-    private static final String DESC_ORDERING = "desc";
-
     private SortToComparatorConvertor() {
     }
 
-    @SuppressWarnings("rawtypes")
-    private static final Map<String, Function<MailboxMessage<?>, Comparable>> fieldsMessageFunctionMap = ImmutableMap.of(
-            "date", MailboxMessage::getInternalDate,
-            "id", MailboxMessage::getUid);
-
     public static <M extends MailboxMessage<Id>, Id extends MailboxId> Comparator<M> comparatorFor(List<String> sort) {
         return sort.stream()
             .map(SortToComparatorConvertor::<M, Id> comparatorForField)
@@ -52,27 +38,14 @@ public class SortToComparatorConvertor {
 
     @SuppressWarnings("unchecked")
     private static <M extends MailboxMessage<Id>, Id extends MailboxId> Comparator<M> comparatorForField(String field) {
-        List<String> splitToList = Splitter.on(SEPARATOR).splitToList(field);
-        checkField(splitToList);
-        Comparator<M> fieldComparator = Comparator.comparing(functionForField(splitToList.get(0)));
-        if (splitToList.size() == 1 || splitToList.get(1).equals(DESC_ORDERING)) {
+        SortField sortField = SortField.parse(field);
+        Comparator<M> fieldComparator = Comparator.comparing(sortField.getValueExtractor());
+        if (sortField.isReverse()) {
             return fieldComparator.reversed();
         }
         return fieldComparator;
     }
 
-    @SuppressWarnings("rawtypes")
-    private static Function<MailboxMessage<?>, Comparable> functionForField(String field) {
-        if (!fieldsMessageFunctionMap.containsKey(field)) {
-            throw new IllegalArgumentException("Unknown sorting field");
-        }
-        return fieldsMessageFunctionMap.get(field);
-    }
-
-    private static void checkField(List<String> splitToList) {
-        Preconditions.checkArgument(splitToList.size() >= 1 && splitToList.size() <= 2, "Bad sort field definition");
-    }
-
     private static class EmptyComparator<Type> implements Comparator<Type> {
 
         @Override
@@ -0,0 +1,47 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.jmap.utils;
+
+import java.util.List;
+
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.util.streams.Collectors;
+
+/**
+ * Translates JMAP sort fields into {@link SearchQuery.Sort}s, so that the
+ * ordering is done by the search index. The fields are parsed by
+ * {@link SortField}, as for {@link SortToComparatorConvertor}.
+ */
+public class SortToSearchQueryConvertor {
+
+    private SortToSearchQueryConvertor() {
+    }
+
+    public static List<SearchQuery.Sort> sortsFor(List<String> sort) {
+        return sort.stream()
+            .map(SortToSearchQueryConvertor::sortForField)
+            .collect(Collectors.toImmutableList());
+    }
+
+    private static SearchQuery.Sort sortForField(String field) {
+        SortField sortField = SortField.parse(field);
+        return new SearchQuery.Sort(sortField.getSortClause(), sortField.isReverse());
+    }
+}
@@ -180,6 +180,39 @@ public class GetMessagesMethodTest {
                     Tuple.tuple(message3Uid, "(No subject)"));
     }
 
+    @Test
+    public void processShouldFetchMessagesFromSeveralMailboxesInRequestedOrderWhenOnlyHeadersProperties() throws MailboxException {
+        MailboxPath otherPath = new MailboxPath(inboxPath.getNamespace(), inboxPath.getUser(), "other");
+        mailboxManager.createMailbox(otherPath, session);
+        MessageManager inbox = mailboxManager.getMailbox(inboxPath, session);
+        MessageManager other = mailboxManager.getMailbox(otherPath, session);
+        Date now = new Date();
+        long message1Uid = inbox.appendMessage(new ByteArrayInputStream("Subject: message 1 subject\r\n\r\nmy message".getBytes(Charsets.UTF_8)), now, session, false, null);
+        long message2Uid = other.appendMessage(new ByteArrayInputStream("Subject: message 2 subject\r\n\r\nmy message".getBytes(Charsets.UTF_8)), now, session, false, null);
+        long message3Uid = inbox.appendMessage(new ByteArrayInputStream("Subject: message 3 subject\r\n\r\nmy message".getBytes(Charsets.UTF_8)), now, session, false, null);
+
+        GetMessagesRequest request = GetMessagesRequest.builder()
+                .ids(ImmutableList.of(new MessageId(ROBERT, inboxPath, message3Uid),
+                          new MessageId(ROBERT, otherPath, message2Uid),
+                          new MessageId(ROBERT, inboxPath, message1Uid)))
+                .properties(ImmutableList.of(MessageProperty.subject.asFieldName()))
+                .build();
+
+        GetMessagesMethod<InMemoryId> testee = new GetMessagesMethod<>(mailboxSessionMapperFactory, mailboxSessionMapperFactory);
+        List<JmapResponse> result = testee.process(request, clientId, session).collect(Collectors.toList());
+
+        assertThat(result).hasSize(1)
+            .extracting(JmapResponse::getResponse)
+            .hasOnlyElementsOfType(GetMessagesResponse.class)
+            .extracting(GetMessagesResponse.class::cast)
+            .flatExtracting(GetMessagesResponse::list)
+            .extracting(message -> message.getId().getUid(), Message::getSubject)
+            .containsExactly(
+                    Tuple.tuple(message3Uid, "message 3 subject"),
+                    Tuple.tuple(message2Uid, "message 2 subject"),
+                    Tuple.tuple(message1Uid, "message 1 subject"));
+    }
+
     @Test
     public void processShouldReturnOnlyMandatoryPropertiesOnEmptyPropertyList() throws MailboxException {
         MessageManager inbox = mailboxManager.getMailbox(inboxPath, session);
@@ -46,16 +46,6 @@ public class GetMessageListRequestTest {
         GetMessageListRequest.builder().accountId(null);
     }
 
-    @Test(expected=NotImplementedException.class)
-    public void builderShouldThrowWhenAnchor() {
-        GetMessageListRequest.builder().anchor(null);
-    }
-
-    @Test(expected=NotImplementedException.class)
-    public void builderShouldThrowWhenAnchorOffset() {
-        GetMessageListRequest.builder().anchorOffset(0);
-    }
-
     @Test(expected=NotImplementedException.class)
     public void builderShouldThrowWhenFetchThreads() {
         GetMessageListRequest.builder().fetchThreads(false);
@@ -88,4 +78,15 @@ public class GetMessageListRequestTest {
 
         assertThat(getMessageListRequest).isEqualToComparingFieldByField(expectedGetMessageListRequest);
     }
+
+    @Test
+    public void builderShouldKeepAnchorAndAnchorOffset() {
+        GetMessageListRequest getMessageListRequest = GetMessageListRequest.builder()
+            .anchor("user|mailbox|3")
+            .anchorOffset(-2)
+            .build();
+
+        assertThat(getMessageListRequest.getAnchor()).contains("user|mailbox|3");
+        assertThat(getMessageListRequest.getAnchorOffset()).contains(-2);
+    }
 }
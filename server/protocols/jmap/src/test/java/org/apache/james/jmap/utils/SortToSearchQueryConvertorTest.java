@@ -0,0 +1,70 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.jmap.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.util.List;
+
+import org.apache.james.mailbox.model.SearchQuery;
+import org.apache.james.mailbox.model.SearchQuery.Sort.SortClause;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class SortToSearchQueryConvertorTest {
+
+    @Test
+    public void sortsForShouldBeEmptyWhenEmptyList() {
+        assertThat(SortToSearchQueryConvertor.sortsFor(ImmutableList.of())).isEmpty();
+    }
+
+    @Test
+    public void sortsForShouldBeReversedArrivalWhenOnlyDateInList() {
+        List<SearchQuery.Sort> sorts = SortToSearchQueryConvertor.sortsFor(ImmutableList.of("date"));
+        assertThat(sorts).extracting(SearchQuery.Sort::getSortClause, SearchQuery.Sort::isReverse)
+            .containsExactly(tuple(SortClause.Arrival, true));
+    }
+
+    @Test
+    public void sortsForShouldBeArrivalWhenOnlyDateAscInList() {
+        List<SearchQuery.Sort> sorts = SortToSearchQueryConvertor.sortsFor(ImmutableList.of("date asc"));
+        assertThat(sorts).extracting(SearchQuery.Sort::getSortClause, SearchQuery.Sort::isReverse)
+            .containsExactly(tuple(SortClause.Arrival, false));
+    }
+
+    @Test
+    public void sortsForShouldChainSortsWhenMultipleElementsInList() {
+        List<SearchQuery.Sort> sorts = SortToSearchQueryConvertor.sortsFor(ImmutableList.of("date asc", "id desc"));
+        assertThat(sorts).extracting(SearchQuery.Sort::getSortClause, SearchQuery.Sort::isReverse)
+            .containsExactly(tuple(SortClause.Arrival, false), tuple(SortClause.Uid, true));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void sortsForShouldThrowWhenUnknownField() {
+        SortToSearchQueryConvertor.sortsFor(ImmutableList.of("unknown"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void sortsForShouldThrowWhenBadFieldFormat() {
+        SortToSearchQueryConvertor.sortsFor(ImmutableList.of("this is a bad field"));
+    }
+}
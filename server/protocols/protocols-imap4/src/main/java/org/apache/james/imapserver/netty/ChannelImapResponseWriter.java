@@ -22,10 +22,12 @@ package org.apache.james.imapserver.netty;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import org.apache.james.imap.encode.ImapResponseWriter;
 import org.apache.james.imap.message.response.Literal;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelPipeline;
@@ -69,23 +71,30 @@ public class ChannelImapResponseWriter implements ImapResponseWriter {
     public void write(Literal literal) throws IOException {
         if (channel.isConnected()) {
             InputStream in = literal.getInputStream();
-            if (in instanceof FileInputStream && channel.getFactory() instanceof NioServerSocketChannelFactory) {
+            // SSL/TLS and COMPRESS transform a whole written buffer at once, so the content is then written in
+            // chunks to keep the back-pressure of the ChunkedWriteHandler
+            //
+            // See JAMES-1305 and JAMES-1306
+            ChannelPipeline cp = channel.getPipeline();
+            boolean transformed = cp.get(SslHandler.class) != null || cp.get(ZlibEncoder.class) != null;
+            if (in instanceof ByteBufferInputStream && !transformed) {
+                // The content is already in memory: hand its buffers to the channel as they are
+                for (ByteBuffer buffer : ((ByteBufferInputStream) in).getByteBuffers()) {
+                    channel.write(ChannelBuffers.wrappedBuffer(buffer));
+                }
+                in.close();
+            } else if (in instanceof FileInputStream && channel.getFactory() instanceof NioServerSocketChannelFactory) {
                 FileChannel fc = ((FileInputStream) in).getChannel();
-                   // Zero-copy is only possible if no SSL/TLS  and no COMPRESS is in place
-                //
-                // See JAMES-1305 and JAMES-1306
-                ChannelPipeline cp = channel.getPipeline();
-                if (zeroCopy && cp.get(SslHandler.class) == null && cp.get(ZlibEncoder.class) == null ) {
+                // Zero-copy is only possible if no SSL/TLS and no COMPRESS is in place
+                if (zeroCopy && !transformed) {
                     channel.write(new DefaultFileRegion(fc, fc.position(), literal.size()));
                 } else {
                     channel.write(new ChunkedNioFile(fc, 8192));
                 }
             } else {
-                channel.write(new ChunkedStream(literal.getInputStream()));
+                channel.write(new ChunkedStream(in));
             }
         }
     }
-    
-    
 
 }
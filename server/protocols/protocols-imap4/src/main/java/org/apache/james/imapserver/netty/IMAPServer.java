@@ -20,6 +20,8 @@ package org.apache.james.imapserver.netty;
 
 import static org.jboss.netty.channel.Channels.pipeline;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -36,6 +38,8 @@ import org.apache.james.protocols.lib.netty.AbstractConfigurableAsyncServer;
 import org.apache.james.protocols.netty.ChannelGroupHandler;
 import org.apache.james.protocols.netty.ConnectionLimitUpstreamHandler;
 import org.apache.james.protocols.netty.ConnectionPerIpLimitUpstreamHandler;
+import org.apache.james.util.concurrent.JMXEnabledThreadPoolExecutor;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelUpstreamHandler;
@@ -66,11 +70,18 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
     private boolean plainAuthDisallowed;
     private int timeout;
     private int literalSizeLimit;
+    private int fetchPrefetchWindow;
+    private int fetchPrefetchThreads;
+    private int fetchPrefetchQueueSize;
+    private ThreadPoolExecutor fetchPrefetchExecutor;
 
     public final static int DEFAULT_MAX_LINE_LENGTH = 65536; // Use a big default
     public final static int DEFAULT_IN_MEMORY_SIZE_LIMIT = 10485760; // Use 10MB as default
     public final static int DEFAULT_TIMEOUT = 30 * 60; // default timeout is 30 seconds
     public final static int DEFAULT_LITERAL_SIZE_LIMIT = 0;
+    public final static int DEFAULT_FETCH_PREFETCH_WINDOW = 0; // FETCH responses are written by the thread processing the request
+    public final static int DEFAULT_FETCH_PREFETCH_THREADS = 16;
+    public final static int DEFAULT_FETCH_PREFETCH_QUEUE_SIZE = 10000;
 
     @Inject
     public void setImapProcessor(ImapProcessor processor) {
@@ -99,6 +110,12 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
         literalSizeLimit = configuration.getInt("literalSizeLimit", DEFAULT_LITERAL_SIZE_LIMIT);
 
         plainAuthDisallowed = configuration.getBoolean("plainAuthDisallowed", false);
+        fetchPrefetchWindow = configuration.getInt("fetchPrefetchWindow", DEFAULT_FETCH_PREFETCH_WINDOW);
+        fetchPrefetchThreads = configuration.getInt("fetchPrefetchThreads", DEFAULT_FETCH_PREFETCH_THREADS);
+        fetchPrefetchQueueSize = configuration.getInt("fetchPrefetchQueueSize", DEFAULT_FETCH_PREFETCH_QUEUE_SIZE);
+        if (fetchPrefetchWindow < 0 || fetchPrefetchThreads < 1 || fetchPrefetchQueueSize < 1) {
+            throw new ConfigurationException("fetchPrefetchWindow must not be negative, fetchPrefetchThreads and fetchPrefetchQueueSize must be positive");
+        }
         timeout = configuration.getInt("timeout", DEFAULT_TIMEOUT);
         if (timeout < DEFAULT_TIMEOUT) {
             throw new ConfigurationException("Minimum timeout of 30 minutes required. See rfc2060 5.4 for details");
@@ -110,6 +127,22 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
         
     }
 
+    @Override
+    protected void preInit() throws Exception {
+        if (fetchPrefetchWindow > 0) {
+            // Bounded, as the suspended FETCH requests of every connection share it
+            fetchPrefetchExecutor = new JMXEnabledThreadPoolExecutor(fetchPrefetchThreads, fetchPrefetchThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(fetchPrefetchQueueSize), new NamedThreadFactory(jmxName + "-fetch-prefetch"), getThreadPoolJMXPath());
+        }
+    }
+
+    @Override
+    protected void postDestroy() {
+        if (fetchPrefetchExecutor != null) {
+            fetchPrefetchExecutor.shutdownNow();
+        }
+    }
+
     /**
      * @see AbstractConfigurableAsyncServer#getDefaultPort()
      */
@@ -132,6 +165,8 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
             
             private final ChannelGroupHandler groupHandler = new ChannelGroupHandler(group);
             private final HashedWheelTimer timer = new HashedWheelTimer();
+            // Spool files of big literals are reused across connections
+            private final LiteralSpool literalSpool = new LiteralSpool();
             
             private final TimeUnit TIMEOUT_UNIT = TimeUnit.SECONDS;
 
@@ -167,7 +202,7 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
                     pipeline.addLast(EXECUTION_HANDLER, ehandler);
 
                 }
-                pipeline.addLast(REQUEST_DECODER, new ImapRequestFrameDecoder(decoder, inMemorySizeLimit, literalSizeLimit));
+                pipeline.addLast(REQUEST_DECODER, new ImapRequestFrameDecoder(decoder, inMemorySizeLimit, literalSizeLimit, literalSpool));
 
                 pipeline.addLast(CORE_HANDLER, createCoreHandler());
                 return pipeline;
@@ -186,9 +221,9 @@ public class IMAPServer extends AbstractConfigurableAsyncServer implements ImapC
         ImapChannelUpstreamHandler coreHandler;
         Encryption secure = getEncryption();
         if (secure!= null && secure.isStartTLS()) {
-           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, secure.getContext(), getEnabledCipherSuites());
+           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, secure.getContext(), getEnabledCipherSuites(), fetchPrefetchExecutor, fetchPrefetchWindow);
         } else {
-           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed);
+           coreHandler = new ImapChannelUpstreamHandler(hello, processor, encoder, getLogger(), compress, plainAuthDisallowed, null, null, fetchPrefetchExecutor, fetchPrefetchWindow);
         }
         return coreHandler;
     }
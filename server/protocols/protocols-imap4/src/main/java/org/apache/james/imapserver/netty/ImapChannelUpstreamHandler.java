@@ -20,6 +20,7 @@ package org.apache.james.imapserver.netty;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 
 import javax.net.ssl.SSLContext;
 
@@ -41,6 +42,7 @@ import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -70,12 +72,27 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
     private final ImapHeartbeatHandler heartbeatHandler = new ImapHeartbeatHandler();
 
     private final boolean plainAuthDisallowed;
+
+    private final Executor prefetchExecutor;
+
+    private final int prefetchWindow;
     
     public ImapChannelUpstreamHandler(final String hello, final ImapProcessor processor, ImapEncoder encoder, final Logger logger, boolean compress, boolean plainAuthDisallowed) {
         this(hello, processor, encoder, logger, compress, plainAuthDisallowed, null, null);
     }
 
     public ImapChannelUpstreamHandler(final String hello, final ImapProcessor processor, ImapEncoder encoder, final Logger logger, boolean compress, boolean plainAuthDisallowed, SSLContext context, String[] enabledCipherSuites) {
+        this(hello, processor, encoder, logger, compress, plainAuthDisallowed, context, enabledCipherSuites, null, 0);
+    }
+
+    /**
+     * @param prefetchExecutor executor on which the responses of the suspended requests are loaded and written, or null
+     *                         to complete every request on the thread processing it
+     * @param prefetchWindow count of batches of responses loaded ahead of the one being written
+     */
+    public ImapChannelUpstreamHandler(final String hello, final ImapProcessor processor, ImapEncoder encoder, final Logger logger, boolean compress, boolean plainAuthDisallowed, SSLContext context, String[] enabledCipherSuites, Executor prefetchExecutor, int prefetchWindow) {
+        this.prefetchExecutor = prefetchExecutor;
+        this.prefetchWindow = prefetchWindow;
         this.logger = logger;
         this.hello = hello;
         this.processor = processor;
@@ -92,7 +109,11 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
 
     @Override
     public void channelBound(final ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        ImapSession imapsession = new NettyImapSession(ctx.getChannel(), logger, context, enabledCipherSuites, compress, plainAuthDisallowed);
+        NettyImapPipeline pipeline = null;
+        if (prefetchExecutor != null && prefetchWindow > 0) {
+            pipeline = new NettyImapPipeline(ctx.getChannel(), prefetchExecutor, prefetchWindow);
+        }
+        ImapSession imapsession = new NettyImapSession(ctx.getChannel(), logger, context, enabledCipherSuites, compress, plainAuthDisallowed, pipeline);
         attributes.set(ctx.getChannel(), imapsession);
         super.channelBound(ctx, e);
     }
@@ -106,8 +127,12 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
         // remove the stored attribute for the channel to free up resources
         // See JAMES-1195
         ImapSession imapSession = (ImapSession) attributes.remove(ctx.getChannel());
-        if (imapSession != null)
+        if (imapSession != null) {
+            if (imapSession.getPipeline() != null) {
+                ((NettyImapPipeline) imapSession.getPipeline()).dispose();
+            }
             imapSession.logout();
+        }
 
         super.channelClosed(ctx, e);
     }
@@ -170,8 +195,41 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ImapSession session = (ImapSession) attributes.get(ctx.getChannel());
+        if (session != null && session.getPipeline() != null && ctx.getChannel().isWritable()) {
+            // Continue the suspended request now that the client read enough of the responses
+            ((NettyImapPipeline) session.getPipeline()).writable();
+        }
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
         
+        ImapSession session = (ImapSession) attributes.get(ctx.getChannel());
+        NettyImapPipeline pipeline = (NettyImapPipeline) session.getPipeline();
+        if (pipeline != null && pipeline.holdBack(new Runnable() {
+            public void run() {
+                if (!ctx.getChannel().isOpen()) {
+                    return;
+                }
+                try {
+                    process(ctx, e);
+                } catch (Exception ex) {
+                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
+                }
+            }
+        })) {
+            // Processed once the suspended request completes
+            return;
+        }
+        process(ctx, e);
+        super.messageReceived(ctx, e);
+
+    }
+
+    private void process(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         ImapSession session = (ImapSession) attributes.get(ctx.getChannel());
         ImapResponseComposer response = (ImapResponseComposer) ctx.getAttachment();
         ImapMessage message = (ImapMessage) e.getMessage();
@@ -207,9 +265,6 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
         } finally {
             ctx.getPipeline().remove(NettyConstants.HEARTBEAT_HANDLER);
         }
-
-        super.messageReceived(ctx, e);
-
     }
 
 }
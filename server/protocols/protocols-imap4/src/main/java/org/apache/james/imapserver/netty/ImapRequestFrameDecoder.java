@@ -19,23 +19,24 @@
 
 package org.apache.james.imapserver.netty;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.james.imap.api.ImapMessage;
 import org.apache.james.imap.api.ImapSessionState;
 import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.decode.ImapDecoder;
 import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.imapserver.netty.LiteralSpool.SpoolFile;
+import org.jboss.netty.buffer.AbstractChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -45,21 +46,37 @@ import org.jboss.netty.handler.codec.frame.FrameDecoder;
 
 /**
  * {@link FrameDecoder} which will decode via and {@link ImapDecoder} instance
+ * 
+ * Literals which fit in the <code>inMemorySizeLimit</code> are accumulated in memory, small ones in direct buffers
+ * sliced from shared chunks, bigger ones are written to a {@link LiteralSpool} and read back memory-mapped.
  */
 public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConstants {
 
+    private final static int LITERAL_CHUNK_SIZE = 64 * 1024;
+    private final static ChannelBufferFactory DEFAULT_LITERAL_BUFFER_FACTORY = new LiteralBufferFactory(LITERAL_CHUNK_SIZE);
+
     private final ImapDecoder decoder;
     private final int inMemorySizeLimit;
     private final int literalSizeLimit;
+    private final LiteralSpool literalSpool;
+    private final ChannelBufferFactory literalBufferFactory;
     private final static String NEEDED_DATA = "NEEDED_DATA";
     private final static String STORED_DATA = "STORED_DATA";
-    private final static String WRITTEN_DATA = "WRITTEN_DATA";
-    private final static String OUTPUT_STREAM = "OUTPUT_STREAM";
 
     public ImapRequestFrameDecoder(ImapDecoder decoder, int inMemorySizeLimit, int literalSizeLimit) {
+        this(decoder, inMemorySizeLimit, literalSizeLimit, new LiteralSpool(), DEFAULT_LITERAL_BUFFER_FACTORY);
+    }
+
+    public ImapRequestFrameDecoder(ImapDecoder decoder, int inMemorySizeLimit, int literalSizeLimit, LiteralSpool literalSpool) {
+        this(decoder, inMemorySizeLimit, literalSizeLimit, literalSpool, DEFAULT_LITERAL_BUFFER_FACTORY);
+    }
+
+    public ImapRequestFrameDecoder(ImapDecoder decoder, int inMemorySizeLimit, int literalSizeLimit, LiteralSpool literalSpool, ChannelBufferFactory literalBufferFactory) {
         this.decoder = decoder;
         this.inMemorySizeLimit = inMemorySizeLimit;
         this.literalSizeLimit = literalSizeLimit;
+        this.literalSpool = literalSpool;
+        this.literalBufferFactory = literalBufferFactory;
     }
 
     @Override
@@ -68,6 +85,20 @@ public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConsta
         super.channelOpen(ctx, e);
     }
 
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        super.channelClosed(ctx, e);
+        // Give back the spool file of a literal which was not completely received
+        @SuppressWarnings("unchecked")
+        Map<String, Object> attachment = (Map<String, Object>) ctx.getAttachment();
+        if (attachment != null) {
+            SpoolFile spoolFile = (SpoolFile) attachment.remove(STORED_DATA);
+            if (spoolFile != null) {
+                spoolFile.release();
+            }
+        }
+    }
+
     /**
      * @see
      * org.jboss.netty.handler.codec.frame.FrameDecoder#decode(org.jboss.netty.channel.ChannelHandlerContext,
@@ -94,53 +125,33 @@ public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConsta
                 if (inMemorySizeLimit > 0 && inMemorySizeLimit < size) {
 
                     // ok seems like it will not fit in the memory limit so we
-                    // need to store it in a temporary file
-                    final File f;
-                    int written;
-
-                    OutputStream out;
-                    // check if we have created a temporary file already or if
-                    // we need to create a new one
-                    if (attachment.containsKey(STORED_DATA)) {
-                        f = (File) attachment.get(STORED_DATA);
-                        written = (Integer) attachment.get(WRITTEN_DATA);
-                        out = (OutputStream) attachment.get(OUTPUT_STREAM);
-                    } else {
-                        f = File.createTempFile("imap-literal", ".tmp");
-                        attachment.put(STORED_DATA, f);
-                        written = 0;
-                        attachment.put(WRITTEN_DATA, written);
-                        out = new FileOutputStream(f, true);
-                        attachment.put(OUTPUT_STREAM, out);
-
+                    // need to spool it
+                    SpoolFile spoolFile = (SpoolFile) attachment.get(STORED_DATA);
+                    // check if we have started to spool already or if
+                    // we need a new spool file
+                    if (spoolFile == null) {
+                        spoolFile = literalSpool.acquire();
+                        attachment.put(STORED_DATA, spoolFile);
                     }
 
-
                     try {
-                        int amount = Math.min(buffer.readableBytes(), size - written);
-                        buffer.readBytes(out, amount);
-                        written += amount;
+                        int amount = (int) Math.min(buffer.readableBytes(), size - spoolFile.written());
+                        spoolFile.write(buffer, amount);
                     } catch (Exception e) {
-                        IOUtils.closeQuietly(out);
+                        attachment.remove(STORED_DATA);
+                        spoolFile.release();
                         throw e;
                     }
-                    // Check if all needed data was streamed to the file.
-                    if (written == size) {
-                        IOUtils.closeQuietly(out);
-
-                        reader = new NettyStreamImapRequestLineReader(channel, new FileInputStream(f) {
-                            /**
-                             * Delete the File on close too
-                             */
-                            @Override
-                            public void close() throws IOException {
-                                super.close();
-                                FileUtils.forceDelete(f);
-                            }
-
-                        }, retry);
+                    // Check if all needed data was spooled.
+                    if (spoolFile.written() == size) {
+                        // from now on the file is held by the streams over it
+                        attachment.remove(STORED_DATA);
+                        try {
+                            reader = new NettyStreamImapRequestLineReader(channel, spoolFile.openStream(), retry);
+                        } finally {
+                            spoolFile.release();
+                        }
                     } else {
-                        attachment.put(WRITTEN_DATA, written);
                         return null;
                     }
 
@@ -205,8 +216,11 @@ public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConsta
                 
                 buffer.resetReaderIndex();
                 return null;
+            } finally {
+                disposeSpooledReader(reader);
             }
         } else {
+            disposeSpooledReader(reader);
             // The session was null so may be the case because the channel was already closed but there were still bytes in the buffer.
             // We now try to disconnect the client if still connected
             if (channel.isConnected()) {
@@ -216,6 +230,19 @@ public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConsta
         }
     }
 
+    /**
+     * Release the reference of the reader to its spool file. The decoded literal holds its own one.
+     */
+    private void disposeSpooledReader(ImapRequestLineReader reader) {
+        if (reader instanceof NettyStreamImapRequestLineReader) {
+            try {
+                ((NettyStreamImapRequestLineReader) reader).dispose();
+            } catch (IOException e) {
+                // nothing to do, the literal was read already
+            }
+        }
+    }
+
     @Override
     protected synchronized ChannelBuffer newCumulationBuffer(ChannelHandlerContext ctx, int minimumCapacity) {
         @SuppressWarnings("unchecked")
@@ -223,14 +250,51 @@ public class ImapRequestFrameDecoder extends FrameDecoder implements NettyConsta
         int size = (Integer) attachment.get(NEEDED_DATA);
         
         if (inMemorySizeLimit > 0) {
-            return ChannelBuffers.dynamicBuffer(Math.min(size, inMemorySizeLimit), ctx.getChannel().getConfig().getBufferFactory());
+            return ChannelBuffers.dynamicBuffer(Math.min(size, inMemorySizeLimit), literalBufferFactory);
         } else {
 
             if (size > 0) {
-                return ChannelBuffers.dynamicBuffer(size, ctx.getChannel().getConfig().getBufferFactory());
+                return ChannelBuffers.dynamicBuffer(size, literalBufferFactory);
             }
             return super.newCumulationBuffer(ctx, minimumCapacity);
         }
     }
 
+    /**
+     * {@link ChannelBufferFactory} slicing the buffers smaller than a chunk from shared direct chunks, so that a slice
+     * keeps at most one chunk alive. Bigger buffers are allocated on the heap: allocated one by one off-heap, they
+     * would only be freed by the garbage collector and could exhaust the direct memory under concurrent APPENDs.
+     */
+    static final class LiteralBufferFactory extends AbstractChannelBufferFactory {
+
+        private final int chunkSize;
+        private final DirectChannelBufferFactory directFactory;
+
+        LiteralBufferFactory(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.directFactory = new DirectChannelBufferFactory(chunkSize);
+        }
+
+        public ChannelBuffer getBuffer(ByteOrder order, int capacity) {
+            if (capacity < chunkSize) {
+                return directFactory.getBuffer(order, capacity);
+            }
+            return HeapChannelBufferFactory.getInstance(order).getBuffer(order, capacity);
+        }
+
+        public ChannelBuffer getBuffer(ByteOrder order, byte[] array, int offset, int length) {
+            if (length < chunkSize) {
+                return directFactory.getBuffer(order, array, offset, length);
+            }
+            return HeapChannelBufferFactory.getInstance(order).getBuffer(order, array, offset, length);
+        }
+
+        public ChannelBuffer getBuffer(ByteBuffer nioBuffer) {
+            if (nioBuffer.remaining() < chunkSize) {
+                return directFactory.getBuffer(nioBuffer);
+            }
+            return HeapChannelBufferFactory.getInstance(nioBuffer.order()).getBuffer(nioBuffer);
+        }
+    }
+
 }
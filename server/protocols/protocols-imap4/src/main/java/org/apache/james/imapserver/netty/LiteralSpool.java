@@ -0,0 +1,300 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imapserver.netty;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Spools the IMAP literals which are too big to be kept in memory.
+ * 
+ * Instead of creating and deleting a temporary file per literal, the spool files are kept in a
+ * bounded pool and reused. A spooled literal is written through a {@link FileChannel} and read back
+ * through a read-only memory mapping, as a {@link SharedInputStream} so that it can be handed over
+ * to the mailbox without further copy.
+ * 
+ * Like a {@link javax.mail.util.SharedFileInputStream}, the writer of a spool file and every stream
+ * over it, including the ones created by {@link SharedInputStream#newStream(long, long)}, hold a
+ * reference to the file. The file goes back to the pool only once all of them are released, so a
+ * stream never reads the bytes of another literal. A stream which is dropped without being closed
+ * gives its reference back when it is garbage collected.
+ * 
+ * Files which grew bigger than <code>maxPooledFileSize</code> are deleted instead of being pooled.
+ */
+public class LiteralSpool {
+
+    public final static int DEFAULT_MAX_POOLED_FILES = 16;
+    public final static long DEFAULT_MAX_POOLED_FILE_SIZE = 64 * 1024 * 1024;
+
+    private final BlockingQueue<SpoolFile> pool;
+    private final long maxPooledFileSize;
+
+    public LiteralSpool() {
+        this(DEFAULT_MAX_POOLED_FILES, DEFAULT_MAX_POOLED_FILE_SIZE);
+    }
+
+    public LiteralSpool(int maxPooledFiles, long maxPooledFileSize) {
+        this.pool = new LinkedBlockingQueue<SpoolFile>(Math.max(1, maxPooledFiles));
+        this.maxPooledFileSize = maxPooledFileSize;
+    }
+
+    /**
+     * Return an empty spool file, from the pool if one is available. The caller holds a reference to
+     * the file until it calls {@link SpoolFile#release()}.
+     */
+    public SpoolFile acquire() throws IOException {
+        SpoolFile spoolFile = pool.poll();
+        if (spoolFile == null) {
+            spoolFile = new SpoolFile(File.createTempFile("imap-literal", ".tmp"));
+        }
+        spoolFile.reset();
+        return spoolFile;
+    }
+
+    /**
+     * @return the count of spool files waiting in the pool
+     */
+    public int pooledFiles() {
+        return pool.size();
+    }
+
+    private void release(SpoolFile spoolFile) {
+        if (spoolFile.size() > maxPooledFileSize || !pool.offer(spoolFile)) {
+            spoolFile.delete();
+        }
+    }
+
+    /**
+     * A file holding one spooled literal at a time
+     */
+    public final class SpoolFile {
+
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger();
+        private long written;
+
+        private SpoolFile(File file) throws IOException {
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.channel = randomAccessFile.getChannel();
+        }
+
+        private void reset() {
+            written = 0;
+            references.set(1);
+        }
+
+        /**
+         * Move the given amount of bytes from the buffer to the file
+         */
+        public void write(ChannelBuffer buffer, int amount) throws IOException {
+            int remaining = amount;
+            while (remaining > 0) {
+                int transferred = buffer.getBytes(buffer.readerIndex(), channel.position(written), remaining);
+                buffer.skipBytes(transferred);
+                written += transferred;
+                remaining -= transferred;
+            }
+        }
+
+        /**
+         * @return the count of bytes spooled so far
+         */
+        public long written() {
+            return written;
+        }
+
+        /**
+         * Map the spooled bytes. The returned stream holds its own reference to the file, which is
+         * released when the stream is closed.
+         */
+        public InputStream openStream() throws IOException {
+            ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, written);
+            retain();
+            return new MappedInputStream(mapping, this);
+        }
+
+        /**
+         * Release the reference of the caller. The file goes back to the {@link LiteralSpool} once no
+         * reference is left.
+         */
+        public void release() {
+            int remaining = references.decrementAndGet();
+            if (remaining == 0) {
+                LiteralSpool.this.release(this);
+            } else if (remaining < 0) {
+                throw new IllegalStateException("Spool file released more times than retained");
+            }
+        }
+
+        private void retain() {
+            if (references.getAndIncrement() <= 0) {
+                throw new IllegalStateException("Spool file already released");
+            }
+        }
+
+        /**
+         * @return the count of references held on this file
+         */
+        int references() {
+            return references.get();
+        }
+
+        private long size() {
+            try {
+                return channel.size();
+            } catch (IOException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        private void delete() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                // ignore, the file is deleted anyway
+            }
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * {@link SharedInputStream} over a mapped spool file. Streams created by {@link #newStream(long, long)}
+     * share the mapping, each of them holds a reference to the spool file until it is closed.
+     */
+    static final class MappedInputStream extends InputStream implements SharedInputStream {
+
+        private final ByteBuffer buffer;
+        private final SpoolFile spoolFile;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private int mark = 0;
+
+        private MappedInputStream(ByteBuffer buffer, SpoolFile spoolFile) {
+            this.buffer = buffer;
+            this.spoolFile = spoolFile;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int amount = Math.min(len, buffer.remaining());
+            buffer.get(b, off, amount);
+            return amount;
+        }
+
+        @Override
+        public long skip(long n) {
+            int amount = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + amount);
+            return amount;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.position(mark);
+        }
+
+        public long getPosition() {
+            return buffer.position();
+        }
+
+        /**
+         * @see javax.mail.internet.SharedInputStream#newStream(long, long)
+         */
+        public InputStream newStream(long start, long end) {
+            if (start < 0) {
+                throw new IllegalArgumentException("start must be positive");
+            }
+            if (end == -1) {
+                end = buffer.limit();
+            }
+            if (closed.get()) {
+                throw new IllegalStateException("Stream already closed");
+            }
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) end);
+            slice.position((int) start);
+            spoolFile.retain();
+            return new MappedInputStream(slice.slice(), spoolFile);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                spoolFile.release();
+            }
+        }
+
+        /**
+         * Give back the reference of a stream which was never closed, like the literal of a command
+         * which failed to parse
+         */
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                close();
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
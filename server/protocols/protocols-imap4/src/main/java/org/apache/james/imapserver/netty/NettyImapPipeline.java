@@ -0,0 +1,150 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imapserver.netty;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.james.imap.api.process.ImapPipeline;
+import org.jboss.netty.channel.Channel;
+
+/**
+ * {@link ImapPipeline} of a {@link Channel}. While a request is suspended the channel stops reading, and the
+ * requests which were already decoded are held back to be processed, in order, by the thread which resumes it.
+ * The writability is tracked by {@link ImapChannelUpstreamHandler#channelInterestChanged}, so no thread ever
+ * waits for the client to read the responses.
+ */
+public class NettyImapPipeline implements ImapPipeline {
+
+    private final Channel channel;
+    private final Executor executor;
+    private final int prefetchWindow;
+    private final AtomicReference<Runnable> writabilityTask = new AtomicReference<Runnable>();
+    private final Queue<Runnable> heldBack = new LinkedList<Runnable>();
+    private boolean suspended;
+    private boolean replaying;
+
+    public NettyImapPipeline(Channel channel, Executor executor, int prefetchWindow) {
+        this.channel = channel;
+        this.executor = executor;
+        this.prefetchWindow = prefetchWindow;
+    }
+
+    /**
+     * @see org.apache.james.imap.api.process.ImapPipeline#getExecutor()
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @see org.apache.james.imap.api.process.ImapPipeline#getPrefetchWindow()
+     */
+    public int getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    /**
+     * @see org.apache.james.imap.api.process.ImapPipeline#isWritable()
+     */
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    /**
+     * @see org.apache.james.imap.api.process.ImapPipeline#whenWritable(java.lang.Runnable)
+     */
+    public void whenWritable(Runnable task) {
+        writabilityTask.set(task);
+        // The channel may have become writable before the task was registered
+        if (channel.isWritable()) {
+            writable();
+        }
+    }
+
+    /**
+     * Run the task waiting for the channel to be writable, if any
+     */
+    public void writable() {
+        Runnable task = writabilityTask.getAndSet(null);
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * @see org.apache.james.imap.api.process.ImapPipeline#suspend()
+     */
+    public synchronized void suspend() {
+        suspended = true;
+        channel.setReadable(false);
+    }
+
+    /**
+     * Hold back the given request if a request is suspended, or if held back requests are still to be processed
+     * 
+     * @return true if the request was held back
+     */
+    public synchronized boolean holdBack(Runnable request) {
+        if (suspended || replaying) {
+            heldBack.add(request);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @see org.apache.james.imap.api.process.ImapPipeline#resume()
+     */
+    public void resume() {
+        synchronized (this) {
+            suspended = false;
+            if (replaying) {
+                // Called while processing a held back request, the replaying thread goes on with the next ones
+                return;
+            }
+            replaying = true;
+        }
+        while (true) {
+            Runnable request;
+            synchronized (this) {
+                if (suspended || heldBack.isEmpty()) {
+                    replaying = false;
+                    if (!suspended) {
+                        channel.setReadable(true);
+                    }
+                    return;
+                }
+                request = heldBack.poll();
+            }
+            request.run();
+        }
+    }
+
+    /**
+     * Forget the held back requests, as the channel was closed
+     */
+    public synchronized void dispose() {
+        heldBack.clear();
+        writabilityTask.set(null);
+    }
+
+}
@@ -21,13 +21,11 @@ package org.apache.james.imapserver.netty;
 
 import java.io.InputStream;
 
-import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.mailbox.model.ByteBufferInputStream;
 import org.apache.james.protocols.imap.DecodingException;
-import org.apache.james.protocols.imap.utils.EolInputStream;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBufferInputStream;
 import org.jboss.netty.channel.Channel;
 
 /**
@@ -74,9 +72,13 @@ public class NettyImapRequestLineReader extends AbstractNettyImapRequestLineRead
     }
 
     /**
-     * Return a {@link ChannelBufferInputStream} if the wrapped
+     * Return a {@link ByteBufferInputStream} over the literal if the wrapped
      * {@link ChannelBuffer} contains enough data. If not it will throw a
      * {@link NotEnoughDataException}
+     * 
+     * The stream is a view of the wrapped {@link ChannelBuffer}, which is shared so that the mailbox can parse it in
+     * place instead of copying it to a temporary file. Like the buffer, it is only readable while the decoded request
+     * is processed.
      */
     public InputStream read(int size, boolean extraCRLF) throws DecodingException {
         int crlf = 0;
@@ -98,13 +100,13 @@ public class NettyImapRequestLineReader extends AbstractNettyImapRequestLineRead
         nextSeen = false;
         nextChar = 0;
 
-        // limit the size via commons-io as ChannelBufferInputStream size limiting is buggy
-        InputStream in = new BoundedInputStream(new ChannelBufferInputStream(buffer), size); 
+        InputStream in = new ByteBufferInputStream(buffer.toByteBuffer(buffer.readerIndex(), size));
+        buffer.skipBytes(size);
+        read += size;
         if (extraCRLF) {
-            return new EolInputStream(this, in);
-        } else {
-            return in;
+            eol();
         }
+        return in;
     }
 
     /**
@@ -50,9 +50,15 @@ public class NettyImapSession implements ImapSession, NettyConstants {
     private final Channel channel;
     private int handlerCount;
     private final boolean plainAuthDisallowed;
+    private final NettyImapPipeline pipeline;
 
     public NettyImapSession(Channel channel, Logger log, SSLContext sslContext, String[] enabledCipherSuites, boolean compress, boolean plainAuthDisallowed) {
+        this(channel, log, sslContext, enabledCipherSuites, compress, plainAuthDisallowed, null);
+    }
+
+    public NettyImapSession(Channel channel, Logger log, SSLContext sslContext, String[] enabledCipherSuites, boolean compress, boolean plainAuthDisallowed, NettyImapPipeline pipeline) {
         this.channel = channel;
+        this.pipeline = pipeline;
         this.log = new ProtocolSessionLogger(channel.getId() + "", new ProtocolLoggerAdapter(log));
         this.sslContext = sslContext;
         this.enabledCipherSuites = enabledCipherSuites;
@@ -240,6 +246,13 @@ public class NettyImapSession implements ImapSession, NettyConstants {
         return plainAuthDisallowed;
     }
 
+    /**
+     * @see org.apache.james.imap.api.process.ImapSession#getPipeline()
+     */
+    public NettyImapPipeline getPipeline() {
+        return pipeline;
+    }
+
     /**
      * @see org.apache.james.imap.api.process.ImapSession#isTLSActive()
      */
@@ -21,6 +21,7 @@ package org.apache.james.imapserver.netty;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.protocols.imap.DecodingException;
 import org.apache.james.protocols.imap.utils.EolInputStream;
@@ -84,6 +85,9 @@ public class NettyStreamImapRequestLineReader extends AbstractNettyImapRequestLi
         // Unset the next char.
         nextSeen = false;
         nextChar = 0;
+        if (in instanceof LiteralSpool.MappedInputStream) {
+            return readMapped((LiteralSpool.MappedInputStream) in, size, extraCRLF);
+        }
         FixedLengthInputStream fin = new FixedLengthInputStream(this.in, size);
         if (extraCRLF) {
             return new EolInputStream(this, fin);
@@ -93,6 +97,25 @@ public class NettyStreamImapRequestLineReader extends AbstractNettyImapRequestLi
         
     }
 
+    /**
+     * Hand out the literal as a slice of the mapped spool file, so that it is not copied before reaching the mailbox.
+     * The slice holds its own reference to the spool file, so it stays readable once this reader is disposed.
+     */
+    private InputStream readMapped(LiteralSpool.MappedInputStream mapped, int size, boolean extraCRLF) throws DecodingException {
+        long position = mapped.getPosition();
+        InputStream literal = mapped.newStream(position, position + size);
+        mapped.skip(size);
+        if (extraCRLF) {
+            try {
+                eol();
+            } catch (DecodingException e) {
+                IOUtils.closeQuietly(literal);
+                throw e;
+            }
+        }
+        return literal;
+    }
+
     public void dispose() throws IOException {
         in.close();
     }
@@ -0,0 +1,137 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.imapserver.netty;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.james.imapserver.netty.LiteralSpool.SpoolFile;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class LiteralSpoolTest {
+
+    private static final String LITERAL = "Subject: test\r\n\r\nbody";
+
+    private final LiteralSpool spool = new LiteralSpool(2, 1024);
+
+    @Test
+    public void openStreamShouldReadTheSpooledBytes() throws Exception {
+        InputStream stream = openStream(spool, LITERAL);
+
+        assertEquals(LITERAL, IOUtils.toString(stream, "US-ASCII"));
+        stream.close();
+    }
+
+    @Test
+    public void releaseShouldPoolAFileWhichWasNotRead() throws Exception {
+        SpoolFile spoolFile = spool.acquire();
+        spoolFile.write(ChannelBuffers.wrappedBuffer(LITERAL.getBytes("US-ASCII")), LITERAL.length());
+
+        spoolFile.release();
+
+        assertEquals(1, spool.pooledFiles());
+    }
+
+    @Test
+    public void closingTheStreamShouldPoolTheFile() throws Exception {
+        InputStream stream = openStream(spool, LITERAL);
+
+        stream.close();
+
+        assertEquals(1, spool.pooledFiles());
+    }
+
+    @Test
+    public void closingAStreamTwiceShouldReleaseItsReferenceOnce() throws Exception {
+        InputStream stream = openStream(spool, LITERAL);
+        InputStream slice = ((SharedInputStream) stream).newStream(0, -1);
+
+        stream.close();
+        stream.close();
+
+        assertEquals(0, spool.pooledFiles());
+        slice.close();
+        assertEquals(1, spool.pooledFiles());
+    }
+
+    @Test
+    public void fileShouldNotBePooledWhileASliceIsOpen() throws Exception {
+        InputStream stream = openStream(spool, LITERAL);
+        InputStream slice = ((SharedInputStream) stream).newStream(17, -1);
+
+        stream.close();
+
+        assertEquals(0, spool.pooledFiles());
+        slice.close();
+        assertEquals(1, spool.pooledFiles());
+    }
+
+    @Test
+    public void sliceShouldNotReadTheNextLiteral() throws Exception {
+        InputStream stream = openStream(spool, LITERAL);
+        InputStream slice = ((SharedInputStream) stream).newStream(17, -1);
+        stream.close();
+
+        InputStream next = openStream(spool, "next");
+
+        assertEquals("body", IOUtils.toString(slice, "US-ASCII"));
+        slice.close();
+        next.close();
+    }
+
+    @Test
+    public void filesBiggerThanTheMaximumShouldNotBePooled() throws Exception {
+        LiteralSpool smallSpool = new LiteralSpool(2, 4);
+
+        openStream(smallSpool, LITERAL).close();
+
+        assertEquals(0, smallSpool.pooledFiles());
+    }
+
+    @Test
+    public void streamsWhichAreNeverClosedShouldBeReleasedWhenCollected() throws Exception {
+        InputStream stream = openStream(spool, LITERAL);
+        ((SharedInputStream) stream).newStream(17, -1);
+        stream.close();
+
+        for (int i = 0; i < 100 && spool.pooledFiles() == 0; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, spool.pooledFiles());
+    }
+
+    private InputStream openStream(LiteralSpool spool, String literal) throws IOException {
+        SpoolFile spoolFile = spool.acquire();
+        try {
+            spoolFile.write(ChannelBuffers.wrappedBuffer(literal.getBytes("US-ASCII")), literal.length());
+            return spoolFile.openStream();
+        } finally {
+            spoolFile.release();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imapserver.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class NettyImapRequestLineReaderTest {
+
+    private static final String LITERAL = "Subject: test\r\n\r\nbody";
+
+    @Test
+    public void readShouldReturnASharedStreamOverTheLiteral() throws Exception {
+        NettyImapRequestLineReader reader = new NettyImapRequestLineReader(null, buffer(LITERAL + "\r\n"), true, 0);
+
+        InputStream literal = reader.read(LITERAL.length(), true);
+
+        assertTrue(literal instanceof SharedInputStream);
+        assertEquals(LITERAL, IOUtils.toString(literal, "US-ASCII"));
+    }
+
+    @Test
+    public void readShouldConsumeTheLiteralAndTheEndOfLine() throws Exception {
+        ChannelBuffer buffer = buffer(LITERAL + "\r\n");
+        NettyImapRequestLineReader reader = new NettyImapRequestLineReader(null, buffer, true, 0);
+
+        reader.read(LITERAL.length(), true);
+
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void readShouldAskForTheMissingDataOfAnIncompleteLiteral() throws Exception {
+        NettyImapRequestLineReader reader = new NettyImapRequestLineReader(null, buffer(LITERAL.substring(0, 4)), true, 0);
+
+        try {
+            reader.read(LITERAL.length(), true);
+            fail();
+        } catch (NettyImapRequestLineReader.NotEnoughDataException e) {
+            assertEquals(LITERAL.length() + 2, e.getNeededSize());
+        }
+    }
+
+    private ChannelBuffer buffer(String content) throws Exception {
+        return ChannelBuffers.wrappedBuffer(content.getBytes("US-ASCII"));
+    }
+
+}
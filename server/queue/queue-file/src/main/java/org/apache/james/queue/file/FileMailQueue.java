@@ -18,10 +18,10 @@
  ****************************************************************/
 package org.apache.james.queue.file;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -36,10 +36,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.MessagingException;
-import javax.mail.util.SharedFileInputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -54,39 +53,72 @@ import org.slf4j.Logger;
 /**
  * {@link ManageableMailQueue} implementation which use the fs to store {@link Mail}'s
  * <p/>
- * On create of the {@link FileMailQueue} the {@link #init()} will get called. This takes care of
- * loading the needed meta-data into memory for fast access.
+ * The mails are appended to a {@link SegmentLog}. On create of the {@link FileMailQueue} the {@link #init()}
+ * will get called. This replays the log to load the position and the delay of the queued mails into memory,
+ * their metadata and content are only read when they get dequeued.
  */
-public class FileMailQueue implements ManageableMailQueue {
+public class FileMailQueue implements ManageableMailQueue, Disposable {
 
-    private final ConcurrentHashMap<String, FileItem> keyMappings = new ConcurrentHashMap<String, FileMailQueue.FileItem>();
-    private final BlockingQueue<String> inmemoryQueue = new LinkedBlockingQueue<String>();
+    private final static int WAITING = 0;
+    private final static int READY = 1;
+    private final static int PROCESSING = 2;
+
+    private final ConcurrentHashMap<Long, FileItem> items = new ConcurrentHashMap<Long, FileMailQueue.FileItem>();
+    private final BlockingQueue<Long> inmemoryQueue = new LinkedBlockingQueue<Long>();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private final static AtomicLong COUNTER = new AtomicLong();
-    private final String queueDirName;
     private final File queueDir;
     private final Logger log;
 
-    private final boolean sync;
+    private final SegmentLog segmentLog;
     private final static String MSG_EXTENSION = ".msg";
     private final static String OBJECT_EXTENSION = ".obj";
     private final static String NEXT_DELIVERY = "FileQueueNextDelivery";
     private final static int SPLITCOUNT = 10;
+    private final static long COMPACTION_INTERVAL = 30;
 
     public FileMailQueue(File parentDir, String queuename, boolean sync, Logger log) throws IOException {
+        this(parentDir, queuename, sync, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, log);
+    }
+
+    public FileMailQueue(File parentDir, String queuename, boolean sync, long maxSegmentSize, Logger log) throws IOException {
         this.log = log;
-        this.sync = sync;
         this.queueDir = new File(parentDir, queuename);
-        this.queueDirName = queueDir.getAbsolutePath();
+        this.segmentLog = new SegmentLog(queueDir, maxSegmentSize, sync, log);
         init();
     }
 
     private void init() throws IOException {
+        importLegacyFiles();
+
+        for (SegmentLog.Entry entry : segmentLog.getEntries()) {
+            FileItem item = new FileItem(entry.getName(), entry.getNextDelivery());
+            items.put(entry.getId(), item);
+            schedule(entry.getId(), item);
+        }
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    segmentLog.compact();
+                } catch (IOException e) {
+                    log.error("Unable to compact the queue " + queueDir, e);
+                }
+            }
+        }, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.SECONDS);
+    }
 
+    /**
+     * Move the mails stored by former versions, one object and one msg file per mail, to the log
+     */
+    private void importLegacyFiles() throws IOException {
         for (int i = 1; i <= SPLITCOUNT; i++) {
 
             File qDir = new File(queueDir, Integer.toString(i));
-            FileUtils.forceMkdir(qDir);
+            if (!qDir.isDirectory()) {
+                continue;
+            }
 
             String[] files = qDir.list(new FilenameFilter() {
                 @Override
@@ -95,153 +127,60 @@ public class FileMailQueue implements ManageableMailQueue {
                 }
             });
 
-            for (final String name : files) {
-
-                ObjectInputStream oin = null;
-
+            for (String name : files) {
+                File objectFile = new File(qDir, name);
+                File msgFile = new File(qDir, name.substring(0, name.length() - OBJECT_EXTENSION.length()) + MSG_EXTENSION);
+                SegmentLog.Spool content = segmentLog.newSpool();
                 try {
-
-                    final String msgFileName = name.substring(0, name.length() - OBJECT_EXTENSION.length()) + MSG_EXTENSION;
-
-                    FileItem item = new FileItem(qDir.getAbsolutePath() + File.separator + name, qDir.getAbsolutePath() + File.separator + msgFileName);
-
-                    oin = new ObjectInputStream(new FileInputStream(item.getObjectFile()));
-                    Mail mail = (Mail) oin.readObject();
+                    byte[] metadata = FileUtils.readFileToByteArray(objectFile);
+                    Mail mail = deserialize(metadata);
                     Long next = (Long) mail.getAttribute(NEXT_DELIVERY);
-                    if (next == null) {
-                        next = 0L;
-                    }
-
-                    final String key = mail.getName();
-                    keyMappings.put(key, item);
-                    if (next <= System.currentTimeMillis()) {
-
-                        try {
-                            inmemoryQueue.put(key);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException("Unable to init", e);
-                        }
-                    } else {
-
-                        // Schedule a task which will put the mail in the queue
-                        // for processing after a given delay
-                        scheduler.schedule(new Runnable() {
-
-                            @Override
-                            public void run() {
-                                try {
-                                    inmemoryQueue.put(key);
-                                } catch (InterruptedException e) {
-                                    Thread.currentThread().interrupt();
-                                    throw new RuntimeException("Unable to init", e);
-                                }
-                            }
-                        }, next - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    InputStream in = new FileInputStream(msgFile);
+                    try {
+                        IOUtils.copy(in, content);
+                    } finally {
+                        in.close();
                     }
-
-                } catch (ClassNotFoundException e1) {
-                    log.error("Unable to load Mail", e1);
+                    segmentLog.append(mail.getName(), next == null ? 0 : next, metadata, content);
+                    FileUtils.forceDelete(objectFile);
+                    FileUtils.forceDelete(msgFile);
+                } catch (ClassNotFoundException e) {
+                    log.error("Unable to load Mail", e);
                 } catch (IOException e) {
                     log.error("Unable to load Mail", e);
                 } finally {
-                    if (oin != null) {
-                        try {
-                            oin.close();
-                        } catch (Exception e) {
-                            // ignore on close
-                        }
-                    }
+                    content.discard();
                 }
+            }
 
+            if (!qDir.delete()) {
+                log.warn("Unable to delete " + qDir + " which still holds unreadable mails");
             }
         }
     }
 
     @Override
     public void enQueue(final Mail mail, long delay, TimeUnit unit) throws MailQueueException {
-        final String key = mail.getName() + "-" + COUNTER.incrementAndGet();
-        FileOutputStream out = null;
-        FileOutputStream foout = null;
-        ObjectOutputStream oout = null;
+        SegmentLog.Spool content = segmentLog.newSpool();
         try {
-            int i = (int) (Math.random() * SPLITCOUNT + 1);
-
-
-            String name = queueDirName + "/" + i + "/" + key;
-
-            final FileItem item = new FileItem(name + OBJECT_EXTENSION, name + MSG_EXTENSION);
+            long nextDelivery = 0;
             if (delay > 0) {
-                mail.setAttribute(NEXT_DELIVERY, System.currentTimeMillis() + unit.toMillis(delay));
+                nextDelivery = System.currentTimeMillis() + unit.toMillis(delay);
             }
-            foout = new FileOutputStream(item.getObjectFile());
-            oout = new ObjectOutputStream(foout);
-            oout.writeObject(mail);
-            oout.flush();
-            if (sync) foout.getFD().sync();
-            out = new FileOutputStream(item.getMessageFile());
-
-            mail.getMessage().writeTo(out);
-            out.flush();
-            if (sync) out.getFD().sync();
-
-            keyMappings.put(key, item);
+            mail.getMessage().writeTo(content);
 
-            if (delay > 0) {
-                // The message should get delayed so schedule it for later
-                scheduler.schedule(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            inmemoryQueue.put(key);
-
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new RuntimeException("Unable to init", e);
-                        }
-                    }
-                }, delay, unit);
-
-            } else {
-                inmemoryQueue.put(key);
-            }
+            SegmentLog.Entry entry = segmentLog.append(mail.getName(), nextDelivery, serialize(mail), content);
+            FileItem item = new FileItem(entry.getName(), nextDelivery);
+            items.put(entry.getId(), item);
+            schedule(entry.getId(), item);
 
-            //TODO: Think about exception handling in detail
-        } catch (FileNotFoundException e) {
-            throw new MailQueueException("Unable to enqueue mail", e);
         } catch (IOException e) {
             throw new MailQueueException("Unable to enqueue mail", e);
-
         } catch (MessagingException e) {
             throw new MailQueueException("Unable to enqueue mail", e);
-        } catch (InterruptedException e) {
-            throw new MailQueueException("Unable to enqueue mail", e);
-
         } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
-            }
-            if (oout != null) {
-                try {
-                    oout.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
-            }
-            if (foout != null) {
-                try {
-                    foout.close();
-                } catch (IOException e) {
-                    // ignore on close
-                }
-            }
+            content.discard();
         }
-
     }
 
     @Override
@@ -252,65 +191,62 @@ public class FileMailQueue implements ManageableMailQueue {
     @Override
     public MailQueueItem deQueue() throws MailQueueException {
         try {
-            FileItem item = null;
-            String k = null;
-            while (item == null) {
-                k = inmemoryQueue.take();
+            while (true) {
+                final long id = inmemoryQueue.take();
 
-                item = keyMappings.get(k);
+                final FileItem item = items.get(id);
+                if (item == null || !item.state.compareAndSet(READY, PROCESSING)) {
+                    // removed from the queue or already dequeued
+                    continue;
+                }
 
-            }
-            final String key = k;
-            final FileItem fitem = item;
-            ObjectInputStream oin = null;
-            try {
-                final File objectFile = new File(fitem.getObjectFile());
-                final File msgFile = new File(fitem.getMessageFile());
-                oin = new ObjectInputStream(new FileInputStream(objectFile));
-                final Mail mail = (Mail) oin.readObject();
-                mail.setMessage(new MimeMessageCopyOnWriteProxy(new FileMimeMessageSource(msgFile)));
-                return new MailQueueItem() {
-
-                    @Override
-                    public Mail getMail() {
-                        return mail;
+                SegmentLog.StoredMail stored = null;
+                try {
+                    stored = segmentLog.read(id);
+                    if (stored == null) {
+                        items.remove(id, item);
+                        continue;
                     }
+                    final Mail mail = deserialize(stored.getMetadata());
+                    mail.setMessage(new MimeMessageCopyOnWriteProxy(new SegmentMimeMessageSource(stored)));
+                    return new MailQueueItem() {
+
+                        @Override
+                        public Mail getMail() {
+                            return mail;
+                        }
 
-                    @Override
-                    public void done(boolean success) throws MailQueueException {
-                        if (!success) {
+                        @Override
+                        public void done(boolean success) throws MailQueueException {
                             try {
-                                inmemoryQueue.put(key);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                throw new MailQueueException("Unable to rollback", e);
+                                if (!success) {
+                                    item.state.set(WAITING);
+                                    ready(id, item);
+                                } else {
+                                    segmentLog.acknowledge(id);
+                                    items.remove(id, item);
+                                }
+                            } catch (IOException e) {
+                                throw new MailQueueException("Unable to acknowledge mail", e);
+                            } finally {
+                                LifecycleUtil.dispose(mail);
                             }
-                        } else {
-                            fitem.delete();
-                            keyMappings.remove(key);
                         }
+                    };
 
-                        LifecycleUtil.dispose(mail);
-                    }
-                };
-
-                // TODO: Think about exception handling in detail
-            } catch (FileNotFoundException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (IOException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (ClassNotFoundException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-            } catch (MessagingException e) {
-                throw new MailQueueException("Unable to dequeue", e);
-
-            } finally {
-                if (oin != null) {
-                    try {
-                        oin.close();
-                    } catch (IOException e) {
-                        // ignore on close
-                    }
+                    // TODO: Think about exception handling in detail
+                } catch (IOException e) {
+                    item.state.set(WAITING);
+                    close(stored);
+                    throw new MailQueueException("Unable to dequeue", e);
+                } catch (ClassNotFoundException e) {
+                    item.state.set(WAITING);
+                    close(stored);
+                    throw new MailQueueException("Unable to dequeue", e);
+                } catch (MessagingException e) {
+                    item.state.set(WAITING);
+                    close(stored);
+                    throw new MailQueueException("Unable to dequeue", e);
                 }
             }
 
@@ -320,92 +256,116 @@ public class FileMailQueue implements ManageableMailQueue {
         }
     }
 
-    private final class FileMimeMessageSource extends MimeMessageSource implements Disposable {
+    /**
+     * Make the given mail available for dequeue once its delay expired
+     */
+    private void schedule(final long id, final FileItem item) {
+        long delay = item.nextDelivery - System.currentTimeMillis();
+        if (delay <= 0) {
+            ready(id, item);
+        } else {
+            // Schedule a task which will put the mail in the queue
+            // for processing after a given delay
+            scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    ready(id, item);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean ready(long id, FileItem item) {
+        if (item.state.compareAndSet(WAITING, READY)) {
+            inmemoryQueue.add(id);
+            return true;
+        }
+        return false;
+    }
+
+    private byte[] serialize(Mail mail) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(out);
+        oout.writeObject(mail);
+        oout.close();
+        return out.toByteArray();
+    }
+
+    private Mail deserialize(byte[] metadata) throws IOException, ClassNotFoundException {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(metadata));
+        try {
+            return (Mail) oin.readObject();
+        } finally {
+            oin.close();
+        }
+    }
+
+    private void close(SegmentLog.StoredMail stored) {
+        if (stored != null) {
+            stored.close();
+        }
+    }
+
+    private final class SegmentMimeMessageSource extends MimeMessageSource implements Disposable {
 
-        private File file;
-        private final SharedFileInputStream in;
+        private final SegmentLog.StoredMail stored;
 
-        public FileMimeMessageSource(File file) throws IOException {
-            this.file = file;
-            this.in = new SharedFileInputStream(file);
+        public SegmentMimeMessageSource(SegmentLog.StoredMail stored) {
+            this.stored = stored;
         }
 
         @Override
         public String getSourceId() {
-            return file.getAbsolutePath();
+            return stored.getSourceId();
         }
 
         /**
-         * Get an input stream to retrieve the data stored in the temporary file
+         * Get an input stream to retrieve the data stored in the segment
          *
-         * @return a <code>BufferedInputStream</code> containing the data
+         * @return a <code>InputStream</code> containing the data
          */
         @Override
         public InputStream getInputStream() throws IOException {
-            return in.newStream(0, -1);
+            return stored.newMessageStream();
         }
 
         @Override
         public long getMessageSize() throws IOException {
-            return file.length();
+            return stored.getMessageSize();
         }
 
         @Override
         public void dispose() {
-            IOUtils.closeQuietly(in);
-            file = null;
+            close(stored);
         }
 
     }
 
     /**
-     * Helper class which is used to reference the path to the object and msg file
+     * Helper class which holds the in-memory state of a queued mail
      */
-    private final class FileItem {
-        private final String objectfile;
-        private final String messagefile;
-
-        public FileItem(String objectfile, String messagefile) {
-            this.objectfile = objectfile;
-            this.messagefile = messagefile;
-        }
-
-        public String getObjectFile() {
-            return objectfile;
-        }
-
-        public String getMessageFile() {
-            return messagefile;
-        }
-
-        public void delete() throws MailQueueException {
-            try {
-                FileUtils.forceDelete(new File(getObjectFile()));
-            } catch (IOException e) {
-                throw new MailQueueException("Unable to delete mail");
-            }
-
-            try {
-                FileUtils.forceDelete(new File(getMessageFile()));
-            } catch (IOException e) {
-                log.debug("Remove of msg file for mail failed");
-            }
+    private static final class FileItem {
+        private final String name;
+        private final long nextDelivery;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        public FileItem(String name, long nextDelivery) {
+            this.name = name;
+            this.nextDelivery = nextDelivery;
         }
     }
 
     @Override
     public long getSize() throws MailQueueException {
-        return keyMappings.size();
+        return items.size();
     }
 
     @Override
     public long flush() throws MailQueueException {
-        Iterator<String> keys = keyMappings.keySet().iterator();
         long i = 0;
-        while (keys.hasNext()) {
-            String key = keys.next();
-            if (!inmemoryQueue.contains(key)) {
-                inmemoryQueue.add(key);
+        for (Entry<Long, FileItem> entry : items.entrySet()) {
+            if (ready(entry.getKey(), entry.getValue())) {
                 i++;
             }
         }
@@ -414,23 +374,17 @@ public class FileMailQueue implements ManageableMailQueue {
 
     @Override
     public long clear() throws MailQueueException {
-        final Iterator<Entry<String, FileItem>> items = keyMappings.entrySet().iterator();
         long count = 0;
-        while (items.hasNext()) {
-            Entry<String, FileItem> entry = items.next();
-            FileItem item = entry.getValue();
-            String key = entry.getKey();
-
-            item.delete();
-            keyMappings.remove(key);
-            count++;
-
+        for (Long id : items.keySet()) {
+            if (delete(id)) {
+                count++;
+            }
         }
         return count;
     }
 
     /**
-     * TODO: implement me
+     * Only the removal by {@link Type#Name} is supported, which removes the mails of the given name.
      *
      * @see ManageableMailQueue#remove(org.apache.james.queue.api.ManageableMailQueue.Type, String)
      */
@@ -438,13 +392,13 @@ public class FileMailQueue implements ManageableMailQueue {
     public long remove(Type type, String value) throws MailQueueException {
         switch (type) {
             case Name:
-                FileItem item = keyMappings.remove(value);
-                if (item != null) {
-                    item.delete();
-                    return 1;
-                } else {
-                    return 0;
+                long count = 0;
+                for (Entry<Long, FileItem> entry : items.entrySet()) {
+                    if (entry.getValue().name.equals(value) && delete(entry.getKey())) {
+                        count++;
+                    }
                 }
+                return count;
 
             default:
                 break;
@@ -453,9 +407,19 @@ public class FileMailQueue implements ManageableMailQueue {
 
     }
 
+    private boolean delete(long id) throws MailQueueException {
+        try {
+            boolean deleted = segmentLog.acknowledge(id);
+            items.remove(id);
+            return deleted;
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to delete mail", e);
+        }
+    }
+
     @Override
     public MailQueueIterator browse() throws MailQueueException {
-        final Iterator<FileItem> items = keyMappings.values().iterator();
+        final Iterator<Entry<Long, FileItem>> items = this.items.entrySet().iterator();
         return new MailQueueIterator() {
             private MailQueueItemView item = null;
 
@@ -480,15 +444,20 @@ public class FileMailQueue implements ManageableMailQueue {
             public boolean hasNext() {
                 if (item == null) {
                     while (items.hasNext()) {
-                        ObjectInputStream in = null;
+                        Entry<Long, FileItem> entry = items.next();
+                        SegmentLog.StoredMail stored = null;
                         try {
-                            in = new ObjectInputStream(new FileInputStream(items.next().getObjectFile()));
-                            final Mail mail = (Mail) in.readObject();
+                            stored = segmentLog.read(entry.getKey());
+                            if (stored == null) {
+                                continue;
+                            }
+                            final Mail mail = deserialize(stored.getMetadata());
+                            final long nextDelivery = entry.getValue().nextDelivery;
                             item = new MailQueueItemView() {
 
                                 @Override
                                 public long getNextDelivery() {
-                                    return (Long) mail.getAttribute(NEXT_DELIVERY);
+                                    return nextDelivery;
                                 }
 
                                 @Override
@@ -497,21 +466,12 @@ public class FileMailQueue implements ManageableMailQueue {
                                 }
                             };
                             return true;
-                        } catch (FileNotFoundException e) {
-                            log.info("Unable to load mail", e);
                         } catch (IOException e) {
                             log.info("Unable to load mail", e);
-
                         } catch (ClassNotFoundException e) {
                             log.info("Unable to load mail", e);
                         } finally {
-                            if (in != null) {
-                                try {
-                                    in.close();
-                                } catch (IOException e) {
-                                    // ignore on close
-                                }
-                            }
+                            FileMailQueue.this.close(stored);
                         }
                     }
                     return false;
@@ -527,4 +487,14 @@ public class FileMailQueue implements ManageableMailQueue {
         };
     }
 
+    @Override
+    public void dispose() {
+        scheduler.shutdownNow();
+        try {
+            segmentLog.close();
+        } catch (IOException e) {
+            log.error("Unable to close the queue " + queueDir, e);
+        }
+    }
+
 }
@@ -19,11 +19,13 @@
 package org.apache.james.queue.file;
 
 import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueueFactory;
 import org.slf4j.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
 import java.io.IOException;
@@ -39,6 +41,7 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
     private FileSystem fs;
     private Logger log;
     private boolean sync = true;
+    private long maxSegmentSize = SegmentLog.DEFAULT_MAX_SEGMENT_SIZE;
 
     @Inject
     public void setFileSystem(FileSystem fs) {
@@ -46,8 +49,8 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
     }
 
     /**
-     * If <code>true</code> the later created {@link FileMailQueue} will call <code>fsync</code> after each message {@link FileMailQueue#enQueue(org.apache.mailet.Mail)} call. This
-     * is needed to be fully RFC conform but gives a performance penalty. If you are brave enough you man set it to <code>false</code>
+     * If <code>true</code> the later created {@link FileMailQueue} will call <code>fsync</code> before returning from each {@link FileMailQueue#enQueue(org.apache.mailet.Mail)} call.
+     * Concurrent calls share the same <code>fsync</code>. This is needed to be fully RFC conform but gives a performance penalty. If you are brave enough you man set it to <code>false</code>
      * <p/>
      * The default is <code>true</code>
      *
@@ -57,20 +60,42 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
         this.sync = sync;
     }
 
+    /**
+     * The size a segment file of the later created {@link FileMailQueue} may grow to before a new one is started.
+     * Segments are deleted once all of their mails got delivered.
+     * <p/>
+     * The default is 64MB
+     *
+     * @param maxSegmentSize
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
     @Override
     public MailQueue getQueue(String name) {
-        MailQueue queue = queues.get(name);
-        if (queue == null) {
-            synchronized (queues) {
+        synchronized (queues) {
+            MailQueue queue = queues.get(name);
+            if (queue == null) {
                 try {
-                    queue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, log);
+                    queue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, maxSegmentSize, log);
                     queues.put(name, queue);
                 } catch (IOException e) {
                     throw new RuntimeException("Unable to access queue " + name, e);
                 }
             }
+            return queue;
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        synchronized (queues) {
+            for (MailQueue queue : queues.values()) {
+                LifecycleUtil.dispose(queue);
+            }
+            queues.clear();
         }
-        return queue;
     }
 
     @Override
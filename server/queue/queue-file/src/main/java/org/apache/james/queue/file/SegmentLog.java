@@ -0,0 +1,931 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+
+/**
+ * Append-only store of the mails of a {@link FileMailQueue}.
+ * <p/>
+ * Each mail is appended as a single record to the current segment file, and its acknowledgement is
+ * appended as a record too. A new segment is started once the current one reaches the maximum segment
+ * size. Only the position of the live records is kept in memory: the metadata and the content of a
+ * mail are read back from its segment when it gets dequeued.
+ * <p/>
+ * The content of a mail is first written to a {@link Spool}, which keeps small contents in memory and
+ * bigger ones in a temporary file, so that appending a mail does not need its whole content in memory.
+ * <p/>
+ * When sync is enabled, the appends waiting for an fsync share the next one (group commit).
+ * Acknowledgements are never synced: after a crash a mail may be delivered twice, but never lost.
+ * A segment is always synced before the next one is started, so only the last segment may end with a
+ * torn record. It is the only one whose mail contents are read on startup to verify their checksums, only
+ * the record headers and metadata of the other segments are read. An invalid record is only truncated when
+ * it runs to the end of the last segment; an invalid record followed by other data is skipped and reported,
+ * and the segment is then kept as is.
+ * <p/>
+ * Segments are deleted oldest first, once all of their mails got acknowledged. The remaining mails of a
+ * mostly acknowledged oldest segment are copied to the end of the log by {@link #compact()} so that a
+ * few delayed mails do not prevent the deletion of the following segments.
+ */
+public class SegmentLog implements Closeable {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final String SPOOL_PREFIX = "spool-";
+    private static final String SPOOL_EXTENSION = ".tmp";
+    private static final int SPOOL_THRESHOLD = 64 * 1024;
+    private static final String CHARSET = "UTF-8";
+    private static final byte ENQUEUE = 1;
+    private static final byte ACKNOWLEDGE = 2;
+    // length of the payload and checksum of the payload but the mail content
+    private static final int RECORD_HEADER_SIZE = 8;
+    // type and id
+    private static final int ACKNOWLEDGE_SIZE = 9;
+    // type, id, next delivery, name length, metadata length and content checksum
+    private static final int ENQUEUE_HEADER_SIZE = 27;
+    private static final int REPLAY_BUFFER_SIZE = 64 * 1024;
+
+    private final File dir;
+    private final long maxSegmentSize;
+    private final boolean sync;
+    private final Logger log;
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<Long, Entry>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    // Guards the segments, the appends and the live counters
+    private final Object appendLock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private volatile Segment active;
+    private volatile long appended;
+    // Segment whose mails were copied by a compaction, kept until the copies are synced
+    private Segment relocating;
+
+    // Guards the fsync of the active segment and the close of the others
+    private final Object syncLock = new Object();
+    private long synced;
+
+    // Segments are only deleted when no reader is opening one
+    private final ReadWriteLock deleteLock = new ReentrantReadWriteLock();
+
+    public SegmentLog(File dir, long maxSegmentSize, boolean sync, Logger log) throws IOException {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+        this.sync = sync;
+        this.log = log;
+        replay();
+    }
+
+    /**
+     * Return the mails which were not acknowledged yet, in the order they were appended
+     *
+     * @return entries
+     */
+    public List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<Entry>(entries.values());
+        Collections.sort(result, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                if (e1.segment.sequence != e2.segment.sequence) {
+                    return e1.segment.sequence < e2.segment.sequence ? -1 : 1;
+                }
+                return e1.position < e2.position ? -1 : (e1.position == e2.position ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Return a new {@link Spool} to write the content of a mail to append to. The caller is responsible for
+     * discarding it once the mail got appended.
+     *
+     * @return spool
+     */
+    public Spool newSpool() {
+        return new Spool(dir);
+    }
+
+    /**
+     * Append a mail to the log. When sync is enabled, the mail is on disk once this method returns.
+     *
+     * @param name the name of the mail
+     * @param nextDelivery the time the mail should be delivered at, 0 if it is not delayed
+     * @param metadata the serialized mail
+     * @param content the content of the mail, which gets closed
+     * @return the entry of the mail
+     * @throws IOException
+     */
+    public Entry append(String name, long nextDelivery, byte[] metadata, Spool content) throws IOException {
+        content.close();
+        byte[] nameBytes = name.getBytes(CHARSET);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IOException("Mail name too long: " + name);
+        }
+        long payloadLength = ENQUEUE_HEADER_SIZE + nameBytes.length + metadata.length + content.length;
+        if (payloadLength > Integer.MAX_VALUE) {
+            throw new IOException("Mail too big: " + name);
+        }
+        long id = nextId.getAndIncrement();
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + ENQUEUE_HEADER_SIZE + nameBytes.length);
+        header.putInt((int) payloadLength);
+        header.putInt(0);
+        header.put(ENQUEUE);
+        header.putLong(id);
+        header.putLong(nextDelivery);
+        header.putShort((short) nameBytes.length);
+        header.put(nameBytes);
+        header.putInt(metadata.length);
+        header.putInt((int) content.crc.getValue());
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), RECORD_HEADER_SIZE, header.capacity() - RECORD_HEADER_SIZE);
+        crc.update(metadata);
+        header.putInt(4, (int) crc.getValue());
+        header.flip();
+
+        int metadataOffset = header.limit();
+        int length = RECORD_HEADER_SIZE + (int) payloadLength;
+        Entry entry;
+        long ticket;
+        synchronized (appendLock) {
+            Segment segment = reserve(length);
+            long position = segment.size;
+            write(segment, new ByteBuffer[] { header, ByteBuffer.wrap(metadata) }, content);
+            entry = new Entry(id, name, nextDelivery, segment, position, length, metadataOffset, metadata.length);
+            entries.put(id, entry);
+            segment.retain(entry);
+            ticket = ++appended;
+        }
+        if (sync) {
+            sync(ticket);
+        }
+        return entry;
+    }
+
+    /**
+     * Acknowledge the given mail, which will not be replayed anymore
+     *
+     * @param id
+     * @return <code>true</code> if the mail was not acknowledged yet
+     * @throws IOException
+     */
+    public boolean acknowledge(long id) throws IOException {
+        synchronized (appendLock) {
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                return false;
+            }
+            appendAcknowledgement(id);
+
+            entries.remove(id);
+            entry.segment.release(entry);
+            deleteAcknowledgedSegments();
+            return true;
+        }
+    }
+
+    /**
+     * Must be called holding the append lock
+     */
+    private void appendAcknowledgement(long id) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + ACKNOWLEDGE_SIZE);
+        record.putInt(ACKNOWLEDGE_SIZE);
+        record.putInt(0);
+        record.put(ACKNOWLEDGE);
+        record.putLong(id);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, ACKNOWLEDGE_SIZE);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        write(reserve(record.limit()), new ByteBuffer[] { record }, null);
+        appended++;
+    }
+
+    /**
+     * Read the given mail back from its segment. The caller is responsible for closing the returned
+     * {@link StoredMail}.
+     *
+     * @param id
+     * @return the mail, or <code>null</code> if it was acknowledged
+     * @throws IOException
+     */
+    public StoredMail read(long id) throws IOException {
+        deleteLock.readLock().lock();
+        try {
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer metadata = ByteBuffer.allocate(entry.metadataLength);
+            long position = entry.position + entry.metadataOffset;
+            while (metadata.hasRemaining()) {
+                if (entry.segment.channel.read(metadata, position + metadata.position()) < 0) {
+                    throw new EOFException("Truncated segment " + entry.segment.file);
+                }
+            }
+            SharedFileInputStream content = new SharedFileInputStream(entry.segment.file);
+            return new StoredMail(entry, metadata.array(), content);
+        } finally {
+            deleteLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete the segments which only hold acknowledged mails, copying the remaining mails of the oldest
+     * segment to the end of the log first if less than half of it is still in use.
+     * <p/>
+     * The oldest segment is only released once its copies are synced. If that fails, it is kept until a
+     * later compaction succeeds.
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        Segment head;
+        synchronized (appendLock) {
+            head = relocating;
+        }
+        if (head == null) {
+            synchronized (appendLock) {
+                deleteAcknowledgedSegments();
+                head = segments.firstEntry().getValue();
+                if (head == active || head.liveBytes * 2 > head.size) {
+                    return;
+                }
+                relocating = head;
+            }
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.segment == head) {
+                relocate(entry);
+            }
+        }
+        // The copies must be on disk before their segment gets deleted
+        sync(appended);
+        synchronized (appendLock) {
+            relocating = null;
+            deleteAcknowledgedSegments();
+        }
+    }
+
+    /**
+     * @return the count of segment files
+     */
+    public int getSegmentCount() {
+        synchronized (appendLock) {
+            return segments.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            synchronized (syncLock) {
+                active.channel.force(false);
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+            }
+        }
+    }
+
+    private void relocate(Entry entry) throws IOException {
+        synchronized (appendLock) {
+            // The mail may have been acknowledged meanwhile
+            if (entries.get(entry.id) != entry) {
+                return;
+            }
+            Segment segment = reserve(entry.length);
+            Entry copy = new Entry(entry.id, entry.name, entry.nextDelivery, segment, segment.size, entry.length, entry.metadataOffset, entry.metadataLength);
+            long position = segment.size;
+            try {
+                long copied = 0;
+                while (copied < entry.length) {
+                    long transferred = entry.segment.channel.transferTo(entry.position + copied, entry.length - copied, segment.channel);
+                    if (transferred <= 0) {
+                        throw new EOFException("Truncated segment " + entry.segment.file);
+                    }
+                    copied += transferred;
+                }
+            } catch (IOException e) {
+                rollback(segment, position);
+                throw e;
+            }
+            segment.size += entry.length;
+            appended++;
+            entries.put(entry.id, copy);
+            entry.segment.release(entry);
+            segment.retain(copy);
+        }
+    }
+
+    /**
+     * Return the segment to append a record of the given size to, starting a new one if needed.
+     * Must be called holding the append lock.
+     */
+    private Segment reserve(int recordSize) throws IOException {
+        Segment current = active;
+        if (current.size == 0 || current.size + recordSize <= maxSegmentSize) {
+            return current;
+        }
+        return roll();
+    }
+
+    /**
+     * Sync the active segment and start a new one. Must be called holding the append lock.
+     */
+    private Segment roll() throws IOException {
+        Segment current = active;
+        current.channel.force(false);
+        synchronized (syncLock) {
+            synced = appended;
+        }
+        Segment next = new Segment(current.sequence + 1, segmentFile(current.sequence + 1));
+        segments.put(next.sequence, next);
+        active = next;
+        return next;
+    }
+
+    private void write(Segment segment, ByteBuffer[] buffers, Spool content) throws IOException {
+        long position = segment.size;
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        try {
+            long written = 0;
+            while (written < length) {
+                written += segment.channel.write(buffers);
+            }
+            if (content != null) {
+                content.transferTo(segment.channel);
+                length += content.length;
+            }
+        } catch (IOException e) {
+            rollback(segment, position);
+            throw e;
+        }
+        segment.size += length;
+    }
+
+    /**
+     * Do not leave a partial record in front of the next ones
+     */
+    private void rollback(Segment segment, long position) throws IOException {
+        segment.channel.truncate(position);
+        segment.channel.position(position);
+    }
+
+    private void sync(long ticket) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= ticket) {
+                return;
+            }
+            // Every record up to the target is either in the active segment or in a synced one
+            long target = appended;
+            active.channel.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * Must be called holding the append lock
+     */
+    private void deleteAcknowledgedSegments() throws IOException {
+        while (true) {
+            Segment head = segments.firstEntry().getValue();
+            if (head == active || head == relocating || head.liveCount > 0) {
+                return;
+            }
+            deleteLock.writeLock().lock();
+            try {
+                synchronized (syncLock) {
+                    segments.remove(head.sequence);
+                    head.close();
+                }
+            } finally {
+                deleteLock.writeLock().unlock();
+            }
+            if (!head.file.delete()) {
+                log.warn("Unable to delete segment " + head.file);
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        FileUtils.forceMkdir(dir);
+        File[] spools = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SPOOL_PREFIX) && name.endsWith(SPOOL_EXTENSION);
+            }
+        });
+        for (File spool : spools) {
+            FileUtils.deleteQuietly(spool);
+        }
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        long[] sequences = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            sequences[i] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+        }
+        Arrays.sort(sequences);
+
+        boolean appendable = true;
+        List<Long> invalidContents = new ArrayList<Long>();
+        for (int i = 0; i < sequences.length; i++) {
+            Segment segment = new Segment(sequences[i], segmentFile(sequences[i]));
+            segments.put(segment.sequence, segment);
+            appendable = replay(segment, i == sequences.length - 1, invalidContents);
+        }
+        if (segments.isEmpty()) {
+            Segment segment = new Segment(1, segmentFile(1));
+            segments.put(segment.sequence, segment);
+        }
+        active = segments.lastEntry().getValue();
+        if (appendable) {
+            active.channel.position(active.size);
+        } else {
+            // Keep the unreadable data of the last segment and append to a new one
+            roll();
+        }
+        synchronized (appendLock) {
+            for (long id : invalidContents) {
+                appendAcknowledgement(id);
+            }
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    /**
+     * Replay a segment, verifying the checksums of the record headers and metadata. The checksums of the
+     * mail contents are only verified for the last segment, the others having been synced before the next
+     * one was started.
+     * <p/>
+     * An invalid record which runs to the end of the last segment is the torn write of a crash and gets
+     * truncated. Other invalid records are skipped and reported, and the last segment is then kept as is.
+     * The mails whose content is invalid are returned, to be acknowledged so that they are not replayed
+     * anymore once their segment is not the last one.
+     *
+     * @return <code>true</code> if new records can be appended to the segment
+     */
+    private boolean replay(Segment segment, boolean last, List<Long> invalidContents) throws IOException {
+        long length = segment.raf.length();
+        long position = 0;
+        boolean corrupted = false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), REPLAY_BUFFER_SIZE));
+        try {
+            while (position + RECORD_HEADER_SIZE <= length) {
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                long end = position + RECORD_HEADER_SIZE + payloadLength;
+                if (payloadLength < ACKNOWLEDGE_SIZE || end > length) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                Record record = readRecord(segment, position, payloadLength, new DataInputStream(new CheckedInputStream(in, crc)));
+                boolean valid;
+                boolean validContent = true;
+                if (record.type == ENQUEUE && record.entry != null) {
+                    skipFully(new CheckedInputStream(in, crc), record.entry.metadataLength);
+                    valid = (int) crc.getValue() == checksum;
+                    long contentLength = payloadLength - record.headerLength - record.entry.metadataLength;
+                    if (valid && last) {
+                        CRC32 contentCrc = new CRC32();
+                        skipFully(new CheckedInputStream(in, contentCrc), contentLength);
+                        validContent = (int) contentCrc.getValue() == record.contentChecksum;
+                    } else {
+                        skipFully(in, contentLength);
+                    }
+                } else {
+                    skipFully(in, payloadLength - record.headerLength);
+                    valid = (int) crc.getValue() == checksum && record.type == ACKNOWLEDGE && record.headerLength == payloadLength;
+                }
+
+                if (valid && validContent) {
+                    apply(record);
+                } else if (last && end == length) {
+                    break;
+                } else {
+                    log.error("Skipping the invalid record of " + segment.file + " at offset " + position);
+                    corrupted = true;
+                    if (valid) {
+                        invalidContents.add(record.id);
+                        if (record.id >= nextId.get()) {
+                            nextId.set(record.id + 1);
+                        }
+                    }
+                }
+                position = end;
+            }
+        } catch (IOException e) {
+            corrupted = true;
+            log.error("Unable to replay " + segment.file + " from offset " + position, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        segment.size = length;
+        if (position < length) {
+            if (last && !corrupted && isTornTail(segment, position, length)) {
+                log.warn("Truncating the incomplete record at the end of " + segment.file);
+                segment.channel.truncate(position);
+                segment.size = position;
+            } else {
+                log.error("Keeping the unreadable end of " + segment.file + " from offset " + position);
+                corrupted = true;
+            }
+        }
+        return !corrupted;
+    }
+
+    /**
+     * An invalid record runs to the end of the segment if its length points beyond it, or if it is only
+     * followed by zeros
+     */
+    private boolean isTornTail(Segment segment, long position, long length) throws IOException {
+        if (position + RECORD_HEADER_SIZE > length) {
+            return true;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            segment.channel.read(buffer, position + buffer.position());
+        }
+        int payloadLength = buffer.getInt(0);
+        if (payloadLength >= ACKNOWLEDGE_SIZE && position + RECORD_HEADER_SIZE + payloadLength >= length) {
+            return true;
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(segment.file), REPLAY_BUFFER_SIZE);
+        try {
+            skipFully(in, position);
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Read the header of a record, up to its metadata. The entry of an enqueue record is <code>null</code>
+     * if its header is invalid.
+     */
+    private Record readRecord(Segment segment, long position, int payloadLength, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long id = in.readLong();
+        if (type != ENQUEUE) {
+            return new Record(type, id, null, ACKNOWLEDGE_SIZE, 0);
+        }
+        if (payloadLength < ENQUEUE_HEADER_SIZE) {
+            return new Record(type, id, null, ACKNOWLEDGE_SIZE, 0);
+        }
+        long nextDelivery = in.readLong();
+        int nameLength = in.readUnsignedShort();
+        int headerLength = ENQUEUE_HEADER_SIZE + nameLength;
+        if (headerLength > payloadLength) {
+            // type, id, next delivery and name length
+            return new Record(type, id, null, 19, 0);
+        }
+        byte[] nameBytes = new byte[nameLength];
+        in.readFully(nameBytes);
+        int metadataLength = in.readInt();
+        int contentChecksum = in.readInt();
+        if (metadataLength < 0 || headerLength + (long) metadataLength > payloadLength) {
+            return new Record(type, id, null, headerLength, 0);
+        }
+        Entry entry = new Entry(id, new String(nameBytes, CHARSET), nextDelivery, segment, position, RECORD_HEADER_SIZE + payloadLength,
+                RECORD_HEADER_SIZE + headerLength, metadataLength);
+        return new Record(type, id, entry, headerLength, contentChecksum);
+    }
+
+    private void apply(Record record) {
+        if (record.id >= nextId.get()) {
+            nextId.set(record.id + 1);
+        }
+        if (record.type == ACKNOWLEDGE) {
+            Entry entry = entries.remove(record.id);
+            if (entry != null) {
+                entry.segment.release(entry);
+            }
+        } else if (record.type == ENQUEUE) {
+            // A mail copied by a compaction is found twice if the compacted segment could not be deleted
+            Entry previous = entries.put(record.id, record.entry);
+            if (previous != null) {
+                previous.segment.release(previous);
+            }
+            record.entry.segment.retain(record.entry);
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] buffer = null;
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // Some streams only skip by reading
+                if (buffer == null) {
+                    buffer = new byte[4096];
+                }
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                skipped = read;
+            }
+            count -= skipped;
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_EXTENSION));
+    }
+
+    private static final class Record {
+        private final byte type;
+        private final long id;
+        private final Entry entry;
+        private final int headerLength;
+        private final int contentChecksum;
+
+        private Record(byte type, long id, Entry entry, int headerLength, int contentChecksum) {
+            this.type = type;
+            this.id = id;
+            this.entry = entry;
+            this.headerLength = headerLength;
+            this.contentChecksum = contentChecksum;
+        }
+    }
+
+    /**
+     * Location of a mail which was not acknowledged yet
+     */
+    public static final class Entry {
+        private final long id;
+        private final String name;
+        private final long nextDelivery;
+        private final Segment segment;
+        private final long position;
+        private final int length;
+        private final int metadataOffset;
+        private final int metadataLength;
+
+        private Entry(long id, String name, long nextDelivery, Segment segment, long position, int length, int metadataOffset, int metadataLength) {
+            this.id = id;
+            this.name = name;
+            this.nextDelivery = nextDelivery;
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.metadataOffset = metadataOffset;
+            this.metadataLength = metadataLength;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getNextDelivery() {
+            return nextDelivery;
+        }
+    }
+
+    /**
+     * Content of a mail to append. It is kept in memory up to 64KB, and in a temporary file of the log
+     * directory above. Its checksum is computed while it is written.
+     */
+    public static final class Spool extends OutputStream {
+        private final File dir;
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[4096];
+        private long length;
+        private File file;
+        private OutputStream out;
+
+        private Spool(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null && length + len > SPOOL_THRESHOLD) {
+                file = File.createTempFile(SPOOL_PREFIX, SPOOL_EXTENSION, dir);
+                out = new BufferedOutputStream(new FileOutputStream(file));
+                out.write(buffer, 0, (int) length);
+                buffer = null;
+            }
+            if (out != null) {
+                out.write(b, off, len);
+            } else {
+                if (length + len > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.max(length + len, Math.min(buffer.length * 2L, SPOOL_THRESHOLD)));
+                }
+                System.arraycopy(b, off, buffer, (int) length, len);
+            }
+            crc.update(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        /**
+         * Release the memory or the temporary file of the spool
+         */
+        public void discard() {
+            IOUtils.closeQuietly(out);
+            buffer = null;
+            if (file != null) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+
+        private void transferTo(FileChannel channel) throws IOException {
+            if (file == null) {
+                ByteBuffer content = ByteBuffer.wrap(buffer, 0, (int) length);
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                return;
+            }
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel source = in.getChannel();
+                long transferred = 0;
+                while (transferred < length) {
+                    long count = source.transferTo(transferred, length - transferred, channel);
+                    if (count <= 0) {
+                        throw new EOFException("Truncated spool " + file);
+                    }
+                    transferred += count;
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * A mail read back from its segment. Its content stays readable until it gets closed, even if its
+     * segment gets deleted meanwhile.
+     */
+    public static final class StoredMail implements Closeable {
+        private final byte[] metadata;
+        private final SharedFileInputStream content;
+        private final long messageStart;
+        private final long messageEnd;
+        private final String sourceId;
+
+        private StoredMail(Entry entry, byte[] metadata, SharedFileInputStream content) {
+            this.metadata = metadata;
+            this.content = content;
+            this.messageStart = entry.position + entry.metadataOffset + entry.metadataLength;
+            this.messageEnd = entry.position + entry.length;
+            this.sourceId = entry.segment.file.getAbsolutePath() + "#" + entry.id;
+        }
+
+        public byte[] getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return a new stream over the content of the mail
+         */
+        public InputStream newMessageStream() {
+            return content.newStream(messageStart, messageEnd);
+        }
+
+        public long getMessageSize() {
+            return messageEnd - messageStart;
+        }
+
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        @Override
+        public void close() {
+            try {
+                content.close();
+            } catch (IOException e) {
+                // ignore on close
+            }
+        }
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final File file;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        // Guarded by the append lock, but while replaying
+        private long size;
+        private int liveCount;
+        private long liveBytes;
+
+        private Segment(long sequence, File file) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+        }
+
+        private void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore on close
+            }
+        }
+
+        private void retain(Entry entry) {
+            liveCount++;
+            liveBytes += entry.length;
+        }
+
+        private void release(Entry entry) {
+            liveCount--;
+            liveBytes -= entry.length;
+        }
+    }
+
+}
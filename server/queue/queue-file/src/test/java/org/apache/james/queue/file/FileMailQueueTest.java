@@ -0,0 +1,162 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.api.ManageableMailQueue.MailQueueIterator;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FileMailQueueTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileMailQueueTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File parentDir;
+    private FileMailQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        parentDir = folder.getRoot();
+        queue = new FileMailQueue(parentDir, "test", true, LOGGER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.dispose();
+    }
+
+    @Test
+    public void deQueueShouldReturnTheEnqueuedMail() throws Exception {
+        queue.enQueue(createMail("mail1"));
+
+        MailQueueItem item = queue.deQueue();
+        Mail mail = item.getMail();
+        assertEquals("mail1", mail.getName());
+        assertEquals("value", mail.getAttribute("name"));
+        assertEquals("test", mail.getMessage().getSubject());
+        assertEquals(Arrays.asList(new MailAddress("rcpt@localhost")), mail.getRecipients());
+        item.done(true);
+
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void mailsShouldSurviveARestartUntilDelivered() throws Exception {
+        queue.enQueue(createMail("mail1"));
+        queue.enQueue(createMail("mail2"));
+        queue.deQueue().done(true);
+        queue.deQueue().done(false);
+        queue.dispose();
+
+        queue = new FileMailQueue(parentDir, "test", true, LOGGER);
+
+        assertEquals(1, queue.getSize());
+        MailQueueItem item = queue.deQueue();
+        assertEquals("mail2", item.getMail().getName());
+        assertEquals("test", item.getMail().getMessage().getSubject());
+        item.done(true);
+    }
+
+    @Test
+    public void delayedMailsShouldKeepTheirDelayAcrossARestart() throws Exception {
+        long before = System.currentTimeMillis();
+        queue.enQueue(createMail("mail1"), 1, TimeUnit.HOURS);
+        queue.dispose();
+
+        queue = new FileMailQueue(parentDir, "test", true, LOGGER);
+
+        MailQueueIterator browsed = queue.browse();
+        assertTrue(browsed.hasNext());
+        assertTrue(browsed.next().getNextDelivery() >= before + TimeUnit.HOURS.toMillis(1));
+        assertFalse(browsed.hasNext());
+        assertEquals(1, queue.flush());
+        assertEquals(0, queue.flush());
+        assertEquals("mail1", queue.deQueue().getMail().getName());
+    }
+
+    @Test
+    public void removeShouldRemoveTheMailsOfTheGivenName() throws Exception {
+        queue.enQueue(createMail("mail1"));
+        queue.enQueue(createMail("mail2"));
+
+        assertEquals(1, queue.remove(ManageableMailQueue.Type.Name, "mail1"));
+
+        assertEquals(1, queue.getSize());
+        assertEquals("mail2", queue.deQueue().getMail().getName());
+    }
+
+    @Test
+    public void mailsStoredByFormerVersionsShouldBeImported() throws Exception {
+        queue.dispose();
+        File legacyDir = new File(new File(parentDir, "test"), "3");
+        legacyDir.mkdirs();
+        Mail mail = createMail("legacy");
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(legacyDir, "legacy-1.obj")));
+        out.writeObject(mail);
+        out.close();
+        FileOutputStream msg = new FileOutputStream(new File(legacyDir, "legacy-1.msg"));
+        mail.getMessage().writeTo(msg);
+        msg.close();
+
+        queue = new FileMailQueue(parentDir, "test", true, LOGGER);
+
+        assertFalse(legacyDir.exists());
+        MailQueueItem item = queue.deQueue();
+        assertEquals("legacy", item.getMail().getName());
+        assertEquals("test", item.getMail().getMessage().getSubject());
+    }
+
+    private Mail createMail(String name) throws Exception {
+        MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setSubject("test");
+        message.setText("body");
+        message.saveChanges();
+        MailImpl mail = new MailImpl(name, new MailAddress("sender@localhost"), Arrays.asList(new MailAddress("rcpt@localhost")), message);
+        mail.setAttribute("name", "value");
+        return mail;
+    }
+
+}
@@ -0,0 +1,219 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.queue.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SegmentLogTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentLogTest.class);
+    private static final byte[] METADATA = "metadata".getBytes();
+    private static final byte[] MESSAGE = "Subject: test\r\n\r\nbody".getBytes();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private SegmentLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("queue");
+        log = new SegmentLog(dir, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, true, LOGGER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+    }
+
+    @Test
+    public void readShouldReturnTheAppendedMail() throws Exception {
+        SegmentLog.Entry entry = log.append("mail1", 0, METADATA, spool(MESSAGE));
+
+        SegmentLog.StoredMail stored = log.read(entry.getId());
+        try {
+            assertArrayEquals(METADATA, stored.getMetadata());
+            assertEquals(MESSAGE.length, stored.getMessageSize());
+            assertArrayEquals(MESSAGE, IOUtils.toByteArray(stored.newMessageStream()));
+        } finally {
+            stored.close();
+        }
+    }
+
+    @Test
+    public void bigContentsShouldBeSpooledToATemporaryFile() throws Exception {
+        byte[] message = new byte[200 * 1024];
+        Arrays.fill(message, (byte) 'a');
+        SegmentLog.Spool spool = spool(message);
+        assertEquals(2, dir.list().length);
+
+        SegmentLog.Entry entry = log.append("mail1", 0, METADATA, spool);
+        spool.discard();
+
+        assertEquals(1, dir.list().length);
+        SegmentLog.StoredMail stored = log.read(entry.getId());
+        try {
+            assertArrayEquals(message, IOUtils.toByteArray(stored.newMessageStream()));
+        } finally {
+            stored.close();
+        }
+    }
+
+    @Test
+    public void acknowledgedMailsShouldNotBeReplayed() throws Exception {
+        SegmentLog.Entry first = log.append("mail1", 0, METADATA, spool(MESSAGE));
+        SegmentLog.Entry second = log.append("mail2", 42, METADATA, spool(MESSAGE));
+        assertTrue(log.acknowledge(first.getId()));
+        assertFalse(log.acknowledge(first.getId()));
+        log.close();
+
+        log = new SegmentLog(dir, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, true, LOGGER);
+
+        List<SegmentLog.Entry> entries = log.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(second.getId(), entries.get(0).getId());
+        assertEquals("mail2", entries.get(0).getName());
+        assertEquals(42, entries.get(0).getNextDelivery());
+        assertNull(log.read(first.getId()));
+    }
+
+    @Test
+    public void replayShouldTruncateATornRecord() throws Exception {
+        log.append("mail1", 0, METADATA, spool(MESSAGE));
+        log.close();
+        File segment = dir.listFiles()[0];
+        long length = segment.length();
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+        out.close();
+
+        log = new SegmentLog(dir, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, true, LOGGER);
+
+        assertEquals(1, log.getEntries().size());
+        assertEquals(length, segment.length());
+        SegmentLog.Entry entry = log.append("mail2", 0, METADATA, spool(MESSAGE));
+        log.close();
+        log = new SegmentLog(dir, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, true, LOGGER);
+        assertEquals(entry.getId(), log.getEntries().get(1).getId());
+    }
+
+    @Test
+    public void replayShouldNotTruncateACorruptedRecordFollowedByOthers() throws Exception {
+        SegmentLog.Entry first = log.append("mail1", 0, METADATA, spool(MESSAGE));
+        SegmentLog.Entry second = log.append("mail2", 0, METADATA, spool(MESSAGE));
+        log.close();
+        File segment = dir.listFiles()[0];
+        long length = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(length / 2 - 1);
+        file.write('x');
+        file.close();
+
+        log = new SegmentLog(dir, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, true, LOGGER);
+
+        assertEquals(length, segment.length());
+        assertEquals(1, log.getEntries().size());
+        assertEquals(second.getId(), log.getEntries().get(0).getId());
+        assertNull(log.read(first.getId()));
+        SegmentLog.Entry third = log.append("mail3", 0, METADATA, spool(MESSAGE));
+        assertEquals(length, segment.length());
+        assertEquals(2, log.getSegmentCount());
+        log.close();
+
+        log = new SegmentLog(dir, SegmentLog.DEFAULT_MAX_SEGMENT_SIZE, true, LOGGER);
+        assertEquals(third.getId(), log.getEntries().get(1).getId());
+    }
+
+    @Test
+    public void segmentsShouldBeDeletedOnceAcknowledged() throws Exception {
+        log.close();
+        log = newLogWithOneRecordPerSegment();
+        SegmentLog.Entry first = log.append("mail1", 0, METADATA, spool(MESSAGE));
+        SegmentLog.Entry second = log.append("mail2", 0, METADATA, spool(MESSAGE));
+        log.append("mail3", 0, METADATA, spool(MESSAGE));
+        assertEquals(3, log.getSegmentCount());
+
+        log.acknowledge(second.getId());
+        assertEquals(4, log.getSegmentCount());
+        log.acknowledge(first.getId());
+        assertEquals(3, log.getSegmentCount());
+    }
+
+    @Test
+    public void compactShouldMoveTheRemainingMailsOfTheOldestSegment() throws Exception {
+        log.close();
+        log = newLogWithTwoRecordsPerSegment();
+        SegmentLog.Entry delayed = log.append("late", 0, METADATA, spool(MESSAGE));
+        SegmentLog.Entry first = log.append("mail1", 0, METADATA, spool(MESSAGE));
+        SegmentLog.Entry second = log.append("mail2", 0, METADATA, spool(MESSAGE));
+        log.acknowledge(first.getId());
+        log.acknowledge(second.getId());
+
+        log.compact();
+        log.close();
+
+        log = newLogWithTwoRecordsPerSegment();
+        assertEquals(1, log.getEntries().size());
+        assertEquals(delayed.getId(), log.getEntries().get(0).getId());
+        assertEquals(1, dir.list().length);
+        SegmentLog.StoredMail stored = log.read(delayed.getId());
+        try {
+            assertArrayEquals(MESSAGE, IOUtils.toByteArray(stored.newMessageStream()));
+        } finally {
+            stored.close();
+        }
+    }
+
+    private SegmentLog newLogWithOneRecordPerSegment() throws IOException {
+        return new SegmentLog(dir, 1, true, LOGGER);
+    }
+
+    private SegmentLog newLogWithTwoRecordsPerSegment() throws IOException {
+        return new SegmentLog(dir, 2 * (8 + 27 + 5 + METADATA.length + MESSAGE.length) + 8 + 9, true, LOGGER);
+    }
+
+    private SegmentLog.Spool spool(byte[] content) throws IOException {
+        SegmentLog.Spool spool = log.newSpool();
+        spool.write(content);
+        return spool;
+    }
+
+}